@@ -2,23 +2,37 @@ package org.spectingular.spock.api;
 
 import org.slf4j.Logger;
 import org.spectingular.spock.domain.Build;
+import org.spectingular.spock.domain.BuildSnapshot;
 import org.spectingular.spock.domain.State;
 import org.spectingular.spock.dto.BuildDto;
 import org.spectingular.spock.dto.Error;
+import org.spectingular.spock.dto.RunState;
+import org.spectingular.spock.dto.TreeView;
 import org.spectingular.spock.services.BuildService;
 import org.spectingular.spock.services.ReportService;
+import org.spectingular.spock.services.ResponseCache;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
 import javax.validation.Valid;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.UriInfo;
+import java.util.Date;
+import java.util.List;
 import java.util.Optional;
 
 import static java.lang.String.format;
+import static javax.ws.rs.core.HttpHeaders.ACCEPT_ENCODING;
+import static javax.ws.rs.core.HttpHeaders.IF_NONE_MATCH;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 import static javax.ws.rs.core.Response.Status.CONFLICT;
+import static javax.ws.rs.core.Response.notModified;
 import static javax.ws.rs.core.Response.ok;
 import static javax.ws.rs.core.Response.status;
 import static org.slf4j.LoggerFactory.getLogger;
@@ -31,37 +45,128 @@ import static org.slf4j.LoggerFactory.getLogger;
 @Path("/api")
 public class BuildResource {
     private static final Logger LOG = getLogger(BuildResource.class);
+    private static final int MAX_LIMIT = 1000;
+    private static final String TREE = "tree";
     @Resource
     private BuildService buildService;
     @Resource
     private ReportService reportService;
+    @Resource
+    private ResponseCache responseCache;
 
     /**
-     * Gets all the {@link org.spectingular.spock.domain.Build}s.
+     * Gets a page of {@link org.spectingular.spock.domain.Build}s, newest first.
+     * When the page is full, a <code>Link</code> header with relation <code>next</code> points to the next page.
+     * @param before  The build number the builds have to be lower than, absent for the first page.
+     * @param limit   The maximum number of builds.
+     * @param state   The {@link org.spectingular.spock.dto.RunState} the builds have to be in, absent for any state.
+     * @param from    The time in milliseconds since the epoch the builds have to be started at or after, absent for no lower bound.
+     * @param to      The time in milliseconds since the epoch the builds have to be started before, absent for no upper bound.
+     * @param uriInfo The {@link javax.ws.rs.core.UriInfo}.
      * @return response The response.
      */
     @GET
     @Path("/builds")
-    public Response builds() {
-        LOG.debug("Get all builds");
-        return ok(reportService.findBuilds()).build();
+    public Response builds(final @QueryParam("before") Integer before, final @QueryParam("limit") @DefaultValue("100") int limit,
+                           final @QueryParam("state") RunState state, final @QueryParam("from") Long from, final @QueryParam("to") Long to,
+                           final @Context UriInfo uriInfo) {
+        Response response;
+        LOG.debug(format("Get [%d] builds before build with number [%s]", limit, before));
+        if (limit < 1 || limit > MAX_LIMIT) {
+            response = status(BAD_REQUEST).entity(new Error("Limit [%d] must be between 1 and %d", limit, MAX_LIMIT)).build();
+        } else {
+            final Date fromDate = from == null ? null : new Date(from);
+            final Date toDate = to == null ? null : new Date(to);
+            // the link is a header, so the last build number is looked up before the builds are streamed
+            final Optional<Integer> last = reportService.findLastBuildNumber(before, limit, state, fromDate, toDate);
+            final ResponseBuilder builder = ok(new JsonArrayOutput(reportService.streamBuilds(before, limit, state, fromDate, toDate)));
+            if (last.isPresent()) {
+                builder.link(uriInfo.getRequestUriBuilder().replaceQueryParam("before", last.get()).build(), "next");
+            }
+            response = builder.build();
+        }
+        return response;
     }
 
     /**
      * Gets the {@link org.spectingular.spock.domain.Build} matching the given build number.
-     * @param buildNumber The build number.
+     * The version of the build is sent as <code>ETag</code>. When it matches the <code>If-None-Match</code> header,
+     * <code>304 Not Modified</code> is answered without assembling the build tree.
+     * The full tree of a finished build is served from the {@link org.spectingular.spock.services.ResponseCache}, without reading the version.
+     * @param buildNumber    The build number.
+     * @param depth          The name of the deepest {@link org.spectingular.spock.dto.Depth} to include, absent for all levels.
+     * @param fields         The names of the fields to include, absent for all fields.
+     * @param ifNoneMatch    The entity tags of the versions the client already has.
+     * @param acceptEncoding The <code>Accept-Encoding</code> header.
      * @return response The response.
      */
     @GET
     @Path("/builds/{buildNumber}")
-    public Response get(final @PathParam("buildNumber") int buildNumber) {
+    public Response get(final @PathParam("buildNumber") int buildNumber, final @QueryParam("depth") String depth, final @QueryParam("fields") List<String> fields,
+                        final @HeaderParam(IF_NONE_MATCH) String ifNoneMatch, final @HeaderParam(ACCEPT_ENCODING) String acceptEncoding) {
         Response response;
         LOG.debug(format("Get build with number [%d]", buildNumber));
-        final Optional<BuildDto> ob = reportService.findBuild(buildNumber);
-        if (ob.isPresent()) {
-            response = ok(ob.get()).build();
+        final TreeView view;
+        try {
+            view = TreeView.parse(depth, fields);
+        } catch (IllegalArgumentException e) {
+            return status(BAD_REQUEST).entity(new Error(e.getMessage())).build();
+        }
+        final Optional<ResponseCache.Entry> cached = view == TreeView.FULL ? responseCache.get(buildNumber, TREE) : Optional.<ResponseCache.Entry>empty();
+        if (cached.isPresent()) {
+            final EntityTag tag = new EntityTag(cached.get().getTag());
+            return CachedResponses.matches(ifNoneMatch, tag) ? notModified(tag).build() : CachedResponses.ok(cached.get(), acceptEncoding).build();
+        }
+        // the generation is read before the tree, so a tree read before a concurrent write is not cached after the write has evicted the build
+        final long generation = responseCache.generation(buildNumber);
+        // the version is read before the tree, so a change in between is picked up by the next request
+        final Optional<Long> version = reportService.findBuildVersion(buildNumber);
+        final EntityTag tag = version.map(v -> new EntityTag(Long.toString(v))).orElse(null);
+        if (tag != null && CachedResponses.matches(ifNoneMatch, tag)) {
+            response = notModified(tag).build();
+        } else if (tag != null && view == TreeView.FULL) {
+            // the full tree is served as is from the snapshot of the version, which is only stored for finished builds
+            final Optional<BuildSnapshot> snapshot = reportService.findBuildSnapshot(buildNumber, version.get());
+            if (snapshot.isPresent() && snapshot.get().isFinished() && responseCache.fits(snapshot.get().getContent().length)) {
+                response = CachedResponses.ok(responseCache.put(buildNumber, TREE, generation, tag.getValue(), snapshot.get().getContent()), acceptEncoding).build();
+            } else if (snapshot.isPresent()) {
+                response = ok(snapshot.get().getContent(), MediaType.APPLICATION_JSON_TYPE).tag(tag).build();
+            } else {
+                response = status(CONFLICT).entity(new Error("Build with number [%d] cannot be found", buildNumber)).build();
+            }
         } else {
-            response = status(CONFLICT).entity(new Error("Build with number [%d] cannot be found", buildNumber)).build();
+            final Optional<BuildDto> ob = tag == null ? Optional.<BuildDto>empty() : reportService.findBuild(buildNumber, version.get(), view);
+            if (ob.isPresent()) {
+                response = ok(view.render(ob.get())).tag(tag).build();
+            } else {
+                response = status(CONFLICT).entity(new Error("Build with number [%d] cannot be found", buildNumber)).build();
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Gets the changes of the {@link org.spectingular.spock.domain.Build} matching the given build number after the given version.
+     * Clients that keep a build tree pass the version of the previous answer, so only what changed since is transferred.
+     * At most the given number of versions is answered at once; clients page by asking again with the version of the answer until no changes are left.
+     * @param buildNumber The build number.
+     * @param since       The version, 0 for all changes.
+     * @param limit       The maximum number of versions.
+     * @return response The response, containing the {@link org.spectingular.spock.dto.ChangesDto}.
+     */
+    @GET
+    @Path("/builds/{buildNumber}/changes")
+    public Response changes(final @PathParam("buildNumber") int buildNumber, final @QueryParam("since") @DefaultValue("0") long since,
+                            final @QueryParam("limit") @DefaultValue("100") int limit) {
+        Response response;
+        if (limit < 1 || limit > MAX_LIMIT) {
+            return status(BAD_REQUEST).entity(new Error("Limit [%d] must be between 1 and %d", limit, MAX_LIMIT)).build();
+        }
+        try {
+            LOG.debug(format("Get the changes of build with number [%d] since version [%d]", buildNumber, since));
+            response = ok(reportService.findChanges(buildNumber, since, limit)).build();
+        } catch (IllegalArgumentException e) {
+            response = status(CONFLICT).entity(new Error(e.getMessage())).build();
         }
         return response;
     }
@@ -99,11 +204,14 @@ public class BuildResource {
         Response response;
         try {
             LOG.debug(format("Update build with number [%d]", buildNumber));
-            buildService.update(buildNumber, state);
-            response = ok().build();
+            if (buildService.update(buildNumber, state)) {
+                response = ok().build();
+            } else {
+                response = status(CONFLICT).entity(new Error("Build with number [%d] has already been finished", buildNumber)).build();
+            }
         } catch (IllegalArgumentException e) {
             response = status(CONFLICT).entity(new Error(e.getMessage())).build();
         }
         return response;
     }
-}
\ No newline at end of file
+}
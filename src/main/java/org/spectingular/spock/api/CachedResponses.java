@@ -0,0 +1,68 @@
+package org.spectingular.spock.api;
+
+import org.spectingular.spock.services.ResponseCache;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+
+import static javax.ws.rs.core.HttpHeaders.ACCEPT_ENCODING;
+import static javax.ws.rs.core.HttpHeaders.CACHE_CONTROL;
+import static javax.ws.rs.core.HttpHeaders.CONTENT_ENCODING;
+import static javax.ws.rs.core.HttpHeaders.VARY;
+import static org.spectingular.spock.domain.Codec.GZIP;
+
+/**
+ * Builds the responses for the {@link org.spectingular.spock.services.ResponseCache.Entry}s of finished builds.
+ * Results can still be stored for a finished build, so clients and proxies may keep these responses but have to revalidate them
+ * on every use; a response with an entity tag is revalidated with a <code>304 Not Modified</code> straight from the cache.
+ */
+final class CachedResponses {
+    static final String REVALIDATE = "no-cache";
+
+    /** Constructor. */
+    private CachedResponses() {
+    }
+
+    /**
+     * Gets the response for the given {@link org.spectingular.spock.services.ResponseCache.Entry}.
+     * @param entry          The {@link org.spectingular.spock.services.ResponseCache.Entry}.
+     * @param acceptEncoding The <code>Accept-Encoding</code> header.
+     * @return builder The {@link javax.ws.rs.core.Response.ResponseBuilder}.
+     */
+    static ResponseBuilder ok(final ResponseCache.Entry entry, final String acceptEncoding) {
+        final boolean gzipped = entry.isGzippedFor(acceptEncoding);
+        final ResponseBuilder builder = Response.ok(entry.getContent(gzipped), MediaType.APPLICATION_JSON_TYPE).header(CACHE_CONTROL, REVALIDATE).header(VARY, ACCEPT_ENCODING);
+        if (entry.getTag() != null) {
+            builder.tag(new EntityTag(entry.getTag()));
+        }
+        return gzipped ? builder.header(CONTENT_ENCODING, GZIP.getContentEncoding()) : builder;
+    }
+
+    /**
+     * Indicator whether the given <code>If-None-Match</code> header matches the given entity tag.
+     * Weak and strong tags are compared by their value, as a conditional GET allows.
+     * @param ifNoneMatch The header value.
+     * @param tag         The {@link javax.ws.rs.core.EntityTag}.
+     * @return true if the header matches, else false.
+     */
+    static boolean matches(final String ifNoneMatch, final EntityTag tag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.equals("*")) {
+                return true;
+            }
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"") && value.substring(1, value.length() - 1).equals(tag.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,207 @@
+package org.spectingular.spock.api;
+
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+import org.glassfish.jersey.media.sse.SseFeature;
+import org.slf4j.Logger;
+import org.spectingular.spock.dto.BuildChange;
+import org.spectingular.spock.dto.Error;
+import org.spectingular.spock.dto.Event;
+import org.spectingular.spock.services.ChangeBus;
+import org.spectingular.spock.services.EventService;
+import org.spectingular.spock.services.ReportService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.validation.Valid;
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
+import static javax.ws.rs.core.Response.Status.CONFLICT;
+import static javax.ws.rs.core.Response.ok;
+import static javax.ws.rs.core.Response.status;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.spectingular.spock.dto.EventType.FINISH;
+
+/**
+ * Endpoint for reporting batches of events and for following the changes of builds as Server-Sent Events.
+ * Every <code>spock.changes.heartbeat</code> milliseconds a comment is sent to the open streams, so the streams of clients that have gone are closed.
+ */
+@Component
+@Produces(MediaType.APPLICATION_JSON)
+@Path("/api")
+public class EventResource {
+    private static final Logger LOG = getLogger(EventResource.class);
+    private static final OutboundEvent HEARTBEAT = new OutboundEvent.Builder().comment("heartbeat").build();
+    @Resource
+    private EventService eventService;
+    @Resource
+    private ReportService reportService;
+    @Resource
+    private ChangeBus changeBus;
+    @Value("${spock.changes.heartbeat:15000}")
+    private long heartbeat;
+
+    private final Set<Stream> streams = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService heartbeats;
+
+    /** Starts the thread that sends the heartbeats. */
+    @PostConstruct
+    public void start() {
+        heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "change-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeats.scheduleWithFixedDelay(this::heartbeat, heartbeat, heartbeat, MILLISECONDS);
+    }
+
+    /** Stops the thread that sends the heartbeats and closes the open streams. */
+    @PreDestroy
+    public void stop() {
+        heartbeats.shutdownNow();
+        streams.forEach(Stream::close);
+    }
+
+    /**
+     * Applies the given {@link org.spectingular.spock.dto.Event}s, in order, to the {@link org.spectingular.spock.domain.Build} matching the given build number.
+     * @param buildNumber The build number.
+     * @param events      The {@link org.spectingular.spock.dto.Event}s.
+     * @return response The response, containing an {@link org.spectingular.spock.dto.EventOutcome} per event.
+     */
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Path("/builds/{buildNumber}/events")
+    public Response apply(final @PathParam("buildNumber") int buildNumber, final @Valid List<Event> events) {
+        Response response;
+        try {
+            LOG.debug(format("Apply [%d] events for build with number [%d]", events.size(), buildNumber));
+            response = ok(eventService.apply(buildNumber, events)).build();
+        } catch (IllegalArgumentException e) {
+            response = status(CONFLICT).entity(new Error(e.getMessage())).build();
+        }
+        return response;
+    }
+
+    /**
+     * Streams the changes of all {@link org.spectingular.spock.domain.Build}s as Server-Sent Events, until the client disconnects.
+     * Each event is named after its {@link org.spectingular.spock.dto.EventType} and holds a {@link org.spectingular.spock.dto.BuildChange}.
+     * @return events The {@link org.glassfish.jersey.media.sse.EventOutput}.
+     */
+    @GET
+    @Path("/events")
+    @Produces(SseFeature.SERVER_SENT_EVENTS)
+    public EventOutput changes() {
+        LOG.debug("Stream the changes of all builds");
+        return subscribe(null).output;
+    }
+
+    /**
+     * Streams the changes of the {@link org.spectingular.spock.domain.Build} matching the given build number as Server-Sent Events,
+     * until the build has been finished or the client disconnects.
+     * @param buildNumber The build number.
+     * @return response The response, containing the {@link org.glassfish.jersey.media.sse.EventOutput}.
+     */
+    @GET
+    @Path("/builds/{buildNumber}/events")
+    @Produces(SseFeature.SERVER_SENT_EVENTS)
+    public Response changes(final @PathParam("buildNumber") int buildNumber) {
+        Response response;
+        LOG.debug(format("Stream the changes of build with number [%d]", buildNumber));
+        if (reportService.findBuildVersion(buildNumber).isPresent()) {
+            final Stream stream = subscribe(buildNumber);
+            // subscribed before the check, so a finish in between is either seen here or delivered to the stream
+            if (reportService.isBuildFinished(buildNumber)) {
+                stream.close();
+            }
+            response = ok(stream.output).build();
+        } else {
+            response = status(CONFLICT).type(APPLICATION_JSON_TYPE).entity(new Error("Build with number [%d] cannot be found", buildNumber)).build();
+        }
+        return response;
+    }
+
+    /**
+     * Subscribes a new stream to the changes of one or all builds.
+     * The stream of a single build ends after the build has been finished.
+     * @param buildNumber The build number, null for all builds.
+     * @return stream The {@link org.spectingular.spock.api.EventResource.Stream}.
+     */
+    private Stream subscribe(final Integer buildNumber) {
+        final Stream stream = new Stream(new EventOutput());
+        streams.add(stream);
+        stream.unsubscribe = changeBus.subscribe(buildNumber, change -> {
+            stream.send(new OutboundEvent.Builder()
+                    .name(change.getType().name().toLowerCase())
+                    .mediaType(APPLICATION_JSON_TYPE)
+                    .data(BuildChange.class, change)
+                    .build());
+            if (buildNumber != null && change.getType() == FINISH && change.getModule() == null && change.getPhase() == null && change.getTask() == null) {
+                stream.close();
+            }
+        });
+        if (!streams.contains(stream)) {
+            // closed before the subscription was known to the stream
+            stream.unsubscribe.run();
+        }
+        return stream;
+    }
+
+    /** Sends a comment to all open streams, so the streams of clients that have gone are closed even when no changes are made. */
+    void heartbeat() {
+        streams.forEach(stream -> stream.send(HEARTBEAT));
+    }
+
+    /** An open stream of changes. */
+    private final class Stream {
+        private final EventOutput output;
+        private volatile Runnable unsubscribe;
+
+        /**
+         * Constructor.
+         * @param output The {@link org.glassfish.jersey.media.sse.EventOutput}.
+         */
+        private Stream(final EventOutput output) {
+            this.output = output;
+        }
+
+        /**
+         * Sends the given event. When writing fails, the client has gone and the stream is closed.
+         * @param event The {@link org.glassfish.jersey.media.sse.OutboundEvent}.
+         */
+        private synchronized void send(final OutboundEvent event) {
+            try {
+                output.write(event);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /** Closes the stream and ends its subscription. */
+        private void close() {
+            if (streams.remove(this)) {
+                if (unsubscribe != null) {
+                    unsubscribe.run();
+                }
+                try {
+                    output.close();
+                } catch (IOException ignored) {
+                    // already gone
+                }
+            }
+        }
+    }
+}
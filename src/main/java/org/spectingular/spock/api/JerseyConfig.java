@@ -2,6 +2,7 @@ package org.spectingular.spock.api;
 
 import org.glassfish.jersey.filter.LoggingFilter;
 import org.glassfish.jersey.jackson.JacksonFeature;
+import org.glassfish.jersey.media.sse.SseFeature;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.glassfish.jersey.server.ServerProperties;
 import org.springframework.stereotype.Component;
@@ -20,5 +21,6 @@ public class JerseyConfig extends ResourceConfig {
         property(ServerProperties.RESPONSE_SET_STATUS_OVER_SEND_ERROR, true);
         register(LoggingFilter.class);
         register(JacksonFeature.class);
+        register(SseFeature.class);
     }
 }
@@ -0,0 +1,42 @@
+package org.spectingular.spock.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Streaming output writing the elements of a {@link java.util.stream.Stream} as a JSON array.
+ * Each element is serialized as soon as it is read, so a listing never has to be held in memory as a whole.
+ * The stream is closed when the array has been written, releasing the cursor it reads from.
+ */
+public class JsonArrayOutput implements StreamingOutput {
+    private static final ObjectMapper MAPPER = new ObjectMapper().disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    private final Stream<?> elements;
+
+    /**
+     * Constructor.
+     * @param elements The elements.
+     */
+    public JsonArrayOutput(final Stream<?> elements) {
+        this.elements = elements;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final OutputStream output) throws IOException {
+        try (Stream<?> stream = elements; JsonGenerator generator = MAPPER.getFactory().createGenerator(output)) {
+            generator.writeStartArray();
+            final Iterator<?> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                MAPPER.writeValue(generator, iterator.next());
+            }
+            generator.writeEndArray();
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.spectingular.spock.domain.Module;
 import org.spectingular.spock.domain.State;
 import org.spectingular.spock.dto.Error;
 import org.spectingular.spock.dto.ModuleDto;
+import org.spectingular.spock.dto.TreeView;
 import org.spectingular.spock.services.ModuleService;
 import org.spectingular.spock.services.ReportService;
 import org.springframework.dao.DuplicateKeyException;
@@ -15,9 +16,11 @@ import javax.validation.Valid;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.List;
 import java.util.Optional;
 
 import static java.lang.String.format;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 import static javax.ws.rs.core.Response.Status.CONFLICT;
 import static javax.ws.rs.core.Response.ok;
 import static javax.ws.rs.core.Response.status;
@@ -58,17 +61,26 @@ public class ModuleResource {
      * Gets the {@link org.spectingular.spock.domain.Module} matching the given name for the {@link org.spectingular.spock.domain.Build} matching the given build number.
      * @param buildNumber The build number.
      * @param moduleName  The module name.
+     * @param depth       The name of the deepest {@link org.spectingular.spock.dto.Depth} to include, absent for all levels.
+     * @param fields      The names of the fields to include, absent for all fields.
      * @return response The response.
      */
     @GET
     @Path("/builds/{buildNumber}/modules/{moduleName}")
-    public Response get(final @PathParam("buildNumber") int buildNumber, final @PathParam("moduleName") String moduleName) {
+    public Response get(final @PathParam("buildNumber") int buildNumber, final @PathParam("moduleName") String moduleName,
+                        final @QueryParam("depth") String depth, final @QueryParam("fields") List<String> fields) {
         Response response;
+        final TreeView view;
+        try {
+            view = TreeView.parse(depth, fields);
+        } catch (IllegalArgumentException e) {
+            return status(BAD_REQUEST).entity(new Error(e.getMessage())).build();
+        }
         try {
             LOG.debug(format("Get module with name [%s] for build with number [%d]", moduleName, buildNumber));
-            final Optional<ModuleDto> om = reportService.findModuleByBuildNumberAndName(buildNumber, moduleName);
+            final Optional<ModuleDto> om = reportService.findModuleByBuildNumberAndName(buildNumber, moduleName, view);
             if (om.isPresent()) {
-                response = ok(om.get()).build();
+                response = ok(view.render(om.get())).build();
             } else {
                 response = status(CONFLICT).entity(new Error("Module with name [%s] for build with number [%d] cannot be found", moduleName, buildNumber)).build();
             }
@@ -115,8 +127,11 @@ public class ModuleResource {
         Response response;
         try {
             LOG.debug(format("Update module with name [%s] for build with number [%d]", moduleName, buildNumber));
-            moduleService.update(buildNumber, moduleName, state);
-            response = ok().build();
+            if (moduleService.update(buildNumber, moduleName, state)) {
+                response = ok().build();
+            } else {
+                response = status(CONFLICT).entity(new Error("Module with name [%s] for build with number [%d] has already been finished", moduleName, buildNumber)).build();
+            }
         } catch (IllegalArgumentException e) {
             response = status(CONFLICT).entity(new Error(e.getMessage())).build();
         }
@@ -132,7 +147,7 @@ public class ModuleResource {
     @Path("/modules/{moduleName}")
     public Response builds(final @PathParam("moduleName") String moduleName) {
         LOG.debug(format("Get module with name [%s]", moduleName));
-        return ok(moduleService.findBuildsByModuleName(moduleName)).build();
+        return ok(new JsonArrayOutput(moduleService.findBuildsByModuleName(moduleName))).build();
     }
 
 }
\ No newline at end of file
@@ -5,6 +5,7 @@ import org.spectingular.spock.domain.Phase;
 import org.spectingular.spock.domain.State;
 import org.spectingular.spock.dto.Error;
 import org.spectingular.spock.dto.PhaseDto;
+import org.spectingular.spock.dto.TreeView;
 import org.spectingular.spock.services.PhaseService;
 import org.spectingular.spock.services.ReportService;
 import org.springframework.dao.DuplicateKeyException;
@@ -15,9 +16,11 @@ import javax.validation.Valid;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.List;
 import java.util.Optional;
 
 import static java.lang.String.format;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 import static javax.ws.rs.core.Response.Status.CONFLICT;
 import static javax.ws.rs.core.Response.ok;
 import static javax.ws.rs.core.Response.status;
@@ -58,17 +61,26 @@ public class PhaseResource {
      * Gets the {@link org.spectingular.spock.domain.Phase} matching the given name for the {@link org.spectingular.spock.domain.Build} matching the given build number.
      * @param buildNumber The build number.
      * @param phaseName   The phase name.
+     * @param depth       The name of the deepest {@link org.spectingular.spock.dto.Depth} to include, absent for all levels.
+     * @param fields      The names of the fields to include, absent for all fields.
      * @return response The response.
      */
     @GET
     @Path("/builds/{buildNumber}/phases/{phaseName}")
-    public Response get(final @PathParam("buildNumber") int buildNumber, final @PathParam("phaseName") String phaseName) {
+    public Response get(final @PathParam("buildNumber") int buildNumber, final @PathParam("phaseName") String phaseName,
+                        final @QueryParam("depth") String depth, final @QueryParam("fields") List<String> fields) {
         Response response;
+        final TreeView view;
+        try {
+            view = TreeView.parse(depth, fields);
+        } catch (IllegalArgumentException e) {
+            return status(BAD_REQUEST).entity(new Error(e.getMessage())).build();
+        }
         try {
             LOG.debug(format("Get phase with name [%s] for build with number [%d]", phaseName, buildNumber));
-            final Optional<PhaseDto> op = reportService.findPhaseByBuildNumberAndName(buildNumber, phaseName);
+            final Optional<PhaseDto> op = reportService.findPhaseByBuildNumberAndName(buildNumber, phaseName, view);
             if (op.isPresent()) {
-                response = ok(op.get()).build();
+                response = ok(view.render(op.get())).build();
             } else {
                 response = status(CONFLICT).entity(new Error("Phase with name [%s] for build with number [%d] cannot be found", phaseName, buildNumber)).build();
             }
@@ -102,17 +114,26 @@ public class PhaseResource {
      * @param buildNumber The build number.
      * @param moduleName  The module name.
      * @param phaseName   The phase name.
+     * @param depth       The name of the deepest {@link org.spectingular.spock.dto.Depth} to include, absent for all levels.
+     * @param fields      The names of the fields to include, absent for all fields.
      * @return response The response.
      */
     @GET
     @Path("/builds/{buildNumber}/modules/{moduleName}/phases/{phaseName}")
-    public Response get(final @PathParam("buildNumber") int buildNumber, final @PathParam("moduleName") String moduleName, final @PathParam("phaseName") String phaseName) {
+    public Response get(final @PathParam("buildNumber") int buildNumber, final @PathParam("moduleName") String moduleName, final @PathParam("phaseName") String phaseName,
+                        final @QueryParam("depth") String depth, final @QueryParam("fields") List<String> fields) {
         Response response;
+        final TreeView view;
+        try {
+            view = TreeView.parse(depth, fields);
+        } catch (IllegalArgumentException e) {
+            return status(BAD_REQUEST).entity(new Error(e.getMessage())).build();
+        }
         try {
             LOG.debug(format("Get phase with name [%s] for build with number [%d] and module with name [%s]", phaseName, buildNumber, moduleName));
-            final Optional<PhaseDto> op = reportService.findPhaseByBuildNumberAndModuleNameAndName(buildNumber, moduleName, phaseName);
+            final Optional<PhaseDto> op = reportService.findPhaseByBuildNumberAndModuleNameAndName(buildNumber, moduleName, phaseName, view);
             if (op.isPresent()) {
-                response = ok(op.get()).build();
+                response = ok(view.render(op.get())).build();
             } else {
                 response = status(CONFLICT).entity(new Error("Phase with name [%s] for module with name [%s] and build with number [%d] cannot be found", phaseName, moduleName, buildNumber)).build();
             }
@@ -161,8 +182,11 @@ public class PhaseResource {
         Response response;
         try {
             LOG.debug(format("Update phase with name [%s] for build with number [%d]", phaseName, buildNumber));
-            phaseService.update(buildNumber, phaseName, state);
-            response = ok().build();
+            if (phaseService.update(buildNumber, phaseName, state)) {
+                response = ok().build();
+            } else {
+                response = status(CONFLICT).entity(new Error("Phase with name [%s] for build with number [%d] has already been finished", phaseName, buildNumber)).build();
+            }
         } catch (IllegalArgumentException e) {
             response = status(CONFLICT).entity(new Error(e.getMessage())).build();
         }
@@ -210,8 +234,11 @@ public class PhaseResource {
         Response response;
         try {
             LOG.debug(format("Update phase with name [%s] for build with number [%d] and module with name [%s]", phaseName, buildNumber, moduleName));
-            phaseService.update(buildNumber, moduleName, phaseName, state);
-            response = ok().build();
+            if (phaseService.update(buildNumber, moduleName, phaseName, state)) {
+                response = ok().build();
+            } else {
+                response = status(CONFLICT).entity(new Error("Phase with name [%s] for module with name [%s] and build with number [%d] has already been finished", phaseName, moduleName, buildNumber)).build();
+            }
         } catch (IllegalArgumentException e) {
             response = status(CONFLICT).entity(new Error(e.getMessage())).build();
         }
@@ -1,28 +1,44 @@
 package org.spectingular.spock.api;
 
-import com.mongodb.DBObject;
-import com.mongodb.util.JSON;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import org.slf4j.Logger;
+import org.spectingular.spock.domain.Codec;
 import org.spectingular.spock.domain.Result;
 import org.spectingular.spock.dto.Error;
+import org.spectingular.spock.services.PayloadTooLargeException;
 import org.spectingular.spock.services.ReportService;
+import org.spectingular.spock.services.ResponseCache;
+import org.spectingular.spock.services.ResultFiles;
+import org.spectingular.spock.services.ResultProjector;
+import org.spectingular.spock.services.ResultReader;
 import org.spectingular.spock.services.ResultService;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
 import javax.ws.rs.*;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import java.io.BufferedReader;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static java.lang.String.format;
+import static javax.ws.rs.core.HttpHeaders.ACCEPT_ENCODING;
+import static javax.ws.rs.core.HttpHeaders.CONTENT_ENCODING;
+import static javax.ws.rs.core.HttpHeaders.IF_NONE_MATCH;
+import static javax.ws.rs.core.HttpHeaders.VARY;
 import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 import static javax.ws.rs.core.Response.Status.CONFLICT;
+import static javax.ws.rs.core.Response.Status.REQUEST_ENTITY_TOO_LARGE;
+import static javax.ws.rs.core.Response.notModified;
 import static javax.ws.rs.core.Response.ok;
 import static javax.ws.rs.core.Response.status;
 import static org.slf4j.LoggerFactory.getLogger;
@@ -42,22 +58,56 @@ public class ResultResource {
     @Resource
     private ReportService reportService;
 
+    @Resource
+    private ResultReader resultReader;
+
+    @Resource
+    private ResultFiles resultFiles;
+
+    @Resource
+    private ResultProjector resultProjector;
+
+    @Resource
+    private ResponseCache responseCache;
+
     /**
      * Gets the result data for the {@link org.spectingular.spock.domain.Task} matching the given parameters.
+     * The version of the build is sent as <code>ETag</code>. When it matches the <code>If-None-Match</code> header,
+     * <code>304 Not Modified</code> is answered without reading the result.
      * @param buildNumber The build number.
      * @param phaseName   The phase name.
-     * @param taskName    The task name.
+     * @param taskName       The task name.
+     * @param fields         The JSON pointers of the parts of the data to get, all data when empty.
+     * @param ifNoneMatch    The entity tags of the versions the client already has.
+     * @param acceptEncoding The <code>Accept-Encoding</code> header.
      * @return response The response.
      */
     @GET
     @Path("/builds/{buildNumber}/phases/{phaseName}/tasks/{taskName}/results")
-    public Response get(final @PathParam("buildNumber") int buildNumber, final @PathParam("phaseName") String phaseName, final @PathParam("taskName") String taskName) {
+    public Response get(final @PathParam("buildNumber") int buildNumber, final @PathParam("phaseName") String phaseName, final @PathParam("taskName") String taskName,
+                        final @QueryParam("fields") List<String> fields, final @HeaderParam(IF_NONE_MATCH) String ifNoneMatch, final @HeaderParam(ACCEPT_ENCODING) String acceptEncoding) {
         Response response;
+        final Set<String> pointers;
+        try {
+            pointers = ResultProjector.pointers(fields == null ? Collections.<String>emptyList() : fields);
+        } catch (IllegalArgumentException e) {
+            return status(BAD_REQUEST).entity(new Error(e.getMessage())).build();
+        }
         try {
             LOG.debug(format("Get result information for task with name [%s] for build with number [%d] and phase with name [%s]", taskName, buildNumber, phaseName));
-            final Optional<String> ot = reportService.findResultByBuildNumberAndPhaseNameAndTaskName(buildNumber, phaseName, taskName);
-            if (ot.isPresent()) {
-                response = ok(ot.get()).build();
+            final String endpoint = format("phases/%s/tasks/%s/results", phaseName, taskName);
+            final Optional<ResponseCache.Entry> cached = cached(buildNumber, endpoint, pointers);
+            if (cached.isPresent()) {
+                return revalidate(cached.get(), ifNoneMatch, acceptEncoding).build();
+            }
+            final long generation = responseCache.generation(buildNumber);
+            final Optional<EntityTag> tag = reportService.findBuildVersion(buildNumber).map(version -> new EntityTag(Long.toString(version)));
+            if (tag.isPresent() && CachedResponses.matches(ifNoneMatch, tag.get())) {
+                return notModified(tag.get()).build();
+            }
+            final Optional<Result> or = reportService.findResultByBuildNumberAndPhaseNameAndTaskName(buildNumber, phaseName, taskName);
+            if (or.isPresent()) {
+                response = content(buildNumber, endpoint, generation, tag.orElse(null), or.get(), pointers, acceptEncoding).build();
             } else {
                 response = status(CONFLICT).entity(new Error("Result information for task with name [%s] for phase with name [%s] and build with number [%d] cannot be found", taskName, phaseName, buildNumber)).build();
             }
@@ -69,21 +119,43 @@ public class ResultResource {
 
     /**
      * Gets the result data for the {@link org.spectingular.spock.domain.Task} matching the given parameters.
+     * The version of the build is sent as <code>ETag</code>. When it matches the <code>If-None-Match</code> header,
+     * <code>304 Not Modified</code> is answered without reading the result.
      * @param buildNumber The build number.
      * @param moduleName  The module name.
      * @param phaseName   The phase name.
-     * @param taskName    The task name.
+     * @param taskName       The task name.
+     * @param fields         The JSON pointers of the parts of the data to get, all data when empty.
+     * @param ifNoneMatch    The entity tags of the versions the client already has.
+     * @param acceptEncoding The <code>Accept-Encoding</code> header.
      * @return response The response.
      */
     @GET
     @Path("/builds/{buildNumber}/modules/{moduleName}/phases/{phaseName}/tasks/{taskName}/results")
-    public Response get(final @PathParam("buildNumber") int buildNumber, final @PathParam("moduleName") String moduleName, final @PathParam("phaseName") String phaseName, final @PathParam("taskName") String taskName) {
+    public Response get(final @PathParam("buildNumber") int buildNumber, final @PathParam("moduleName") String moduleName, final @PathParam("phaseName") String phaseName, final @PathParam("taskName") String taskName,
+                        final @QueryParam("fields") List<String> fields, final @HeaderParam(IF_NONE_MATCH) String ifNoneMatch, final @HeaderParam(ACCEPT_ENCODING) String acceptEncoding) {
         Response response;
+        final Set<String> pointers;
+        try {
+            pointers = ResultProjector.pointers(fields == null ? Collections.<String>emptyList() : fields);
+        } catch (IllegalArgumentException e) {
+            return status(BAD_REQUEST).entity(new Error(e.getMessage())).build();
+        }
         try {
             LOG.debug(format("Get result information for task with name [%s] for build with number [%d]  and module with name [%s] and phase with name [%s]", taskName, buildNumber, moduleName, phaseName));
-            final Optional<String> ot = reportService.findResultByBuildNumberAndModuleNameAndPhaseNameAndTaskName(buildNumber, moduleName, phaseName, taskName);
-            if (ot.isPresent()) {
-                response = ok(ot.get()).build();
+            final String endpoint = format("modules/%s/phases/%s/tasks/%s/results", moduleName, phaseName, taskName);
+            final Optional<ResponseCache.Entry> cached = cached(buildNumber, endpoint, pointers);
+            if (cached.isPresent()) {
+                return revalidate(cached.get(), ifNoneMatch, acceptEncoding).build();
+            }
+            final long generation = responseCache.generation(buildNumber);
+            final Optional<EntityTag> tag = reportService.findBuildVersion(buildNumber).map(version -> new EntityTag(Long.toString(version)));
+            if (tag.isPresent() && CachedResponses.matches(ifNoneMatch, tag.get())) {
+                return notModified(tag.get()).build();
+            }
+            final Optional<Result> or = reportService.findResultByBuildNumberAndModuleNameAndPhaseNameAndTaskName(buildNumber, moduleName, phaseName, taskName);
+            if (or.isPresent()) {
+                response = content(buildNumber, endpoint, generation, tag.orElse(null), or.get(), pointers, acceptEncoding).build();
             } else {
                 response = status(CONFLICT).entity(new Error("Result information for task with name [%s] for phase with name [%s] and build with number [%d] and  module with name [%s] cannot be found", taskName, phaseName, buildNumber, moduleName)).build();
             }
@@ -97,21 +169,17 @@ public class ResultResource {
     @Path("/builds/{buildNumber}/phases/{phaseName}/tasks/{taskName}/results")
     @Consumes(MediaType.APPLICATION_JSON)
     public Response store(final @PathParam("buildNumber") int buildNumber, final @PathParam("phaseName") String phaseName, final @PathParam("taskName") String taskName, final InputStream stream) {
-        final StringBuilder builder = new StringBuilder();
         Response response;
         try {
             LOG.debug(format("Storing result information for task with name [%s] for build with number [%d] and phase with name [%s]", taskName, buildNumber, phaseName));
-            final BufferedReader in = new BufferedReader(new InputStreamReader(stream));
-            String line;
-            while ((line = in.readLine()) != null) {
-                builder.append(line);
-            }
-            final DBObject db = (DBObject) JSON.parse(builder.toString());
-            final Result result = new Result();
-            result.setData(db);
+            final Result result = resultReader.read(stream);
             resultService.store(buildNumber, phaseName, taskName, result);
 
             response = ok().build();
+        } catch (PayloadTooLargeException e) {
+            response = status(REQUEST_ENTITY_TOO_LARGE).entity(new Error(e.getMessage())).build();
+        } catch (JsonProcessingException e) {
+            response = status(BAD_REQUEST).entity(new Error(e.getOriginalMessage())).build();
         } catch (IllegalArgumentException | IOException e) {
             response = status(CONFLICT).entity(new Error(e.getMessage())).build();
         } catch (DuplicateKeyException e) {
@@ -126,21 +194,17 @@ public class ResultResource {
     @Path("/builds/{buildNumber}/modules/{moduleName}/phases/{phaseName}/tasks/{taskName}/results")
     @Consumes(MediaType.APPLICATION_JSON)
     public Response store(final @PathParam("buildNumber") int buildNumber, final @PathParam("moduleName") String moduleName, final @PathParam("phaseName") String phaseName, final @PathParam("taskName") String taskName, final InputStream stream) {
-        final StringBuilder builder = new StringBuilder();
         Response response;
         try {
             LOG.debug(format("Storing result information for task with name [%s] for build with number [%d] and module with name [%s] and phase with name [%s]", taskName, buildNumber, moduleName, phaseName));
-            final BufferedReader in = new BufferedReader(new InputStreamReader(stream));
-            String line;
-            while ((line = in.readLine()) != null) {
-                builder.append(line);
-            }
-            final DBObject db = (DBObject) JSON.parse(builder.toString());
-            final Result result = new Result();
-            result.setData(db);
+            final Result result = resultReader.read(stream);
             resultService.store(buildNumber, moduleName, phaseName, taskName, result);
 
             response = ok().build();
+        } catch (PayloadTooLargeException e) {
+            response = status(REQUEST_ENTITY_TOO_LARGE).entity(new Error(e.getMessage())).build();
+        } catch (JsonProcessingException e) {
+            response = status(BAD_REQUEST).entity(new Error(e.getOriginalMessage())).build();
         } catch (IllegalArgumentException | IOException e) {
             response = status(CONFLICT).entity(new Error(e.getMessage())).build();
         } catch (DuplicateKeyException e) {
@@ -150,4 +214,66 @@ public class ResultResource {
         }
         return response;
     }
-}
\ No newline at end of file
+
+    /**
+     * Gets the cached data of the given endpoint of the build matching the given build number.
+     * @param buildNumber The build number.
+     * @param endpoint    The endpoint.
+     * @param pointers    The JSON pointers of the parts of the data to get; only all data is cached.
+     * @return entry The {@link org.spectingular.spock.services.ResponseCache.Entry}, empty when it is not cached.
+     */
+    private Optional<ResponseCache.Entry> cached(final int buildNumber, final String endpoint, final Set<String> pointers) {
+        return pointers.isEmpty() ? responseCache.get(buildNumber, endpoint) : Optional.<ResponseCache.Entry>empty();
+    }
+
+    /**
+     * Gets the response for the given cached data, or <code>304 Not Modified</code> when its entity tag matches the <code>If-None-Match</code> header.
+     * @param entry          The {@link org.spectingular.spock.services.ResponseCache.Entry}.
+     * @param ifNoneMatch    The entity tags of the versions the client already has.
+     * @param acceptEncoding The <code>Accept-Encoding</code> header.
+     * @return builder The {@link javax.ws.rs.core.Response.ResponseBuilder}.
+     */
+    private static ResponseBuilder revalidate(final ResponseCache.Entry entry, final String ifNoneMatch, final String acceptEncoding) {
+        final EntityTag tag = new EntityTag(entry.getTag());
+        return CachedResponses.matches(ifNoneMatch, tag) ? notModified(tag) : CachedResponses.ok(entry, acceptEncoding);
+    }
+
+    /**
+     * Streams the data of the given {@link org.spectingular.spock.domain.Result} to the client, tagged with the version of the build.
+     * When pointers are given, only the selected parts are streamed. Otherwise the data of a finished build is read into the
+     * {@link org.spectingular.spock.services.ResponseCache} when its decompressed bytes fit, and else compressed data is sent as is with a
+     * <code>Content-Encoding</code> header when the client accepts its codec, or it is decompressed on the fly.
+     * @param buildNumber    The build number.
+     * @param endpoint       The endpoint.
+     * @param generation     The generation of the build in the {@link org.spectingular.spock.services.ResponseCache}, as read before the result.
+     * @param tag            The {@link javax.ws.rs.core.EntityTag} of the version of the build, null when the version is unknown.
+     * @param result         The {@link org.spectingular.spock.domain.Result}.
+     * @param pointers       The JSON pointers of the parts of the data to stream, all data when empty.
+     * @param acceptEncoding The <code>Accept-Encoding</code> header.
+     * @return builder The {@link javax.ws.rs.core.Response.ResponseBuilder}.
+     */
+    private ResponseBuilder content(final int buildNumber, final String endpoint, final long generation, final EntityTag tag, final Result result,
+                                    final Set<String> pointers, final String acceptEncoding) {
+        if (!pointers.isEmpty()) {
+            return ok((StreamingOutput) output -> resultProjector.write(result, pointers, output)).tag(tag);
+        }
+        if (tag != null && reportService.isBuildFinished(buildNumber)) {
+            final Optional<byte[]> data;
+            try {
+                data = resultFiles.read(result, responseCache.getMaxEntrySize());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (data.isPresent()) {
+                return CachedResponses.ok(responseCache.put(buildNumber, endpoint, generation, tag.getValue(), data.get()), acceptEncoding);
+            }
+        }
+        final Codec codec = result.getCodec();
+        if (codec == null) {
+            return ok((StreamingOutput) output -> resultFiles.write(result, output, false)).tag(tag);
+        }
+        final boolean encoded = codec.isAcceptedBy(acceptEncoding);
+        final ResponseBuilder builder = ok((StreamingOutput) output -> resultFiles.write(result, output, !encoded)).tag(tag).header(VARY, ACCEPT_ENCODING);
+        return encoded ? builder.header(CONTENT_ENCODING, codec.getContentEncoding()) : builder;
+    }
+}
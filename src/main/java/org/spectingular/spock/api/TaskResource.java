@@ -48,7 +48,7 @@ public class TaskResource {
         Response response;
         try {
             LOG.debug(format("Get all tasks for build with number [%d] and phase with name [%s]", buildNumber, phaseName));
-            response = ok(reportService.findTasksByBuildNumberAndPhaseName(buildNumber, phaseName)).build();
+            response = ok(new JsonArrayOutput(reportService.streamTasksByBuildNumberAndPhaseName(buildNumber, phaseName))).build();
         } catch (IllegalArgumentException e) {
             response = status(CONFLICT).entity(new Error(e.getMessage())).build();
         }
@@ -94,7 +94,7 @@ public class TaskResource {
         Response response;
         try {
             LOG.debug(format("Get all tasks for build with number [%d] and module with name [%s] and phase with name [%s]", buildNumber, moduleName, phaseName));
-            response = ok(reportService.findTasksByBuildNumberAndModuleNameAndPhaseName(buildNumber, moduleName, phaseName)).build();
+            response = ok(new JsonArrayOutput(reportService.streamTasksByBuildNumberAndModuleNameAndPhaseName(buildNumber, moduleName, phaseName))).build();
         } catch (IllegalArgumentException e) {
             response = status(CONFLICT).entity(new Error(e.getMessage())).build();
         }
@@ -166,8 +166,11 @@ public class TaskResource {
         Response response;
         try {
             LOG.debug(format("Update task with name [%s] for build with number [%d] and phase with name [%s]", taskName, buildNumber, phaseName));
-            taskService.update(buildNumber, phaseName, taskName, state);
-            response = ok().build();
+            if (taskService.update(buildNumber, phaseName, taskName, state)) {
+                response = ok().build();
+            } else {
+                response = status(CONFLICT).entity(new Error("Task with name [%s] for phase with name [%s] and build with number [%d] has already been finished", taskName, phaseName, buildNumber)).build();
+            }
         } catch (IllegalArgumentException e) {
             response = status(CONFLICT).entity(new Error(e.getMessage())).build();
         }
@@ -215,8 +218,11 @@ public class TaskResource {
         Response response;
         try {
             LOG.debug(format("Get task with name [%s] for build with number [%d] and module with name [%s] and phase with name [%s]", taskName, buildNumber, moduleName, phaseName));
-            taskService.update(buildNumber, moduleName, phaseName, taskName, state);
-            response = ok().build();
+            if (taskService.update(buildNumber, moduleName, phaseName, taskName, state)) {
+                response = ok().build();
+            } else {
+                response = status(CONFLICT).entity(new Error("Task with name [%s] for phase with name [%s] and module with name [%s] and build with number [%d] has already been finished", taskName, phaseName, moduleName, buildNumber)).build();
+            }
         } catch (IllegalArgumentException e) {
             response = status(CONFLICT).entity(new Error(e.getMessage())).build();
         }
@@ -0,0 +1,50 @@
+package org.spectingular.spock.api;
+
+import org.spectingular.spock.services.WriteBehindQueue;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.ext.Provider;
+import java.util.List;
+
+/**
+ * Filter that flushes the changes that are queued by the {@link org.spectingular.spock.services.WriteBehindQueue} for a build
+ * before a request for that build is handled, so reads and result stores see the modules, phases and tasks that have been accepted.
+ * Only the registrations and finishes of modules, phases and tasks themselves are left queued.
+ */
+@Component
+@Provider
+public class WriteBehindBarrier implements ContainerRequestFilter {
+    private static final String BUILD_NUMBER = "buildNumber";
+    @Resource
+    private WriteBehindQueue writeBehindQueue;
+
+    @Override
+    public void filter(final ContainerRequestContext request) {
+        final String buildNumber = request.getUriInfo().getPathParameters().getFirst(BUILD_NUMBER);
+        if (buildNumber != null && !queued(request)) {
+            try {
+                writeBehindQueue.flush(Integer.parseInt(buildNumber));
+            } catch (NumberFormatException e) {
+                // not a build number, the request is rejected when its parameters are converted
+            }
+        }
+    }
+
+    /**
+     * Indicator whether the given request is a registration or finish of a module, phase or task, which may be queued itself.
+     * @param request The request.
+     * @return true if the request may be queued, else false
+     */
+    private boolean queued(final ContainerRequestContext request) {
+        if (HttpMethod.GET.equals(request.getMethod())) {
+            return false;
+        }
+        final List<Object> resources = request.getUriInfo().getMatchedResources();
+        final Object resource = resources.isEmpty() ? null : resources.get(0);
+        return resource instanceof ModuleResource || resource instanceof PhaseResource || resource instanceof TaskResource;
+    }
+}
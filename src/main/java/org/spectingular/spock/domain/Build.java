@@ -1,8 +1,8 @@
 package org.spectingular.spock.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.bson.types.ObjectId;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import javax.validation.constraints.NotNull;
@@ -13,11 +13,29 @@ import javax.validation.constraints.NotNull;
 @Document(collection = "builds")
 public class Build {
     @Id
+    @JsonIgnore
     private ObjectId id;
     @NotNull
-    @Indexed(unique = true)
     private int number;
     private State state;
+    @JsonIgnore
+    private long version;
+
+    /**
+     * Gets the id.
+     * @return id The id.
+     */
+    public ObjectId getId() {
+        return id;
+    }
+
+    /**
+     * Sets the id.
+     * @param id The id.
+     */
+    public void setId(final ObjectId id) {
+        this.id = id;
+    }
 
     /**
      * Gets the number.
@@ -51,4 +69,20 @@ public class Build {
         this.state = state;
     }
 
+    /**
+     * Gets the version, which is incremented on every change to the build or anything registered for it.
+     * @return version The version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version.
+     * @param version The version.
+     */
+    public void setVersion(final long version) {
+        this.version = version;
+    }
+
 }
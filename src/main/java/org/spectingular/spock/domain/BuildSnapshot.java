@@ -0,0 +1,81 @@
+package org.spectingular.spock.domain;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * BuildSnapshot represents the fully assembled tree of a {@link org.spectingular.spock.domain.Build}, as the JSON that is served for it.
+ * It is keyed on the build number and only valid for the version of the build it has been assembled for.
+ */
+@Document(collection = "build_snapshots")
+public class BuildSnapshot {
+    @Id
+    private int number;
+    private long version;
+    private boolean finished;
+    private byte[] content;
+
+    /**
+     * Gets the build number.
+     * @return number The build number.
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * Sets the build number.
+     * @param number The build number.
+     */
+    public void setNumber(final int number) {
+        this.number = number;
+    }
+
+    /**
+     * Gets the version of the build the snapshot has been assembled for.
+     * @return version The version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version of the build the snapshot has been assembled for.
+     * @param version The version.
+     */
+    public void setVersion(final long version) {
+        this.version = version;
+    }
+
+    /**
+     * Indicator finished.
+     * @return true if the build had been finished when the snapshot was assembled, else false
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Sets the finished indicator.
+     * @param finished The finished indicator.
+     */
+    public void setFinished(final boolean finished) {
+        this.finished = finished;
+    }
+
+    /**
+     * Gets the JSON bytes of the tree.
+     * @return content The content.
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * Sets the JSON bytes of the tree.
+     * @param content The content.
+     */
+    public void setContent(final byte[] content) {
+        this.content = content;
+    }
+}
@@ -0,0 +1,121 @@
+package org.spectingular.spock.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+import static com.fasterxml.jackson.annotation.JsonInclude.Include.NON_NULL;
+
+/**
+ * Change represents an entry in the change log of a {@link org.spectingular.spock.domain.Build}.
+ * It records the version of the build after the change and names the module, phase and task that changed; none are named for the build itself.
+ */
+@Document(collection = "changes")
+@JsonInclude(NON_NULL)
+public class Change {
+    @Id
+    @JsonIgnore
+    private ObjectId id;
+    @JsonIgnore
+    private int buildNumber;
+    private long version;
+    private ChangeType type;
+    private String module;
+    private String phase;
+    private String task;
+    private Boolean success;
+    private Date date;
+
+    /** Default constructor. */
+    public Change() {
+    }
+
+    /**
+     * Constructor.
+     * @param buildNumber The build number.
+     * @param version     The version of the build after the change.
+     * @param type        The {@link org.spectingular.spock.domain.ChangeType}.
+     * @param module      The module name.
+     * @param phase       The phase name.
+     * @param task        The task name.
+     * @param success     Indicator success, only set when finishing.
+     */
+    public Change(final int buildNumber, final long version, final ChangeType type, final String module, final String phase, final String task, final Boolean success) {
+        this.buildNumber = buildNumber;
+        this.version = version;
+        this.type = type;
+        this.module = module;
+        this.phase = phase;
+        this.task = task;
+        this.success = success;
+        this.date = new Date();
+    }
+
+    /**
+     * Gets the build number.
+     * @return buildNumber The build number.
+     */
+    public int getBuildNumber() {
+        return buildNumber;
+    }
+
+    /**
+     * Gets the version of the build after the change.
+     * @return version The version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the {@link org.spectingular.spock.domain.ChangeType}.
+     * @return type The {@link org.spectingular.spock.domain.ChangeType}.
+     */
+    public ChangeType getType() {
+        return type;
+    }
+
+    /**
+     * Gets the module name.
+     * @return module The module name.
+     */
+    public String getModule() {
+        return module;
+    }
+
+    /**
+     * Gets the phase name.
+     * @return phase The phase name.
+     */
+    public String getPhase() {
+        return phase;
+    }
+
+    /**
+     * Gets the task name.
+     * @return task The task name.
+     */
+    public String getTask() {
+        return task;
+    }
+
+    /**
+     * Indicator success, only set when finishing.
+     * @return success The success indicator.
+     */
+    public Boolean getSuccess() {
+        return success;
+    }
+
+    /**
+     * Gets the date of the change.
+     * @return date The date.
+     */
+    public Date getDate() {
+        return date;
+    }
+}
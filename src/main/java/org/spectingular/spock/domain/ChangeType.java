@@ -0,0 +1,13 @@
+package org.spectingular.spock.domain;
+
+/**
+ * ChangeType represents what happened to the module, phase or task of a {@link org.spectingular.spock.domain.Change}.
+ */
+public enum ChangeType {
+    /** The build, module, phase or task has been registered. */
+    REGISTER,
+    /** The build, module, phase or task has been finished. */
+    FINISH,
+    /** A result has been stored for the task. */
+    RESULT
+}
@@ -0,0 +1,135 @@
+package org.spectingular.spock.domain;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static java.lang.String.format;
+
+/**
+ * Codec represents the compression with which the data of a {@link org.spectingular.spock.domain.Result} is stored.
+ */
+public enum Codec {
+    /** Deflate in the zlib format, which is also the <code>deflate</code> HTTP content coding. */
+    DEFLATE("deflate") {
+        @Override
+        public OutputStream encode(final OutputStream out) {
+            return new DeflaterOutputStream(out);
+        }
+
+        @Override
+        public InputStream decode(final InputStream in) {
+            return new InflaterInputStream(in);
+        }
+    },
+    /** Deflate in the gzip format, the HTTP content coding that every client accepts. */
+    GZIP("gzip") {
+        @Override
+        public OutputStream encode(final OutputStream out) {
+            try {
+                return new GZIPOutputStream(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public InputStream decode(final InputStream in) {
+            try {
+                return new GZIPInputStream(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    },
+    /** LZ4 blocks, faster than deflate at a lower ratio. There is no HTTP content coding for it. */
+    LZ4(null) {
+        @Override
+        public OutputStream encode(final OutputStream out) {
+            return new LZ4BlockOutputStream(out);
+        }
+
+        @Override
+        public InputStream decode(final InputStream in) {
+            return new LZ4BlockInputStream(in);
+        }
+    };
+
+    private static final String NONE = "none";
+    private final String contentEncoding;
+
+    /**
+     * Constructor.
+     * @param contentEncoding The HTTP content coding, or null when there is none.
+     */
+    Codec(final String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    /**
+     * Wraps the given stream, so everything written to it is compressed.
+     * Closing the returned stream finishes the compression and closes the given stream.
+     * @param out The stream.
+     * @return out The compressing stream.
+     */
+    public abstract OutputStream encode(OutputStream out);
+
+    /**
+     * Wraps the given stream, so everything read from it is decompressed.
+     * @param in The stream.
+     * @return in The decompressing stream.
+     */
+    public abstract InputStream decode(InputStream in);
+
+    /**
+     * Gets the HTTP content coding.
+     * @return contentEncoding The content coding, or null when there is none.
+     */
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * Indicates if the compressed data can be sent as is to a client that sent the given <code>Accept-Encoding</code> header.
+     * @param acceptEncoding The <code>Accept-Encoding</code> header, may be null.
+     * @return true if the header accepts the content coding of this codec, else false
+     */
+    public boolean isAcceptedBy(final String acceptEncoding) {
+        if (contentEncoding == null || acceptEncoding == null) {
+            return false;
+        }
+        for (final String coding : acceptEncoding.split(",")) {
+            final String[] parameters = coding.split(";");
+            if (parameters[0].trim().equalsIgnoreCase(contentEncoding)) {
+                return !(parameters.length > 1 && parameters[1].trim().matches("q=0(\\.0*)?"));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the codec with the given name.
+     * @param name The name, <code>none</code> for no compression.
+     * @return codec The codec, or null for no compression.
+     * @throws IllegalArgumentException When no codec has the given name.
+     */
+    public static Codec forName(final String name) {
+        if (name == null || NONE.equalsIgnoreCase(name.trim())) {
+            return null;
+        }
+        for (final Codec codec : values()) {
+            if (codec.name().equalsIgnoreCase(name.trim())) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException(format("Codec with name [%s] cannot be found", name));
+    }
+}
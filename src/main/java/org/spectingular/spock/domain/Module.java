@@ -3,8 +3,6 @@ package org.spectingular.spock.domain;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.bson.types.ObjectId;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.index.CompoundIndex;
-import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 import org.springframework.data.mongodb.core.mapping.Document;
 
@@ -13,20 +11,36 @@ import javax.validation.constraints.NotNull;
 /**
  * Module represents an instance of a module that is build by the build system.
  */
-@CompoundIndexes({
-        @CompoundIndex(name = "module_build", unique = true, def = "{'name': 1, 'build': 1}")
-})
 @Document(collection = "modules")
 public class Module {
     @Id
+    @JsonIgnore
     private ObjectId id;
     @NotNull
     private String name;
     private State state;
-    @DBRef
+    @DBRef(lazy = true)
     @JsonIgnore
     private Build build;
+    @JsonIgnore
+    private int buildNumber;
+
+
+    /**
+     * Gets the id.
+     * @return id The id.
+     */
+    public ObjectId getId() {
+        return id;
+    }
 
+    /**
+     * Sets the id.
+     * @param id The id.
+     */
+    public void setId(final ObjectId id) {
+        this.id = id;
+    }
 
     /**
      * Gets the name.
@@ -76,5 +90,19 @@ public class Module {
         this.build = build;
     }
 
+    /**
+     * Gets the build number.
+     * @return buildNumber The build number.
+     */
+    public int getBuildNumber() {
+        return buildNumber;
+    }
 
+    /**
+     * Sets the build number.
+     * @param buildNumber The build number.
+     */
+    public void setBuildNumber(final int buildNumber) {
+        this.buildNumber = buildNumber;
+    }
 }
@@ -3,8 +3,6 @@ package org.spectingular.spock.domain;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.bson.types.ObjectId;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.index.CompoundIndex;
-import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 import org.springframework.data.mongodb.core.mapping.Document;
 
@@ -13,23 +11,41 @@ import javax.validation.constraints.NotNull;
 /**
  * Phase represents a lifecycle phase in a build system.
  */
-@CompoundIndexes({
-        @CompoundIndex(name = "phase_build_module", unique = true, def = "{'name': 1, 'build': 1, 'module': 1}")
-})
 @Document(collection = "phases")
 public class Phase {
     @Id
+    @JsonIgnore
     private ObjectId id;
     @NotNull
     private String name;
     private State state;
-    @DBRef
+    @DBRef(lazy = true)
     @JsonIgnore
     private Build build;
-    @DBRef
+    @DBRef(lazy = true)
     @JsonIgnore
     private Module module;
+    @JsonIgnore
+    private int buildNumber;
+    @JsonIgnore
+    private String moduleName;
+
+
+    /**
+     * Gets the id.
+     * @return id The id.
+     */
+    public ObjectId getId() {
+        return id;
+    }
 
+    /**
+     * Sets the id.
+     * @param id The id.
+     */
+    public void setId(final ObjectId id) {
+        this.id = id;
+    }
 
     /**
      * Gets the name.
@@ -94,4 +110,36 @@ public class Phase {
     public void setModule(final Module module) {
         this.module = module;
     }
+
+    /**
+     * Gets the build number.
+     * @return buildNumber The build number.
+     */
+    public int getBuildNumber() {
+        return buildNumber;
+    }
+
+    /**
+     * Sets the build number.
+     * @param buildNumber The build number.
+     */
+    public void setBuildNumber(final int buildNumber) {
+        this.buildNumber = buildNumber;
+    }
+
+    /**
+     * Gets the module name.
+     * @return moduleName The module name.
+     */
+    public String getModuleName() {
+        return moduleName;
+    }
+
+    /**
+     * Sets the module name.
+     * @param moduleName The module name.
+     */
+    public void setModuleName(final String moduleName) {
+        this.moduleName = moduleName;
+    }
 }
@@ -4,31 +4,42 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.mongodb.DBObject;
 import org.bson.types.ObjectId;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.index.CompoundIndex;
-import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 import org.springframework.data.mongodb.core.mapping.Document;
 
-import javax.validation.constraints.NotNull;
-
 /**
  * Result represents a result of an executed task from a lifecycle phase.
+ * The data is kept as the JSON bytes it was received as. Small results embed them as content, large results are stored
+ * in GridFS and only referenced by their file id. When a {@link org.spectingular.spock.domain.Codec} is set, the bytes are compressed.
+ * Results stored before the bytes were kept have the parsed data instead.
  */
-@CompoundIndexes({
-        @CompoundIndex(name = "result_task", unique = true, def = "{'name': 1, 'task': 1}")
-})
 @Document(collection = "results")
 public class Result {
     @Id
     private ObjectId id;
-    @NotNull
     private DBObject data;
-    @DBRef
+    @JsonIgnore
+    private ObjectId fileId;
+    @JsonIgnore
+    private long length;
+    @JsonIgnore
+    private byte[] content;
+    @JsonIgnore
+    private Codec codec;
+    @DBRef(lazy = true)
     @JsonIgnore
     private Task task;
+    @JsonIgnore
+    private int buildNumber;
+    @JsonIgnore
+    private String moduleName;
+    @JsonIgnore
+    private String phaseName;
+    @JsonIgnore
+    private String taskName;
 
     /**
-     * Gets the data.
+     * Gets the data, only present for results stored before the JSON bytes were kept.
      * @return data The data.
      */
     public DBObject getData() {
@@ -58,4 +69,132 @@ public class Result {
     public void setTask(final Task task) {
         this.task = task;
     }
+
+    /**
+     * Gets the build number.
+     * @return buildNumber The build number.
+     */
+    public int getBuildNumber() {
+        return buildNumber;
+    }
+
+    /**
+     * Sets the build number.
+     * @param buildNumber The build number.
+     */
+    public void setBuildNumber(final int buildNumber) {
+        this.buildNumber = buildNumber;
+    }
+
+    /**
+     * Gets the module name.
+     * @return moduleName The module name.
+     */
+    public String getModuleName() {
+        return moduleName;
+    }
+
+    /**
+     * Sets the module name.
+     * @param moduleName The module name.
+     */
+    public void setModuleName(final String moduleName) {
+        this.moduleName = moduleName;
+    }
+
+    /**
+     * Gets the phase name.
+     * @return phaseName The phase name.
+     */
+    public String getPhaseName() {
+        return phaseName;
+    }
+
+    /**
+     * Sets the phase name.
+     * @param phaseName The phase name.
+     */
+    public void setPhaseName(final String phaseName) {
+        this.phaseName = phaseName;
+    }
+
+    /**
+     * Gets the task name.
+     * @return taskName The task name.
+     */
+    public String getTaskName() {
+        return taskName;
+    }
+
+    /**
+     * Sets the task name.
+     * @param taskName The task name.
+     */
+    public void setTaskName(final String taskName) {
+        this.taskName = taskName;
+    }
+
+    /**
+     * Gets the id of the GridFS file holding the data.
+     * @return fileId The file id, or null when the data is embedded.
+     */
+    public ObjectId getFileId() {
+        return fileId;
+    }
+
+    /**
+     * Sets the id of the GridFS file holding the data.
+     * @param fileId The file id.
+     */
+    public void setFileId(final ObjectId fileId) {
+        this.fileId = fileId;
+    }
+
+    /**
+     * Gets the length in bytes of the stored content or GridFS file.
+     * @return length The length.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Sets the length in bytes of the stored content or GridFS file.
+     * @param length The length.
+     */
+    public void setLength(final long length) {
+        this.length = length;
+    }
+
+    /**
+     * Gets the content, the JSON bytes of the data, compressed when a {@link org.spectingular.spock.domain.Codec} is set.
+     * @return content The content, or null when the data is stored in GridFS.
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * Sets the content.
+     * @param content The content.
+     */
+    public void setContent(final byte[] content) {
+        this.content = content;
+    }
+
+    /**
+     * Gets the {@link org.spectingular.spock.domain.Codec} with which the content or GridFS file is compressed.
+     * @return codec The {@link org.spectingular.spock.domain.Codec}, or null when it is not compressed.
+     */
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Sets the {@link org.spectingular.spock.domain.Codec} with which the content or GridFS file is compressed.
+     * @param codec The {@link org.spectingular.spock.domain.Codec}.
+     */
+    public void setCodec(final Codec codec) {
+        this.codec = codec;
+    }
 }
@@ -29,6 +29,14 @@ public class State {
         return startDate;
     }
 
+    /**
+     * Sets the start date.
+     * @param startDate The start date.
+     */
+    public void setStartDate(final Date startDate) {
+        this.startDate = startDate;
+    }
+
     /**
      * Gets the stop date.
      * @return date The stop date.
@@ -3,8 +3,6 @@ package org.spectingular.spock.domain;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.bson.types.ObjectId;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.index.CompoundIndex;
-import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 import org.springframework.data.mongodb.core.mapping.Document;
 
@@ -13,19 +11,39 @@ import javax.validation.constraints.NotNull;
 /**
  * Task represents an execution task from a lifecycle phase.
  */
-@CompoundIndexes({
-        @CompoundIndex(name = "task_phase", unique = true, def = "{'name': 1, 'phase': 1}")
-})
 @Document(collection = "tasks")
 public class Task {
     @Id
+    @JsonIgnore
     private ObjectId id;
     @NotNull
     private String name;
-    @DBRef
+    @DBRef(lazy = true)
     @JsonIgnore
     private Phase phase;
     private State state;
+    @JsonIgnore
+    private int buildNumber;
+    @JsonIgnore
+    private String moduleName;
+    @JsonIgnore
+    private String phaseName;
+
+    /**
+     * Gets the id.
+     * @return id The id.
+     */
+    public ObjectId getId() {
+        return id;
+    }
+
+    /**
+     * Sets the id.
+     * @param id The id.
+     */
+    public void setId(final ObjectId id) {
+        this.id = id;
+    }
 
     /**
      * Gets the name.
@@ -74,4 +92,52 @@ public class Task {
     public void setState(final State state) {
         this.state = state;
     }
+
+    /**
+     * Gets the build number.
+     * @return buildNumber The build number.
+     */
+    public int getBuildNumber() {
+        return buildNumber;
+    }
+
+    /**
+     * Sets the build number.
+     * @param buildNumber The build number.
+     */
+    public void setBuildNumber(final int buildNumber) {
+        this.buildNumber = buildNumber;
+    }
+
+    /**
+     * Gets the module name.
+     * @return moduleName The module name.
+     */
+    public String getModuleName() {
+        return moduleName;
+    }
+
+    /**
+     * Sets the module name.
+     * @param moduleName The module name.
+     */
+    public void setModuleName(final String moduleName) {
+        this.moduleName = moduleName;
+    }
+
+    /**
+     * Gets the phase name.
+     * @return phaseName The phase name.
+     */
+    public String getPhaseName() {
+        return phaseName;
+    }
+
+    /**
+     * Sets the phase name.
+     * @param phaseName The phase name.
+     */
+    public void setPhaseName(final String phaseName) {
+        this.phaseName = phaseName;
+    }
 }
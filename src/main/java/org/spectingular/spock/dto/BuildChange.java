@@ -0,0 +1,59 @@
+package org.spectingular.spock.dto;
+
+import java.util.Date;
+
+/**
+ * BuildChange represents the registration or the finish of a build, module, phase or task as it has been written.
+ * The target is determined by the names that are set, like for an {@link org.spectingular.spock.dto.Event}; none are set for the build itself.
+ */
+public class BuildChange extends Event {
+    private int buildNumber;
+    private Date date;
+
+    /** Default constructor. */
+    public BuildChange() {
+    }
+
+    /**
+     * Constructor.
+     * @param buildNumber The build number.
+     * @param event       The {@link org.spectingular.spock.dto.Event} that has been written.
+     */
+    public BuildChange(final int buildNumber, final Event event) {
+        super(event.getType(), event.getModule(), event.getPhase(), event.getTask(), event.isSuccess());
+        this.buildNumber = buildNumber;
+        this.date = new Date();
+    }
+
+    /**
+     * Gets the build number.
+     * @return buildNumber The build number.
+     */
+    public int getBuildNumber() {
+        return buildNumber;
+    }
+
+    /**
+     * Sets the build number.
+     * @param buildNumber The build number.
+     */
+    public void setBuildNumber(final int buildNumber) {
+        this.buildNumber = buildNumber;
+    }
+
+    /**
+     * Gets the date of the change.
+     * @return date The date.
+     */
+    public Date getDate() {
+        return date;
+    }
+
+    /**
+     * Sets the date of the change.
+     * @param date The date.
+     */
+    public void setDate(final Date date) {
+        this.date = date;
+    }
+}
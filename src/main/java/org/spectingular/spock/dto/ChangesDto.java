@@ -0,0 +1,40 @@
+package org.spectingular.spock.dto;
+
+import org.spectingular.spock.domain.Change;
+
+import java.util.List;
+
+/**
+ * ChangesDto represents the {@link org.spectingular.spock.domain.Change}s of a build since a given version.
+ * The version is the one to ask for the next changes with.
+ */
+public class ChangesDto {
+    private long version;
+    private List<Change> changes;
+
+    /**
+     * Constructor.
+     * @param version The version of the last change, or the given version when nothing has changed.
+     * @param changes The {@link org.spectingular.spock.domain.Change}s, oldest first.
+     */
+    public ChangesDto(final long version, final List<Change> changes) {
+        this.version = version;
+        this.changes = changes;
+    }
+
+    /**
+     * Gets the version.
+     * @return version The version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the {@link org.spectingular.spock.domain.Change}s.
+     * @return changes The {@link org.spectingular.spock.domain.Change}s.
+     */
+    public List<Change> getChanges() {
+        return changes;
+    }
+}
@@ -0,0 +1,44 @@
+package org.spectingular.spock.dto;
+
+import static java.lang.String.format;
+
+/** Depth represents the deepest level of a build tree that is included in a response. */
+public enum Depth {
+    BUILD(null),
+    MODULE("modules"),
+    PHASE("phases"),
+    TASK("tasks");
+
+    private final String field;
+
+    /**
+     * Constructor.
+     * @param field The name of the field holding the level in its parent, null for the root.
+     */
+    Depth(final String field) {
+        this.field = field;
+    }
+
+    /**
+     * Gets the name of the field holding the level in its parent.
+     * @return field The field name, null for the root.
+     */
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * Gets the {@link org.spectingular.spock.dto.Depth} matching the given name, ignoring case.
+     * @param name The name.
+     * @return depth The {@link org.spectingular.spock.dto.Depth}.
+     * @throws IllegalArgumentException When no depth matches the name.
+     */
+    public static Depth fromString(final String name) throws IllegalArgumentException {
+        for (Depth depth : values()) {
+            if (depth.name().equalsIgnoreCase(name)) {
+                return depth;
+            }
+        }
+        throw new IllegalArgumentException(format("Depth with name [%s] cannot be found", name));
+    }
+}
@@ -0,0 +1,116 @@
+package org.spectingular.spock.dto;
+
+import javax.validation.constraints.NotNull;
+
+/**
+ * Event represents the registration or the finish of a module, phase or task, as reported by a builder in a batch.
+ * The target is determined by the names that are set: a task also needs its phase, a phase or task without a module belongs to the build.
+ */
+public class Event {
+    @NotNull
+    private EventType type;
+    private String module;
+    private String phase;
+    private String task;
+    private boolean success;
+
+    /** Default constructor. */
+    public Event() {
+    }
+
+    /**
+     * Constructor.
+     * @param type    The {@link org.spectingular.spock.dto.EventType}.
+     * @param module  The module name.
+     * @param phase   The phase name.
+     * @param task    The task name.
+     * @param success Indicator success.
+     */
+    public Event(final EventType type, final String module, final String phase, final String task, final boolean success) {
+        this.type = type;
+        this.module = module;
+        this.phase = phase;
+        this.task = task;
+        this.success = success;
+    }
+
+    /**
+     * Gets the {@link org.spectingular.spock.dto.EventType}.
+     * @return type The {@link org.spectingular.spock.dto.EventType}.
+     */
+    public EventType getType() {
+        return type;
+    }
+
+    /**
+     * Sets the {@link org.spectingular.spock.dto.EventType}.
+     * @param type The {@link org.spectingular.spock.dto.EventType}.
+     */
+    public void setType(final EventType type) {
+        this.type = type;
+    }
+
+    /**
+     * Gets the module name.
+     * @return module The module name.
+     */
+    public String getModule() {
+        return module;
+    }
+
+    /**
+     * Sets the module name.
+     * @param module The module name.
+     */
+    public void setModule(final String module) {
+        this.module = module;
+    }
+
+    /**
+     * Gets the phase name.
+     * @return phase The phase name.
+     */
+    public String getPhase() {
+        return phase;
+    }
+
+    /**
+     * Sets the phase name.
+     * @param phase The phase name.
+     */
+    public void setPhase(final String phase) {
+        this.phase = phase;
+    }
+
+    /**
+     * Gets the task name.
+     * @return task The task name.
+     */
+    public String getTask() {
+        return task;
+    }
+
+    /**
+     * Sets the task name.
+     * @param task The task name.
+     */
+    public void setTask(final String task) {
+        this.task = task;
+    }
+
+    /**
+     * Indicator success, only used when finishing.
+     * @return true if successful, else false
+     */
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * Sets the success indicator.
+     * @param success The success indicator.
+     */
+    public void setSuccess(final boolean success) {
+        this.success = success;
+    }
+}
@@ -0,0 +1,48 @@
+package org.spectingular.spock.dto;
+
+/** Event outcome represents the result of applying the {@link org.spectingular.spock.dto.Event} at the given index of a batch. */
+public class EventOutcome {
+    private int index;
+    private boolean applied;
+    private String message;
+
+    /** Default constructor. */
+    public EventOutcome() {
+    }
+
+    /**
+     * Constructor.
+     * @param index   The index of the event in the batch.
+     * @param applied Indicator whether the event has been applied.
+     * @param message The reason why the event has not been applied.
+     */
+    public EventOutcome(final int index, final boolean applied, final String message) {
+        this.index = index;
+        this.applied = applied;
+        this.message = message;
+    }
+
+    /**
+     * Gets the index of the event in the batch.
+     * @return index The index.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Indicator applied.
+     * @return true if the event has been applied, else false
+     */
+    public boolean isApplied() {
+        return applied;
+    }
+
+    /**
+     * Gets the reason why the event has not been applied.
+     * @return message The message.
+     */
+    public String getMessage() {
+        return message;
+    }
+}
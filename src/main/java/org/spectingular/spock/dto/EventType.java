@@ -0,0 +1,9 @@
+package org.spectingular.spock.dto;
+
+/** Event type represents what an {@link org.spectingular.spock.dto.Event} does with a module, phase or task. */
+public enum EventType {
+    REGISTER,
+    FINISH,
+    /** A result has been stored for a task; only raised by the server itself. */
+    RESULT
+}
@@ -0,0 +1,136 @@
+package org.spectingular.spock.dto;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import static java.lang.String.format;
+import static java.util.Arrays.asList;
+import static org.spectingular.spock.dto.Depth.TASK;
+
+/**
+ * Tree view represents the part of a build tree that is requested.
+ * The depth limits the levels that are read. The fields limit the properties of every node, in which the
+ * <code>modules</code>, <code>phases</code> and <code>tasks</code> fields select the levels as well,
+ * so levels that are not requested are never queried.
+ */
+public class TreeView {
+    /** The complete tree. */
+    public static final TreeView FULL = new TreeView(TASK, null);
+    private static final Set<String> FIELDS = new HashSet<>(asList("number", "name", "startDate", "stopDate", "state", "modules", "phases", "tasks"));
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Depth depth;
+    private final Set<String> fields;
+
+    /**
+     * Constructor.
+     * @param depth  The {@link org.spectingular.spock.dto.Depth}.
+     * @param fields The field names, null for all fields.
+     */
+    private TreeView(final Depth depth, final Set<String> fields) {
+        this.depth = depth;
+        this.fields = fields;
+    }
+
+    /**
+     * Gets the {@link org.spectingular.spock.dto.TreeView} for the given request parameters.
+     * @param depth  The name of the {@link org.spectingular.spock.dto.Depth}, ignoring case, null for the complete depth.
+     * @param fields The field names, each possibly a comma separated list, null or empty for all fields.
+     * @return view The {@link org.spectingular.spock.dto.TreeView}.
+     * @throws IllegalArgumentException When the depth or a field is unknown.
+     */
+    public static TreeView parse(final String depth, final List<String> fields) throws IllegalArgumentException {
+        return of(depth == null ? null : Depth.fromString(depth), fields);
+    }
+
+    /**
+     * Gets the {@link org.spectingular.spock.dto.TreeView} for the given parameters.
+     * @param depth  The {@link org.spectingular.spock.dto.Depth}, null for the complete depth.
+     * @param fields The field names, each possibly a comma separated list, null or empty for all fields.
+     * @return view The {@link org.spectingular.spock.dto.TreeView}.
+     * @throws IllegalArgumentException When a field is unknown.
+     */
+    public static TreeView of(final Depth depth, final List<String> fields) throws IllegalArgumentException {
+        Set<String> names = null;
+        if (fields != null && !fields.isEmpty()) {
+            names = new HashSet<>();
+            for (String field : fields) {
+                for (String name : field.split(",")) {
+                    if (!FIELDS.contains(name.trim())) {
+                        throw new IllegalArgumentException(format("Field [%s] cannot be selected", name.trim()));
+                    }
+                    names.add(name.trim());
+                }
+            }
+        }
+        return names == null && (depth == null || depth == TASK) ? FULL : new TreeView(depth == null ? TASK : depth, names);
+    }
+
+    /**
+     * Indicator whether the given level is included.
+     * @param level The {@link org.spectingular.spock.dto.Depth} of the level.
+     * @return true if the level has to be read, else false.
+     */
+    public boolean includes(final Depth level) {
+        return level.compareTo(depth) <= 0 && (fields == null || level.getField() == null || fields.contains(level.getField()));
+    }
+
+    /**
+     * Renders the given dto with only the selected fields and levels.
+     * The levels that are not in the view are left out, instead of being sent as null as they are in the complete tree.
+     * @param dto The dto.
+     * @return rendered The dto itself for the complete tree, else a {@link com.fasterxml.jackson.databind.JsonNode}.
+     */
+    public Object render(final Object dto) {
+        if (fields == null && depth == TASK) {
+            return dto;
+        }
+        final JsonNode node = MAPPER.valueToTree(dto);
+        retain(node);
+        return node;
+    }
+
+    /**
+     * Removes the fields and levels that are not selected from the given node and its children.
+     * @param node The {@link com.fasterxml.jackson.databind.JsonNode}.
+     */
+    private void retain(final JsonNode node) {
+        if (node.isArray()) {
+            node.forEach(this::retain);
+        } else if (node.isObject()) {
+            final ObjectNode object = (ObjectNode) node;
+            if (fields != null) {
+                object.retain(fields);
+            }
+            for (Depth level : Depth.values()) {
+                if (level.getField() != null && !includes(level)) {
+                    object.remove(level.getField());
+                }
+            }
+            node.forEach(this::retain);
+        }
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TreeView)) {
+            return false;
+        }
+        final TreeView view = (TreeView) o;
+        return depth == view.depth && Objects.equals(fields, view.fields);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(depth, fields);
+    }
+}
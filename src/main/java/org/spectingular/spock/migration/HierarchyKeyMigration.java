@@ -0,0 +1,169 @@
+package org.spectingular.spock.migration;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DBRef;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+import static java.lang.String.format;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * One-off migration that back-fills the hierarchy keys (buildNumber, moduleName, phaseName and taskName)
+ * of the modules, phases, tasks and results that were stored before these keys existed.
+ * The documents are migrated in batches: the parents of a batch are loaded in one query and the keys are written in one bulk update.
+ * Parents are migrated before their children, so the keys of a child are copied from its already migrated parent.
+ * Orphans, documents whose parent cannot be found or has no keys itself, are skipped and reported, so no document gets a null build number.
+ * Run the application once with <code>spock.migration.hierarchy-keys=true</code> to execute it.
+ * It runs before the {@link org.spectingular.spock.services.IndexService} builds the unique indexes on these keys.
+ */
+@Component
+@ConditionalOnProperty("spock.migration.hierarchy-keys")
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class HierarchyKeyMigration implements CommandLineRunner {
+    private static final Logger LOG = getLogger(HierarchyKeyMigration.class);
+    private static final String ID = "_id";
+    private static final String NAME = "name";
+    private static final String BUILD_NUMBER = "buildNumber";
+    private static final String MODULE_NAME = "moduleName";
+    private static final String PHASE_NAME = "phaseName";
+    private static final String TASK_NAME = "taskName";
+
+    @Resource
+    private MongoOperations operations;
+    @Value("${spock.migration.batch-size:500}")
+    private int batchSize;
+
+    @Override
+    public void run(final String... args) {
+        LOG.info("Back-filling hierarchy keys");
+        migrate("modules", (module, parents) -> {
+            final DBObject build = parents.get(id(module, "build"));
+            return build == null ? null : new BasicDBObject(BUILD_NUMBER, build.get("number"));
+        }, "build");
+        migrate("phases", (phase, parents) -> {
+            final DBObject build = parents.get(id(phase, "build"));
+            final DBObject module = parents.get(id(phase, "module"));
+            if (build != null) {
+                return new BasicDBObject(BUILD_NUMBER, build.get("number"));
+            }
+            return module == null ? null : new BasicDBObject(BUILD_NUMBER, module.get(BUILD_NUMBER)).append(MODULE_NAME, module.get(NAME));
+        }, "build", "module");
+        migrate("tasks", (task, parents) -> {
+            final DBObject phase = parents.get(id(task, "phase"));
+            return phase == null ? null : keys(phase).append(PHASE_NAME, phase.get(NAME));
+        }, "phase");
+        migrate("results", (result, parents) -> {
+            final DBObject task = parents.get(id(result, "task"));
+            return task == null ? null : keys(task).append(PHASE_NAME, task.get(PHASE_NAME)).append(TASK_NAME, task.get(NAME));
+        }, "task");
+        LOG.info("Back-filled hierarchy keys");
+    }
+
+    /**
+     * Back-fills the hierarchy keys of all the documents in the given collection that do not have them yet.
+     * @param collectionName The collection name.
+     * @param keys           The function that determines the keys of a document given its parents, or null if the parent cannot be found.
+     * @param references     The names of the parent references.
+     */
+    private void migrate(final String collectionName, final BiFunction<DBObject, Map<Object, DBObject>, BasicDBObject> keys, final String... references) {
+        final DBCollection collection = operations.getCollection(collectionName);
+        int migrated = 0;
+        int orphans = 0;
+        Object last = null;
+        List<DBObject> batch;
+        do {
+            final BasicDBObject query = new BasicDBObject(BUILD_NUMBER, new BasicDBObject("$exists", false));
+            if (last != null) {
+                query.append(ID, new BasicDBObject("$gt", last));
+            }
+            batch = collection.find(query).sort(new BasicDBObject(ID, 1)).limit(batchSize).toArray();
+            if (!batch.isEmpty()) {
+                final Map<Object, DBObject> parents = parents(batch, references);
+                final BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+                int updates = 0;
+                for (DBObject document : batch) {
+                    final BasicDBObject values = keys.apply(document, parents);
+                    if (values == null || values.get(BUILD_NUMBER) == null) {
+                        LOG.warn(format("Skipping orphan with id [%s] in [%s], its parent cannot be found or has no hierarchy keys", document.get(ID), collectionName));
+                        orphans++;
+                    } else {
+                        bulk.find(new BasicDBObject(ID, document.get(ID))).updateOne(new BasicDBObject("$set", values));
+                        updates++;
+                    }
+                }
+                if (updates > 0) {
+                    bulk.execute();
+                }
+                migrated += updates;
+                last = batch.get(batch.size() - 1).get(ID);
+            }
+        } while (batch.size() == batchSize);
+        LOG.info(format("Back-filled hierarchy keys of [%d] documents in [%s], skipped [%d] orphans", migrated, collectionName, orphans));
+    }
+
+    /**
+     * Loads the parents referenced by the given documents, with one query per parent collection.
+     * @param batch      The documents.
+     * @param references The names of the parent references.
+     * @return parents The parents by id.
+     */
+    private Map<Object, DBObject> parents(final List<DBObject> batch, final String... references) {
+        final Map<String, Set<Object>> ids = new HashMap<>();
+        for (DBObject document : batch) {
+            for (String reference : references) {
+                final Object ref = document.get(reference);
+                if (ref instanceof DBRef) {
+                    ids.computeIfAbsent(((DBRef) ref).getRef(), collection -> new HashSet<>()).add(((DBRef) ref).getId());
+                }
+            }
+        }
+        final Map<Object, DBObject> parents = new HashMap<>();
+        ids.forEach((collection, in) -> operations.getCollection(collection)
+                .find(new BasicDBObject(ID, new BasicDBObject("$in", new ArrayList<>(in))))
+                .forEach(parent -> parents.put(parent.get(ID), parent)));
+        return parents;
+    }
+
+    /**
+     * Gets the id of the parent referenced by the given document.
+     * @param document  The document.
+     * @param reference The name of the parent reference.
+     * @return id The id, or null if there is no such reference.
+     */
+    private static Object id(final DBObject document, final String reference) {
+        final Object ref = document.get(reference);
+        return ref instanceof DBRef ? ((DBRef) ref).getId() : null;
+    }
+
+    /**
+     * Copies the build number and, when present, the module name of the given parent.
+     * @param parent The parent.
+     * @return keys The keys.
+     */
+    private static BasicDBObject keys(final DBObject parent) {
+        final BasicDBObject keys = new BasicDBObject(BUILD_NUMBER, parent.get(BUILD_NUMBER));
+        if (parent.get(MODULE_NAME) != null) {
+            keys.append(MODULE_NAME, parent.get(MODULE_NAME));
+        }
+        return keys;
+    }
+}
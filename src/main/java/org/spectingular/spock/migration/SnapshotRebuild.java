@@ -0,0 +1,32 @@
+package org.spectingular.spock.migration;
+
+import org.slf4j.Logger;
+import org.spectingular.spock.services.SnapshotService;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+import static java.lang.String.format;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Regenerates the build snapshots from the builds, modules, phases, tasks and results,
+ * for instance after the shape of the {@link org.spectingular.spock.dto.BuildDto} has changed.
+ * Run the application once with <code>spock.snapshots.rebuild=true</code> to execute it.
+ */
+@Component
+@ConditionalOnProperty("spock.snapshots.rebuild")
+public class SnapshotRebuild implements CommandLineRunner {
+    private static final Logger LOG = getLogger(SnapshotRebuild.class);
+
+    @Resource
+    private SnapshotService snapshotService;
+
+    @Override
+    public void run(final String... args) {
+        LOG.info("Rebuilding build snapshots");
+        LOG.info(format("Rebuilt [%d] build snapshots", snapshotService.rebuild()));
+    }
+}
@@ -1,19 +1,60 @@
 package org.spectingular.spock.services;
 
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
 import org.spectingular.spock.domain.Build;
+import org.spectingular.spock.domain.Change;
+import org.spectingular.spock.domain.ChangeType;
 import org.spectingular.spock.domain.Module;
 import org.spectingular.spock.domain.Phase;
+import org.spectingular.spock.domain.State;
 import org.spectingular.spock.domain.Task;
+import org.spectingular.spock.dto.BuildChange;
+import org.spectingular.spock.dto.Event;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static java.lang.String.format;
+import static java.util.Spliterator.ORDERED;
+import static java.util.Spliterators.spliteratorUnknownSize;
+import static org.spectingular.spock.dto.EventType.FINISH;
+import static org.springframework.data.mongodb.core.FindAndModifyOptions.options;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
 
 /**
  * Base service.
+ * Modules, phases and tasks are looked up in a single query on their hierarchy keys.
+ * Only when nothing is found, the parents are looked up to report which one is missing.
+ * Registrations only need a reference to their parent, which is made from the id in the {@link org.spectingular.spock.services.HierarchyCache}
+ * without reading the parent, once it has been registered or looked up before.
+ * With <code>spock.repositories.driver</code> set, the lookups and state updates go through the {@link org.spectingular.spock.services.DriverRepository}
+ * instead of the derived queries and the mapping of the Spring Data repositories; it is off by default, until the
+ * <code>RepositoryBenchmark</code> in the tests shows that it pays off.
+ * The read-only lists of the reports are projected on name and state straight into their dtos, without materializing the entities.
  */
 public class BaseService {
+    static final String VERSION = "version";
+    private static final DBObject SUMMARY = new BasicDBObject(HierarchyCodec.NAME, 1).append(HierarchyCodec.STATE, 1);
+
     @Resource
     private BuildRepository buildRepository;
     @Resource
@@ -22,6 +63,20 @@ public class BaseService {
     private TaskRepository taskRepository;
     @Resource
     private ModuleRepository moduleRepository;
+    @Resource
+    private MongoOperations operations;
+    @Resource
+    private WriteBehindQueue writeBehindQueue;
+    @Resource
+    private ChangeBus changeBus;
+    @Resource
+    private ResponseCache responseCache;
+    @Resource
+    private HierarchyCache hierarchyCache;
+    @Resource
+    private DriverRepository driverRepository;
+    @Value("${spock.repositories.driver:false}")
+    private boolean driver;
 
     /**
      * Find the {@link org.spectingular.spock.domain.Build} matching the given build number.
@@ -32,7 +87,7 @@ public class BaseService {
      * @throws IllegalArgumentException
      */
     protected <T> T findBuild(final int buildNumber, final Function<Build, T> fn) throws IllegalArgumentException {
-        return buildRepository.findByNumber(buildNumber)
+        return (driver ? driverRepository.findBuild(buildNumber) : buildRepository.findByNumber(buildNumber))
                 .map(fn::apply)
                 .orElseThrow(() -> new IllegalArgumentException(format("Build with number [%d] cannot be found", buildNumber)));
     }
@@ -47,10 +102,10 @@ public class BaseService {
      * @throws IllegalArgumentException
      */
     protected <T> T findModule(final int buildNumber, final String moduleName, final Function<Module, T> fn) throws IllegalArgumentException {
-        return findBuild(buildNumber, (Function<Build, T>) build ->
-                moduleRepository.findByBuildAndName(build, moduleName)
-                        .map(fn::apply)
-                        .orElseThrow(() -> new IllegalArgumentException(format("Module with name [%s] for build with number [%d] cannot be found", moduleName, buildNumber))));
+        return (driver ? driverRepository.findModule(buildNumber, moduleName) : moduleRepository.findByBuildNumberAndName(buildNumber, moduleName))
+                .map(fn::apply)
+                .orElseThrow(() -> this.<IllegalArgumentException>findBuild(buildNumber, build ->
+                        new IllegalArgumentException(format("Module with name [%s] for build with number [%d] cannot be found", moduleName, buildNumber))));
     }
 
     /**
@@ -63,9 +118,10 @@ public class BaseService {
      * @throws IllegalArgumentException
      */
     protected <T> T findPhase(final int buildNumber, final String phaseName, final Function<Phase, T> fn) throws IllegalArgumentException {
-        return findBuild(buildNumber, (Function<Build, T>) build -> phaseRepository.findByBuildAndName(build, phaseName)
+        return (driver ? driverRepository.findPhase(buildNumber, null, phaseName) : phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(buildNumber, phaseName))
                 .map(fn::apply)
-                .orElseThrow(() -> new IllegalArgumentException(format("Phase with name [%s] for build with number [%d] cannot be found", phaseName, buildNumber))));
+                .orElseThrow(() -> this.<IllegalArgumentException>findBuild(buildNumber, build ->
+                        new IllegalArgumentException(format("Phase with name [%s] for build with number [%d] cannot be found", phaseName, buildNumber))));
     }
 
     /**
@@ -79,10 +135,10 @@ public class BaseService {
      * @throws IllegalArgumentException
      */
     protected <T> T findPhase(final int buildNumber, final String moduleName, final String phaseName, final Function<Phase, T> fn) throws IllegalArgumentException {
-        return findModule(buildNumber, moduleName, (Function<Module, T>) module ->
-                phaseRepository.findByModuleAndName(module, phaseName)
-                        .map(fn::apply)
-                        .orElseThrow(() -> new IllegalArgumentException(format("Phase with name [%s] for module with name [%s] and build with number [%d] cannot be found", phaseName, moduleName, buildNumber))));
+        return (driver ? driverRepository.findPhase(buildNumber, moduleName, phaseName) : phaseRepository.findByBuildNumberAndModuleNameAndName(buildNumber, moduleName, phaseName))
+                .map(fn::apply)
+                .orElseThrow(() -> this.<IllegalArgumentException>findModule(buildNumber, moduleName, module ->
+                        new IllegalArgumentException(format("Phase with name [%s] for module with name [%s] and build with number [%d] cannot be found", phaseName, moduleName, buildNumber))));
     }
 
     /**
@@ -96,9 +152,11 @@ public class BaseService {
      * @throws IllegalArgumentException
      */
     protected <T> T findTask(final int buildNumber, final String phaseName, final String taskName, final Function<Task, T> fn) throws IllegalArgumentException {
-        return findPhase(buildNumber, phaseName, (Function<Phase, T>) phase -> taskRepository.findByPhaseAndName(phase, taskName)
+        return (driver ? driverRepository.findTask(buildNumber, null, phaseName, taskName)
+                : taskRepository.findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(buildNumber, phaseName, taskName))
                 .map(fn::apply)
-                .orElseThrow(() -> new IllegalArgumentException(format("Task with name [%s] for phase with name [%s] and build with number [%d] cannot be found", taskName, phaseName, buildNumber))));
+                .orElseThrow(() -> this.<IllegalArgumentException>findPhase(buildNumber, phaseName, phase ->
+                        new IllegalArgumentException(format("Task with name [%s] for phase with name [%s] and build with number [%d] cannot be found", taskName, phaseName, buildNumber))));
     }
 
     /**
@@ -113,8 +171,354 @@ public class BaseService {
      * @throws IllegalArgumentException
      */
     protected <T> T findTask(final int buildNumber, final String moduleName, final String phaseName, final String taskName, final Function<Task, T> fn) throws IllegalArgumentException {
-        return findPhase(buildNumber, moduleName, phaseName, (Function<Phase, T>) phase -> taskRepository.findByPhaseAndName(phase, taskName)
+        return (driver ? driverRepository.findTask(buildNumber, moduleName, phaseName, taskName)
+                : taskRepository.findByBuildNumberAndModuleNameAndPhaseNameAndName(buildNumber, moduleName, phaseName, taskName))
                 .map(fn::apply)
-                .orElseThrow(() -> new IllegalArgumentException(format("Task with name [%s] for phase with name [%s] and module with name [%s]and build with number [%d] cannot be found", taskName, phaseName, moduleName, buildNumber))));
+                .orElseThrow(() -> this.<IllegalArgumentException>findPhase(buildNumber, moduleName, phaseName, phase ->
+                        new IllegalArgumentException(format("Task with name [%s] for phase with name [%s] and module with name [%s]and build with number [%d] cannot be found", taskName, phaseName, moduleName, buildNumber))));
+    }
+
+    /**
+     * Refers to the {@link org.spectingular.spock.domain.Build} matching the given build number.
+     * The reference only holds the id, so it can be used to refer to the build from a child.
+     * @param buildNumber The build number.
+     * @param fn          The {@link java.util.function.Function}.
+     * @param <T>         The result.
+     * @return result The result.
+     * @throws IllegalArgumentException
+     */
+    protected <T> T referToBuild(final int buildNumber, final Function<Build, T> fn) throws IllegalArgumentException {
+        final Build build = new Build();
+        build.setId(hierarchyCache.resolve(buildNumber, null, null, null, () -> findBuild(buildNumber, Build::getId)));
+        return fn.apply(build);
+    }
+
+    /**
+     * Refers to the {@link org.spectingular.spock.domain.Module} for the {@link org.spectingular.spock.domain.Build} matching the given parameters.
+     * The reference only holds the id, so it can be used to refer to the module from a child.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name.
+     * @param fn          The {@link java.util.function.Function}.
+     * @param <T>         The result.
+     * @return result The result.
+     * @throws IllegalArgumentException
+     */
+    protected <T> T referToModule(final int buildNumber, final String moduleName, final Function<Module, T> fn) throws IllegalArgumentException {
+        final Module module = new Module();
+        module.setId(hierarchyCache.resolve(buildNumber, moduleName, null, null, () -> findModule(buildNumber, moduleName, Module::getId)));
+        return fn.apply(module);
+    }
+
+    /**
+     * Refers to the {@link org.spectingular.spock.domain.Phase} for the {@link org.spectingular.spock.domain.Build} matching the given parameters.
+     * The reference only holds the id, so it can be used to refer to the phase from a child.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name, null for a phase of the build.
+     * @param phaseName   The phase name.
+     * @param fn          The {@link java.util.function.Function}.
+     * @param <T>         The result.
+     * @return result The result.
+     * @throws IllegalArgumentException
+     */
+    protected <T> T referToPhase(final int buildNumber, final String moduleName, final String phaseName, final Function<Phase, T> fn) throws IllegalArgumentException {
+        final Phase phase = new Phase();
+        phase.setId(hierarchyCache.resolve(buildNumber, moduleName, phaseName, null, () -> moduleName == null
+                ? findPhase(buildNumber, phaseName, Phase::getId)
+                : findPhase(buildNumber, moduleName, phaseName, Phase::getId)));
+        return fn.apply(phase);
+    }
+
+    /**
+     * Refers to the {@link org.spectingular.spock.domain.Task} for the {@link org.spectingular.spock.domain.Phase} matching the given parameters.
+     * The reference only holds the id, so it can be used to refer to the task from a child.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name, null for a task of a phase of the build.
+     * @param phaseName   The phase name.
+     * @param taskName    The task name.
+     * @param fn          The {@link java.util.function.Function}.
+     * @param <T>         The result.
+     * @return result The result.
+     * @throws IllegalArgumentException
+     */
+    protected <T> T referToTask(final int buildNumber, final String moduleName, final String phaseName, final String taskName, final Function<Task, T> fn)
+            throws IllegalArgumentException {
+        final Task task = new Task();
+        task.setId(hierarchyCache.resolve(buildNumber, moduleName, phaseName, taskName, () -> moduleName == null
+                ? findTask(buildNumber, phaseName, taskName, Task::getId)
+                : findTask(buildNumber, moduleName, phaseName, taskName, Task::getId)));
+        return fn.apply(task);
+    }
+
+    /**
+     * Caches the id of the document that has been registered with the given hierarchy keys.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name, null when the document is not part of a module.
+     * @param phaseName   The phase name, null for a build or a module.
+     * @param taskName    The task name, null for anything but a task.
+     * @param id          The id.
+     */
+    protected void registered(final int buildNumber, final String moduleName, final String phaseName, final String taskName, final ObjectId id) {
+        if (moduleName == null && phaseName == null) {
+            // a build number is only registered again after its documents have been purged
+            hierarchyCache.evict(buildNumber);
+        }
+        hierarchyCache.put(buildNumber, moduleName, phaseName, taskName, id);
+    }
+
+    /**
+     * Returns the given result. When it is empty, the parent is looked up to report it when it is missing.
+     * @param found  The result.
+     * @param parent The lookup of the parent, throwing an {@link java.lang.IllegalArgumentException} when it cannot be found.
+     * @param <T>    The type.
+     * @return found The result.
+     * @throws IllegalArgumentException
+     */
+    protected <T> List<T> requireParent(final List<T> found, final Runnable parent) throws IllegalArgumentException {
+        if (found.isEmpty()) {
+            parent.run();
+        }
+        return found;
+    }
+
+    /**
+     * Returns the given result. When it is empty, the parent is looked up to report it when it is missing.
+     * @param found  The result.
+     * @param parent The lookup of the parent, throwing an {@link java.lang.IllegalArgumentException} when it cannot be found.
+     * @param <T>    The type.
+     * @return found The result.
+     * @throws IllegalArgumentException
+     */
+    protected <T> Optional<T> requireParent(final Optional<T> found, final Runnable parent) throws IllegalArgumentException {
+        if (!found.isPresent()) {
+            parent.run();
+        }
+        return found;
+    }
+
+    /**
+     * Finishes the document matching the given query, unless it has already been finished.
+     * The stop date and success are set in a single atomic update, so concurrent reporters cannot overwrite each other.
+     * When the document has been finished, the version of the build is incremented, the change is logged and it is published.
+     * @param buildNumber The build number.
+     * @param query       The {@link org.springframework.data.mongodb.core.query.Query} on the hierarchy keys.
+     * @param state       The {@link org.spectingular.spock.domain.State}.
+     * @param entityClass The entity class.
+     * @param event       The {@link org.spectingular.spock.dto.Event} describing the finish.
+     * @return finished Indicator whether the document has been finished by this update.
+     */
+    protected boolean finish(final int buildNumber, final Query query, final State state, final Class<?> entityClass, final Event event) {
+        query.addCriteria(where("state.stopDate").is(null));
+        final Update update = new Update().set("state.stopDate", new Date()).set("state.success", state.isSuccess());
+        final boolean finished;
+        if (entityClass == Build.class) {
+            // the build holds the version itself, so it is incremented in the same update
+            final Optional<Long> version;
+            if (driver) {
+                version = driverRepository.finishBuild(query.getQueryObject(), state.isSuccess());
+            } else {
+                query.fields().include(VERSION);
+                version = Optional.ofNullable(operations.findAndModify(query, update.inc(VERSION, 1), options().returnNew(true), Build.class)).map(Build::getVersion);
+            }
+            finished = version.isPresent();
+            if (finished) {
+                log(buildNumber, version.get(), event);
+                publish(buildNumber, event);
+            }
+        } else if (driver) {
+            finished = driverRepository.finish(operations.getCollectionName(entityClass), query.getQueryObject(), state.isSuccess());
+            if (finished) {
+                changed(buildNumber, event);
+            }
+        } else {
+            finished = operations.updateFirst(query, update, entityClass).getN() > 0;
+            if (finished) {
+                changed(buildNumber, event);
+            }
+        }
+        return finished;
+    }
+
+    /**
+     * Increments the version of the {@link org.spectingular.spock.domain.Build} matching the given build number, logs the given change and publishes it.
+     * Has to be called after every registration or finish of a module, phase or task.
+     * @param buildNumber The build number.
+     * @param event       The {@link org.spectingular.spock.dto.Event} that has been written.
+     */
+    protected void changed(final int buildNumber, final Event event) {
+        log(buildNumber, touch(buildNumber), event);
+        publish(buildNumber, event);
+    }
+
+    /**
+     * Publishes the given change without touching the version, for changes that are versioned otherwise.
+     * The cached responses of the build are evicted first, synchronously, as the delivery of published changes may be dropped.
+     * @param buildNumber The build number.
+     * @param event       The {@link org.spectingular.spock.dto.Event} that has been written.
+     */
+    protected void publish(final int buildNumber, final Event event) {
+        responseCache.evict(buildNumber);
+        changeBus.publish(new BuildChange(buildNumber, event));
+    }
+
+    /**
+     * Logs the given {@link org.spectingular.spock.domain.Change} in the change log of its build.
+     * @param change The {@link org.spectingular.spock.domain.Change}.
+     */
+    protected void log(final Change change) {
+        operations.insert(change);
+    }
+
+    /**
+     * Logs the given change in the change log of the {@link org.spectingular.spock.domain.Build} matching the given build number.
+     * @param buildNumber The build number.
+     * @param version     The version of the build after the change.
+     * @param event       The {@link org.spectingular.spock.dto.Event} that has been written.
+     */
+    private void log(final int buildNumber, final long version, final Event event) {
+        log(change(buildNumber, version, event));
+    }
+
+    /**
+     * Creates the {@link org.spectingular.spock.domain.Change} for the given {@link org.spectingular.spock.dto.Event}.
+     * @param buildNumber The build number.
+     * @param version     The version of the build after the change.
+     * @param event       The {@link org.spectingular.spock.dto.Event} that has been written.
+     * @return change The {@link org.spectingular.spock.domain.Change}.
+     */
+    static Change change(final int buildNumber, final long version, final Event event) {
+        return new Change(buildNumber, version, ChangeType.valueOf(event.getType().name()), event.getModule(), event.getPhase(), event.getTask(),
+                event.getType() == FINISH ? event.isSuccess() : null);
+    }
+
+    /**
+     * Increments the version of the {@link org.spectingular.spock.domain.Build} matching the given build number.
+     * Has to be called after every write to the build or anything registered for it.
+     * @param buildNumber The build number.
+     * @return version The incremented version.
+     */
+    protected long touch(final int buildNumber) {
+        final Query query = query(where("number").is(buildNumber));
+        query.fields().include(VERSION);
+        final Build build = operations.findAndModify(query, new Update().inc(VERSION, 1), options().returnNew(true), Build.class);
+        return build == null ? 0 : build.getVersion();
+    }
+
+    /**
+     * Finds the documents matching the given query.
+     * @param query       The {@link org.springframework.data.mongodb.core.query.Query}.
+     * @param entityClass The entity class.
+     * @param <T>         The entity.
+     * @return entities The entities.
+     */
+    protected <T> List<T> find(final Query query, final Class<T> entityClass) {
+        return operations.find(query, entityClass);
+    }
+
+    /**
+     * Reads the name and the state of the documents matching the given query straight into dtos, without materializing the entities.
+     * The field names in the query are used as is.
+     * @param query       The {@link org.springframework.data.mongodb.core.query.Query}.
+     * @param entityClass The entity class.
+     * @param dto         The {@link java.util.function.BiFunction} creating the dto from the name and the {@link org.spectingular.spock.domain.State}.
+     * @param <D>         The dto.
+     * @return dtos The dtos.
+     */
+    protected <D> List<D> project(final Query query, final Class<?> entityClass, final BiFunction<String, State, D> dto) {
+        final List<D> dtos = new ArrayList<>();
+        read(query, entityClass, SUMMARY, document -> dtos.add(dto.apply((String) document.get(HierarchyCodec.NAME), HierarchyCodec.state(document))));
+        return dtos;
+    }
+
+    /**
+     * Reads the name and the state of the documents matching the given query straight into dtos, grouped by the values of the given hierarchy keys.
+     * This way the children of several parents are read with a single query and handed out to their parents in memory.
+     * The field names in the query are used as is.
+     * @param query       The {@link org.springframework.data.mongodb.core.query.Query}.
+     * @param entityClass The entity class.
+     * @param dto         The {@link java.util.function.BiFunction} creating the dto from the name and the {@link org.spectingular.spock.domain.State}.
+     * @param keys        The hierarchy keys to group on.
+     * @param <D>         The dto.
+     * @return dtos The dtos, by the values of the hierarchy keys in the given order.
+     */
+    protected <D> Map<List<Object>, List<D>> group(final Query query, final Class<?> entityClass, final BiFunction<String, State, D> dto, final String... keys) {
+        final DBObject fields = new BasicDBObject(SUMMARY.toMap());
+        for (String key : keys) {
+            fields.put(key, 1);
+        }
+        final Map<List<Object>, List<D>> groups = new HashMap<>();
+        read(query, entityClass, fields, document -> HierarchyCodec.group(groups, document, dto, keys));
+        return groups;
+    }
+
+    /**
+     * Reads the given fields of the documents matching the given query from a cursor, handing them to the given consumer one at a time.
+     * @param query       The {@link org.springframework.data.mongodb.core.query.Query}.
+     * @param entityClass The entity class.
+     * @param fields      The fields to fetch.
+     * @param consumer    The {@link java.util.function.Consumer} of the documents.
+     */
+    private void read(final Query query, final Class<?> entityClass, final DBObject fields, final Consumer<DBObject> consumer) {
+        final DBCursor cursor = operations.getCollection(operations.getCollectionName(entityClass)).find(query.getQueryObject(), fields);
+        try {
+            while (cursor.hasNext()) {
+                consumer.accept(cursor.next());
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Streams the documents matching the given query straight from a cursor, converting them one at a time.
+     * The first batch is fetched right away; when it is empty, the parent is looked up to report it when it is missing.
+     * The field names in the query are used as is. The stream has to be closed to release the cursor.
+     * @param query       The {@link org.springframework.data.mongodb.core.query.Query}.
+     * @param entityClass The entity class.
+     * @param parent      The lookup of the parent, throwing an {@link java.lang.IllegalArgumentException} when it cannot be found.
+     * @param <T>         The entity.
+     * @return entities The {@link java.util.stream.Stream} of entities.
+     * @throws IllegalArgumentException
+     */
+    protected <T> Stream<T> stream(final Query query, final Class<T> entityClass, final Runnable parent) throws IllegalArgumentException {
+        final DBCursor cursor = operations.getCollection(operations.getCollectionName(entityClass)).find(query.getQueryObject(), query.getFieldsObject());
+        if (query.getSortObject() != null) {
+            cursor.sort(query.getSortObject());
+        }
+        if (query.getSkip() > 0) {
+            cursor.skip(query.getSkip());
+        }
+        if (query.getLimit() > 0) {
+            cursor.limit(query.getLimit());
+        }
+        if (!cursor.hasNext()) {
+            cursor.close();
+            parent.run();
+            return Stream.empty();
+        }
+        final MongoConverter converter = operations.getConverter();
+        return StreamSupport.stream(spliteratorUnknownSize(cursor, ORDERED), false)
+                .onClose(cursor::close)
+                .map(document -> converter.read(entityClass, document));
+    }
+
+    /**
+     * Gets the distinct values of the given key in the documents matching the given query.
+     * @param key         The key.
+     * @param query       The {@link org.springframework.data.mongodb.core.query.Query}.
+     * @param entityClass The entity class.
+     * @return values The values.
+     */
+    protected List distinct(final String key, final Query query, final Class<?> entityClass) {
+        return operations.getCollection(operations.getCollectionName(entityClass)).distinct(key, query.getQueryObject());
+    }
+
+    /**
+     * Hands the given {@link org.spectingular.spock.dto.Event} to the {@link org.spectingular.spock.services.WriteBehindQueue}.
+     * @param buildNumber The build number.
+     * @param event       The {@link org.spectingular.spock.dto.Event}.
+     * @return queued Indicator whether the event has been queued, false when write-behind is disabled and it has to be written directly.
+     */
+    protected boolean writeBehind(final int buildNumber, final Event event) {
+        return writeBehindQueue.offer(buildNumber, event);
     }
 }
@@ -1,20 +1,39 @@
 package org.spectingular.spock.services;
 
 import org.spectingular.spock.domain.Build;
+import org.spectingular.spock.domain.Change;
 import org.spectingular.spock.domain.State;
+import org.spectingular.spock.dto.Event;
+import org.spectingular.spock.dto.RunState;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static java.util.Optional.empty;
+import static org.spectingular.spock.dto.EventType.FINISH;
+import static org.spectingular.spock.dto.EventType.REGISTER;
+import static org.spectingular.spock.dto.RunState.FINISHED_SUCCESSFULLY;
+import static org.springframework.data.domain.Sort.Direction.ASC;
+import static org.springframework.data.domain.Sort.Direction.DESC;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
 
 @Service
 public class BuildService extends BaseService{
     @Resource
     private BuildRepository repository;
+    @Resource
+    private SnapshotService snapshotService;
+    @Value("${spock.changes.grace:10000}")
+    private long grace;
 
     /**
      * Gets the {@link org.spectingular.spock.domain.Build} matching the given build number.
@@ -25,6 +44,54 @@ public class BuildService extends BaseService{
         return repository.findByNumber(number).map(Optional::ofNullable).orElse(empty());
     }
 
+    /**
+     * Gets the version of the {@link org.spectingular.spock.domain.Build} matching the given build number.
+     * Only the number and the version are read, so the lookup is cheap enough to answer conditional requests with.
+     * @param number The build number.
+     * @return version The version.
+     */
+    public Optional<Long> findVersion(final int number) {
+        final Query query = query(where("number").is(number));
+        query.fields().include("number").include(VERSION);
+        return find(query.limit(1), Build.class).stream().findFirst().map(Build::getVersion);
+    }
+
+    /**
+     * Gets the committed {@link org.spectingular.spock.domain.Change}s of the {@link org.spectingular.spock.domain.Build} matching the given build number
+     * after the given version, read from the change log on its (buildNumber, version) index.
+     * Versions are allocated before their changes are logged, so the change of a version can be logged after that of a later version.
+     * The changes are therefore only served up to the first version that is missing from the log, which is skipped only once the
+     * change after it is older than <code>spock.changes.grace</code> milliseconds, for instance because its writer died.
+     * @param number The build number.
+     * @param since  The version.
+     * @param limit  The maximum number of versions.
+     * @return changes The {@link org.spectingular.spock.domain.Change}s, oldest first.
+     * @throws IllegalArgumentException
+     */
+    public List<Change> findChanges(final int number, final long since, final int limit) throws IllegalArgumentException {
+        final Query query = query(where("buildNumber").is(number).and(VERSION).gt(since).lte(since + limit)).with(new Sort(ASC, VERSION));
+        return committed(requireParent(find(query, Change.class), () -> findBuild(number, build -> build)), since);
+    }
+
+    /**
+     * Gets the given changes up to the first version that is missing, unless the change after it is older than the grace period.
+     * @param changes The {@link org.spectingular.spock.domain.Change}s, oldest first.
+     * @param since   The version the changes follow.
+     * @return changes The committed {@link org.spectingular.spock.domain.Change}s.
+     */
+    private List<Change> committed(final List<Change> changes, final long since) {
+        final long horizon = System.currentTimeMillis() - grace;
+        long last = since;
+        for (int index = 0; index < changes.size(); index++) {
+            final Change change = changes.get(index);
+            if (change.getVersion() > last + 1 && change.getDate() != null && change.getDate().getTime() > horizon) {
+                return changes.subList(0, index);
+            }
+            last = change.getVersion();
+        }
+        return changes;
+    }
+
     /**
      * Get all the {@link org.spectingular.spock.domain.Build}s.
      * @return builds The list of {@link org.spectingular.spock.domain.Build}s.
@@ -33,6 +100,89 @@ public class BuildService extends BaseService{
         return repository.findAll();
     }
 
+    /**
+     * Streams a page of {@link org.spectingular.spock.domain.Build}s, newest first.
+     * Pages are keyed on the build number, so each page is a range scan on the number index regardless of how deep it is.
+     * Only the number and state are fetched.
+     * @param before The build number the builds have to be lower than, null for the first page.
+     * @param limit  The maximum number of builds.
+     * @param state  The {@link org.spectingular.spock.dto.RunState} the builds have to be in, null for any state.
+     * @param from   The date the builds have to be started at or after, null for no lower bound.
+     * @param to     The date the builds have to be started before, null for no upper bound.
+     * @return builds The {@link java.util.stream.Stream} of {@link org.spectingular.spock.domain.Build}s.
+     */
+    public Stream<Build> stream(final Integer before, final int limit, final RunState state, final Date from, final Date to) {
+        final Query query = page(before, state, from, to);
+        if (query == null) {
+            return Stream.empty();
+        }
+        query.with(new Sort(DESC, "number")).limit(limit);
+        query.fields().include("number").include("state");
+        return stream(query, Build.class, () -> {
+        });
+    }
+
+    /**
+     * Gets the number of the last {@link org.spectingular.spock.domain.Build} of a page, when the page is full.
+     * Only the index on the number is read, so the cursor for the next page is known before the page is streamed.
+     * @param before The build number the builds have to be lower than, null for the first page.
+     * @param limit  The maximum number of builds.
+     * @param state  The {@link org.spectingular.spock.dto.RunState} the builds have to be in, null for any state.
+     * @param from   The date the builds have to be started at or after, null for no lower bound.
+     * @param to     The date the builds have to be started before, null for no upper bound.
+     * @return number The number of the last build, empty when the page is not full.
+     */
+    public Optional<Integer> findLast(final Integer before, final int limit, final RunState state, final Date from, final Date to) {
+        final Query query = page(before, state, from, to);
+        if (query == null) {
+            return empty();
+        }
+        query.with(new Sort(DESC, "number")).skip(limit - 1).limit(1);
+        query.fields().include("number");
+        return find(query, Build.class).stream().findFirst().map(Build::getNumber);
+    }
+
+    /**
+     * Gets the query for a page of {@link org.spectingular.spock.domain.Build}s.
+     * @param before The build number the builds have to be lower than, null for the first page.
+     * @param state  The {@link org.spectingular.spock.dto.RunState} the builds have to be in, null for any state.
+     * @param from   The date the builds have to be started at or after, null for no lower bound.
+     * @param to     The date the builds have to be started before, null for no upper bound.
+     * @return query The {@link org.springframework.data.mongodb.core.query.Query}, null when no build can match.
+     */
+    private static Query page(final Integer before, final RunState state, final Date from, final Date to) {
+        final Query query = new Query();
+        if (before != null) {
+            query.addCriteria(where("number").lt(before));
+        }
+        if (from != null || to != null) {
+            final Criteria startDate = where("state.startDate");
+            if (from != null) {
+                startDate.gte(from);
+            }
+            if (to != null) {
+                startDate.lt(to);
+            }
+            query.addCriteria(startDate);
+        }
+        if (state != null) {
+            switch (state) {
+                case IN_PROGRESS:
+                    query.addCriteria(where("state.stopDate").is(null));
+                    break;
+                case FINISHED_SUCCESSFULLY:
+                case FINISHED_WITH_FAILURES:
+                    query.addCriteria(where("state.stopDate").ne(null));
+                    query.addCriteria(where("state.success").is(state == FINISHED_SUCCESSFULLY));
+                    break;
+                default:
+                    // builds are started when they are registered, so they are never idle
+                    return null;
+            }
+        }
+        return query;
+    }
+
     /**
      * Register the {@link org.spectingular.spock.domain.Build}.
      * @param build The {@link org.spectingular.spock.domain.Build}.
@@ -40,21 +190,24 @@ public class BuildService extends BaseService{
     public void register(final Build build) {
         build.setState(new State());
         repository.save(build);
+        registered(build.getNumber(), null, null, null, build.getId());
+        publish(build.getNumber(), new Event(REGISTER, null, null, null, false));
     }
 
     /**
-     * Update the {@link org.spectingular.spock.domain.Phase}.
+     * Finishes the {@link org.spectingular.spock.domain.Build}.
      * @param buildNumber The build number.
      * @param state       The {@link org.spectingular.spock.domain.State}.
+     * @return finished Indicator whether the build has been finished, false when it had already been finished.
      * @throws IllegalArgumentException
      */
-    public void update(final int buildNumber, final State state) throws IllegalArgumentException {
-        findBuild(buildNumber, build -> {
-            build.getState().setStopDate(new Date());
-            build.getState().setSuccess(state.isSuccess());
-            repository.save(build);
-            return build;
-        });
+    public boolean update(final int buildNumber, final State state) throws IllegalArgumentException {
+        if (finish(buildNumber, query(where("number").is(buildNumber)), state, Build.class, new Event(FINISH, null, null, null, state.isSuccess()))) {
+            // a finished build no longer changes, so its snapshot is written right away instead of on the next read
+            findVersion(buildNumber).ifPresent(version -> snapshotService.refresh(buildNumber, version));
+            return true;
+        }
+        return findBuild(buildNumber, build -> false);
     }
 
 }
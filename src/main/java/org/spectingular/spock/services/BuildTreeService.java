@@ -0,0 +1,151 @@
+package org.spectingular.spock.services;
+
+import com.mongodb.DBObject;
+import org.spectingular.spock.dto.BuildDto;
+import org.spectingular.spock.dto.ModuleDto;
+import org.spectingular.spock.dto.PhaseDto;
+import org.spectingular.spock.dto.TaskDto;
+import org.spectingular.spock.dto.TreeView;
+import org.spectingular.spock.services.ReportExecutor.Fanout;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static java.util.Collections.singletonList;
+import static java.util.Optional.empty;
+import static java.util.stream.Collectors.toList;
+import static org.spectingular.spock.dto.Depth.MODULE;
+import static org.spectingular.spock.dto.Depth.PHASE;
+import static org.spectingular.spock.dto.Depth.TASK;
+import static org.spectingular.spock.services.HierarchyCodec.BUILD_NUMBER;
+import static org.spectingular.spock.services.HierarchyCodec.MODULE_NAME;
+import static org.spectingular.spock.services.HierarchyCodec.NAME;
+import static org.spectingular.spock.services.HierarchyCodec.NUMBER;
+import static org.spectingular.spock.services.HierarchyCodec.PHASE_NAME;
+import static org.spectingular.spock.services.HierarchyCodec.STATE;
+import static org.spectingular.spock.services.HierarchyCodec.group;
+import static org.spectingular.spock.services.HierarchyCodec.state;
+import static org.spectingular.spock.services.HierarchyCodec.withTasks;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Build tree service.
+ * Assembles the {@link org.spectingular.spock.dto.BuildDto} tree of a build in a constant number of queries:
+ * one for the build, one for all its modules, one for all its phases and one for all its tasks, each only when the level is requested.
+ * The documents are selected on their hierarchy keys and read as is, so no {@link com.mongodb.DBRef}s are resolved,
+ * and stitched together in memory with the same grouping as the other reports. The queries below the build are independent of each other, so they are issued through the
+ * {@link org.spectingular.spock.services.ReportExecutor}, concurrently when it assembles the reports in parallel.
+ */
+@Service
+public class BuildTreeService {
+    @Resource
+    private MongoOperations operations;
+    @Resource
+    private ReportExecutor reportExecutor;
+
+    /**
+     * Assembles the {@link org.spectingular.spock.dto.BuildDto} tree for the build matching the given build number.
+     * @param buildNumber The build number.
+     * @return build The {@link org.spectingular.spock.dto.BuildDto}.
+     */
+    public Optional<BuildDto> assemble(final int buildNumber) {
+        return assemble(buildNumber, TreeView.FULL);
+    }
+
+    /**
+     * Assembles the part of the {@link org.spectingular.spock.dto.BuildDto} tree for the build matching the given build number that is in the given view.
+     * The levels that are not in the view are not queried at all.
+     * @param buildNumber The build number.
+     * @param view        The {@link org.spectingular.spock.dto.TreeView}.
+     * @return build The {@link org.spectingular.spock.dto.BuildDto}.
+     */
+    public Optional<BuildDto> assemble(final int buildNumber, final TreeView view) {
+        return reportExecutor.time("tree", () -> assembleTree(buildNumber, view));
+    }
+
+    /**
+     * Assembles the part of the {@link org.spectingular.spock.dto.BuildDto} tree for the build matching the given build number that is in the given view.
+     * @param buildNumber The build number.
+     * @param view        The {@link org.spectingular.spock.dto.TreeView}.
+     * @return build The {@link org.spectingular.spock.dto.BuildDto}.
+     */
+    private Optional<BuildDto> assembleTree(final int buildNumber, final TreeView view) {
+        final DBObject build = operations.findOne(query(where(NUMBER).is(buildNumber)), DBObject.class, "builds");
+        if (build == null) {
+            return empty();
+        }
+        final boolean withModules = view.includes(MODULE);
+        final boolean withPhases = view.includes(PHASE);
+        final boolean withTasks = withPhases && view.includes(TASK);
+        final Fanout fanout = reportExecutor.fanout();
+        final Supplier<List<DBObject>> modules = withModules
+                ? fanout.fork(() -> operations.find(fields(query(where(BUILD_NUMBER).is(buildNumber))), DBObject.class, "modules")) : Collections::emptyList;
+        final Supplier<List<DBObject>> phases = withPhases
+                ? fanout.fork(() -> operations.find(fields(below(buildNumber, withModules), MODULE_NAME), DBObject.class, "phases")) : Collections::emptyList;
+        final Supplier<List<DBObject>> tasks = withTasks
+                ? fanout.fork(() -> operations.find(fields(below(buildNumber, withModules), MODULE_NAME, PHASE_NAME), DBObject.class, "tasks")) : Collections::emptyList;
+
+        final Map<List<Object>, List<TaskDto>> tasksByPhase = new HashMap<>();
+        tasks.get().forEach(task -> group(tasksByPhase, task, TaskDto::new, MODULE_NAME, PHASE_NAME));
+
+        // the phases of the build itself are grouped under a null module name
+        final Map<List<Object>, List<PhaseDto>> phasesByModule = new HashMap<>();
+        phases.get().forEach(phase -> group(phasesByModule, phase, PhaseDto::new, MODULE_NAME));
+        if (withTasks) {
+            phasesByModule.forEach((module, dtos) -> withTasks(module.get(0), dtos, tasksByPhase));
+        }
+
+        final BuildDto dto = new BuildDto(buildNumber, state(build));
+        if (withModules) {
+            dto.setModules(modules.get().stream().map(module -> {
+                final ModuleDto m = new ModuleDto((String) module.get(NAME), state(module));
+                if (withPhases) {
+                    m.setPhases(phasesByModule.getOrDefault(singletonList(module.get(NAME)), new ArrayList<>()));
+                }
+                return m;
+            }).collect(toList()));
+        }
+        if (withPhases) {
+            dto.setPhases(phasesByModule.getOrDefault(singletonList(null), new ArrayList<>()));
+        }
+        return Optional.of(dto);
+    }
+
+    /**
+     * Selects the documents of the build matching the given build number, only the ones directly below the build when modules are left out.
+     * @param buildNumber The build number.
+     * @param withModules Indicator whether the documents of the modules are selected as well.
+     * @return query The {@link org.springframework.data.mongodb.core.query.Query}.
+     */
+    private Query below(final int buildNumber, final boolean withModules) {
+        final Query query = query(where(BUILD_NUMBER).is(buildNumber));
+        if (!withModules) {
+            query.addCriteria(where(MODULE_NAME).is(null));
+        }
+        return query;
+    }
+
+    /**
+     * Limits the fields that are read to the name, the state and the given hierarchy keys.
+     * @param query The {@link org.springframework.data.mongodb.core.query.Query}.
+     * @param keys  The hierarchy keys.
+     * @return query The {@link org.springframework.data.mongodb.core.query.Query}.
+     */
+    private Query fields(final Query query, final String... keys) {
+        query.fields().include(NAME).include(STATE);
+        for (String key : keys) {
+            query.fields().include(key);
+        }
+        return query;
+    }
+}
@@ -0,0 +1,114 @@
+package org.spectingular.spock.services;
+
+import org.slf4j.Logger;
+import org.spectingular.spock.dto.BuildChange;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Consumer;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Change bus.
+ * The services publish every {@link org.spectingular.spock.dto.BuildChange} they have written to the subscribers in this process,
+ * so clients can be told about changes instead of polling the builds.
+ * Changes are delivered in order on a single dispatcher thread, so a slow subscriber never holds up a writer.
+ * When <code>spock.changes.capacity</code> changes are waiting to be delivered, new changes are dropped and counted.
+ * A subscriber that fails to take a change is removed.
+ */
+@Service
+public class ChangeBus {
+    private static final Logger LOG = getLogger(ChangeBus.class);
+
+    @Resource
+    private CounterService counterService;
+    @Value("${spock.changes.capacity:10000}")
+    private int capacity;
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private ExecutorService dispatcher;
+
+    /** Starts the dispatcher thread. */
+    @PostConstruct
+    public void start() {
+        dispatcher = new ThreadPoolExecutor(1, 1, 0, MILLISECONDS, new LinkedBlockingQueue<>(capacity), runnable -> {
+            final Thread thread = new Thread(runnable, "change-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        }, (runnable, executor) -> counterService.increment("spock.changes.dropped"));
+    }
+
+    /** Stops the dispatcher thread. */
+    @PreDestroy
+    public void stop() {
+        dispatcher.shutdownNow();
+    }
+
+    /**
+     * Subscribes the given consumer to the changes of the {@link org.spectingular.spock.domain.Build} matching the given build number.
+     * @param buildNumber The build number, null for the changes of all builds.
+     * @param consumer    The consumer.
+     * @return unsubscribe The {@link java.lang.Runnable} that ends the subscription.
+     */
+    public Runnable subscribe(final Integer buildNumber, final Consumer<BuildChange> consumer) {
+        final Subscription subscription = new Subscription(buildNumber, consumer);
+        subscriptions.add(subscription);
+        return () -> subscriptions.remove(subscription);
+    }
+
+    /**
+     * Publishes the given {@link org.spectingular.spock.dto.BuildChange}.
+     * Returns right away; the change is delivered on the dispatcher thread.
+     * @param change The {@link org.spectingular.spock.dto.BuildChange}.
+     */
+    public void publish(final BuildChange change) {
+        if (!subscriptions.isEmpty()) {
+            dispatcher.execute(() -> deliver(change));
+        }
+    }
+
+    /**
+     * Delivers the given {@link org.spectingular.spock.dto.BuildChange} to the matching subscribers.
+     * @param change The {@link org.spectingular.spock.dto.BuildChange}.
+     */
+    void deliver(final BuildChange change) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.buildNumber == null || subscription.buildNumber == change.getBuildNumber()) {
+                try {
+                    subscription.consumer.accept(change);
+                } catch (RuntimeException e) {
+                    LOG.debug(format("Subscriber to the changes of build with number [%s] has been removed: %s", subscription.buildNumber, e.getMessage()));
+                    subscriptions.remove(subscription);
+                }
+            }
+        }
+    }
+
+    /** A consumer of the changes of one or all builds. */
+    private static final class Subscription {
+        private final Integer buildNumber;
+        private final Consumer<BuildChange> consumer;
+
+        /**
+         * Constructor.
+         * @param buildNumber The build number, null for all builds.
+         * @param consumer    The consumer.
+         */
+        private Subscription(final Integer buildNumber, final Consumer<BuildChange> consumer) {
+            this.buildNumber = buildNumber;
+            this.consumer = consumer;
+        }
+    }
+}
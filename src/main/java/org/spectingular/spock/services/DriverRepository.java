@@ -0,0 +1,133 @@
+package org.spectingular.spock.services;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.spectingular.spock.domain.Build;
+import org.spectingular.spock.domain.Module;
+import org.spectingular.spock.domain.Phase;
+import org.spectingular.spock.domain.Task;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.Resource;
+import java.util.Optional;
+import java.util.function.Function;
+
+import static java.util.Optional.ofNullable;
+import static org.spectingular.spock.services.HierarchyCodec.BUILD_NUMBER;
+import static org.spectingular.spock.services.HierarchyCodec.MODULE_NAME;
+import static org.spectingular.spock.services.HierarchyCodec.NAME;
+import static org.spectingular.spock.services.HierarchyCodec.NUMBER;
+import static org.spectingular.spock.services.HierarchyCodec.PHASE_NAME;
+import static org.spectingular.spock.services.HierarchyCodec.STATE;
+import static org.spectingular.spock.services.HierarchyCodec.STOP_DATE;
+import static org.spectingular.spock.services.HierarchyCodec.VERSION;
+
+/**
+ * Repository for the lookups and state updates on the hot paths, using the Mongo driver directly.
+ * The filters are built on the stored field names, so nothing is derived or mapped per call, and only the fields that are
+ * read by the {@link org.spectingular.spock.services.HierarchyCodec} are fetched. References to parents are not resolved.
+ * It is used by the services instead of the derived queries of the Spring Data repositories when <code>spock.repositories.driver</code> is set.
+ */
+@Repository
+public class DriverRepository {
+    private static final DBObject BUILD_FIELDS = new BasicDBObject(NUMBER, 1).append(STATE, 1).append(VERSION, 1);
+    private static final DBObject MODULE_FIELDS = new BasicDBObject(NAME, 1).append(STATE, 1).append(BUILD_NUMBER, 1);
+    private static final DBObject PHASE_FIELDS = new BasicDBObject(MODULE_FIELDS.toMap()).append(MODULE_NAME, 1);
+    private static final DBObject TASK_FIELDS = new BasicDBObject(PHASE_FIELDS.toMap()).append(PHASE_NAME, 1);
+
+    @Resource
+    private MongoOperations operations;
+
+    /**
+     * Gets the {@link org.spectingular.spock.domain.Build} matching the given build number.
+     * @param number The number.
+     * @return build The {@link org.spectingular.spock.domain.Build}.
+     */
+    public Optional<Build> findBuild(final int number) {
+        return findOne("builds", new BasicDBObject(NUMBER, number), BUILD_FIELDS, HierarchyCodec::build);
+    }
+
+    /**
+     * Gets the {@link org.spectingular.spock.domain.Module} for the {@link org.spectingular.spock.domain.Build} matching the given parameters.
+     * @param buildNumber The build number.
+     * @param name        The name.
+     * @return module The {@link org.spectingular.spock.domain.Module}.
+     */
+    public Optional<Module> findModule(final int buildNumber, final String name) {
+        return findOne("modules", new BasicDBObject(BUILD_NUMBER, buildNumber).append(NAME, name), MODULE_FIELDS, HierarchyCodec::module);
+    }
+
+    /**
+     * Gets the {@link org.spectingular.spock.domain.Phase} matching the given parameters.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name, null for a phase of the build.
+     * @param name        The name.
+     * @return phase The {@link org.spectingular.spock.domain.Phase}.
+     */
+    public Optional<Phase> findPhase(final int buildNumber, final String moduleName, final String name) {
+        return findOne("phases", new BasicDBObject(BUILD_NUMBER, buildNumber).append(MODULE_NAME, moduleName).append(NAME, name), PHASE_FIELDS, HierarchyCodec::phase);
+    }
+
+    /**
+     * Gets the {@link org.spectingular.spock.domain.Task} matching the given parameters.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name, null for a task of a phase of the build.
+     * @param phaseName   The phase name.
+     * @param name        The name.
+     * @return task The {@link org.spectingular.spock.domain.Task}.
+     */
+    public Optional<Task> findTask(final int buildNumber, final String moduleName, final String phaseName, final String name) {
+        return findOne("tasks", new BasicDBObject(BUILD_NUMBER, buildNumber).append(MODULE_NAME, moduleName).append(PHASE_NAME, phaseName).append(NAME, name),
+                TASK_FIELDS, HierarchyCodec::task);
+    }
+
+    /**
+     * Finishes the document matching the given query in the given collection, unless it has already been finished.
+     * @param collection The collection name.
+     * @param query      The query on the stored field names.
+     * @param success    Indicator success.
+     * @return finished Indicator whether the document has been finished by this update.
+     */
+    public boolean finish(final String collection, final DBObject query, final boolean success) {
+        return operations.getCollection(collection).update(unfinished(query), HierarchyCodec.finish(success)).getN() > 0;
+    }
+
+    /**
+     * Finishes the {@link org.spectingular.spock.domain.Build} matching the given query, unless it has already been finished,
+     * and increments its version in the same update.
+     * @param query   The query on the stored field names.
+     * @param success Indicator success.
+     * @return version The incremented version, empty when the build has not been finished by this update.
+     */
+    public Optional<Long> finishBuild(final DBObject query, final boolean success) {
+        final DBObject update = HierarchyCodec.finish(success);
+        update.put("$inc", new BasicDBObject(VERSION, 1));
+        return ofNullable(operations.getCollection("builds").findAndModify(unfinished(query), new BasicDBObject(VERSION, 1), null, false, update, true, false))
+                .map(build -> ((Number) build.get(VERSION)).longValue());
+    }
+
+    /**
+     * Finds the first document matching the given query and reads it with the given codec.
+     * @param collection The collection name.
+     * @param query      The query.
+     * @param fields     The fields to fetch.
+     * @param codec      The codec.
+     * @param <T>        The entity.
+     * @return entity The entity.
+     */
+    private <T> Optional<T> findOne(final String collection, final DBObject query, final DBObject fields, final Function<DBObject, T> codec) {
+        return ofNullable(operations.getCollection(collection).findOne(query, fields)).map(codec);
+    }
+
+    /**
+     * Narrows the given query down to a document that has not been finished.
+     * @param query The query.
+     * @return query The query.
+     */
+    private static DBObject unfinished(final DBObject query) {
+        final DBObject unfinished = new BasicDBObject(query.toMap());
+        unfinished.put(STATE + "." + STOP_DATE, null);
+        return unfinished;
+    }
+}
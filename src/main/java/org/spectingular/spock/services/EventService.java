@@ -0,0 +1,448 @@
+package org.spectingular.spock.services;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DBRef;
+import org.bson.types.ObjectId;
+import org.spectingular.spock.domain.Change;
+import org.spectingular.spock.domain.Module;
+import org.spectingular.spock.domain.Phase;
+import org.spectingular.spock.domain.Task;
+import org.spectingular.spock.dto.BuildChange;
+import org.spectingular.spock.dto.Event;
+import org.spectingular.spock.dto.EventOutcome;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static java.lang.String.format;
+import static java.util.Arrays.asList;
+import static org.spectingular.spock.dto.EventType.REGISTER;
+import static org.spectingular.spock.dto.EventType.RESULT;
+import static org.springframework.data.mongodb.core.FindAndModifyOptions.options;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Event service.
+ * Applies an ordered batch of register and finish {@link org.spectingular.spock.dto.Event}s for the modules, phases and tasks of a build.
+ * The modules, phases and tasks that are referenced by the batch are loaded in one query per collection and the events are checked in order against them.
+ * The resulting writes are sent as one unordered bulk write per collection, parents before children.
+ * A register and a finish of the same module, phase or task in one batch are coalesced into a single insert.
+ * A finish only applies when it is the one that stopped the module, phase or task, so a batch that loses the race against a concurrent batch rejects it.
+ * When any event has been applied, the version of the build is incremented once and the applied events are logged and published as changes.
+ */
+@Service
+public class EventService {
+    private static final String ID = "_id";
+    private static final String NAME = "name";
+    private static final String STATE = "state";
+    private static final String STOP_DATE = "stopDate";
+    private static final String SUCCESS = "success";
+    private static final String BUILD_NUMBER = "buildNumber";
+    private static final String MODULE_NAME = "moduleName";
+    private static final String PHASE_NAME = "phaseName";
+    private static final int DUPLICATE_KEY = 11000;
+
+    @Resource
+    private MongoOperations operations;
+    @Resource
+    private ChangeBus changeBus;
+    @Resource
+    private ResponseCache responseCache;
+    @Resource
+    private HierarchyCache hierarchyCache;
+
+    /**
+     * Applies the given {@link org.spectingular.spock.dto.Event}s to the {@link org.spectingular.spock.domain.Build} matching the given build number.
+     * @param buildNumber The build number.
+     * @param events      The {@link org.spectingular.spock.dto.Event}s, in the order in which they occurred.
+     * @return outcomes The {@link org.spectingular.spock.dto.EventOutcome}s, one per event in the same order.
+     * @throws IllegalArgumentException
+     */
+    public List<EventOutcome> apply(final int buildNumber, final List<Event> events) throws IllegalArgumentException {
+        final DBObject build = operations.findOne(query(where("number").is(buildNumber)), DBObject.class, "builds");
+        if (build == null) {
+            throw new IllegalArgumentException(format("Build with number [%d] cannot be found", buildNumber));
+        }
+        final Map<List<String>, Node> nodes = load(buildNumber, events);
+        final Map<String, List<Node>> writes = new LinkedHashMap<>();
+        writes.put("modules", new ArrayList<>());
+        writes.put("phases", new ArrayList<>());
+        writes.put("tasks", new ArrayList<>());
+
+        final String[] rejections = new String[events.size()];
+        for (int index = 0; index < events.size(); index++) {
+            final Event event = events.get(index);
+            final List<String> key = asList(event.getModule(), event.getPhase(), event.getTask());
+            if (event.getType() == null) {
+                rejections[index] = "Event has no type";
+            } else if (event.getType() == RESULT) {
+                rejections[index] = "Event of type [RESULT] cannot be applied, results are stored with the result resource";
+            } else if (collection(key) == null) {
+                rejections[index] = "Event does not name a module, phase or task";
+            } else if (event.getType() == REGISTER) {
+                rejections[index] = register(buildNumber, build.get(ID), key, index, nodes, writes);
+            } else {
+                rejections[index] = finish(buildNumber, key, event.isSuccess(), index, nodes, writes);
+            }
+        }
+
+        writes.forEach((collection, pending) -> execute(buildNumber, collection, pending, rejections));
+
+        final List<EventOutcome> outcomes = new ArrayList<>();
+        for (int index = 0; index < events.size(); index++) {
+            outcomes.add(new EventOutcome(index, rejections[index] == null, rejections[index]));
+        }
+        if (outcomes.stream().anyMatch(EventOutcome::isApplied)) {
+            // one version increment for the whole batch, shared by all its changes
+            final DBObject touched = operations.findAndModify(query(where("number").is(buildNumber)), new Update().inc(BaseService.VERSION, 1),
+                    options().returnNew(true), DBObject.class, "builds");
+            final long version = touched == null ? 0 : ((Number) touched.get(BaseService.VERSION)).longValue();
+            responseCache.evict(buildNumber);
+            final List<Change> changes = new ArrayList<>();
+            outcomes.stream().filter(EventOutcome::isApplied).forEach(outcome -> {
+                changes.add(BaseService.change(buildNumber, version, events.get(outcome.getIndex())));
+                changeBus.publish(new BuildChange(buildNumber, events.get(outcome.getIndex())));
+            });
+            operations.insert(changes, Change.class);
+        }
+        return outcomes;
+    }
+
+    /**
+     * Registers the module, phase or task matching the given key.
+     * @param buildNumber The build number.
+     * @param buildId     The id of the build.
+     * @param key         The key.
+     * @param index       The index of the event.
+     * @param nodes       The known modules, phases and tasks by key.
+     * @param writes      The pending writes by collection.
+     * @return rejection The reason why the event is rejected, or null when it is applied.
+     */
+    private String register(final int buildNumber, final Object buildId, final List<String> key, final int index, final Map<List<String>, Node> nodes, final Map<String, List<Node>> writes) {
+        if (nodes.containsKey(key)) {
+            return format("%s has already been registered", describe(buildNumber, key));
+        }
+        final List<String> parentKey = parent(key);
+        final Node parent = parentKey == null ? null : nodes.get(parentKey);
+        if (parentKey != null && parent == null) {
+            return format("%s cannot be found", describe(buildNumber, parentKey));
+        }
+        final Node node = new Node(key, new ObjectId(), parent);
+        node.document = document(buildNumber, buildId, node);
+        node.events.add(index);
+        nodes.put(key, node);
+        writes.get(collection(key)).add(node);
+        return null;
+    }
+
+    /**
+     * Finishes the module, phase or task matching the given key.
+     * When it has been registered in the same batch, the finish is merged into its insert.
+     * @param buildNumber The build number.
+     * @param key         The key.
+     * @param success     Indicator success.
+     * @param index       The index of the event.
+     * @param nodes       The known modules, phases and tasks by key.
+     * @param writes      The pending writes by collection.
+     * @return rejection The reason why the event is rejected, or null when it is applied.
+     */
+    private String finish(final int buildNumber, final List<String> key, final boolean success, final int index, final Map<List<String>, Node> nodes, final Map<String, List<Node>> writes) {
+        final Node node = nodes.get(key);
+        if (node == null) {
+            return format("%s cannot be found", describe(buildNumber, key));
+        }
+        if (node.finished) {
+            return format("%s has already been finished", describe(buildNumber, key));
+        }
+        node.finished = true;
+        node.success = success;
+        node.events.add(index);
+        if (node.document != null) {
+            final DBObject state = (DBObject) node.document.get(STATE);
+            state.put(STOP_DATE, new Date());
+            state.put(SUCCESS, success);
+        } else {
+            writes.get(collection(key)).add(node);
+        }
+        return null;
+    }
+
+    /**
+     * Executes the pending writes for the given collection in one unordered bulk write.
+     * Writes of which the parent failed to be inserted are not executed. Failed writes reject the events they were made for,
+     * as do finishes that did not match because a concurrent batch finished the same module, phase or task first.
+     * The ids of the inserted documents are cached in the {@link org.spectingular.spock.services.HierarchyCache}.
+     * @param buildNumber The build number.
+     * @param collection  The collection name.
+     * @param pending     The pending writes.
+     * @param rejections  The rejections by event index.
+     */
+    private void execute(final int buildNumber, final String collection, final List<Node> pending, final String[] rejections) {
+        final DBCollection dbCollection = operations.getCollection(collection);
+        final BulkWriteOperation bulk = dbCollection.initializeUnorderedBulkOperation();
+        final Date stopDate = new Date();
+        final List<Node> sent = new ArrayList<>();
+        final List<Node> finishes = new ArrayList<>();
+        for (Node node : pending) {
+            if (node.parent != null && node.parent.failed) {
+                reject(node, format("%s could not be registered", describe(buildNumber, node.parent.key)), rejections);
+            } else if (node.document != null) {
+                bulk.insert(node.document);
+                sent.add(node);
+            } else {
+                bulk.find(new BasicDBObject(ID, node.id).append(STATE + "." + STOP_DATE, null))
+                        .updateOne(new BasicDBObject("$set", new BasicDBObject(STATE + "." + STOP_DATE, stopDate).append(STATE + "." + SUCCESS, node.success)));
+                sent.add(node);
+                finishes.add(node);
+            }
+        }
+        if (!sent.isEmpty()) {
+            BulkWriteResult result;
+            try {
+                result = bulk.execute();
+            } catch (BulkWriteException e) {
+                result = e.getWriteResult();
+                for (BulkWriteError error : e.getWriteErrors()) {
+                    final Node node = sent.get(error.getIndex());
+                    reject(node, error.getCode() == DUPLICATE_KEY ? format("%s has already been registered", describe(buildNumber, node.key)) : error.getMessage(), rejections);
+                }
+            }
+            finishes.removeIf(node -> node.failed);
+            if (!finishes.isEmpty() && result.getMatchedCount() < finishes.size()) {
+                unmatched(buildNumber, collection, finishes, stopDate, rejections);
+            }
+            // the inserted documents are referenced by the writes that follow, as those of the services are
+            sent.stream().filter(node -> node.document != null && !node.failed)
+                    .forEach(node -> hierarchyCache.put(buildNumber, node.key.get(0), node.key.get(1), node.key.get(2), (ObjectId) node.id));
+        }
+    }
+
+    /**
+     * Rejects the finishes that did not match, being the ones of which the stop date is not the one that was written by this batch.
+     * The bulk result only counts the matched updates, so the finished modules, phases or tasks are read back to tell which ones lost.
+     * @param buildNumber The build number.
+     * @param collection  The collection name.
+     * @param finishes    The finishes that were sent.
+     * @param stopDate    The stop date that was written by this batch.
+     * @param rejections  The rejections by event index.
+     */
+    private void unmatched(final int buildNumber, final String collection, final List<Node> finishes, final Date stopDate, final String[] rejections) {
+        final Query query = query(where(ID).in(finishes.stream().map(node -> node.id).collect(Collectors.toList())).and(STATE + "." + STOP_DATE).is(stopDate));
+        query.fields().include(ID);
+        final Set<Object> matched = operations.find(query, DBObject.class, collection).stream().map(document -> document.get(ID)).collect(Collectors.toSet());
+        finishes.stream()
+                .filter(node -> !matched.contains(node.id))
+                .forEach(node -> reject(node, format("%s has already been finished", describe(buildNumber, node.key)), rejections));
+    }
+
+    /**
+     * Rejects all the events that were applied to the given node.
+     * @param node       The node.
+     * @param rejection  The reason.
+     * @param rejections The rejections by event index.
+     */
+    private void reject(final Node node, final String rejection, final String[] rejections) {
+        node.failed = true;
+        node.events.forEach(index -> rejections[index] = rejection);
+    }
+
+    /**
+     * Loads the existing modules, phases and tasks that are referenced by the given events, with one query per collection.
+     * @param buildNumber The build number.
+     * @param events      The {@link org.spectingular.spock.dto.Event}s.
+     * @return nodes The nodes by key.
+     */
+    private Map<List<String>, Node> load(final int buildNumber, final List<Event> events) {
+        final Set<String> modules = new HashSet<>();
+        final Set<String> phases = new HashSet<>();
+        final Set<String> tasks = new HashSet<>();
+        events.forEach(event -> {
+            if (event.getModule() != null) {
+                modules.add(event.getModule());
+            }
+            if (event.getPhase() != null) {
+                phases.add(event.getPhase());
+            }
+            if (event.getTask() != null) {
+                tasks.add(event.getTask());
+            }
+        });
+        final Map<List<String>, Node> nodes = new HashMap<>();
+        if (!modules.isEmpty()) {
+            operations.find(fields(query(where(BUILD_NUMBER).is(buildNumber).and(NAME).in(modules))), DBObject.class, "modules")
+                    .forEach(module -> put(nodes, asList((String) module.get(NAME), null, null), module));
+        }
+        if (!phases.isEmpty()) {
+            operations.find(fields(query(where(BUILD_NUMBER).is(buildNumber).and(NAME).in(phases))), DBObject.class, "phases")
+                    .forEach(phase -> put(nodes, asList((String) phase.get(MODULE_NAME), (String) phase.get(NAME), null), phase));
+        }
+        if (!tasks.isEmpty() && !phases.isEmpty()) {
+            operations.find(fields(query(where(BUILD_NUMBER).is(buildNumber).and(PHASE_NAME).in(phases).and(NAME).in(tasks))), DBObject.class, "tasks")
+                    .forEach(task -> put(nodes, asList((String) task.get(MODULE_NAME), (String) task.get(PHASE_NAME), (String) task.get(NAME)), task));
+        }
+        return nodes;
+    }
+
+    /**
+     * Adds a node for the given existing document.
+     * @param nodes    The nodes by key.
+     * @param key      The key.
+     * @param document The document.
+     */
+    private void put(final Map<List<String>, Node> nodes, final List<String> key, final DBObject document) {
+        final Node node = new Node(key, document.get(ID), null);
+        final DBObject state = (DBObject) document.get(STATE);
+        node.finished = state != null && state.get(STOP_DATE) != null;
+        nodes.put(key, node);
+    }
+
+    /**
+     * Limits the fields that are read to the id, the hierarchy keys and the stop date.
+     * @param query The {@link org.springframework.data.mongodb.core.query.Query}.
+     * @return query The {@link org.springframework.data.mongodb.core.query.Query}.
+     */
+    private Query fields(final Query query) {
+        query.fields().include(NAME).include(MODULE_NAME).include(PHASE_NAME).include(STATE + "." + STOP_DATE);
+        return query;
+    }
+
+    /**
+     * Creates the document to insert for the given new node, in the same form as the {@link org.spectingular.spock.services.ModuleService},
+     * {@link org.spectingular.spock.services.PhaseService} and {@link org.spectingular.spock.services.TaskService} store them.
+     * @param buildNumber The build number.
+     * @param buildId     The id of the build.
+     * @param node        The node.
+     * @return document The document.
+     */
+    private DBObject document(final int buildNumber, final Object buildId, final Node node) {
+        final String moduleName = node.key.get(0);
+        final String phaseName = node.key.get(1);
+        final String taskName = node.key.get(2);
+        final String collection = collection(node.key);
+        final BasicDBObject document = new BasicDBObject(ID, node.id)
+                .append(STATE, new BasicDBObject("startDate", new Date()).append(SUCCESS, false))
+                .append(BUILD_NUMBER, buildNumber);
+        if (taskName != null) {
+            document.append("_class", Task.class.getName()).append(NAME, taskName).append(PHASE_NAME, phaseName).append("phase", reference("phases", node.parent.id));
+        } else if (phaseName != null) {
+            document.append("_class", Phase.class.getName()).append(NAME, phaseName);
+            if (moduleName == null) {
+                document.append("build", reference("builds", buildId));
+            } else {
+                document.append("module", reference("modules", node.parent.id));
+            }
+        } else {
+            document.append("_class", Module.class.getName()).append(NAME, moduleName).append("build", reference("builds", buildId));
+        }
+        if (moduleName != null && !"modules".equals(collection)) {
+            document.append(MODULE_NAME, moduleName);
+        }
+        return document;
+    }
+
+    /**
+     * Creates a {@link com.mongodb.DBRef} to the document with the given id in the given collection.
+     * @param collection The collection name.
+     * @param id         The id.
+     * @return reference The {@link com.mongodb.DBRef}.
+     */
+    private DBRef reference(final String collection, final Object id) {
+        return new DBRef(operations.getCollection(collection).getDB(), collection, id);
+    }
+
+    /**
+     * Gets the collection of the module, phase or task matching the given key.
+     * @param key The key.
+     * @return collection The collection name, or null when the key does not name a module, phase or task.
+     */
+    private static String collection(final List<String> key) {
+        if (key.get(2) != null) {
+            return key.get(1) == null ? null : "tasks";
+        }
+        if (key.get(1) != null) {
+            return "phases";
+        }
+        return key.get(0) == null ? null : "modules";
+    }
+
+    /**
+     * Gets the key of the parent of the module, phase or task matching the given key.
+     * @param key The key.
+     * @return parent The key of the parent, or null when the parent is the build.
+     */
+    private static List<String> parent(final List<String> key) {
+        if (key.get(2) != null) {
+            return asList(key.get(0), key.get(1), null);
+        }
+        if (key.get(1) != null && key.get(0) != null) {
+            return asList(key.get(0), null, null);
+        }
+        return null;
+    }
+
+    /**
+     * Describes the module, phase or task matching the given key, like the other services do in their messages.
+     * @param buildNumber The build number.
+     * @param key         The key.
+     * @return description The description.
+     */
+    private static String describe(final int buildNumber, final List<String> key) {
+        final String moduleName = key.get(0);
+        final String phaseName = key.get(1);
+        final String taskName = key.get(2);
+        if (taskName != null) {
+            return moduleName == null
+                    ? format("Task with name [%s] for phase with name [%s] and build with number [%d]", taskName, phaseName, buildNumber)
+                    : format("Task with name [%s] for phase with name [%s] and module with name [%s] and build with number [%d]", taskName, phaseName, moduleName, buildNumber);
+        }
+        if (phaseName != null) {
+            return moduleName == null
+                    ? format("Phase with name [%s] for build with number [%d]", phaseName, buildNumber)
+                    : format("Phase with name [%s] for module with name [%s] and build with number [%d]", phaseName, moduleName, buildNumber);
+        }
+        return format("Module with name [%s] for build with number [%d]", moduleName, buildNumber);
+    }
+
+    /** A module, phase or task that is either stored already or registered in the batch that is being applied. */
+    private static final class Node {
+        private final List<String> key;
+        private final Object id;
+        private final Node parent;
+        private final List<Integer> events = new ArrayList<>();
+        private DBObject document;
+        private boolean finished;
+        private boolean success;
+        private boolean failed;
+
+        /**
+         * Constructor.
+         * @param key    The key, being the module name, phase name and task name.
+         * @param id     The id.
+         * @param parent The parent, or null when it is the build or when the node is stored already.
+         */
+        private Node(final List<String> key, final Object id, final Node parent) {
+            this.key = key;
+            this.id = id;
+            this.parent = parent;
+        }
+    }
+}
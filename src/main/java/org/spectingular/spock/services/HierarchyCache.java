@@ -0,0 +1,78 @@
+package org.spectingular.spock.services;
+
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Hierarchy cache.
+ * Remembers the ids of the builds, modules, phases and tasks by their hierarchy keys (buildNumber, moduleName, phaseName and taskName),
+ * so a child can reference its parent without reading it first.
+ * Ids are cached per build for the <code>spock.hierarchy-cache.builds</code> highest build numbers, as only recent builds are written to.
+ * Ids are cached for the documents registered through the services and through the bulk writes of the event service, and for the ones looked up.
+ * Builds are not deleted by the application itself; they are purged from the database, after which their number is only used again
+ * by registering the build anew. So the ids of a build are evicted when the build is registered, and otherwise when it is no longer among the most recent ones.
+ */
+@Service
+public class HierarchyCache {
+    @Value("${spock.hierarchy-cache.builds:64}")
+    private int builds;
+
+    private final ConcurrentSkipListMap<Integer, ConcurrentMap<List<String>, ObjectId>> ids = new ConcurrentSkipListMap<>();
+
+    /**
+     * Gets the id of the document matching the given hierarchy keys, looking it up when it is not cached.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name, null when the document is not part of a module.
+     * @param phaseName   The phase name, null for a build or a module.
+     * @param taskName    The task name, null for anything but a task.
+     * @param lookup      The lookup of the id, throwing an {@link java.lang.IllegalArgumentException} when the document cannot be found.
+     * @return id The id.
+     * @throws IllegalArgumentException
+     */
+    public ObjectId resolve(final int buildNumber, final String moduleName, final String phaseName, final String taskName, final Supplier<ObjectId> lookup)
+            throws IllegalArgumentException {
+        final ConcurrentMap<List<String>, ObjectId> build = ids.get(buildNumber);
+        final ObjectId id = build == null ? null : build.get(asList(moduleName, phaseName, taskName));
+        if (id != null) {
+            return id;
+        }
+        final ObjectId found = lookup.get();
+        put(buildNumber, moduleName, phaseName, taskName, found);
+        return found;
+    }
+
+    /**
+     * Caches the id of the document matching the given hierarchy keys.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name, null when the document is not part of a module.
+     * @param phaseName   The phase name, null for a build or a module.
+     * @param taskName    The task name, null for anything but a task.
+     * @param id          The id, nothing is cached when it is null.
+     */
+    public void put(final int buildNumber, final String moduleName, final String phaseName, final String taskName, final ObjectId id) {
+        if (id == null) {
+            return;
+        }
+        ids.computeIfAbsent(buildNumber, number -> new ConcurrentHashMap<>()).put(asList(moduleName, phaseName, taskName), id);
+        while (ids.size() > builds) {
+            ids.pollFirstEntry();
+        }
+    }
+
+    /**
+     * Evicts the ids of the build matching the given build number and everything registered for it.
+     * @param buildNumber The build number.
+     */
+    public void evict(final int buildNumber) {
+        ids.remove(buildNumber);
+    }
+}
@@ -0,0 +1,166 @@
+package org.spectingular.spock.services;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.spectingular.spock.domain.Build;
+import org.spectingular.spock.domain.Module;
+import org.spectingular.spock.domain.Phase;
+import org.spectingular.spock.domain.State;
+import org.spectingular.spock.domain.Task;
+import org.spectingular.spock.dto.PhaseDto;
+import org.spectingular.spock.dto.TaskDto;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Hierarchy codec.
+ * Reads {@link org.spectingular.spock.domain.Build}s, {@link org.spectingular.spock.domain.Module}s, {@link org.spectingular.spock.domain.Phase}s,
+ * {@link org.spectingular.spock.domain.Task}s and their {@link org.spectingular.spock.domain.State}s from the documents as they are stored,
+ * without the reflection of the mapping converter. The references to the parents are not resolved; the hierarchy keys identify them.
+ * The reports read the name and the state of the documents straight into dtos, grouped by their hierarchy keys, and hand them to their parents.
+ */
+public final class HierarchyCodec {
+    static final String ID = "_id";
+    static final String NUMBER = "number";
+    static final String NAME = "name";
+    static final String STATE = "state";
+    static final String VERSION = "version";
+    static final String BUILD_NUMBER = "buildNumber";
+    static final String MODULE_NAME = "moduleName";
+    static final String PHASE_NAME = "phaseName";
+    static final String START_DATE = "startDate";
+    static final String STOP_DATE = "stopDate";
+    static final String SUCCESS = "success";
+
+    /** Constructor. */
+    private HierarchyCodec() {
+    }
+
+    /**
+     * Reads the {@link org.spectingular.spock.domain.Build} from the given document.
+     * @param document The document.
+     * @return build The {@link org.spectingular.spock.domain.Build}.
+     */
+    public static Build build(final DBObject document) {
+        final Build build = new Build();
+        build.setId((ObjectId) document.get(ID));
+        build.setNumber(intValue(document.get(NUMBER)));
+        build.setState(state(document));
+        build.setVersion(longValue(document.get(VERSION)));
+        return build;
+    }
+
+    /**
+     * Reads the {@link org.spectingular.spock.domain.Module} from the given document.
+     * @param document The document.
+     * @return module The {@link org.spectingular.spock.domain.Module}.
+     */
+    public static Module module(final DBObject document) {
+        final Module module = new Module();
+        module.setId((ObjectId) document.get(ID));
+        module.setName((String) document.get(NAME));
+        module.setState(state(document));
+        module.setBuildNumber(intValue(document.get(BUILD_NUMBER)));
+        return module;
+    }
+
+    /**
+     * Reads the {@link org.spectingular.spock.domain.Phase} from the given document.
+     * @param document The document.
+     * @return phase The {@link org.spectingular.spock.domain.Phase}.
+     */
+    public static Phase phase(final DBObject document) {
+        final Phase phase = new Phase();
+        phase.setId((ObjectId) document.get(ID));
+        phase.setName((String) document.get(NAME));
+        phase.setState(state(document));
+        phase.setBuildNumber(intValue(document.get(BUILD_NUMBER)));
+        phase.setModuleName((String) document.get(MODULE_NAME));
+        return phase;
+    }
+
+    /**
+     * Reads the {@link org.spectingular.spock.domain.Task} from the given document.
+     * @param document The document.
+     * @return task The {@link org.spectingular.spock.domain.Task}.
+     */
+    public static Task task(final DBObject document) {
+        final Task task = new Task();
+        task.setId((ObjectId) document.get(ID));
+        task.setName((String) document.get(NAME));
+        task.setState(state(document));
+        task.setBuildNumber(intValue(document.get(BUILD_NUMBER)));
+        task.setModuleName((String) document.get(MODULE_NAME));
+        task.setPhaseName((String) document.get(PHASE_NAME));
+        return task;
+    }
+
+    /**
+     * Reads the {@link org.spectingular.spock.domain.State} embedded in the given document.
+     * @param document The document.
+     * @return state The {@link org.spectingular.spock.domain.State}, null when the document has none.
+     */
+    public static State state(final DBObject document) {
+        final DBObject embedded = (DBObject) document.get(STATE);
+        if (embedded == null) {
+            return null;
+        }
+        final State state = new State();
+        state.setStartDate((Date) embedded.get(START_DATE));
+        state.setStopDate((Date) embedded.get(STOP_DATE));
+        state.setSuccess(Boolean.TRUE.equals(embedded.get(SUCCESS)));
+        return state;
+    }
+
+    /**
+     * Reads the name and the state of the given document into a dto and adds it to the group of the values of the given hierarchy keys.
+     * @param groups   The dtos, by the values of the hierarchy keys in the given order.
+     * @param document The document.
+     * @param dto      The {@link java.util.function.BiFunction} creating the dto from the name and the {@link org.spectingular.spock.domain.State}.
+     * @param keys     The hierarchy keys to group on.
+     * @param <D>      The dto.
+     */
+    static <D> void group(final Map<List<Object>, List<D>> groups, final DBObject document, final BiFunction<String, State, D> dto, final String... keys) {
+        final List<Object> group = new ArrayList<>(keys.length);
+        for (String key : keys) {
+            group.add(document.get(key));
+        }
+        groups.computeIfAbsent(group, k -> new ArrayList<>()).add(dto.apply((String) document.get(NAME), state(document)));
+    }
+
+    /**
+     * Sets the {@link org.spectingular.spock.dto.TaskDto}s of the given phases from the given tasks.
+     * @param moduleName The module name, null for the phases of the build.
+     * @param phases     The {@link org.spectingular.spock.dto.PhaseDto}s.
+     * @param tasks      The {@link org.spectingular.spock.dto.TaskDto}s, by module name and phase name.
+     * @return phases The {@link org.spectingular.spock.dto.PhaseDto}s.
+     */
+    static List<PhaseDto> withTasks(final Object moduleName, final List<PhaseDto> phases, final Map<List<Object>, List<TaskDto>> tasks) {
+        phases.forEach(phase -> phase.setTasks(tasks.getOrDefault(asList(moduleName, phase.getName()), new ArrayList<>())));
+        return phases;
+    }
+
+    /**
+     * Gets the update that finishes a document with the given success.
+     * @param success Indicator success.
+     * @return update The update.
+     */
+    public static DBObject finish(final boolean success) {
+        return new BasicDBObject("$set", new BasicDBObject(STATE + "." + STOP_DATE, new Date()).append(STATE + "." + SUCCESS, success));
+    }
+
+    private static int intValue(final Object value) {
+        return value == null ? 0 : ((Number) value).intValue();
+    }
+
+    private static long longValue(final Object value) {
+        return value == null ? 0 : ((Number) value).longValue();
+    }
+}
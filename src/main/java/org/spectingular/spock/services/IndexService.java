@@ -0,0 +1,212 @@
+package org.spectingular.spock.services;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import org.slf4j.Logger;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.String.format;
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableMap;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Index service.
+ * Holds the indexes of all collections in one place, each aligned with the queries of the repositories and services that read the collection.
+ * Modules, phases, tasks and results are looked up on their hierarchy keys, so the unique indexes are on those keys instead of on the references to their parents.
+ * On startup the indexes are brought in line with these definitions: missing indexes are created, indexes that differ are recreated
+ * and, once the unique indexes are verified to be in place, indexes that are not defined here are dropped.
+ * This runs after the {@link org.spectingular.spock.migration.HierarchyKeyMigration}, as the unique indexes can only be built on migrated documents.
+ * The application does not start when a unique index cannot be built, as the writes rely on it to reject duplicates.
+ * Documents without hierarchy keys cannot be indexed on them, so a database that has not been migrated stops the startup before the unique indexes are built.
+ */
+@Service
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class IndexService implements CommandLineRunner {
+    private static final Logger LOG = getLogger(IndexService.class);
+    private static final String NAME = "name";
+    private static final String KEY = "key";
+    private static final String UNIQUE = "unique";
+    private static final String ID_INDEX = "_id_";
+    private static final String BUILD_NUMBER = "buildNumber";
+
+    /** The index definitions, by collection name. */
+    static final Map<String, List<Definition>> DEFINITIONS;
+
+    static {
+        final Map<String, List<Definition>> definitions = new LinkedHashMap<>();
+        definitions.put("builds", asList(
+                new Definition("number", true, "number", 1),
+                // the listing pages by number, so the number leads and the start date range is filtered within the index
+                new Definition("build_start", false, "number", -1, "state.startDate", -1)));
+        definitions.put("changes", asList(
+                new Definition("change_version", false, "buildNumber", 1, "version", 1)));
+        definitions.put("modules", asList(
+                new Definition("module_keys", true, "buildNumber", 1, "name", 1),
+                new Definition("module_name", false, "name", 1, "buildNumber", 1)));
+        definitions.put("phases", asList(
+                new Definition("phase_keys", true, "buildNumber", 1, "moduleName", 1, "name", 1)));
+        definitions.put("tasks", asList(
+                new Definition("task_keys", true, "buildNumber", 1, "moduleName", 1, "phaseName", 1, "name", 1)));
+        definitions.put("results", asList(
+                new Definition("result_keys", true, "buildNumber", 1, "moduleName", 1, "phaseName", 1, "taskName", 1)));
+        DEFINITIONS = unmodifiableMap(definitions);
+    }
+
+    @Resource
+    private MongoOperations operations;
+
+    @Override
+    public void run(final String... args) {
+        ensure();
+    }
+
+    /** Brings the indexes of all collections in line with the definitions. */
+    public void ensure() {
+        DEFINITIONS.forEach((name, definitions) -> ensure(operations.getCollection(name), definitions));
+    }
+
+    /**
+     * Brings the indexes of the given collection in line with the given definitions.
+     * Indexes that are not defined are only dropped after the defined ones have been created and the unique ones are verified,
+     * so the collection is never left without the indexes that keep its documents unique.
+     * A unique index that cannot be created, for instance because the documents violate its uniqueness, stops the startup;
+     * any other index that cannot be created is reported and skipped. Before a unique index on the hierarchy keys is created,
+     * the collection is checked for documents that have not been migrated, which would fail the index build.
+     * @param collection  The {@link com.mongodb.DBCollection}.
+     * @param definitions The {@link org.spectingular.spock.services.IndexService.Definition}s.
+     * @throws IllegalStateException
+     */
+    void ensure(final DBCollection collection, final List<Definition> definitions) throws IllegalStateException {
+        final Map<String, DBObject> existing = indexes(collection);
+        final List<String> unmanaged = new ArrayList<>(existing.keySet());
+        unmanaged.remove(ID_INDEX);
+        definitions.forEach(definition -> unmanaged.remove(definition.name));
+        for (Definition definition : definitions) {
+            final DBObject index = existing.get(definition.name);
+            if (index != null && definition.matches(index)) {
+                continue;
+            }
+            if (definition.unique && definition.keys.containsField(BUILD_NUMBER) && !migrated(collection)) {
+                throw new IllegalStateException(format("Collection [%s] holds documents without hierarchy keys, on which unique index [%s] cannot be created; "
+                        + "run the application once with spock.migration.hierarchy-keys=true to migrate them", collection.getName(), definition.name));
+            }
+            try {
+                if (index != null) {
+                    LOG.info(format("Recreating index [%s] of collection [%s], as it differs from its definition", definition.name, collection.getName()));
+                    collection.dropIndex(definition.name);
+                }
+                collection.createIndex(definition.keys, new BasicDBObject(NAME, definition.name).append(UNIQUE, definition.unique).append("background", true));
+            } catch (MongoException e) {
+                if (definition.unique) {
+                    throw new IllegalStateException(format("Unique index [%s] of collection [%s] cannot be created", definition.name, collection.getName()), e);
+                }
+                LOG.error(format("Index [%s] of collection [%s] cannot be created", definition.name, collection.getName()), e);
+            }
+        }
+        final Map<String, DBObject> created = indexes(collection);
+        for (Definition definition : definitions) {
+            final DBObject index = created.get(definition.name);
+            if (definition.unique && (index == null || !definition.matches(index))) {
+                throw new IllegalStateException(format("Unique index [%s] of collection [%s] is not in place", definition.name, collection.getName()));
+            }
+        }
+        unmanaged.forEach(name -> {
+            LOG.info(format("Dropping index [%s] of collection [%s], as it is not defined", name, collection.getName()));
+            collection.dropIndex(name);
+        });
+    }
+
+    /**
+     * Indicates if all documents of the given collection hold the hierarchy keys.
+     * @param collection The {@link com.mongodb.DBCollection}.
+     * @return true if no document lacks the build number, else false
+     */
+    private static boolean migrated(final DBCollection collection) {
+        return collection.findOne(new BasicDBObject(BUILD_NUMBER, new BasicDBObject("$exists", false)), new BasicDBObject("_id", 1)) == null;
+    }
+
+    /**
+     * Gets the indexes of the given collection.
+     * @param collection The {@link com.mongodb.DBCollection}.
+     * @return indexes The indexes, as listed by Mongo, by name.
+     */
+    private static Map<String, DBObject> indexes(final DBCollection collection) {
+        final Map<String, DBObject> indexes = new HashMap<>();
+        collection.getIndexInfo().forEach(index -> indexes.put((String) index.get(NAME), index));
+        return indexes;
+    }
+
+    /** Definition represents an index. */
+    static final class Definition {
+        private final String name;
+        private final boolean unique;
+        private final DBObject keys = new BasicDBObject();
+
+        /**
+         * Constructor.
+         * @param name   The name.
+         * @param unique Indicator whether the keys are unique.
+         * @param keys   The field names, each followed by its direction.
+         */
+        Definition(final String name, final boolean unique, final Object... keys) {
+            this.name = name;
+            this.unique = unique;
+            for (int i = 0; i < keys.length; i += 2) {
+                this.keys.put((String) keys[i], keys[i + 1]);
+            }
+        }
+
+        /**
+         * Gets the name.
+         * @return name The name.
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * Indicates if the keys are unique.
+         * @return true if the keys are unique, else false
+         */
+        boolean isUnique() {
+            return unique;
+        }
+
+        /**
+         * Gets the keys.
+         * @return keys The field names and their directions, in order.
+         */
+        DBObject getKeys() {
+            return keys;
+        }
+
+        /**
+         * Indicates if the given index, as listed by Mongo, matches the definition.
+         * @param index The index.
+         * @return true if the index has the same fields in the same order and directions, and the same uniqueness, else false
+         */
+        boolean matches(final DBObject index) {
+            final DBObject key = (DBObject) index.get(KEY);
+            if (key == null || !new ArrayList<>(key.keySet()).equals(new ArrayList<>(keys.keySet()))
+                    || Boolean.TRUE.equals(index.get(UNIQUE)) != unique) {
+                return false;
+            }
+            return keys.keySet().stream().allMatch(field -> key.get(field) instanceof Number
+                    && ((Number) key.get(field)).intValue() == ((Number) keys.get(field)).intValue());
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package org.spectingular.spock.services;
 
 
-import org.spectingular.spock.domain.Build;
 import org.spectingular.spock.domain.Module;
 import org.springframework.data.repository.Repository;
 
@@ -14,18 +13,18 @@ import java.util.Optional;
 public interface ModuleRepository extends Repository<Module, String> {
     /**
      * Gets the {@link org.spectingular.spock.domain.Module} for the {@link org.spectingular.spock.domain.Build} matching the given parameters.
-     * @param build The {@link org.spectingular.spock.domain.Build}
-     * @param name  The name.
+     * @param buildNumber The build number.
+     * @param name        The name.
      * @return module The {@link org.spectingular.spock.domain.Module}.
      */
-    Optional<Module> findByBuildAndName(Build build, String name);
+    Optional<Module> findByBuildNumberAndName(int buildNumber, String name);
     
     /**
-     * Gets the {@link org.spectingular.spock.domain.Module}s for the given {@link org.spectingular.spock.domain.Build}.
-     * @param build The {@link org.spectingular.spock.domain.Build}
+     * Gets the {@link org.spectingular.spock.domain.Module}s for the {@link org.spectingular.spock.domain.Build} matching the given build number.
+     * @param buildNumber The build number.
      * @return modules The {@link org.spectingular.spock.domain.Module}s.
      */
-    List<Module> findByBuild(Build build);
+    List<Module> findByBuildNumber(int buildNumber);
 
     /**
      * Gets the {@link org.spectingular.spock.domain.Module}s for the given name.
@@ -3,15 +3,21 @@ package org.spectingular.spock.services;
 import org.spectingular.spock.domain.Build;
 import org.spectingular.spock.domain.Module;
 import org.spectingular.spock.domain.State;
+import org.spectingular.spock.dto.Event;
+import org.spectingular.spock.dto.ModuleDto;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
-import java.util.Date;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import static java.lang.String.format;
+import static org.spectingular.spock.dto.EventType.FINISH;
+import static org.spectingular.spock.dto.EventType.REGISTER;
+import static org.springframework.data.domain.Sort.Direction.ASC;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
 
 @Service
 public class ModuleService extends BaseService {
@@ -24,7 +30,17 @@ public class ModuleService extends BaseService {
      * @return modules The {@link org.spectingular.spock.domain.Module}s.
      */
     public List<Module> findByBuildNumber(final int buildNumber) throws IllegalArgumentException {
-        return findBuild(buildNumber, build -> moduleRepository.findByBuild(build));
+        return requireParent(moduleRepository.findByBuildNumber(buildNumber), () -> findBuild(buildNumber, build -> build));
+    }
+
+    /**
+     * Gets all the {@link org.spectingular.spock.dto.ModuleDto}s for the {@link org.spectingular.spock.domain.Build} matching the given build number.
+     * Only the name and state are read, straight into the dtos.
+     * @param buildNumber The build number.
+     * @return modules The {@link org.spectingular.spock.dto.ModuleDto}s.
+     */
+    public List<ModuleDto> projectByBuildNumber(final int buildNumber) throws IllegalArgumentException {
+        return requireParent(project(query(where("buildNumber").is(buildNumber)), Module.class, ModuleDto::new), () -> findBuild(buildNumber, build -> build));
     }
 
     /**
@@ -34,7 +50,7 @@ public class ModuleService extends BaseService {
      * @return module The {@link org.spectingular.spock.domain.Module}
      */
     public Optional<Module> findByBuildNumberAndName(final int buildNumber, final String name) throws IllegalArgumentException {
-        return findBuild(buildNumber, build -> moduleRepository.findByBuildAndName(build, name));
+        return requireParent(moduleRepository.findByBuildNumberAndName(buildNumber, name), () -> findBuild(buildNumber, build -> build));
     }
 
     /**
@@ -44,40 +60,46 @@ public class ModuleService extends BaseService {
      * @throws IllegalArgumentException
      */
     public void register(final int buildNumber, final Module module) throws IllegalArgumentException {
-        findBuild(buildNumber, build -> {
+        final Event event = new Event(REGISTER, module.getName(), null, null, false);
+        if (writeBehind(buildNumber, event)) {
+            return;
+        }
+        referToBuild(buildNumber, build -> {
                     module.setBuild(build);
+                    module.setBuildNumber(buildNumber);
                     module.setState(new State());
                     moduleRepository.save(module);
+                    registered(buildNumber, module.getName(), null, null, module.getId());
+                    changed(buildNumber, event);
                     return module;
                 }
         );
     }
 
     /**
-     * Update the {@link org.spectingular.spock.domain.Module}.
+     * Finishes the {@link org.spectingular.spock.domain.Module}.
      * @param buildNumber The build number.
-     * @param moduleName   The module name.
+     * @param moduleName  The module name.
      * @param state       The {@link org.spectingular.spock.domain.State}.
+     * @return finished Indicator whether the module has been finished, false when it had already been finished.
      * @throws IllegalArgumentException
      */
-    public void update(final int buildNumber, final String moduleName, final State state) throws IllegalArgumentException {
-        findByBuildNumberAndName(buildNumber, moduleName).
-                map(o -> {
-                    final Module found = o;
-                    found.getState().setStopDate(new Date());
-                    found.getState().setSuccess(state.isSuccess());
-                    moduleRepository.save(found);
-                    return found;
-                }).
-                orElseThrow(() -> new IllegalArgumentException(format("Module with name [%s] for build with number [%d] cannot be found", moduleName, buildNumber)));
+    public boolean update(final int buildNumber, final String moduleName, final State state) throws IllegalArgumentException {
+        final Event event = new Event(FINISH, moduleName, null, null, state.isSuccess());
+        return writeBehind(buildNumber, event)
+                || finish(buildNumber, query(where("buildNumber").is(buildNumber).and("name").is(moduleName)), state, Module.class, event)
+                || findModule(buildNumber, moduleName, module -> false);
     }
 
     /**
-     * Gets all the {@link org.spectingular.spock.domain.Build}s for the {@link org.spectingular.spock.domain.Module} matching the given name.
+     * Streams all the {@link org.spectingular.spock.domain.Build}s for the {@link org.spectingular.spock.domain.Module} matching the given name.
+     * The build numbers are taken from the modules, so the builds are read with a single query instead of one per module.
      * @param moduleName The name.
-     * @return builds The {@link org.spectingular.spock.domain.Build}s.
+     * @return builds The {@link java.util.stream.Stream} of {@link org.spectingular.spock.domain.Build}s.
      */
-    public List<Build> findBuildsByModuleName(final String moduleName) throws IllegalArgumentException {
-        return moduleRepository.findByName(moduleName).stream().map(module -> module.getBuild()).collect(Collectors.toList());
+    public Stream<Build> findBuildsByModuleName(final String moduleName) throws IllegalArgumentException {
+        final List numbers = distinct("buildNumber", query(where("name").is(moduleName)), Module.class);
+        return stream(query(where("number").in(numbers)).with(new Sort(ASC, "number")), Build.class, () -> {
+        });
     }
 }
@@ -0,0 +1,17 @@
+package org.spectingular.spock.services;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request body exceeds the maximum size that is accepted.
+ */
+public class PayloadTooLargeException extends IOException {
+
+    /**
+     * Constructor.
+     * @param message The message.
+     */
+    public PayloadTooLargeException(final String message) {
+        super(message);
+    }
+}
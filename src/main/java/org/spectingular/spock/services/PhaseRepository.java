@@ -1,8 +1,6 @@
 package org.spectingular.spock.services;
 
 
-import org.spectingular.spock.domain.Build;
-import org.spectingular.spock.domain.Module;
 import org.spectingular.spock.domain.Phase;
 import org.springframework.data.repository.Repository;
 
@@ -16,33 +14,35 @@ import java.util.Optional;
 public interface PhaseRepository extends Repository<Phase, String> {
     /**
      * Gets the {@link org.spectingular.spock.domain.Phase} for the {@link org.spectingular.spock.domain.Build} matching the given parameters.
-     * @param build The {@link org.spectingular.spock.domain.Build}
-     * @param name  The name.
+     * @param buildNumber The build number.
+     * @param name        The name.
      * @return phase The {@link org.spectingular.spock.domain.Phase}.
      */
-    Optional<Phase> findByBuildAndName(Build build, String name);
+    Optional<Phase> findByBuildNumberAndModuleNameIsNullAndName(int buildNumber, String name);
 
     /**
-     * Gets the {@link org.spectingular.spock.domain.Phase}s for the given {@link org.spectingular.spock.domain.Build}.
-     * @param build The {@link org.spectingular.spock.domain.Build}
+     * Gets the {@link org.spectingular.spock.domain.Phase}s for the {@link org.spectingular.spock.domain.Build} matching the given build number.
+     * @param buildNumber The build number.
      * @return phases The {@link org.spectingular.spock.domain.Phase}s.
      */
-    List<Phase> findByBuild(Build build);
+    List<Phase> findByBuildNumberAndModuleNameIsNull(int buildNumber);
 
     /**
      * Gets the {@link org.spectingular.spock.domain.Phase} for the {@link org.spectingular.spock.domain.Module} matching the given parameters.
-     * @param module The {@link org.spectingular.spock.domain.Module}
-     * @param name  The name.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name.
+     * @param name        The name.
      * @return phase The {@link org.spectingular.spock.domain.Phase}.
      */
-    Optional<Phase> findByModuleAndName(Module module, String name);
+    Optional<Phase> findByBuildNumberAndModuleNameAndName(int buildNumber, String moduleName, String name);
 
     /**
-     * Gets the {@link org.spectingular.spock.domain.Phase}s for the given {@link org.spectingular.spock.domain.Module}.
-     * @param module The {@link org.spectingular.spock.domain.Module}
+     * Gets the {@link org.spectingular.spock.domain.Phase}s for the {@link org.spectingular.spock.domain.Module} matching the given parameters.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name.
      * @return phases The {@link org.spectingular.spock.domain.Phase}s.
      */
-    List<Phase> findByModule(Module module);
+    List<Phase> findByBuildNumberAndModuleName(int buildNumber, String moduleName);
 
     /**
      * Persists the {@link org.spectingular.spock.domain.Phase}.
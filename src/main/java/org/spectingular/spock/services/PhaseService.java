@@ -2,14 +2,21 @@ package org.spectingular.spock.services;
 
 import org.spectingular.spock.domain.Phase;
 import org.spectingular.spock.domain.State;
+import org.spectingular.spock.dto.Event;
+import org.spectingular.spock.dto.PhaseDto;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
-import java.util.Date;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
-import static java.lang.String.format;
+import static org.spectingular.spock.dto.EventType.FINISH;
+import static org.spectingular.spock.dto.EventType.REGISTER;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
 
 @Service
 public class PhaseService extends BaseService {
@@ -22,7 +29,7 @@ public class PhaseService extends BaseService {
      * @return phases The {@link org.spectingular.spock.domain.Phase}s.
      */
     public List<Phase> findByBuildNumber(final int buildNumber) throws IllegalArgumentException {
-        return findBuild(buildNumber, build -> phaseRepository.findByBuild(build));
+        return requireParent(phaseRepository.findByBuildNumberAndModuleNameIsNull(buildNumber), () -> findBuild(buildNumber, build -> build));
     }
 
     /**
@@ -31,10 +38,47 @@ public class PhaseService extends BaseService {
      * @return phases The {@link org.spectingular.spock.domain.Phase}s.
      */
     public List<Phase> findByBuildNumberAndModuleName(final int buildNumber, final String moduleName) throws IllegalArgumentException {
-        return findModule(buildNumber, moduleName, module -> phaseRepository.findByModule(module));
+        return requireParent(phaseRepository.findByBuildNumberAndModuleName(buildNumber, moduleName), () -> findModule(buildNumber, moduleName, module -> module));
     }
 
 
+    /**
+     * Gets all the {@link org.spectingular.spock.dto.PhaseDto}s for the {@link org.spectingular.spock.domain.Build} matching the given build number.
+     * Only the name and state are read, straight into the dtos.
+     * @param buildNumber The build number.
+     * @return phases The {@link org.spectingular.spock.dto.PhaseDto}s.
+     */
+    public List<PhaseDto> projectByBuildNumber(final int buildNumber) throws IllegalArgumentException {
+        return requireParent(project(query(where("buildNumber").is(buildNumber).and("moduleName").is(null)), Phase.class, PhaseDto::new),
+                () -> findBuild(buildNumber, build -> build));
+    }
+
+    /**
+     * Gets all the {@link org.spectingular.spock.dto.PhaseDto}s for the {@link org.spectingular.spock.domain.Module} matching the given parameters.
+     * Only the name and state are read, straight into the dtos.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name.
+     * @return phases The {@link org.spectingular.spock.dto.PhaseDto}s.
+     */
+    public List<PhaseDto> projectByBuildNumberAndModuleName(final int buildNumber, final String moduleName) throws IllegalArgumentException {
+        return requireParent(project(query(where("buildNumber").is(buildNumber).and("moduleName").is(moduleName)), Phase.class, PhaseDto::new),
+                () -> findModule(buildNumber, moduleName, module -> module));
+    }
+
+    /**
+     * Gets all the {@link org.spectingular.spock.dto.PhaseDto}s for the {@link org.spectingular.spock.domain.Module}s matching the given parameters, with a single query.
+     * Only the name and state are read, straight into the dtos. The modules are not looked up.
+     * @param buildNumber The build number.
+     * @param moduleNames The module names.
+     * @return phases The {@link org.spectingular.spock.dto.PhaseDto}s, by module name.
+     */
+    public Map<List<Object>, List<PhaseDto>> projectByBuildNumberAndModuleNames(final int buildNumber, final Collection<String> moduleNames) {
+        if (moduleNames.isEmpty()) {
+            return new HashMap<>();
+        }
+        return group(query(where("buildNumber").is(buildNumber).and("moduleName").in(moduleNames)), Phase.class, PhaseDto::new, "moduleName");
+    }
+
     /**
      * Gets the {@link org.spectingular.spock.domain.Phase} for the {@link org.spectingular.spock.domain.Build} matching the given parameters.
      * @param buildNumber The build number.
@@ -42,7 +86,7 @@ public class PhaseService extends BaseService {
      * @return phase The {@link org.spectingular.spock.domain.Phase}
      */
     public Optional<Phase> findByBuildNumberAndName(final int buildNumber, final String name) throws IllegalArgumentException {
-        return findBuild(buildNumber, build -> phaseRepository.findByBuildAndName(build, name));
+        return requireParent(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(buildNumber, name), () -> findBuild(buildNumber, build -> build));
     }
 
     /**
@@ -52,7 +96,7 @@ public class PhaseService extends BaseService {
      * @return phase The {@link org.spectingular.spock.domain.Phase}
      */
     public Optional<Phase> findByBuildNumberAndModuleNameAndName(final int buildNumber, final String moduleName, final String name) throws IllegalArgumentException {
-        return findModule(buildNumber, moduleName, module -> phaseRepository.findByModuleAndName(module, name));
+        return requireParent(phaseRepository.findByBuildNumberAndModuleNameAndName(buildNumber, moduleName, name), () -> findModule(buildNumber, moduleName, module -> module));
     }
 
     /**
@@ -62,10 +106,17 @@ public class PhaseService extends BaseService {
      * @throws IllegalArgumentException
      */
     public void register(final int buildNumber, final Phase phase) throws IllegalArgumentException {
-        findBuild(buildNumber, build -> {
+        final Event event = new Event(REGISTER, null, phase.getName(), null, false);
+        if (writeBehind(buildNumber, event)) {
+            return;
+        }
+        referToBuild(buildNumber, build -> {
                     phase.setBuild(build);
+                    phase.setBuildNumber(buildNumber);
                     phase.setState(new State());
                     phaseRepository.save(phase);
+                    registered(buildNumber, null, phase.getName(), null, phase.getId());
+                    changed(buildNumber, event);
                     return phase;
                 }
         );
@@ -79,51 +130,51 @@ public class PhaseService extends BaseService {
      * @throws IllegalArgumentException
      */
     public void register(final int buildNumber, final String moduleName, final Phase phase) throws IllegalArgumentException {
-        findModule(buildNumber, moduleName, module -> {
+        final Event event = new Event(REGISTER, moduleName, phase.getName(), null, false);
+        if (writeBehind(buildNumber, event)) {
+            return;
+        }
+        referToModule(buildNumber, moduleName, module -> {
                     phase.setModule(module);
+                    phase.setBuildNumber(buildNumber);
+                    phase.setModuleName(moduleName);
                     phase.setState(new State());
                     phaseRepository.save(phase);
+                    registered(buildNumber, moduleName, phase.getName(), null, phase.getId());
+                    changed(buildNumber, event);
                     return phase;
                 }
         );
     }
 
     /**
-     * Update the {@link org.spectingular.spock.domain.Phase}.
+     * Finishes the {@link org.spectingular.spock.domain.Phase}.
      * @param buildNumber The build number.
      * @param phaseName   The phase name.
      * @param state       The {@link org.spectingular.spock.domain.State}.
+     * @return finished Indicator whether the phase has been finished, false when it had already been finished.
      * @throws IllegalArgumentException
      */
-    public void update(final int buildNumber, final String phaseName, final State state) throws IllegalArgumentException {
-        findByBuildNumberAndName(buildNumber, phaseName).
-                map(o -> {
-                    final Phase found = o;
-                    found.getState().setStopDate(new Date());
-                    found.getState().setSuccess(state.isSuccess());
-                    phaseRepository.save(found);
-                    return found;
-                }).
-                orElseThrow(() -> new IllegalArgumentException(format("Phase with name [%s] for build with number [%d] cannot be found", phaseName, buildNumber)));
+    public boolean update(final int buildNumber, final String phaseName, final State state) throws IllegalArgumentException {
+        final Event event = new Event(FINISH, null, phaseName, null, state.isSuccess());
+        return writeBehind(buildNumber, event)
+                || finish(buildNumber, query(where("buildNumber").is(buildNumber).and("moduleName").is(null).and("name").is(phaseName)), state, Phase.class, event)
+                || findPhase(buildNumber, phaseName, phase -> false);
     }
 
     /**
-     * Update the {@link org.spectingular.spock.domain.Phase}.
+     * Finishes the {@link org.spectingular.spock.domain.Phase}.
      * @param buildNumber The build number.
      * @param moduleName  the module name.
      * @param phaseName   The phase name.
      * @param state       The {@link org.spectingular.spock.domain.State}.
+     * @return finished Indicator whether the phase has been finished, false when it had already been finished.
      * @throws IllegalArgumentException
      */
-    public void update(final int buildNumber, final String moduleName, final String phaseName, final State state) throws IllegalArgumentException {
-        findByBuildNumberAndModuleNameAndName(buildNumber, moduleName, phaseName).
-                map(o -> {
-                    final Phase found = o;
-                    found.getState().setStopDate(new Date());
-                    found.getState().setSuccess(state.isSuccess());
-                    phaseRepository.save(found);
-                    return found;
-                }).
-                orElseThrow(() -> new IllegalArgumentException(format("Phase with name [%s] for module with name [%s] and build with number [%d] cannot be found", phaseName, moduleName, buildNumber)));
+    public boolean update(final int buildNumber, final String moduleName, final String phaseName, final State state) throws IllegalArgumentException {
+        final Event event = new Event(FINISH, moduleName, phaseName, null, state.isSuccess());
+        return writeBehind(buildNumber, event)
+                || finish(buildNumber, query(where("buildNumber").is(buildNumber).and("moduleName").is(moduleName).and("name").is(phaseName)), state, Phase.class, event)
+                || findPhase(buildNumber, moduleName, phaseName, phase -> false);
     }
 }
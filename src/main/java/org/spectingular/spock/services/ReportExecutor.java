@@ -0,0 +1,201 @@
+package org.spectingular.spock.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Report executor.
+ * With <code>spock.report.parallel</code> set, the independent queries of a report are issued concurrently on a pool of
+ * <code>spock.report.threads</code> threads instead of one after the other. A report forks at most one query per level of the
+ * hierarchy below the one it is about, so a single request never queues more than three queries; there is no separate limit per report.
+ * When <code>spock.report.capacity</code> queries are waiting for a thread, further queries are run by the caller itself.
+ * The latency of every report is recorded for the mode its queries actually ran in, as a cumulative histogram of counters,
+ * so both modes can be compared.
+ */
+@Service
+public class ReportExecutor {
+    private static final String METRIC = "spock.report.";
+    private static final long[] BUCKETS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500};
+    private static final ThreadLocal<Boolean> WORKER = ThreadLocal.withInitial(() -> false);
+    private static final ThreadLocal<AtomicReference<Fanout>> CURRENT = new ThreadLocal<>();
+
+    @Resource
+    private CounterService counterService;
+    @Resource
+    private GaugeService gaugeService;
+    @Value("${spock.report.parallel:false}")
+    private boolean parallel;
+    @Value("${spock.report.threads:8}")
+    private int threads;
+    @Value("${spock.report.capacity:1000}")
+    private int capacity;
+
+    private final AtomicInteger count = new AtomicInteger();
+    private ExecutorService executor;
+
+    /** Starts the threads, when the reports are assembled in parallel. */
+    @PostConstruct
+    public void start() {
+        if (parallel) {
+            executor = new ThreadPoolExecutor(threads, threads, 0, MILLISECONDS, new LinkedBlockingQueue<>(capacity), runnable -> {
+                final Thread thread = new Thread(() -> {
+                    WORKER.set(true);
+                    runnable.run();
+                }, "report-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, (runnable, pool) -> runnable.run());
+        }
+    }
+
+    /** Stops the threads. */
+    @PreDestroy
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts a new {@link org.spectingular.spock.services.ReportExecutor.Fanout} for the queries of the report that is being timed.
+     * A report that is assembled on one of the threads runs its queries one after the other, so the threads never wait for each other.
+     * @return fanout The {@link org.spectingular.spock.services.ReportExecutor.Fanout}.
+     * @throws IllegalStateException When no report is being timed on the current thread.
+     */
+    public Fanout fanout() throws IllegalStateException {
+        final AtomicReference<Fanout> current = CURRENT.get();
+        if (current == null) {
+            throw new IllegalStateException("Fanout can only be started while a report is timed");
+        }
+        final Fanout fanout = new Fanout(WORKER.get() ? null : executor);
+        current.set(fanout);
+        return fanout;
+    }
+
+    /**
+     * Assembles the given report and records its latency, for the mode of the {@link org.spectingular.spock.services.ReportExecutor.Fanout}
+     * its queries were issued through. A report without a fanout runs its queries one after the other.
+     * The fanout is only known while the report is assembled, so nothing is left behind on the thread.
+     * @param report   The name of the report.
+     * @param assembly The assembly.
+     * @param <T>      The report.
+     * @return report The report.
+     */
+    public <T> T time(final String report, final Supplier<T> assembly) {
+        final AtomicReference<Fanout> outer = CURRENT.get();
+        final AtomicReference<Fanout> current = new AtomicReference<>();
+        CURRENT.set(current);
+        final long start = System.nanoTime();
+        try {
+            return assembly.get();
+        } finally {
+            record(report, current.get() != null && current.get().isParallel(), NANOSECONDS.toMillis(System.nanoTime() - start));
+            if (outer == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(outer);
+            }
+        }
+    }
+
+    /**
+     * Records the given latency of the given report, as the last value and in every bucket of the histogram it falls in.
+     * @param report   The name of the report.
+     * @param parallel Indicator whether the queries of the report have been issued concurrently.
+     * @param millis   The latency in milliseconds.
+     */
+    void record(final String report, final boolean parallel, final long millis) {
+        final String metric = METRIC + report + "." + (parallel ? "parallel" : "sequential") + ".latency";
+        gaugeService.submit(metric, millis);
+        buckets(millis).forEach(bucket -> counterService.increment(metric + "." + bucket));
+    }
+
+    /**
+     * Gets the buckets of the cumulative histogram the given latency falls in.
+     * Each bucket counts the reports up to its upper bound, so <code>le-inf</code> counts all of them.
+     * @param millis The latency in milliseconds.
+     * @return buckets The buckets, named after their upper bounds.
+     */
+    static List<String> buckets(final long millis) {
+        final List<String> buckets = new ArrayList<>();
+        for (long bound : BUCKETS) {
+            if (millis <= bound) {
+                buckets.add("le-" + bound);
+            }
+        }
+        buckets.add("le-inf");
+        return buckets;
+    }
+
+    /** Fanout issues the queries of a single report. */
+    static final class Fanout {
+        private final ExecutorService executor;
+
+        /**
+         * Constructor.
+         * @param executor The {@link java.util.concurrent.ExecutorService}, null to run the queries one after the other.
+         */
+        Fanout(final ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        /**
+         * Indicates if the queries are issued concurrently.
+         * @return true if the queries are started on the executor, else false
+         */
+        boolean isParallel() {
+            return executor != null;
+        }
+
+        /**
+         * Starts the given query.
+         * Without an executor the query is not started, but run when its result is taken.
+         * @param query The query.
+         * @param <T>   The result.
+         * @return result The {@link java.util.function.Supplier} of the result, to be taken once.
+         */
+        <T> Supplier<T> fork(final Supplier<T> query) {
+            if (executor == null) {
+                return query;
+            }
+            final CompletableFuture<T> future = CompletableFuture.supplyAsync(query, executor);
+            return () -> join(future);
+        }
+
+        /**
+         * Waits for the result of the given future, passing a failure on as it has been thrown.
+         * @param future The {@link java.util.concurrent.CompletableFuture}.
+         * @param <T>    The result.
+         * @return result The result.
+         */
+        private static <T> T join(final CompletableFuture<T> future) {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+}
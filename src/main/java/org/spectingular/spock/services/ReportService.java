@@ -1,21 +1,49 @@
 package org.spectingular.spock.services;
 
+import org.spectingular.spock.domain.BuildSnapshot;
+import org.spectingular.spock.domain.Change;
+import org.spectingular.spock.domain.Result;
 import org.spectingular.spock.dto.BuildDto;
+import org.spectingular.spock.dto.ChangesDto;
 import org.spectingular.spock.dto.ModuleDto;
 import org.spectingular.spock.dto.PhaseDto;
+import org.spectingular.spock.dto.RunState;
 import org.spectingular.spock.dto.TaskDto;
+import org.spectingular.spock.dto.TreeView;
+import org.spectingular.spock.services.ReportExecutor.Fanout;
+import org.springframework.boot.actuate.metrics.CounterService;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.spectingular.spock.dto.Depth.PHASE;
+import static org.spectingular.spock.dto.Depth.TASK;
 
 /**
  * Dto service
+ * Concurrent reads of the same build tree or snapshot share one computation: the first caller computes it,
+ * the callers that arrive while it is in flight wait for its result instead of computing it again.
+ * The lists of modules and phases read their children a level at a time, with one query per level instead of one per parent.
+ * The levels below a module do not depend on each other, so they are read through the {@link org.spectingular.spock.services.ReportExecutor}.
  */
 @Service
 public class ReportService {
+    private static final String COALESCED = "spock.report.coalesced";
+
     @Resource
     private BuildService buildService;
     @Resource
@@ -26,13 +54,63 @@ public class ReportService {
     private TaskService taskService;
     @Resource
     private ResultService resultService;
+    @Resource
+    private BuildTreeService buildTreeService;
+    @Resource
+    private SnapshotService snapshotService;
+    @Resource
+    private CounterService counterService;
+    @Resource
+    private ReportExecutor reportExecutor;
+
+    private final ConcurrentMap<List<Object>, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
 
     /**
-     * Gets all the {@link org.spectingular.spock.dto.BuildDto}s.
-     * @return builds The {@link org.spectingular.spock.dto.BuildDto}s.
+     * Streams a page of {@link org.spectingular.spock.dto.BuildDto}s, newest first.
+     * @param before The build number the builds have to be lower than, null for the first page.
+     * @param limit  The maximum number of builds.
+     * @param state  The {@link org.spectingular.spock.dto.RunState} the builds have to be in, null for any state.
+     * @param from   The date the builds have to be started at or after, null for no lower bound.
+     * @param to     The date the builds have to be started before, null for no upper bound.
+     * @return builds The {@link java.util.stream.Stream} of {@link org.spectingular.spock.dto.BuildDto}s.
      */
-    public List<BuildDto> findBuilds() throws IllegalArgumentException {
-        return buildService.findAll().stream().map(build -> new BuildDto(build.getNumber(), build.getState())).collect(Collectors.toList());
+    public Stream<BuildDto> streamBuilds(final Integer before, final int limit, final RunState state, final Date from, final Date to) {
+        return buildService.stream(before, limit, state, from, to).map(build -> new BuildDto(build.getNumber(), build.getState()));
+    }
+
+    /**
+     * Gets the number of the last build of a page, when the page is full.
+     * @param before The build number the builds have to be lower than, null for the first page.
+     * @param limit  The maximum number of builds.
+     * @param state  The {@link org.spectingular.spock.dto.RunState} the builds have to be in, null for any state.
+     * @param from   The date the builds have to be started at or after, null for no lower bound.
+     * @param to     The date the builds have to be started before, null for no upper bound.
+     * @return number The number of the last build, empty when the page is not full.
+     */
+    public Optional<Integer> findLastBuildNumber(final Integer before, final int limit, final RunState state, final Date from, final Date to) {
+        return buildService.findLast(before, limit, state, from, to);
+    }
+
+    /**
+     * Gets the version of the {@link org.spectingular.spock.domain.Build} matching the given build number.
+     * @param buildNumber The build number.
+     * @return version The version, empty when the build cannot be found.
+     */
+    public Optional<Long> findBuildVersion(final int buildNumber) {
+        return buildService.findVersion(buildNumber);
+    }
+
+    /**
+     * Gets the changes of the {@link org.spectingular.spock.domain.Build} matching the given build number after the given version.
+     * @param buildNumber The build number.
+     * @param since       The version.
+     * @param limit       The maximum number of versions.
+     * @return changes The {@link org.spectingular.spock.dto.ChangesDto}, holding the version to ask for the next changes with.
+     * @throws IllegalArgumentException
+     */
+    public ChangesDto findChanges(final int buildNumber, final long since, final int limit) throws IllegalArgumentException {
+        final List<Change> changes = buildService.findChanges(buildNumber, since, limit);
+        return new ChangesDto(changes.isEmpty() ? since : changes.get(changes.size() - 1).getVersion(), changes);
     }
 
     /**
@@ -41,12 +119,49 @@ public class ReportService {
      * @return build The {@link org.spectingular.spock.dto.BuildDto}.
      */
     public Optional<BuildDto> findBuild(final int buildNumber) {
-        return buildService.findByNumber(buildNumber).map(build -> {
-            final BuildDto dto = new BuildDto(buildNumber, build.getState());
-            dto.setModules(findModulesByBuildNumber(buildNumber));
-            dto.setPhases(findPhasesByBuildNumber(buildNumber));
-            return dto;
-        });
+        return findBuild(buildNumber, TreeView.FULL);
+    }
+
+    /**
+     * Gets the part of the {@link org.spectingular.spock.dto.BuildDto} matching the given build number that is in the given view.
+     * @param buildNumber The build number.
+     * @param view        The {@link org.spectingular.spock.dto.TreeView}.
+     * @return build The {@link org.spectingular.spock.dto.BuildDto}.
+     */
+    public Optional<BuildDto> findBuild(final int buildNumber, final TreeView view) {
+        return buildTreeService.assemble(buildNumber, view);
+    }
+
+    /**
+     * Gets the part of the {@link org.spectingular.spock.dto.BuildDto} matching the given build number that is in the given view, for the given version.
+     * Concurrent requests for the same version share a single assembly. A request that read a later version never waits for an assembly
+     * that may have started before its version was written, so a tree is never served under a newer entity tag than it was assembled for.
+     * @param buildNumber The build number.
+     * @param version     The version of the build, as read before.
+     * @param view        The {@link org.spectingular.spock.dto.TreeView}.
+     * @return build The {@link org.spectingular.spock.dto.BuildDto}.
+     */
+    public Optional<BuildDto> findBuild(final int buildNumber, final long version, final TreeView view) {
+        return coalesce(asList("build", buildNumber, version, view), () -> buildTreeService.assemble(buildNumber, view));
+    }
+
+    /**
+     * Indicates if the {@link org.spectingular.spock.domain.Build} matching the given build number has been finished.
+     * @param buildNumber The build number.
+     * @return true if the build exists and has a stop date, else false
+     */
+    public boolean isBuildFinished(final int buildNumber) {
+        return buildService.findByNumber(buildNumber).map(build -> build.getState() != null && build.getState().getStopDate() != null).orElse(false);
+    }
+
+    /**
+     * Gets the snapshot of the full {@link org.spectingular.spock.dto.BuildDto} matching the given build number.
+     * @param buildNumber The build number.
+     * @param version     The version of the build, as read before.
+     * @return snapshot The {@link org.spectingular.spock.domain.BuildSnapshot}.
+     */
+    public Optional<BuildSnapshot> findBuildSnapshot(final int buildNumber, final long version) {
+        return coalesce(asList("snapshot", buildNumber, version), () -> snapshotService.find(buildNumber, version));
     }
 
     /**
@@ -55,11 +170,17 @@ public class ReportService {
      * @return modules The {@link org.spectingular.spock.dto.ModuleDto}s.
      */
     public List<ModuleDto> findModulesByBuildNumber(final int buildNumber) throws IllegalArgumentException {
-        return moduleService.findByBuildNumber(buildNumber).stream().map(module -> {
-            final ModuleDto dto = new ModuleDto(module.getName(), module.getState());
-            dto.setPhases(findPhasesByBuildNumberAndModuleName(buildNumber, module.getName()));
-            return dto;
-        }).collect(Collectors.toList());
+        return reportExecutor.time("modules", () -> {
+            final List<ModuleDto> modules = moduleService.projectByBuildNumber(buildNumber);
+            final List<String> moduleNames = modules.stream().map(ModuleDto::getName).collect(toList());
+            final Fanout fanout = reportExecutor.fanout();
+            final Supplier<Map<List<Object>, List<PhaseDto>>> phases = fanout.fork(() -> phaseService.projectByBuildNumberAndModuleNames(buildNumber, moduleNames));
+            final Supplier<Map<List<Object>, List<TaskDto>>> tasks = fanout.fork(() -> taskService.projectByBuildNumberAndModuleNames(buildNumber, moduleNames));
+            final Map<List<Object>, List<PhaseDto>> phasesByModule = phases.get();
+            final Map<List<Object>, List<TaskDto>> tasksByPhase = tasks.get();
+            modules.forEach(module -> module.setPhases(HierarchyCodec.withTasks(module.getName(), phasesByModule.getOrDefault(singletonList(module.getName()), new ArrayList<>()), tasksByPhase)));
+            return modules;
+        });
     }
 
     /**
@@ -69,11 +190,31 @@ public class ReportService {
      * @return module The {@link org.spectingular.spock.dto.ModuleDto}
      */
     public Optional<ModuleDto> findModuleByBuildNumberAndName(final int buildNumber, final String name) throws IllegalArgumentException {
-        return moduleService.findByBuildNumberAndName(buildNumber, name).map(module -> {
+        return findModuleByBuildNumberAndName(buildNumber, name, TreeView.FULL);
+    }
+
+    /**
+     * Gets the part of the {@link org.spectingular.spock.dto.ModuleDto} for the {@link org.spectingular.spock.domain.Build} matching the given parameters that is in the given view.
+     * @param buildNumber The build number.
+     * @param name        The name.
+     * @param view        The {@link org.spectingular.spock.dto.TreeView}.
+     * @return module The {@link org.spectingular.spock.dto.ModuleDto}
+     */
+    public Optional<ModuleDto> findModuleByBuildNumberAndName(final int buildNumber, final String name, final TreeView view) throws IllegalArgumentException {
+        return reportExecutor.time("module", () -> moduleService.findByBuildNumberAndName(buildNumber, name).map(module -> {
             final ModuleDto dto = new ModuleDto(name, module.getState());
-            dto.setPhases(findPhasesByBuildNumberAndModuleName(buildNumber, module.getName()));
+            if (view.includes(PHASE)) {
+                if (view.includes(TASK)) {
+                    final Fanout fanout = reportExecutor.fanout();
+                    final Supplier<List<PhaseDto>> phases = fanout.fork(() -> phaseService.projectByBuildNumberAndModuleName(buildNumber, name));
+                    final Supplier<Map<List<Object>, List<TaskDto>>> tasks = fanout.fork(() -> taskService.projectByBuildNumberAndModuleNames(buildNumber, singletonList(name)));
+                    dto.setPhases(HierarchyCodec.withTasks(name, phases.get(), tasks.get()));
+                } else {
+                    dto.setPhases(phaseService.projectByBuildNumberAndModuleName(buildNumber, name));
+                }
+            }
             return dto;
-        });
+        }));
     }
 
     /**
@@ -82,11 +223,7 @@ public class ReportService {
      * @return phases The {@link org.spectingular.spock.dto.PhaseDto}s.
      */
     public List<PhaseDto> findPhasesByBuildNumber(final int buildNumber) throws IllegalArgumentException {
-        return phaseService.findByBuildNumber(buildNumber).stream().map(phase -> {
-            final PhaseDto dto = new PhaseDto(phase.getName(), phase.getState());
-            dto.setTasks(findTasksByBuildNumberAndPhaseName(buildNumber, phase.getName()));
-            return dto;
-        }).collect(Collectors.toList());
+        return withTasks(buildNumber, null, phaseService.projectByBuildNumber(buildNumber));
     }
 
     /**
@@ -96,9 +233,22 @@ public class ReportService {
      * @return phase The {@link org.spectingular.spock.dto.PhaseDto}
      */
     public Optional<PhaseDto> findPhaseByBuildNumberAndName(final int buildNumber, final String name) throws IllegalArgumentException {
+        return findPhaseByBuildNumberAndName(buildNumber, name, TreeView.FULL);
+    }
+
+    /**
+     * Gets the part of the {@link org.spectingular.spock.dto.PhaseDto} for the {@link org.spectingular.spock.domain.Build} matching the given parameters that is in the given view.
+     * @param buildNumber The build number.
+     * @param name        The name.
+     * @param view        The {@link org.spectingular.spock.dto.TreeView}.
+     * @return phase The {@link org.spectingular.spock.dto.PhaseDto}
+     */
+    public Optional<PhaseDto> findPhaseByBuildNumberAndName(final int buildNumber, final String name, final TreeView view) throws IllegalArgumentException {
         return phaseService.findByBuildNumberAndName(buildNumber, name).map(phase -> {
             final PhaseDto dto = new PhaseDto(name, phase.getState());
-            dto.setTasks(findTasksByBuildNumberAndPhaseName(buildNumber, phase.getName()));
+            if (view.includes(TASK)) {
+                dto.setTasks(findTasksByBuildNumberAndPhaseName(buildNumber, phase.getName()));
+            }
             return dto;
         });
     }
@@ -109,11 +259,7 @@ public class ReportService {
      * @return phases The {@link org.spectingular.spock.dto.PhaseDto}s.
      */
     public List<PhaseDto> findPhasesByBuildNumberAndModuleName(final int buildNumber, final String moduleName) throws IllegalArgumentException {
-        return phaseService.findByBuildNumberAndModuleName(buildNumber, moduleName).stream().map(phase -> {
-            final PhaseDto dto = new PhaseDto(phase.getName(), phase.getState());
-            dto.setTasks(findTasksByBuildNumberAndModuleNameAndPhaseName(buildNumber, moduleName, phase.getName()));
-            return dto;
-        }).collect(Collectors.toList());
+        return withTasks(buildNumber, moduleName, phaseService.projectByBuildNumberAndModuleName(buildNumber, moduleName));
     }
 
     /**
@@ -123,9 +269,23 @@ public class ReportService {
      * @return phase The {@link org.spectingular.spock.dto.PhaseDto}.
      */
     public Optional<PhaseDto> findPhaseByBuildNumberAndModuleNameAndName(final int buildNumber, final String moduleName, final String name) throws IllegalArgumentException {
+        return findPhaseByBuildNumberAndModuleNameAndName(buildNumber, moduleName, name, TreeView.FULL);
+    }
+
+    /**
+     * Gets the part of the {@link org.spectingular.spock.dto.PhaseDto} for the {@link org.spectingular.spock.domain.Module} matching the given parameters that is in the given view.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name.
+     * @param name        The name.
+     * @param view        The {@link org.spectingular.spock.dto.TreeView}.
+     * @return phase The {@link org.spectingular.spock.dto.PhaseDto}.
+     */
+    public Optional<PhaseDto> findPhaseByBuildNumberAndModuleNameAndName(final int buildNumber, final String moduleName, final String name, final TreeView view) throws IllegalArgumentException {
         return phaseService.findByBuildNumberAndModuleNameAndName(buildNumber, moduleName, name).map(phase -> {
             final PhaseDto dto = new PhaseDto(phase.getName(), phase.getState());
-            dto.setTasks(findTasksByBuildNumberAndModuleNameAndPhaseName(buildNumber, moduleName, phase.getName()));
+            if (view.includes(TASK)) {
+                dto.setTasks(findTasksByBuildNumberAndModuleNameAndPhaseName(buildNumber, moduleName, phase.getName()));
+            }
             return dto;
         });
     }
@@ -137,7 +297,17 @@ public class ReportService {
      * @return tasks The {@link org.spectingular.spock.dto.TaskDto}s.
      */
     public List<TaskDto> findTasksByBuildNumberAndPhaseName(final int buildNumber, final String phaseName) throws IllegalArgumentException {
-        return taskService.findByBuildNumberAndPhaseName(buildNumber, phaseName).stream().map(task -> new TaskDto(task.getName(), task.getState())).collect(Collectors.toList());
+        return taskService.projectByBuildNumberAndPhaseName(buildNumber, phaseName);
+    }
+
+    /**
+     * Streams all the {@link org.spectingular.spock.dto.TaskDto}s for the {@link org.spectingular.spock.domain.Phase} matching the given parameters.
+     * @param buildNumber The build number.
+     * @param phaseName   The phase name.
+     * @return tasks The {@link java.util.stream.Stream} of {@link org.spectingular.spock.dto.TaskDto}s.
+     */
+    public Stream<TaskDto> streamTasksByBuildNumberAndPhaseName(final int buildNumber, final String phaseName) throws IllegalArgumentException {
+        return taskService.streamByBuildNumberAndPhaseName(buildNumber, phaseName).map(task -> new TaskDto(task.getName(), task.getState()));
     }
 
     /**
@@ -158,7 +328,18 @@ public class ReportService {
      * @return tasks The {@link org.spectingular.spock.dto.TaskDto}s.
      */
     public List<TaskDto> findTasksByBuildNumberAndModuleNameAndPhaseName(final int buildNumber, final String moduleName, final String phaseName) {
-        return taskService.findByBuildNumberAndModuleNameAndPhaseName(buildNumber, moduleName, phaseName).stream().map(task -> new TaskDto(task.getName(), task.getState())).collect(Collectors.toList());
+        return taskService.projectByBuildNumberAndModuleNameAndPhaseName(buildNumber, moduleName, phaseName);
+    }
+
+    /**
+     * Streams all the {@link org.spectingular.spock.dto.TaskDto}s for the {@link org.spectingular.spock.domain.Phase} matching the given parameters.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name.
+     * @param phaseName   The phase name.
+     * @return tasks The {@link java.util.stream.Stream} of {@link org.spectingular.spock.dto.TaskDto}s.
+     */
+    public Stream<TaskDto> streamTasksByBuildNumberAndModuleNameAndPhaseName(final int buildNumber, final String moduleName, final String phaseName) throws IllegalArgumentException {
+        return taskService.streamByBuildNumberAndModuleNameAndPhaseName(buildNumber, moduleName, phaseName).map(task -> new TaskDto(task.getName(), task.getState()));
     }
 
     /**
@@ -172,15 +353,27 @@ public class ReportService {
         return taskService.findByBuildNumberAndModuleNameAndPhaseNameAndName(buildNumber, moduleName, phaseName, taskName).map(task -> new TaskDto(taskName, task.getState()));
     }
 
+    /**
+     * Sets the {@link org.spectingular.spock.dto.TaskDto}s of the given phases, reading the tasks of all of them with a single query.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name, null for the phases of the build.
+     * @param phases      The {@link org.spectingular.spock.dto.PhaseDto}s.
+     * @return phases The {@link org.spectingular.spock.dto.PhaseDto}s.
+     */
+    private List<PhaseDto> withTasks(final int buildNumber, final String moduleName, final List<PhaseDto> phases) {
+        return HierarchyCodec.withTasks(moduleName, phases, taskService.projectByBuildNumberAndModuleNameAndPhaseNames(buildNumber, moduleName,
+                phases.stream().map(PhaseDto::getName).collect(toList())));
+    }
+
     /**
      * Gets the result data for the {@link org.spectingular.spock.domain.Task} matching the given parameters.
      * @param buildNumber The build number.
      * @param phaseName   The phase name.
      * @param taskName    The task name.
-     * @return data The data.
+     * @return result The {@link org.spectingular.spock.domain.Result}.
      */
-    public Optional<String> findResultByBuildNumberAndPhaseNameAndTaskName(final int buildNumber, final String phaseName, final String taskName) throws IllegalArgumentException {
-        return resultService.findByBuildNumberAndPhaseNameAndTaskName(buildNumber, phaseName, taskName).map(result -> result.getData().toString());
+    public Optional<Result> findResultByBuildNumberAndPhaseNameAndTaskName(final int buildNumber, final String phaseName, final String taskName) throws IllegalArgumentException {
+        return resultService.findByBuildNumberAndPhaseNameAndTaskName(buildNumber, phaseName, taskName);
     }
 
 
@@ -190,11 +383,41 @@ public class ReportService {
      * @param moduleName  The module name.
      * @param phaseName   The phase name.
      * @param taskName    The task name.
-     * @return data The data.
+     * @return result The {@link org.spectingular.spock.domain.Result}.
      */
-    public Optional<String> findResultByBuildNumberAndModuleNameAndPhaseNameAndTaskName(final int buildNumber, final String moduleName, final String phaseName, final String taskName) throws IllegalArgumentException {
-        return resultService.findByBuildNumberAndModuleNameAndPhaseNameAndTaskName(buildNumber, moduleName, phaseName, taskName).map(result -> result.getData().toString());
+    public Optional<Result> findResultByBuildNumberAndModuleNameAndPhaseNameAndTaskName(final int buildNumber, final String moduleName, final String phaseName, final String taskName) throws IllegalArgumentException {
+        return resultService.findByBuildNumberAndModuleNameAndPhaseNameAndTaskName(buildNumber, moduleName, phaseName, taskName);
     }
 
-
+    /**
+     * Computes the result for the given key, unless it is already being computed, in which case the in-flight result is awaited.
+     * Failures are passed on to every caller that waited for them. Nothing is kept once the computation is done.
+     * @param key The key, identifying the computation.
+     * @param fn  The {@link java.util.function.Supplier} computing the result.
+     * @param <T> The result.
+     * @return result The result.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T coalesce(final List<Object> key, final Supplier<T> fn) {
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+        final CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            counterService.increment(COALESCED);
+            try {
+                return (T) existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            final T result = fn.get();
+            future.complete(result);
+            return result;
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
 }
@@ -0,0 +1,248 @@
+package org.spectingular.spock.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static java.util.Optional.ofNullable;
+import static org.spectingular.spock.domain.Codec.GZIP;
+
+/**
+ * Response cache.
+ * Keeps the serialized responses of finished builds in memory, keyed on the build number and the endpoint,
+ * so they are served without reading Mongo or serializing again.
+ * The cache is bounded by the total number of bytes of its entries (<code>spock.cache.max-size</code>) and evicts the least recently used entries first.
+ * Responses larger than <code>spock.cache.max-entry-size</code> are not cached.
+ * When <code>spock.cache.gzip</code> is set, a gzipped copy is kept along with every entry for the clients that accept it.
+ * A finished build is not expected to change, but when it does anyway the write evicts its entries synchronously, before the change is published.
+ * Every eviction moves the generation of the build on. A response is only cached for the generation that was current before it was read,
+ * so a response read before a concurrent write is never cached after that write has evicted the build.
+ */
+@Service
+public class ResponseCache {
+    private static final String METRIC = "spock.cache.";
+
+    @Resource
+    private CounterService counterService;
+    @Resource
+    private GaugeService gaugeService;
+    @Value("${spock.cache.max-size:67108864}")
+    private long maxSize;
+    @Value("${spock.cache.max-entry-size:4194304}")
+    private long maxEntrySize;
+    @Value("${spock.cache.gzip:true}")
+    private boolean gzip;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Integer, Set<String>> keys = new HashMap<>();
+    private final Map<Integer, Long> generations = new HashMap<>();
+    private long size;
+
+    /**
+     * Gets the cached response of the given endpoint of the build matching the given build number.
+     * @param buildNumber The build number.
+     * @param endpoint    The endpoint.
+     * @return entry The {@link org.spectingular.spock.services.ResponseCache.Entry}, empty when it is not cached.
+     */
+    public Optional<Entry> get(final int buildNumber, final String endpoint) {
+        final Entry entry;
+        synchronized (this) {
+            entry = entries.get(key(buildNumber, endpoint));
+        }
+        counterService.increment(METRIC + (entry == null ? "miss" : "hit"));
+        return ofNullable(entry);
+    }
+
+    /**
+     * Gets the generation of the build matching the given build number, to be read before the response that is cached for it.
+     * @param buildNumber The build number.
+     * @return generation The generation.
+     */
+    public synchronized long generation(final int buildNumber) {
+        return generations.getOrDefault(buildNumber, 0L);
+    }
+
+    /**
+     * Caches the given response of the given endpoint of the build matching the given build number, unless it is too large
+     * or the build has been evicted since the given generation.
+     * @param buildNumber The build number.
+     * @param endpoint    The endpoint.
+     * @param generation  The generation of the build, as read before the response.
+     * @param tag         The entity tag of the response, null when there is none.
+     * @param content     The response bytes.
+     * @return entry The {@link org.spectingular.spock.services.ResponseCache.Entry}.
+     */
+    public Entry put(final int buildNumber, final String endpoint, final long generation, final String tag, final byte[] content) {
+        final Entry entry = new Entry(tag, content, gzip ? gzip(content) : null);
+        if (!fits(content.length) || entry.weight() > maxSize) {
+            return entry;
+        }
+        final String key = key(buildNumber, endpoint);
+        synchronized (this) {
+            if (generation != generation(buildNumber)) {
+                counterService.increment(METRIC + "stale");
+                return entry;
+            }
+            final Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                size -= previous.weight();
+            }
+            keys.computeIfAbsent(buildNumber, number -> new HashSet<>()).add(key);
+            size += entry.weight();
+            final Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (size > maxSize) {
+                final Map.Entry<String, Entry> evicted = eldest.next();
+                eldest.remove();
+                size -= evicted.getValue().weight();
+                final int number = Integer.parseInt(evicted.getKey().substring(0, evicted.getKey().indexOf('/')));
+                final Set<String> remaining = keys.get(number);
+                remaining.remove(evicted.getKey());
+                if (remaining.isEmpty()) {
+                    keys.remove(number);
+                }
+                counterService.increment(METRIC + "evicted");
+            }
+            gaugeService.submit(METRIC + "size", size);
+        }
+        return entry;
+    }
+
+    /**
+     * Indicates if a response of the given number of bytes can be cached.
+     * @param length The number of bytes.
+     * @return true if the response is not too large to be cached, else false
+     */
+    public boolean fits(final long length) {
+        return length <= getMaxEntrySize();
+    }
+
+    /**
+     * Gets the maximum number of bytes of a response that can be cached.
+     * @return maxEntrySize The maximum entry size.
+     */
+    public long getMaxEntrySize() {
+        return Math.min(maxEntrySize, maxSize);
+    }
+
+    /**
+     * Evicts all cached responses of the build matching the given build number and moves its generation on.
+     * Has to be called by every write to the build or anything registered for it.
+     * @param buildNumber The build number.
+     */
+    synchronized void evict(final int buildNumber) {
+        generations.merge(buildNumber, 1L, Long::sum);
+        final Set<String> evicted = keys.remove(buildNumber);
+        if (evicted != null) {
+            evicted.forEach(key -> size -= entries.remove(key).weight());
+            gaugeService.submit(METRIC + "size", size);
+        }
+    }
+
+    /** Evicts all cached responses. */
+    public synchronized void clear() {
+        entries.clear();
+        keys.clear();
+        size = 0;
+        gaugeService.submit(METRIC + "size", size);
+    }
+
+    /**
+     * Gets the total number of bytes of the cached responses.
+     * @return size The size.
+     */
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Gets the key of the given endpoint of the build matching the given build number.
+     * @param buildNumber The build number.
+     * @param endpoint    The endpoint.
+     * @return key The key.
+     */
+    private static String key(final int buildNumber, final String endpoint) {
+        return buildNumber + "/" + endpoint;
+    }
+
+    /**
+     * Gzips the given bytes.
+     * @param content The bytes.
+     * @return gzipped The gzipped bytes.
+     */
+    private static byte[] gzip(final byte[] content) {
+        final ByteArrayOutputStream gzipped = new ByteArrayOutputStream(content.length / 4 + 64);
+        try (OutputStream out = GZIP.encode(gzipped)) {
+            out.write(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return gzipped.toByteArray();
+    }
+
+    /** Entry represents a cached response. */
+    public static final class Entry {
+        private final String tag;
+        private final byte[] content;
+        private final byte[] gzipped;
+
+        /**
+         * Constructor.
+         * @param tag     The entity tag, null when there is none.
+         * @param content The response bytes.
+         * @param gzipped The gzipped response bytes, null when they are not kept.
+         */
+        public Entry(final String tag, final byte[] content, final byte[] gzipped) {
+            this.tag = tag;
+            this.content = content;
+            this.gzipped = gzipped;
+        }
+
+        /**
+         * Gets the entity tag.
+         * @return tag The entity tag, null when there is none.
+         */
+        public String getTag() {
+            return tag;
+        }
+
+        /**
+         * Indicates if the gzipped response bytes can be sent to a client that sent the given <code>Accept-Encoding</code> header.
+         * @param acceptEncoding The <code>Accept-Encoding</code> header, may be null.
+         * @return true if a gzipped copy is kept and the client accepts it, else false
+         */
+        public boolean isGzippedFor(final String acceptEncoding) {
+            return gzipped != null && GZIP.isAcceptedBy(acceptEncoding);
+        }
+
+        /**
+         * Gets the response bytes.
+         * @param gzipped Indicator whether the gzipped copy has to be returned.
+         * @return content The response bytes.
+         */
+        public byte[] getContent(final boolean gzipped) {
+            return gzipped ? this.gzipped : content;
+        }
+
+        /**
+         * Gets the number of bytes the entry takes.
+         * @return weight The weight.
+         */
+        long weight() {
+            return content.length + (gzipped == null ? 0 : gzipped.length);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.spectingular.spock.services;
+
+import com.mongodb.gridfs.GridFS;
+import com.mongodb.gridfs.GridFSDBFile;
+import com.mongodb.gridfs.GridFSInputFile;
+import org.bson.types.ObjectId;
+import org.spectingular.spock.domain.Codec;
+import org.spectingular.spock.domain.Result;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.MongoDbFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Result files.
+ * Stores the data of large {@link org.spectingular.spock.domain.Result}s in the <code>results</code> GridFS bucket
+ * and writes the data of any result to an output stream, one chunk at a time for the ones in GridFS.
+ * When <code>spock.results.codec</code> is set to <code>deflate</code> or <code>lz4</code>, the data is stored compressed.
+ * The codec is resolved once, so an unknown codec fails the startup instead of every store.
+ */
+@Service
+public class ResultFiles {
+    private static final String BUCKET = "results";
+    private static final int BUFFER_SIZE = 8192;
+
+    @Resource
+    private MongoDbFactory mongoDbFactory;
+    @Value("${spock.results.codec:none}")
+    private String codecName;
+    private Codec codec;
+    private volatile GridFS gridFs;
+
+    /**
+     * Resolves the configured {@link org.spectingular.spock.domain.Codec}.
+     * @throws IllegalArgumentException When no codec has the configured name.
+     */
+    @PostConstruct
+    public void resolve() throws IllegalArgumentException {
+        codec = Codec.forName(codecName);
+    }
+
+    /**
+     * Creates a new GridFS file for result data.
+     * The data is written to its output stream, which saves the file when it is closed.
+     * @return file The {@link com.mongodb.gridfs.GridFSInputFile}.
+     */
+    public GridFSInputFile create() {
+        final GridFSInputFile file = gridFs().createFile();
+        file.setContentType("application/json");
+        return file;
+    }
+
+    /**
+     * Wraps the given stream with the configured {@link org.spectingular.spock.domain.Codec} and records it on the given {@link org.spectingular.spock.domain.Result}.
+     * @param out    The stream.
+     * @param result The {@link org.spectingular.spock.domain.Result}.
+     * @return out The compressing stream, or the given stream when no codec is configured.
+     */
+    public OutputStream encode(final OutputStream out, final Result result) {
+        if (codec == null) {
+            return out;
+        }
+        result.setCodec(codec);
+        return codec.encode(out);
+    }
+
+    /**
+     * Compresses the content of the given {@link org.spectingular.spock.domain.Result} with the configured {@link org.spectingular.spock.domain.Codec}.
+     * Nothing changes when no codec is configured, the content is already compressed or the data is stored in GridFS.
+     * @param result The {@link org.spectingular.spock.domain.Result}.
+     */
+    public void compress(final Result result) {
+        if (result.getContent() == null || result.getCodec() != null || codec == null) {
+            return;
+        }
+        final byte[] data = result.getContent();
+        final ByteArrayOutputStream content = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (OutputStream out = encode(content, result)) {
+            out.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        result.setContent(content.toByteArray());
+        result.setLength(content.size());
+    }
+
+    /**
+     * Writes the data of the given {@link org.spectingular.spock.domain.Result} to the given stream, decompressing it when needed.
+     * @param result The {@link org.spectingular.spock.domain.Result}.
+     * @param out    The stream.
+     * @throws IOException
+     */
+    public void write(final Result result, final OutputStream out) throws IOException {
+        write(result, out, true);
+    }
+
+    /**
+     * Writes the data of the given {@link org.spectingular.spock.domain.Result} to the given stream.
+     * @param result The {@link org.spectingular.spock.domain.Result}.
+     * @param out    The stream.
+     * @param decode Indicator whether compressed data has to be decompressed, false to write the stored bytes as is.
+     * @throws IOException
+     */
+    public void write(final Result result, final OutputStream out, final boolean decode) throws IOException {
+        if (decode && result.getCodec() != null) {
+            try (InputStream in = read(result)) {
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            }
+        } else if (result.getFileId() != null) {
+            find(result).writeTo(out);
+        } else if (result.getContent() != null) {
+            out.write(result.getContent());
+        } else {
+            // stored before the JSON bytes were kept
+            out.write(result.getData().toString().getBytes(UTF_8));
+        }
+    }
+
+    /**
+     * Opens the data of the given {@link org.spectingular.spock.domain.Result} for reading, decompressing it when needed.
+     * @param result The {@link org.spectingular.spock.domain.Result}.
+     * @return in The stream, containing the JSON bytes of the data.
+     * @throws IOException
+     */
+    public InputStream read(final Result result) throws IOException {
+        final InputStream in;
+        if (result.getFileId() != null || result.getContent() != null) {
+            in = open(result);
+        } else {
+            // stored before the JSON bytes were kept
+            in = new ByteArrayInputStream(result.getData().toString().getBytes(UTF_8));
+        }
+        return result.getCodec() != null ? result.getCodec().decode(in) : in;
+    }
+
+    /**
+     * Reads the data of the given {@link org.spectingular.spock.domain.Result} into memory, decompressing it when needed,
+     * unless it is larger than the given number of bytes. The stored length is the compressed one, so the decompressed data is counted while it is read
+     * and reading stops as soon as it exceeds the limit.
+     * @param result The {@link org.spectingular.spock.domain.Result}.
+     * @param limit  The maximum number of bytes.
+     * @return data The JSON bytes of the data, empty when they exceed the limit.
+     * @throws IOException
+     */
+    public Optional<byte[]> read(final Result result, final long limit) throws IOException {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try (InputStream in = read(result)) {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                if (data.size() + n > limit) {
+                    return Optional.empty();
+                }
+                data.write(buffer, 0, n);
+            }
+        }
+        return Optional.of(data.toByteArray());
+    }
+
+    /**
+     * Removes the GridFS file with the given id, including its chunks.
+     * @param fileId The file id.
+     */
+    public void remove(final ObjectId fileId) {
+        gridFs().remove(fileId);
+    }
+
+    /**
+     * Opens the stored bytes of the given {@link org.spectingular.spock.domain.Result}, as they are stored.
+     * @param result The {@link org.spectingular.spock.domain.Result}.
+     * @return in The stream.
+     * @throws IOException
+     */
+    private InputStream open(final Result result) throws IOException {
+        return result.getFileId() != null ? find(result).getInputStream() : new ByteArrayInputStream(result.getContent());
+    }
+
+    /**
+     * Finds the GridFS file of the given {@link org.spectingular.spock.domain.Result}.
+     * @param result The {@link org.spectingular.spock.domain.Result}.
+     * @return file The {@link com.mongodb.gridfs.GridFSDBFile}.
+     * @throws IOException When the file cannot be found.
+     */
+    private GridFSDBFile find(final Result result) throws IOException {
+        final GridFSDBFile file = gridFs().findOne(result.getFileId());
+        if (file == null) {
+            throw new IOException(format("Result file with id [%s] cannot be found", result.getFileId()));
+        }
+        return file;
+    }
+
+    /**
+     * Gets the GridFS bucket, creating it on first use.
+     * @return gridFs The {@link com.mongodb.gridfs.GridFS}.
+     */
+    private GridFS gridFs() {
+        if (gridFs == null) {
+            gridFs = new GridFS(mongoDbFactory.getDb(), BUCKET);
+        }
+        return gridFs;
+    }
+}
@@ -0,0 +1,135 @@
+package org.spectingular.spock.services;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.spectingular.spock.domain.Result;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.fasterxml.jackson.core.JsonToken.END_ARRAY;
+import static com.fasterxml.jackson.core.JsonToken.END_OBJECT;
+import static com.fasterxml.jackson.core.JsonToken.FIELD_NAME;
+import static com.fasterxml.jackson.core.JsonToken.START_ARRAY;
+import static com.fasterxml.jackson.core.JsonToken.START_OBJECT;
+import static java.lang.String.format;
+
+/**
+ * Result projector.
+ * Writes only the parts of the data of a {@link org.spectingular.spock.domain.Result} that are selected by JSON pointers (RFC 6901),
+ * as an object with a field per pointer that exists in the data, in document order.
+ * The stored data is read token by token; subtrees that cannot contain a selected part are skipped without being materialized.
+ */
+@Service
+public class ResultProjector {
+    private static final JsonFactory FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    @Resource
+    private ResultFiles resultFiles;
+
+    /**
+     * Gets the JSON pointers for the given fields.
+     * @param fields The fields, each a JSON pointer such as <code>/summary/failed</code>.
+     * @return pointers The distinct pointers, in the given order.
+     * @throws IllegalArgumentException When a field is not a JSON pointer.
+     */
+    public static Set<String> pointers(final List<String> fields) throws IllegalArgumentException {
+        final Set<String> pointers = new LinkedHashSet<>();
+        for (final String field : fields) {
+            if (!field.isEmpty() && !field.startsWith("/")) {
+                throw new IllegalArgumentException(format("Field [%s] is not a JSON pointer", field));
+            }
+            pointers.add(field);
+        }
+        return pointers;
+    }
+
+    /**
+     * Writes the parts of the data of the given {@link org.spectingular.spock.domain.Result} that are selected by the given pointers.
+     * @param result   The {@link org.spectingular.spock.domain.Result}.
+     * @param pointers The JSON pointers.
+     * @param out      The stream.
+     * @throws IOException
+     */
+    public void write(final Result result, final Set<String> pointers, final OutputStream out) throws IOException {
+        final Set<String> prefixes = prefixes(pointers);
+        try (InputStream in = resultFiles.read(result); JsonParser parser = FACTORY.createParser(in); JsonGenerator generator = FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            final Deque<Container> containers = new ArrayDeque<>();
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == FIELD_NAME) {
+                    containers.peek().name = parser.getCurrentName();
+                } else if (token == END_OBJECT || token == END_ARRAY) {
+                    containers.pop();
+                } else {
+                    final String pointer = containers.isEmpty() ? "" : containers.peek().next();
+                    if (pointers.contains(pointer)) {
+                        generator.writeFieldName(pointer);
+                        generator.copyCurrentStructure(parser);
+                    } else if (token == START_OBJECT || token == START_ARRAY) {
+                        if (prefixes.contains(pointer)) {
+                            containers.push(new Container(pointer, token == START_ARRAY));
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                }
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Gets all the proper prefixes of the given pointers, the containers that have to be descended into.
+     * @param pointers The JSON pointers.
+     * @return prefixes The prefixes.
+     */
+    private static Set<String> prefixes(final Set<String> pointers) {
+        final Set<String> prefixes = new HashSet<>();
+        for (final String pointer : pointers) {
+            for (int index = pointer.indexOf('/'); index != -1; index = pointer.indexOf('/', index + 1)) {
+                prefixes.add(pointer.substring(0, index));
+            }
+        }
+        return prefixes;
+    }
+
+    /** An object or array that is being descended into. */
+    private static final class Container {
+        private final String pointer;
+        private final boolean array;
+        private String name;
+        private int index;
+
+        /**
+         * Constructor.
+         * @param pointer The JSON pointer of the container.
+         * @param array   Indicator whether the container is an array.
+         */
+        private Container(final String pointer, final boolean array) {
+            this.pointer = pointer;
+            this.array = array;
+        }
+
+        /**
+         * Gets the JSON pointer of the next value in this container.
+         * @return pointer The JSON pointer.
+         */
+        private String next() {
+            final String token = array ? String.valueOf(index++) : name.replace("~", "~0").replace("/", "~1");
+            return pointer + "/" + token;
+        }
+    }
+}
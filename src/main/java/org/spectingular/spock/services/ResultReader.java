@@ -0,0 +1,215 @@
+package org.spectingular.spock.services;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.mongodb.gridfs.GridFSInputFile;
+import org.bson.types.ObjectId;
+import org.spectingular.spock.domain.Result;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+
+import static com.fasterxml.jackson.core.JsonToken.START_ARRAY;
+import static com.fasterxml.jackson.core.JsonToken.START_OBJECT;
+import static java.lang.String.format;
+
+/**
+ * Result reader.
+ * Reads the result data of a task from the request body into a {@link org.spectingular.spock.domain.Result}.
+ * The data is validated token by token and kept as the original JSON bytes, so it is serialized only once, by the client.
+ * Up to <code>spock.results.gridfs-threshold</code> bytes are buffered; data that fits is embedded in the result as content.
+ * Larger data is streamed into GridFS while it is validated, so it is never held in memory as a whole.
+ * Payloads larger than <code>spock.results.max-payload-size</code> bytes are rejected while reading.
+ */
+@Service
+public class ResultReader {
+    private static final String METRIC = "spock.results.";
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final int BUFFER_SIZE = 8192;
+
+    @Resource
+    private GaugeService gaugeService;
+    @Resource
+    private ResultFiles resultFiles;
+    @Value("${spock.results.max-payload-size:52428800}")
+    private long maxPayloadSize;
+    @Value("${spock.results.gridfs-threshold:1048576}")
+    private int gridFsThreshold;
+
+    /**
+     * Reads the given stream.
+     * @param stream The stream, containing a JSON object or array.
+     * @return result The {@link org.spectingular.spock.domain.Result}, holding either the content or the reference to the GridFS file.
+     * @throws PayloadTooLargeException When the stream exceeds the maximum payload size.
+     * @throws IOException              When the stream cannot be read or does not contain valid JSON.
+     */
+    public Result read(final InputStream stream) throws IOException {
+        final long start = System.nanoTime();
+        final CountingInputStream in = new CountingInputStream(stream);
+        final ByteArrayOutputStream head = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while (head.size() <= gridFsThreshold && (n = in.read(buffer, 0, Math.min(buffer.length, gridFsThreshold + 1 - head.size()))) != -1) {
+            head.write(buffer, 0, n);
+        }
+        final Result result = new Result();
+        if (head.size() <= gridFsThreshold) {
+            final byte[] content = head.toByteArray();
+            try (JsonParser parser = FACTORY.createParser(content)) {
+                validate(parser);
+            }
+            result.setContent(content);
+            result.setLength(content.length);
+        } else {
+            spill(new SequenceInputStream(new ByteArrayInputStream(head.toByteArray()), in), result);
+        }
+        final long nanos = Math.max(System.nanoTime() - start, 1);
+        gaugeService.submit(METRIC + "payload-size", in.count);
+        gaugeService.submit(METRIC + "bytes-per-second", in.count * 1e9 / nanos);
+        return result;
+    }
+
+    /**
+     * Streams the given content into a new GridFS file while validating it, compressed with the configured codec.
+     * The file is removed again when the content is invalid.
+     * @param content The content.
+     * @param result  The {@link org.spectingular.spock.domain.Result} that gets the reference to the file.
+     * @throws IOException
+     */
+    private void spill(final InputStream content, final Result result) throws IOException {
+        final GridFSInputFile file = resultFiles.create();
+        try {
+            try (OutputStream out = resultFiles.encode(file.getOutputStream(), result); JsonParser parser = FACTORY.createParser(new TeeInputStream(content, out))) {
+                validate(parser);
+            }
+        } catch (IOException | RuntimeException e) {
+            resultFiles.remove((ObjectId) file.getId());
+            throw e;
+        }
+        result.setFileId((ObjectId) file.getId());
+        result.setLength(file.getLength());
+    }
+
+    /**
+     * Validates the data without building it, so the original bytes can be stored as is.
+     * @param parser The {@link com.fasterxml.jackson.core.JsonParser}.
+     * @throws IOException When the data is not a single valid JSON object or array.
+     */
+    private static void validate(final JsonParser parser) throws IOException {
+        root(parser);
+        parser.skipChildren();
+        end(parser);
+    }
+
+    /**
+     * Reads the first token, which has to start an object or an array.
+     * @param parser The {@link com.fasterxml.jackson.core.JsonParser}.
+     * @return token The {@link com.fasterxml.jackson.core.JsonToken}.
+     * @throws IOException
+     */
+    private static JsonToken root(final JsonParser parser) throws IOException {
+        final JsonToken token = parser.nextToken();
+        if (token != START_OBJECT && token != START_ARRAY) {
+            throw new JsonParseException("Result data must be a JSON object or array", parser.getCurrentLocation());
+        }
+        return token;
+    }
+
+    /**
+     * Checks that nothing follows the data.
+     * @param parser The {@link com.fasterxml.jackson.core.JsonParser}.
+     * @throws IOException
+     */
+    private static void end(final JsonParser parser) throws IOException {
+        if (parser.nextToken() != null) {
+            throw new JsonParseException("Unexpected content after result data", parser.getCurrentLocation());
+        }
+    }
+
+    /** Input stream that copies all the bytes that are read to an output stream. */
+    private static final class TeeInputStream extends FilterInputStream {
+        private final OutputStream out;
+
+        /**
+         * Constructor.
+         * @param in  The stream.
+         * @param out The stream the bytes are copied to.
+         */
+        private TeeInputStream(final InputStream in, final OutputStream out) {
+            super(in);
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                out.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) {
+                out.write(b, off, n);
+            }
+            return n;
+        }
+    }
+
+    /** Input stream that counts the bytes that are read and rejects the payload as soon as it exceeds the maximum size. */
+    private final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        /**
+         * Constructor.
+         * @param in The stream.
+         */
+        private CountingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        /**
+         * Counts the given number of bytes.
+         * @param n The number of bytes.
+         * @throws PayloadTooLargeException When the maximum payload size is exceeded.
+         */
+        private void count(final int n) throws PayloadTooLargeException {
+            count += n;
+            if (count > maxPayloadSize) {
+                throw new PayloadTooLargeException(format("Result data exceeds the maximum size of [%d] bytes", maxPayloadSize));
+            }
+        }
+    }
+}
@@ -2,7 +2,6 @@ package org.spectingular.spock.services;
 
 
 import org.spectingular.spock.domain.Result;
-import org.spectingular.spock.domain.Task;
 import org.springframework.data.repository.Repository;
 
 import java.util.Optional;
@@ -13,11 +12,23 @@ import java.util.Optional;
 interface ResultRepository extends Repository<Result, String> {
 
     /**
-     * Gets the {@link org.spectingular.spock.domain.Result} for the given {@link org.spectingular.spock.domain.Task}.
-     * @param task The {@link org.spectingular.spock.domain.Task}.
+     * Gets the {@link org.spectingular.spock.domain.Result} for the {@link org.spectingular.spock.domain.Task} of the {@link org.spectingular.spock.domain.Build} matching the given parameters.
+     * @param buildNumber The build number.
+     * @param phaseName   The phase name.
+     * @param taskName    The task name.
      * @return result The {@link org.spectingular.spock.domain.Result}.
      */
-    Optional<Result> findByTask(Task task);
+    Optional<Result> findByBuildNumberAndModuleNameIsNullAndPhaseNameAndTaskName(int buildNumber, String phaseName, String taskName);
+
+    /**
+     * Gets the {@link org.spectingular.spock.domain.Result} for the {@link org.spectingular.spock.domain.Task} of the {@link org.spectingular.spock.domain.Module} matching the given parameters.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name.
+     * @param phaseName   The phase name.
+     * @param taskName    The task name.
+     * @return result The {@link org.spectingular.spock.domain.Result}.
+     */
+    Optional<Result> findByBuildNumberAndModuleNameAndPhaseNameAndTaskName(int buildNumber, String moduleName, String phaseName, String taskName);
 
     /**
      * Persists the {@link org.spectingular.spock.domain.Result}.
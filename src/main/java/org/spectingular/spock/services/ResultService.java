@@ -1,15 +1,20 @@
 package org.spectingular.spock.services;
 
 import org.spectingular.spock.domain.Result;
+import org.spectingular.spock.dto.Event;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import java.util.Optional;
 
+import static org.spectingular.spock.dto.EventType.RESULT;
+
 @Service
 public class ResultService extends BaseService {
     @Resource
     private ResultRepository resultRepository;
+    @Resource
+    private ResultFiles resultFiles;
 
     /**
      * Gets all the {@link org.spectingular.spock.domain.Result}s for the {@link org.spectingular.spock.domain.Task} matching the given parameters.
@@ -19,7 +24,7 @@ public class ResultService extends BaseService {
      * @return result The {@link org.spectingular.spock.domain.Result}.
      */
     public Optional<Result> findByBuildNumberAndPhaseNameAndTaskName(final int buildNumber, final String phaseName, final String taskName) throws IllegalArgumentException {
-        return findTask(buildNumber, phaseName, taskName, resultRepository::findByTask);
+        return requireParent(resultRepository.findByBuildNumberAndModuleNameIsNullAndPhaseNameAndTaskName(buildNumber, phaseName, taskName), () -> findTask(buildNumber, phaseName, taskName, task -> task));
     }
 
     /**
@@ -31,7 +36,7 @@ public class ResultService extends BaseService {
      * @return result The {@link org.spectingular.spock.domain.Result}.
      */
     public Optional<Result> findByBuildNumberAndModuleNameAndPhaseNameAndTaskName(final int buildNumber, final String moduleName, final String phaseName, final String taskName) throws IllegalArgumentException {
-        return findTask(buildNumber, moduleName, phaseName, taskName, resultRepository::findByTask);
+        return requireParent(resultRepository.findByBuildNumberAndModuleNameAndPhaseNameAndTaskName(buildNumber, moduleName, phaseName, taskName), () -> findTask(buildNumber, moduleName, phaseName, taskName, task -> task));
     }
 
     /**
@@ -43,11 +48,16 @@ public class ResultService extends BaseService {
      * @throws IllegalArgumentException
      */
     public void store(final int buildNumber, final String phaseName, final String taskName, final Result result) throws IllegalArgumentException {
-        findTask(buildNumber, phaseName, taskName, task -> {
+        discardOnFailure(result, () -> referToTask(buildNumber, null, phaseName, taskName, task -> {
             result.setTask(task);
+            result.setBuildNumber(buildNumber);
+            result.setPhaseName(phaseName);
+            result.setTaskName(taskName);
+            resultFiles.compress(result);
             resultRepository.save(result);
+            changed(buildNumber, new Event(RESULT, null, phaseName, taskName, false));
             return result;
-        });
+        }));
     }
 
     /**
@@ -60,11 +70,33 @@ public class ResultService extends BaseService {
      * @throws IllegalArgumentException
      */
     public void store(final int buildNumber, final String moduleName, final String phaseName, final String taskName, final Result result) throws IllegalArgumentException {
-        findTask(buildNumber, moduleName, phaseName, taskName, task -> {
+        discardOnFailure(result, () -> referToTask(buildNumber, moduleName, phaseName, taskName, task -> {
             result.setTask(task);
+            result.setBuildNumber(buildNumber);
+            result.setModuleName(moduleName);
+            result.setPhaseName(phaseName);
+            result.setTaskName(taskName);
+            resultFiles.compress(result);
             resultRepository.save(result);
+            changed(buildNumber, new Event(RESULT, moduleName, phaseName, taskName, false));
             return result;
-        });
+        }));
     }
 
+    /**
+     * Runs the given store operation. When it fails, the GridFS file holding the data of the given
+     * {@link org.spectingular.spock.domain.Result} is removed, so it does not linger without a result referencing it.
+     * @param result The {@link org.spectingular.spock.domain.Result}.
+     * @param store  The store operation.
+     */
+    private void discardOnFailure(final Result result, final Runnable store) {
+        try {
+            store.run();
+        } catch (RuntimeException e) {
+            if (result.getFileId() != null) {
+                resultFiles.remove(result.getFileId());
+            }
+            throw e;
+        }
+    }
 }
@@ -0,0 +1,137 @@
+package org.spectingular.spock.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.slf4j.Logger;
+import org.spectingular.spock.domain.BuildSnapshot;
+import org.spectingular.spock.dto.BuildDto;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+
+import static java.lang.String.format;
+import static java.util.Optional.of;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Snapshot service.
+ * Keeps the assembled {@link org.spectingular.spock.dto.BuildDto} tree of each build as JSON in the <code>build_snapshots</code> collection,
+ * so reading a build that has not changed is a single read on its number.
+ * A snapshot is tagged with the version of the build it has been assembled for. Every write to the build increments the version,
+ * which invalidates the snapshot; the next read assembles it once from the source collections and stores it again.
+ * Only the snapshots of finished builds are stored: they get their snapshot when they are finished, after which it stays valid as long as
+ * nothing is added. An active build changes with nearly every read, so its tree is assembled for each read without being stored.
+ */
+@Service
+public class SnapshotService {
+    private static final Logger LOG = getLogger(SnapshotService.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String VERSION = "version";
+
+    @Resource
+    private MongoOperations operations;
+    @Resource
+    private BuildTreeService buildTreeService;
+
+    /**
+     * Gets the {@link org.spectingular.spock.domain.BuildSnapshot} of the build matching the given build number, as it is at the given version.
+     * @param buildNumber The build number.
+     * @param version     The current version of the build.
+     * @return snapshot The {@link org.spectingular.spock.domain.BuildSnapshot}, empty when the build cannot be found.
+     */
+    public Optional<BuildSnapshot> find(final int buildNumber, final long version) {
+        final BuildSnapshot snapshot = operations.findById(buildNumber, BuildSnapshot.class);
+        if (snapshot != null && snapshot.getVersion() == version) {
+            return of(snapshot);
+        }
+        return refresh(buildNumber, version);
+    }
+
+    /**
+     * Assembles the full tree of the build matching the given build number and, when the build has been finished, stores it as the snapshot
+     * for the given version.
+     * The version has to be read before the tree is assembled, so a snapshot never claims a version that is newer than its content.
+     * @param buildNumber The build number.
+     * @param version     The version of the build.
+     * @return snapshot The {@link org.spectingular.spock.domain.BuildSnapshot}, empty when the build cannot be found.
+     */
+    public Optional<BuildSnapshot> refresh(final int buildNumber, final long version) {
+        return buildTreeService.assemble(buildNumber).map(build -> {
+            final BuildSnapshot snapshot = snapshot(buildNumber, version, build);
+            if (snapshot.isFinished()) {
+                store(snapshot);
+            }
+            return snapshot;
+        });
+    }
+
+    /**
+     * Regenerates the snapshots of all builds from the source collections.
+     * @return count The number of snapshots that have been regenerated.
+     */
+    public int rebuild() {
+        int count = 0;
+        try (DBCursor cursor = operations.getCollection("builds").find(new BasicDBObject(), new BasicDBObject("number", 1).append(VERSION, 1))) {
+            for (DBObject build : cursor) {
+                final Number version = (Number) build.get(VERSION);
+                rebuild(((Number) build.get("number")).intValue(), version == null ? 0 : version.longValue());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Regenerates the snapshot of the build matching the given build number from the source collections.
+     * @param buildNumber The build number.
+     * @param version     The version of the build.
+     */
+    void rebuild(final int buildNumber, final long version) {
+        operations.remove(query(where("_id").is(buildNumber)), BuildSnapshot.class);
+        refresh(buildNumber, version);
+    }
+
+    /**
+     * Creates the snapshot of the given {@link org.spectingular.spock.dto.BuildDto} for the given version.
+     * @param buildNumber The build number.
+     * @param version     The version of the build.
+     * @param build       The {@link org.spectingular.spock.dto.BuildDto}.
+     * @return snapshot The {@link org.spectingular.spock.domain.BuildSnapshot}.
+     */
+    private static BuildSnapshot snapshot(final int buildNumber, final long version, final BuildDto build) {
+        final BuildSnapshot snapshot = new BuildSnapshot();
+        snapshot.setNumber(buildNumber);
+        snapshot.setVersion(version);
+        snapshot.setFinished(build.getStopDate() != null);
+        try {
+            snapshot.setContent(MAPPER.writeValueAsBytes(build));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Stores the given {@link org.spectingular.spock.domain.BuildSnapshot}, unless a snapshot for the same or a newer version
+     * has been stored in the meantime.
+     * @param snapshot The {@link org.spectingular.spock.domain.BuildSnapshot}.
+     */
+    private void store(final BuildSnapshot snapshot) {
+        try {
+            operations.upsert(query(where("_id").is(snapshot.getNumber()).and(VERSION).lt(snapshot.getVersion())),
+                    new Update().set(VERSION, snapshot.getVersion()).set("finished", snapshot.isFinished()).set("content", snapshot.getContent()), BuildSnapshot.class);
+        } catch (DuplicateKeyException e) {
+            LOG.debug(format("Snapshot of build with number [%d] is already at version [%d] or newer", snapshot.getNumber(), snapshot.getVersion()));
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package org.spectingular.spock.services;
 
 
-import org.spectingular.spock.domain.Phase;
 import org.spectingular.spock.domain.Task;
 import org.springframework.data.repository.Repository;
 
@@ -14,19 +13,40 @@ import java.util.Optional;
 interface TaskRepository extends Repository<Task, String> {
 
     /**
-     * Gets the {@link org.spectingular.spock.domain.Task} for the {@link org.spectingular.spock.domain.Phase} matching the given parameters.
-     * @param phase The {@link org.spectingular.spock.domain.Phase}.
-     * @param name  The name.
+     * Gets the {@link org.spectingular.spock.domain.Task} for the {@link org.spectingular.spock.domain.Phase} of the {@link org.spectingular.spock.domain.Build} matching the given parameters.
+     * @param buildNumber The build number.
+     * @param phaseName   The phase name.
+     * @param name        The name.
      * @return task The {@link org.spectingular.spock.domain.Task}.
      */
-    Optional<Task> findByPhaseAndName(Phase phase, String name);
+    Optional<Task> findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(int buildNumber, String phaseName, String name);
 
     /**
-     * Gets the {@link org.spectingular.spock.domain.Task} for the given {@link org.spectingular.spock.domain.Phase}.
-     * @param phase The {@link org.spectingular.spock.domain.Phase}.
+     * Gets the {@link org.spectingular.spock.domain.Task}s for the {@link org.spectingular.spock.domain.Phase} of the {@link org.spectingular.spock.domain.Build} matching the given parameters.
+     * @param buildNumber The build number.
+     * @param phaseName   The phase name.
+     * @return tasks The {@link org.spectingular.spock.domain.Task}s.
+     */
+    List<Task> findByBuildNumberAndModuleNameIsNullAndPhaseName(int buildNumber, String phaseName);
+
+    /**
+     * Gets the {@link org.spectingular.spock.domain.Task} for the {@link org.spectingular.spock.domain.Phase} of the {@link org.spectingular.spock.domain.Module} matching the given parameters.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name.
+     * @param phaseName   The phase name.
+     * @param name        The name.
      * @return task The {@link org.spectingular.spock.domain.Task}.
      */
-    List<Task> findByPhase(Phase phase);
+    Optional<Task> findByBuildNumberAndModuleNameAndPhaseNameAndName(int buildNumber, String moduleName, String phaseName, String name);
+
+    /**
+     * Gets the {@link org.spectingular.spock.domain.Task}s for the {@link org.spectingular.spock.domain.Phase} of the {@link org.spectingular.spock.domain.Module} matching the given parameters.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name.
+     * @param phaseName   The phase name.
+     * @return tasks The {@link org.spectingular.spock.domain.Task}s.
+     */
+    List<Task> findByBuildNumberAndModuleNameAndPhaseName(int buildNumber, String moduleName, String phaseName);
 
     /**
      * Persists the {@link org.spectingular.spock.domain.Task}.
@@ -2,14 +2,23 @@ package org.spectingular.spock.services;
 
 import org.spectingular.spock.domain.State;
 import org.spectingular.spock.domain.Task;
+import org.spectingular.spock.dto.Event;
+import org.spectingular.spock.dto.TaskDto;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
-import java.util.Date;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
-import static java.lang.String.format;
+import static org.spectingular.spock.dto.EventType.FINISH;
+import static org.spectingular.spock.dto.EventType.REGISTER;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
 
 @Service
 public class TaskService extends BaseService {
@@ -23,7 +32,7 @@ public class TaskService extends BaseService {
      * @return tasks The {@link org.spectingular.spock.domain.Task}s.
      */
     public List<Task> findByBuildNumberAndPhaseName(final int buildNumber, final String phaseName) throws IllegalArgumentException {
-        return findPhase(buildNumber, phaseName, phase -> taskRepository.findByPhase(phase));
+        return requireParent(taskRepository.findByBuildNumberAndModuleNameIsNullAndPhaseName(buildNumber, phaseName), () -> findPhase(buildNumber, phaseName, phase -> phase));
     }
 
     /**
@@ -34,7 +43,87 @@ public class TaskService extends BaseService {
      * @return tasks The {@link org.spectingular.spock.domain.Task}s.
      */
     public List<Task> findByBuildNumberAndModuleNameAndPhaseName(final int buildNumber, final String moduleName, final String phaseName) throws IllegalArgumentException {
-        return findPhase(buildNumber, moduleName, phaseName, phase -> taskRepository.findByPhase(phase));
+        return requireParent(taskRepository.findByBuildNumberAndModuleNameAndPhaseName(buildNumber, moduleName, phaseName), () -> findPhase(buildNumber, moduleName, phaseName, phase -> phase));
+    }
+
+    /**
+     * Gets all the {@link org.spectingular.spock.dto.TaskDto}s for the {@link org.spectingular.spock.domain.Phase} matching the given parameters.
+     * Only the name and state are read, straight into the dtos.
+     * @param buildNumber The build number.
+     * @param phaseName   The phase name.
+     * @return tasks The {@link org.spectingular.spock.dto.TaskDto}s.
+     */
+    public List<TaskDto> projectByBuildNumberAndPhaseName(final int buildNumber, final String phaseName) throws IllegalArgumentException {
+        return requireParent(project(query(where("buildNumber").is(buildNumber).and("moduleName").is(null).and("phaseName").is(phaseName)), Task.class, TaskDto::new),
+                () -> findPhase(buildNumber, phaseName, phase -> phase));
+    }
+
+    /**
+     * Gets all the {@link org.spectingular.spock.dto.TaskDto}s for the {@link org.spectingular.spock.domain.Phase} matching the given parameters.
+     * Only the name and state are read, straight into the dtos.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name.
+     * @param phaseName   The phase name.
+     * @return tasks The {@link org.spectingular.spock.dto.TaskDto}s.
+     */
+    public List<TaskDto> projectByBuildNumberAndModuleNameAndPhaseName(final int buildNumber, final String moduleName, final String phaseName) throws IllegalArgumentException {
+        return requireParent(project(query(where("buildNumber").is(buildNumber).and("moduleName").is(moduleName).and("phaseName").is(phaseName)), Task.class, TaskDto::new),
+                () -> findPhase(buildNumber, moduleName, phaseName, phase -> phase));
+    }
+
+    /**
+     * Gets all the {@link org.spectingular.spock.dto.TaskDto}s for the {@link org.spectingular.spock.domain.Phase}s matching the given parameters, with a single query.
+     * Only the name and state are read, straight into the dtos. The phases are not looked up.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name, null for the phases of the build.
+     * @param phaseNames  The phase names.
+     * @return tasks The {@link org.spectingular.spock.dto.TaskDto}s, by module name and phase name.
+     */
+    public Map<List<Object>, List<TaskDto>> projectByBuildNumberAndModuleNameAndPhaseNames(final int buildNumber, final String moduleName, final Collection<String> phaseNames) {
+        if (phaseNames.isEmpty()) {
+            return new HashMap<>();
+        }
+        return group(query(where("buildNumber").is(buildNumber).and("moduleName").is(moduleName).and("phaseName").in(phaseNames)), Task.class, TaskDto::new,
+                "moduleName", "phaseName");
+    }
+
+    /**
+     * Gets all the {@link org.spectingular.spock.dto.TaskDto}s for the phases of the {@link org.spectingular.spock.domain.Module}s matching the given parameters, with a single query.
+     * Only the name and state are read, straight into the dtos. The modules and phases are not looked up.
+     * @param buildNumber The build number.
+     * @param moduleNames The module names.
+     * @return tasks The {@link org.spectingular.spock.dto.TaskDto}s, by module name and phase name.
+     */
+    public Map<List<Object>, List<TaskDto>> projectByBuildNumberAndModuleNames(final int buildNumber, final Collection<String> moduleNames) {
+        if (moduleNames.isEmpty()) {
+            return new HashMap<>();
+        }
+        return group(query(where("buildNumber").is(buildNumber).and("moduleName").in(moduleNames)), Task.class, TaskDto::new, "moduleName", "phaseName");
+    }
+
+    /**
+     * Streams all the {@link org.spectingular.spock.domain.Task}s for the {@link org.spectingular.spock.domain.Phase} matching the given parameters.
+     * Only the name and state are fetched.
+     * @param buildNumber The build number.
+     * @param phaseName   The phase name.
+     * @return tasks The {@link java.util.stream.Stream} of {@link org.spectingular.spock.domain.Task}s.
+     */
+    public Stream<Task> streamByBuildNumberAndPhaseName(final int buildNumber, final String phaseName) throws IllegalArgumentException {
+        return stream(summary(query(where("buildNumber").is(buildNumber).and("moduleName").is(null).and("phaseName").is(phaseName))), Task.class,
+                () -> findPhase(buildNumber, phaseName, phase -> phase));
+    }
+
+    /**
+     * Streams all the {@link org.spectingular.spock.domain.Task}s for the {@link org.spectingular.spock.domain.Phase} matching the given parameters.
+     * Only the name and state are fetched.
+     * @param buildNumber The build number.
+     * @param moduleName  The module name.
+     * @param phaseName   The phase name.
+     * @return tasks The {@link java.util.stream.Stream} of {@link org.spectingular.spock.domain.Task}s.
+     */
+    public Stream<Task> streamByBuildNumberAndModuleNameAndPhaseName(final int buildNumber, final String moduleName, final String phaseName) throws IllegalArgumentException {
+        return stream(summary(query(where("buildNumber").is(buildNumber).and("moduleName").is(moduleName).and("phaseName").is(phaseName))), Task.class,
+                () -> findPhase(buildNumber, moduleName, phaseName, phase -> phase));
     }
 
     /**
@@ -44,7 +133,7 @@ public class TaskService extends BaseService {
      * @return task The {@link org.spectingular.spock.domain.Task}
      */
     public Optional<Task> findByBuildNumberAndPhaseNameAndName(final int buildNumber, final String phaseName, final String taskName) throws IllegalArgumentException {
-        return findPhase(buildNumber, phaseName, phase -> taskRepository.findByPhaseAndName(phase, taskName));
+        return requireParent(taskRepository.findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(buildNumber, phaseName, taskName), () -> findPhase(buildNumber, phaseName, phase -> phase));
     }
 
     /**
@@ -55,7 +144,7 @@ public class TaskService extends BaseService {
      * @return task The {@link org.spectingular.spock.domain.Task}
      */
     public Optional<Task> findByBuildNumberAndModuleNameAndPhaseNameAndName(final int buildNumber, final String moduleName, final String phaseName, final String taskName) throws IllegalArgumentException {
-        return findPhase(buildNumber, moduleName, phaseName, phase -> taskRepository.findByPhaseAndName(phase, taskName));
+        return requireParent(taskRepository.findByBuildNumberAndModuleNameAndPhaseNameAndName(buildNumber, moduleName, phaseName, taskName), () -> findPhase(buildNumber, moduleName, phaseName, phase -> phase));
     }
 
     /**
@@ -66,10 +155,18 @@ public class TaskService extends BaseService {
      * @throws IllegalArgumentException
      */
     public void register(final int buildNumber, final String phaseName, final Task task) throws IllegalArgumentException {
-        findPhase(buildNumber, phaseName, phase -> {
+        final Event event = new Event(REGISTER, null, phaseName, task.getName(), false);
+        if (writeBehind(buildNumber, event)) {
+            return;
+        }
+        referToPhase(buildNumber, null, phaseName, phase -> {
             task.setPhase(phase);
+            task.setBuildNumber(buildNumber);
+            task.setPhaseName(phaseName);
             task.setState(new State());
             taskRepository.save(task);
+            registered(buildNumber, null, phaseName, task.getName(), task.getId());
+            changed(buildNumber, event);
             return task;
         });
     }
@@ -83,50 +180,63 @@ public class TaskService extends BaseService {
      * @throws IllegalArgumentException
      */
     public void register(final int buildNumber, final String moduleName, final String phaseName, final Task task) throws IllegalArgumentException {
-        findPhase(buildNumber, moduleName, phaseName, phase -> {
+        final Event event = new Event(REGISTER, moduleName, phaseName, task.getName(), false);
+        if (writeBehind(buildNumber, event)) {
+            return;
+        }
+        referToPhase(buildNumber, moduleName, phaseName, phase -> {
             task.setPhase(phase);
+            task.setBuildNumber(buildNumber);
+            task.setModuleName(moduleName);
+            task.setPhaseName(phaseName);
             task.setState(new State());
             taskRepository.save(task);
+            registered(buildNumber, moduleName, phaseName, task.getName(), task.getId());
+            changed(buildNumber, event);
             return task;
         });
     }
 
     /**
-     * Update the {@link org.spectingular.spock.domain.Task}.
+     * Finishes the {@link org.spectingular.spock.domain.Task}.
      * @param buildNumber The build number.
      * @param phaseName   The phase name.
      * @param taskName    The task name.
      * @param state       The {@link org.spectingular.spock.domain.State}.
+     * @return finished Indicator whether the task has been finished, false when it had already been finished.
      * @throws IllegalArgumentException
      */
-    public void update(final int buildNumber, final String phaseName, final String taskName, final State state) throws IllegalArgumentException {
-        findByBuildNumberAndPhaseNameAndName(buildNumber, phaseName, taskName).map(o -> {
-            final Task found = o;
-            found.getState().setStopDate(new Date());
-            found.getState().setSuccess(state.isSuccess());
-            taskRepository.save(found);
-            return found;
-        }).orElseThrow(() -> new IllegalArgumentException(format("Task with name [%s] for phase with name [%s] and build with number [%d] cannot be found", taskName, phaseName, buildNumber)));
-
+    public boolean update(final int buildNumber, final String phaseName, final String taskName, final State state) throws IllegalArgumentException {
+        final Event event = new Event(FINISH, null, phaseName, taskName, state.isSuccess());
+        return writeBehind(buildNumber, event)
+                || finish(buildNumber, query(where("buildNumber").is(buildNumber).and("moduleName").is(null).and("phaseName").is(phaseName).and("name").is(taskName)), state, Task.class, event)
+                || findTask(buildNumber, phaseName, taskName, task -> false);
     }
 
     /**
-     * Update the {@link org.spectingular.spock.domain.Task}.
+     * Finishes the {@link org.spectingular.spock.domain.Task}.
      * @param buildNumber The build number.
      * @param moduleName  The module name.
      * @param phaseName   The phase name.
      * @param taskName    The task name.
      * @param state       The {@link org.spectingular.spock.domain.State}.
+     * @return finished Indicator whether the task has been finished, false when it had already been finished.
      * @throws IllegalArgumentException
      */
-    public void update(final int buildNumber, final String moduleName, final String phaseName, final String taskName, final State state) throws IllegalArgumentException {
-        findByBuildNumberAndModuleNameAndPhaseNameAndName(buildNumber, moduleName, phaseName, taskName).map(o -> {
-            final Task found = o;
-            found.getState().setStopDate(new Date());
-            found.getState().setSuccess(state.isSuccess());
-            taskRepository.save(found);
-            return found;
-        }).orElseThrow(() -> new IllegalArgumentException(format("Task with name [%s] for phase with name [%s] and module with name [%s] and build with number [%d] cannot be found", taskName, phaseName, moduleName, buildNumber)));
+    public boolean update(final int buildNumber, final String moduleName, final String phaseName, final String taskName, final State state) throws IllegalArgumentException {
+        final Event event = new Event(FINISH, moduleName, phaseName, taskName, state.isSuccess());
+        return writeBehind(buildNumber, event)
+                || finish(buildNumber, query(where("buildNumber").is(buildNumber).and("moduleName").is(moduleName).and("phaseName").is(phaseName).and("name").is(taskName)), state, Task.class, event)
+                || findTask(buildNumber, moduleName, phaseName, taskName, task -> false);
+    }
 
+    /**
+     * Restricts the given query to the name and state, leaving out the reference to the phase.
+     * @param query The {@link org.springframework.data.mongodb.core.query.Query}.
+     * @return query The {@link org.springframework.data.mongodb.core.query.Query}.
+     */
+    private static Query summary(final Query query) {
+        query.fields().include("name").include("state");
+        return query;
     }
 }
@@ -0,0 +1,228 @@
+package org.spectingular.spock.services;
+
+import org.slf4j.Logger;
+import org.spectingular.spock.dto.Event;
+import org.spectingular.spock.dto.EventOutcome;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.String.format;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.spectingular.spock.dto.EventType.REGISTER;
+
+/**
+ * Write-behind queue.
+ * When enabled with <code>spock.write-behind.enabled=true</code>, the registrations and finishes of modules, phases and tasks are queued
+ * in memory, partitioned by build number, instead of being written one by one.
+ * Consecutive changes to the same module, phase or task are coalesced, so a register and a finish end up as a single insert.
+ * A flusher thread applies the queued changes of each build with the {@link org.spectingular.spock.services.EventService} at least every
+ * <code>spock.write-behind.max-latency</code> milliseconds. When a build has <code>spock.write-behind.capacity</code> changes queued,
+ * the caller flushes them itself before its change is queued.
+ * Changes that cannot be applied, for instance because the build does not exist, are logged and counted.
+ * Reads and result stores flush the queued changes of their build first, see {@link org.spectingular.spock.api.WriteBehindBarrier}.
+ */
+@Service
+public class WriteBehindQueue {
+    private static final Logger LOG = getLogger(WriteBehindQueue.class);
+    private static final String METRIC = "spock.write-behind.";
+
+    @Resource
+    private EventService eventService;
+    @Resource
+    private GaugeService gaugeService;
+    @Resource
+    private CounterService counterService;
+    @Value("${spock.write-behind.enabled:false}")
+    private boolean enabled;
+    @Value("${spock.write-behind.capacity:10000}")
+    private int capacity;
+    @Value("${spock.write-behind.max-latency:1000}")
+    private long maxLatency;
+
+    private final Map<Integer, Partition> partitions = new ConcurrentHashMap<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private ScheduledExecutorService flusher;
+
+    /** Starts the flusher thread, when enabled. */
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            LOG.info(format("Write-behind enabled with a max latency of [%d] ms and a capacity of [%d] changes per build", maxLatency, capacity));
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "write-behind-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, maxLatency, maxLatency, MILLISECONDS);
+        }
+    }
+
+    /** Stops the flusher thread and flushes the remaining changes. */
+    @PreDestroy
+    public void stop() {
+        if (flusher != null) {
+            flusher.shutdown();
+            flush();
+        }
+    }
+
+    /**
+     * Queues the given {@link org.spectingular.spock.dto.Event} for the {@link org.spectingular.spock.domain.Build} matching the given build number.
+     * @param buildNumber The build number.
+     * @param event       The {@link org.spectingular.spock.dto.Event}.
+     * @return queued Indicator whether the event has been queued, false when write-behind is disabled and the caller has to write it itself.
+     */
+    public boolean offer(final int buildNumber, final Event event) {
+        if (!enabled) {
+            return false;
+        }
+        final Partition[] full = new Partition[1];
+        do {
+            full[0] = null;
+            // queue within compute, so an empty partition that is being removed cannot swallow the event
+            partitions.compute(buildNumber, (number, existing) -> {
+                final Partition partition = existing == null ? new Partition(number) : existing;
+                if (!partition.offer(event)) {
+                    full[0] = partition;
+                }
+                return partition;
+            });
+            if (full[0] != null) {
+                flush(full[0]);
+            }
+        } while (full[0] != null);
+        return true;
+    }
+
+    /** Flushes the queued changes of all builds. */
+    void flush() {
+        gaugeService.submit(METRIC + "queue-depth", depth.get());
+        partitions.values().forEach(this::flush);
+        partitions.keySet().forEach(buildNumber -> partitions.computeIfPresent(buildNumber, (number, partition) -> partition.isEmpty() ? null : partition));
+    }
+
+    /**
+     * Flushes the queued changes of the {@link org.spectingular.spock.domain.Build} matching the given build number,
+     * so that the changes that have been accepted for it can be read back.
+     * @param buildNumber The build number.
+     */
+    public void flush(final int buildNumber) {
+        final Partition partition = partitions.get(buildNumber);
+        if (partition != null) {
+            flush(partition);
+        }
+    }
+
+    /**
+     * Flushes the queued changes of the given partition in one batch.
+     * Flushes of the same partition never overlap, so the changes of a build are applied in order.
+     * @param partition The {@link org.spectingular.spock.services.WriteBehindQueue.Partition}.
+     */
+    private void flush(final Partition partition) {
+        synchronized (partition.flushing) {
+            final List<Event> events = partition.drain();
+            if (events.isEmpty()) {
+                return;
+            }
+            final long start = System.currentTimeMillis();
+            try {
+                final List<EventOutcome> outcomes = eventService.apply(partition.buildNumber, events);
+                outcomes.stream().filter(outcome -> !outcome.isApplied()).forEach(outcome -> {
+                    counterService.increment(METRIC + "rejected");
+                    LOG.warn(format("Write-behind change for build with number [%d] has not been applied: %s", partition.buildNumber, outcome.getMessage()));
+                });
+            } catch (RuntimeException e) {
+                counterService.increment(METRIC + "failed");
+                LOG.error(format("Write-behind flush of [%d] changes for build with number [%d] failed", events.size(), partition.buildNumber), e);
+            }
+            gaugeService.submit(METRIC + "flush-size", events.size());
+            gaugeService.submit(METRIC + "flush-latency", System.currentTimeMillis() - start);
+        }
+    }
+
+    /** The queued changes of a single build, coalesced per module, phase or task in the order in which they were first changed. */
+    private final class Partition {
+        private final int buildNumber;
+        private final Object flushing = new Object();
+        private Map<List<String>, Event[]> changes = new LinkedHashMap<>();
+
+        /**
+         * Constructor.
+         * @param buildNumber The build number.
+         */
+        private Partition(final int buildNumber) {
+            this.buildNumber = buildNumber;
+        }
+
+        /**
+         * Queues the given {@link org.spectingular.spock.dto.Event}, coalescing it with the queued change of the same module, phase or task.
+         * A repeated register or finish is dropped, as it would be rejected anyway.
+         * @param event The {@link org.spectingular.spock.dto.Event}.
+         * @return queued Indicator whether the event has been queued, false when the partition is full.
+         */
+        private synchronized boolean offer(final Event event) {
+            final List<String> key = asList(event.getModule(), event.getPhase(), event.getTask());
+            Event[] change = changes.get(key);
+            if (change == null) {
+                if (changes.size() >= capacity) {
+                    return false;
+                }
+                change = new Event[2];
+                changes.put(key, change);
+                depth.incrementAndGet();
+            }
+            final int slot = event.getType() == REGISTER ? 0 : 1;
+            if (change[slot] == null) {
+                change[slot] = event;
+            }
+            return true;
+        }
+
+        /**
+         * Takes all the queued changes.
+         * @return events The {@link org.spectingular.spock.dto.Event}s, each register directly followed by the finish of the same module, phase or task.
+         */
+        private List<Event> drain() {
+            final Map<List<String>, Event[]> drained;
+            synchronized (this) {
+                drained = changes;
+                changes = new LinkedHashMap<>();
+            }
+            depth.addAndGet(-drained.size());
+            final List<Event> events = new ArrayList<>();
+            drained.values().forEach(change -> {
+                if (change[0] != null) {
+                    events.add(change[0]);
+                }
+                if (change[1] != null) {
+                    events.add(change[1]);
+                }
+            });
+            return events;
+        }
+
+        /**
+         * Indicator empty.
+         * @return true if no changes are queued, else false
+         */
+        private synchronized boolean isEmpty() {
+            return changes.isEmpty();
+        }
+    }
+}
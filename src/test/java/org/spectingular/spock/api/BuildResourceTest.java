@@ -1,5 +1,6 @@
 package org.spectingular.spock.api;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -7,22 +8,44 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.spectingular.spock.dto.BuildDto;
+import org.spectingular.spock.dto.ChangesDto;
 import org.spectingular.spock.domain.*;
 import org.spectingular.spock.dto.Error;
+import org.spectingular.spock.dto.RunState;
+import org.spectingular.spock.dto.TreeView;
 import org.spectingular.spock.services.BuildService;
 import org.spectingular.spock.services.ReportService;
+import org.spectingular.spock.services.ResponseCache;
 import org.springframework.dao.DuplicateKeyException;
 
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import java.util.ArrayList;
-import java.util.List;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+import java.io.ByteArrayOutputStream;
+import java.util.Date;
 import java.util.Optional;
+import java.util.stream.Stream;
 
+import static java.util.Collections.singletonList;
 import static java.util.Optional.of;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 import static javax.ws.rs.core.Response.Status.CONFLICT;
+import static javax.ws.rs.core.Response.Status.NOT_MODIFIED;
 import static javax.ws.rs.core.Response.Status.OK;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
+import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -36,22 +59,56 @@ public class BuildResourceTest {
     private BuildService buildService;
     @Mock
     private ReportService reportService;
+    @Mock
+    private ResponseCache responseCache;
 
     private Optional<BuildDto> optional;
     @Mock
     private BuildDto build;
     @Mock
     private State state;
+    @Mock
+    private UriInfo uriInfo;
 
     @Before
     public void setUp() {
         initMocks(this);
+        when(responseCache.get(anyInt(), anyString())).thenReturn(Optional.<ResponseCache.Entry>empty());
     }
 
     @Test
     public void shouldGetBuilds() throws Exception {
-        when(buildService.findAll()).thenReturn(new ArrayList<Build>());
-        assertEquals(0, ((List<Build>) resource.builds().getEntity()).size());
+        when(reportService.findLastBuildNumber(null, 100, null, null, null)).thenReturn(Optional.<Integer>empty());
+        when(reportService.streamBuilds(null, 100, null, null, null)).thenReturn(Stream.<BuildDto>empty());
+        final Response response = resource.builds(null, 100, null, null, null, uriInfo);
+        assertEquals("[]", write(response));
+        assertNull(response.getLink("next"));
+    }
+
+    @Test
+    public void shouldLinkToTheNextPageOfBuildsWhenThePageIsFull() throws Exception {
+        when(reportService.findLastBuildNumber(eq(10), eq(2), eq(RunState.FINISHED_SUCCESSFULLY), eq(new Date(1000)), (Date) isNull())).thenReturn(of(7));
+        when(reportService.streamBuilds(eq(10), eq(2), eq(RunState.FINISHED_SUCCESSFULLY), eq(new Date(1000)), (Date) isNull()))
+                .thenReturn(Stream.of(new BuildDto(8, new State()), new BuildDto(7, new State())));
+        when(uriInfo.getRequestUriBuilder()).thenReturn(UriBuilder.fromUri("http://localhost/api/builds?before=10&limit=2&state=FINISHED_SUCCESSFULLY&from=1000"));
+        final Response response = resource.builds(10, 2, RunState.FINISHED_SUCCESSFULLY, 1000L, null, uriInfo);
+        final String json = write(response);
+        assertTrue(json.startsWith("[{\"number\":8,"));
+        assertTrue(json.contains("},{\"number\":7,"));
+        final String next = response.getLink("next").getUri().toString();
+        assertTrue(next.startsWith("http://localhost/api/builds?"));
+        assertTrue(next.contains("before=7"));
+        assertTrue(next.contains("limit=2"));
+        assertTrue(next.contains("from=1000"));
+        assertFalse(next.contains("before=10"));
+    }
+
+    @Test
+    public void shouldNotGetBuildsWhenTheLimitIsOutOfRange() throws Exception {
+        final Response response = resource.builds(null, 0, null, null, null, uriInfo);
+        assertEquals(BAD_REQUEST.getStatusCode(), response.getStatus());
+        assertEquals("Limit [0] must be between 1 and 1000", ((Error) response.getEntity()).getMessage());
+        verify(reportService, never()).streamBuilds(anyInt(), anyInt(), any(RunState.class), any(Date.class), any(Date.class));
     }
 
     @Test
@@ -69,21 +126,169 @@ public class BuildResourceTest {
 
     @Test
     public void shouldGetBuild() throws Exception {
-        optional = of(build);
-        when(reportService.findBuild(eq(1))).thenReturn(optional);
-        assertEquals(build, resource.get(1).getEntity());
+        final BuildSnapshot snapshot = new BuildSnapshot();
+        snapshot.setContent("{\"number\":1}".getBytes());
+        when(reportService.findBuildVersion(eq(1))).thenReturn(of(3L));
+        when(reportService.findBuildSnapshot(eq(1), eq(3L))).thenReturn(of(snapshot));
+        final Response response = resource.get(1, null, null, "\"2\"", null);
+        assertEquals(snapshot.getContent(), response.getEntity());
+        assertEquals(MediaType.APPLICATION_JSON_TYPE, response.getMediaType());
+        assertEquals(new EntityTag("3"), response.getEntityTag());
+        verify(reportService, never()).findBuild(anyInt(), anyLong(), any(TreeView.class));
+        verify(responseCache, never()).put(anyInt(), anyString(), anyLong(), anyString(), any(byte[].class));
+    }
+
+    @Test
+    public void shouldCacheFinishedBuild() throws Exception {
+        final BuildSnapshot snapshot = new BuildSnapshot();
+        snapshot.setContent("{\"number\":1}".getBytes());
+        snapshot.setFinished(true);
+        final ResponseCache.Entry entry = new ResponseCache.Entry("3", snapshot.getContent(), new byte[]{31});
+        when(reportService.findBuildVersion(eq(1))).thenReturn(of(3L));
+        when(reportService.findBuildSnapshot(eq(1), eq(3L))).thenReturn(of(snapshot));
+        when(responseCache.fits(snapshot.getContent().length)).thenReturn(true);
+        when(responseCache.generation(1)).thenReturn(2L);
+        when(responseCache.put(1, "tree", 2L, "3", snapshot.getContent())).thenReturn(entry);
+        final Response response = resource.get(1, null, null, null, null);
+        assertEquals(snapshot.getContent(), response.getEntity());
+        assertEquals(new EntityTag("3"), response.getEntityTag());
+        assertEquals("no-cache", response.getHeaderString("Cache-Control"));
+    }
+
+    @Test
+    public void shouldNotCacheFinishedBuildThatIsTooLarge() throws Exception {
+        final BuildSnapshot snapshot = new BuildSnapshot();
+        snapshot.setContent("{\"number\":1}".getBytes());
+        snapshot.setFinished(true);
+        when(reportService.findBuildVersion(eq(1))).thenReturn(of(3L));
+        when(reportService.findBuildSnapshot(eq(1), eq(3L))).thenReturn(of(snapshot));
+        final Response response = resource.get(1, null, null, null, "gzip");
+        assertEquals(snapshot.getContent(), response.getEntity());
+        assertEquals(new EntityTag("3"), response.getEntityTag());
+        assertNull(response.getHeaderString("Cache-Control"));
+        assertNull(response.getHeaderString("Content-Encoding"));
+        verify(responseCache, never()).put(anyInt(), anyString(), anyLong(), anyString(), any(byte[].class));
+    }
+
+    @Test
+    public void shouldGetCachedBuild() throws Exception {
+        final ResponseCache.Entry entry = new ResponseCache.Entry("3", new byte[]{'{', '}'}, new byte[]{31});
+        when(responseCache.get(1, "tree")).thenReturn(of(entry));
+        final Response response = resource.get(1, null, null, null, "gzip");
+        assertArrayEquals(new byte[]{31}, (byte[]) response.getEntity());
+        assertEquals("gzip", response.getHeaderString("Content-Encoding"));
+        assertEquals(new EntityTag("3"), response.getEntityTag());
+        verify(reportService, never()).findBuildVersion(anyInt());
+    }
+
+    @Test
+    public void shouldNotGetCachedBuildWhenTheClientHasIt() throws Exception {
+        final ResponseCache.Entry entry = new ResponseCache.Entry("3", new byte[]{'{', '}'}, null);
+        when(responseCache.get(1, "tree")).thenReturn(of(entry));
+        assertEquals(NOT_MODIFIED.getStatusCode(), resource.get(1, null, null, "\"3\"", null).getStatus());
+        verify(reportService, never()).findBuildVersion(anyInt());
+    }
+
+    @Test
+    public void shouldNotGetBuildWhenThereIsNoSnapshot() throws Exception {
+        when(reportService.findBuildVersion(eq(1))).thenReturn(of(3L));
+        when(reportService.findBuildSnapshot(eq(1), eq(3L))).thenReturn(Optional.<BuildSnapshot>empty());
+        assertEquals("Build with number [1] cannot be found", ((Error) resource.get(1, null, null, null, null).getEntity()).getMessage());
+    }
+
+    @Test
+    public void shouldGetBuildUpToADepth() throws Exception {
+        when(reportService.findBuildVersion(eq(1))).thenReturn(of(3L));
+        when(reportService.findBuild(eq(1), eq(3L), isA(TreeView.class))).thenReturn(of(new BuildDto(1, new State())));
+        final Response response = resource.get(1, "module", null, null, null);
+        assertEquals(1, ((JsonNode) response.getEntity()).get("number").asInt());
+        assertTrue(((JsonNode) response.getEntity()).has("modules"));
+        assertFalse(((JsonNode) response.getEntity()).has("phases"));
+        assertEquals(new EntityTag("3"), response.getEntityTag());
+        verify(reportService, never()).findBuildSnapshot(anyInt(), anyLong());
+    }
+
+    @Test
+    public void shouldNotGetBuildWhenTheVersionHasNotChanged() throws Exception {
+        when(reportService.findBuildVersion(eq(1))).thenReturn(of(3L));
+        final Response response = resource.get(1, null, null, "\"2\", W/\"3\"", null);
+        assertEquals(NOT_MODIFIED.getStatusCode(), response.getStatus());
+        assertEquals(new EntityTag("3"), response.getEntityTag());
+        verify(reportService, never()).findBuild(anyInt(), anyLong(), any(TreeView.class));
+    }
+
+    @Test
+    public void shouldGetChanges() throws Exception {
+        final ChangesDto changes = new ChangesDto(4, singletonList(new Change(1, 4, ChangeType.REGISTER, "x", null, null, null)));
+        when(reportService.findChanges(eq(1), eq(3L), eq(100))).thenReturn(changes);
+        final Response response = resource.changes(1, 3, 100);
+        assertEquals(OK.getStatusCode(), response.getStatus());
+        assertEquals(changes, response.getEntity());
+    }
+
+    @Test
+    public void shouldNotGetChangesWhenBuildDoesNotExist() throws Exception {
+        when(reportService.findChanges(eq(1), eq(0L), eq(100))).thenThrow(new IllegalArgumentException("Build with number [1] cannot be found"));
+        final Response response = resource.changes(1, 0, 100);
+        assertEquals(CONFLICT.getStatusCode(), response.getStatus());
+        assertEquals("Build with number [1] cannot be found", ((Error) response.getEntity()).getMessage());
+    }
+
+    @Test
+    public void shouldNotGetChangesBeyondTheMaximumLimit() throws Exception {
+        final Response response = resource.changes(1, 0, 1001);
+        assertEquals(BAD_REQUEST.getStatusCode(), response.getStatus());
+        assertEquals("Limit [1001] must be between 1 and 1000", ((Error) response.getEntity()).getMessage());
+        verify(reportService, never()).findChanges(anyInt(), anyLong(), anyInt());
     }
 
     @Test
     public void shouldNotGetBuildWhenBuildDoesNotExist() throws Exception {
-        optional = Optional.empty();
-        when(reportService.findBuild(eq(1))).thenReturn(optional);
-        assertEquals("Build with number [1] cannot be found", ((Error) resource.get(1).getEntity()).getMessage());
+        when(reportService.findBuildVersion(eq(1))).thenReturn(Optional.<Long>empty());
+        assertEquals("Build with number [1] cannot be found", ((Error) resource.get(1, null, null, null, null).getEntity()).getMessage());
+    }
+
+    @Test
+    public void shouldGetSelectedFieldsOfBuild() throws Exception {
+        when(reportService.findBuildVersion(eq(1))).thenReturn(of(0L));
+        when(reportService.findBuild(eq(1), eq(0L), any(TreeView.class))).thenReturn(of(new BuildDto(1, new State())));
+        final JsonNode entity = (JsonNode) resource.get(1, "build", singletonList("number,state"), null, null).getEntity();
+        assertEquals(1, entity.get("number").asInt());
+        assertEquals("IN_PROGRESS", entity.get("state").asText());
+        assertFalse(entity.has("startDate"));
+        assertFalse(entity.has("modules"));
+    }
+
+    @Test
+    public void shouldNotGetBuildWithUnknownField() throws Exception {
+        final Response response = resource.get(1, null, singletonList("size"), null, null);
+        assertEquals(BAD_REQUEST.getStatusCode(), response.getStatus());
+        assertEquals("Field [size] cannot be selected", ((Error) response.getEntity()).getMessage());
+        verify(reportService, never()).findBuild(anyInt(), anyLong(), any(TreeView.class));
+    }
+
+    @Test
+    public void shouldNotGetBuildWithUnknownDepth() throws Exception {
+        final Response response = resource.get(1, "suite", null, null, null);
+        assertEquals(BAD_REQUEST.getStatusCode(), response.getStatus());
+        assertEquals("Depth with name [suite] cannot be found", ((Error) response.getEntity()).getMessage());
+        verify(reportService, never()).findBuildVersion(anyInt());
+        verify(reportService, never()).findBuild(anyInt(), anyLong(), any(TreeView.class));
     }
 
     @Test
     public void shouldFinishBuild() throws Exception {
-        resource.finish(1, state);
+        when(buildService.update(eq(1), isA(State.class))).thenReturn(true);
+        assertEquals(OK.getStatusCode(), resource.finish(1, state).getStatus());
+        verify(buildService).update(eq(1), isA(State.class));
+    }
+
+    @Test
+    public void shouldFailFinishBuildWhenItHasAlreadyBeenFinished() throws Exception {
+        when(buildService.update(eq(1), isA(State.class))).thenReturn(false);
+        final Response response = resource.finish(1, state);
+        assertEquals(CONFLICT.getStatusCode(), response.getStatus());
+        assertEquals("Build with number [1] has already been finished", ((Error) response.getEntity()).getMessage());
         verify(buildService).update(eq(1), isA(State.class));
     }
 
@@ -96,4 +301,9 @@ public class BuildResourceTest {
         verify(buildService).update(eq(1), isA(State.class));
     }
 
-}
\ No newline at end of file
+    private static String write(final Response response) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,148 @@
+package org.spectingular.spock.api;
+
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.spectingular.spock.dto.BuildChange;
+import org.spectingular.spock.dto.Error;
+import org.spectingular.spock.dto.Event;
+import org.spectingular.spock.dto.EventOutcome;
+import org.spectingular.spock.dto.EventType;
+import org.spectingular.spock.services.ChangeBus;
+import org.spectingular.spock.services.EventService;
+import org.spectingular.spock.services.ReportService;
+
+import javax.ws.rs.core.Response;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import static java.util.Collections.singletonList;
+import static java.util.Optional.of;
+import static javax.ws.rs.core.Response.Status.CONFLICT;
+import static javax.ws.rs.core.Response.Status.OK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+/** Test class for {@link org.spectingular.spock.api.EventResource}. */
+@RunWith(MockitoJUnitRunner.class)
+public class EventResourceTest {
+    @InjectMocks
+    private EventResource resource;
+
+    @Mock
+    private EventService eventService;
+    @Mock
+    private ReportService reportService;
+    @Mock
+    private ChangeBus changeBus;
+    @Mock
+    private Event event;
+    @Mock
+    private Runnable unsubscribe;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        when(changeBus.subscribe(any(Integer.class), any(Consumer.class))).thenReturn(unsubscribe);
+    }
+
+    @Test
+    public void shouldApplyEvents() throws Exception {
+        final List<Event> events = singletonList(event);
+        final List<EventOutcome> outcomes = singletonList(new EventOutcome(0, true, null));
+        when(eventService.apply(eq(1), eq(events))).thenReturn(outcomes);
+        final Response response = resource.apply(1, events);
+        assertEquals(OK.getStatusCode(), response.getStatus());
+        assertEquals(outcomes, response.getEntity());
+        verify(eventService).apply(eq(1), eq(events));
+    }
+
+    @Test
+    public void shouldFailApplyingEventsWhenTheBuildDoesNotExist() throws Exception {
+        final List<Event> events = singletonList(event);
+        doThrow(new IllegalArgumentException("error")).when(eventService).apply(eq(1), eq(events));
+        final Response response = resource.apply(1, events);
+        assertEquals(CONFLICT.getStatusCode(), response.getStatus());
+        assertEquals("error", ((Error) response.getEntity()).getMessage());
+        verify(eventService).apply(eq(1), eq(events));
+    }
+
+    @Test
+    public void shouldStreamTheChangesOfAllBuilds() throws Exception {
+        assertTrue(resource.changes() instanceof EventOutput);
+        verify(changeBus).subscribe((Integer) isNull(), any(Consumer.class));
+    }
+
+    @Test
+    public void shouldStreamTheChangesOfABuild() throws Exception {
+        when(reportService.findBuildVersion(eq(1))).thenReturn(of(0L));
+        final Response response = resource.changes(1);
+        assertEquals(OK.getStatusCode(), response.getStatus());
+        assertTrue(response.getEntity() instanceof EventOutput);
+        verify(changeBus).subscribe(eq(1), any(Consumer.class));
+    }
+
+    @Test
+    public void shouldNotStreamTheChangesOfABuildThatDoesNotExist() throws Exception {
+        when(reportService.findBuildVersion(eq(1))).thenReturn(Optional.<Long>empty());
+        final Response response = resource.changes(1);
+        assertEquals(CONFLICT.getStatusCode(), response.getStatus());
+        assertEquals("Build with number [1] cannot be found", ((Error) response.getEntity()).getMessage());
+        verify(changeBus, never()).subscribe(anyInt(), any(Consumer.class));
+    }
+
+    @Test
+    public void shouldEndTheSubscriptionWhenTheClientHasGone() throws Exception {
+        final EventOutput output = resource.changes();
+        final ArgumentCaptor<Consumer> consumer = ArgumentCaptor.forClass(Consumer.class);
+        verify(changeBus).subscribe((Integer) isNull(), consumer.capture());
+        output.close();
+        consumer.getValue().accept(new BuildChange(1, new Event(EventType.REGISTER, "x", null, null, false)));
+        verify(unsubscribe).run();
+    }
+
+    @Test
+    public void shouldEndTheSubscriptionWhenAHeartbeatCannotBeSent() throws Exception {
+        final EventOutput output = resource.changes();
+        resource.heartbeat();
+        verify(unsubscribe, never()).run();
+        output.close();
+        resource.heartbeat();
+        verify(unsubscribe).run();
+    }
+
+    @Test
+    public void shouldEndTheStreamOfABuildWhenTheBuildIsFinished() throws Exception {
+        when(reportService.findBuildVersion(eq(1))).thenReturn(of(0L));
+        final EventOutput output = (EventOutput) resource.changes(1).getEntity();
+        final ArgumentCaptor<Consumer> consumer = ArgumentCaptor.forClass(Consumer.class);
+        verify(changeBus).subscribe(eq(1), consumer.capture());
+        consumer.getValue().accept(new BuildChange(1, new Event(EventType.FINISH, "x", null, null, true)));
+        assertFalse(output.isClosed());
+        consumer.getValue().accept(new BuildChange(1, new Event(EventType.FINISH, null, null, null, true)));
+        assertTrue(output.isClosed());
+        verify(unsubscribe).run();
+    }
+
+    @Test
+    public void shouldEndTheStreamOfABuildThatHasAlreadyBeenFinished() throws Exception {
+        when(reportService.findBuildVersion(eq(1))).thenReturn(of(3L));
+        when(reportService.isBuildFinished(eq(1))).thenReturn(true);
+        final EventOutput output = (EventOutput) resource.changes(1).getEntity();
+        assertTrue(output.isClosed());
+        verify(unsubscribe).run();
+    }
+}
@@ -7,7 +7,9 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.spectingular.spock.dto.ModuleDto;
+import org.spectingular.spock.dto.TreeView;
 import org.spectingular.spock.dto.Error;
+import org.spectingular.spock.domain.Build;
 import org.spectingular.spock.domain.Module;
 import org.spectingular.spock.domain.State;
 import org.spectingular.spock.services.ModuleService;
@@ -15,10 +17,15 @@ import org.spectingular.spock.services.ReportService;
 import org.springframework.dao.DuplicateKeyException;
 
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
+import static java.util.Collections.singletonList;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 import static javax.ws.rs.core.Response.Status.CONFLICT;
 import static javax.ws.rs.core.Response.Status.OK;
 import static org.junit.Assert.assertEquals;
@@ -89,26 +96,43 @@ public class ModuleResourceTest {
     @Test
     public void shouldGetModule() throws Exception {
         optional = Optional.of(moduleDto);
-        when(reportService.findModuleByBuildNumberAndName(eq(1), eq("module"))).thenReturn(optional);
-        assertEquals(moduleDto, resource.get(1, "module").getEntity());
+        when(reportService.findModuleByBuildNumberAndName(eq(1), eq("module"), eq(TreeView.FULL))).thenReturn(optional);
+        assertEquals(moduleDto, resource.get(1, "module", null, null).getEntity());
     }
 
     @Test
     public void shouldNotGetModuleWhenBuildDoesNotExist() throws Exception {
-        doThrow(new IllegalArgumentException("error")).when(reportService).findModuleByBuildNumberAndName(eq(1), eq("module"));
-        assertEquals("error", ((Error) resource.get(1, "module").getEntity()).getMessage());
+        doThrow(new IllegalArgumentException("error")).when(reportService).findModuleByBuildNumberAndName(eq(1), eq("module"), eq(TreeView.FULL));
+        assertEquals("error", ((Error) resource.get(1, "module", null, null).getEntity()).getMessage());
     }
 
     @Test
     public void shouldNotGetModuleWhenModuleDoesNotExist() throws Exception {
         optional = Optional.empty();
-        when(reportService.findModuleByBuildNumberAndName(eq(1), eq("module"))).thenReturn(optional);
-        assertEquals("Module with name [module] for build with number [1] cannot be found", ((Error) resource.get(1, "module").getEntity()).getMessage());
+        when(reportService.findModuleByBuildNumberAndName(eq(1), eq("module"), eq(TreeView.FULL))).thenReturn(optional);
+        assertEquals("Module with name [module] for build with number [1] cannot be found", ((Error) resource.get(1, "module", null, null).getEntity()).getMessage());
+    }
+
+    @Test
+    public void shouldNotGetModuleWithUnknownField() throws Exception {
+        final Response response = resource.get(1, "module", "module", singletonList("size"));
+        assertEquals(BAD_REQUEST.getStatusCode(), response.getStatus());
+        assertEquals("Field [size] cannot be selected", ((Error) response.getEntity()).getMessage());
     }
 
     @Test
     public void shouldFinishModule() throws Exception {
-        resource.finish(1, "module", state);
+        when(moduleService.update(eq(1), eq("module"), isA(State.class))).thenReturn(true);
+        assertEquals(OK.getStatusCode(), resource.finish(1, "module", state).getStatus());
+        verify(moduleService).update(eq(1), eq("module"), isA(State.class));
+    }
+
+    @Test
+    public void shouldFailFinishModuleWhenItHasAlreadyBeenFinished() throws Exception {
+        when(moduleService.update(eq(1), eq("module"), isA(State.class))).thenReturn(false);
+        final Response response = resource.finish(1, "module", state);
+        assertEquals(CONFLICT.getStatusCode(), response.getStatus());
+        assertEquals("Module with name [module] for build with number [1] has already been finished", ((Error) response.getEntity()).getMessage());
         verify(moduleService).update(eq(1), eq("module"), isA(State.class));
     }
 
@@ -124,7 +148,10 @@ public class ModuleResourceTest {
 
     @Test
     public void shouldGetModuleBuilds() throws Exception {
-        resource.builds("module");
+        when(moduleService.findBuildsByModuleName(eq("module"))).thenReturn(Stream.<Build>empty());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) resource.builds("module").getEntity()).write(out);
+        assertEquals("[]", out.toString("UTF-8"));
         verify(moduleService).findBuildsByModuleName(eq("module"));
     }
 }
\ No newline at end of file
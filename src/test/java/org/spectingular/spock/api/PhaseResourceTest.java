@@ -1,12 +1,16 @@
 package org.spectingular.spock.api;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.spectingular.spock.dto.PhaseDto;
+import org.spectingular.spock.dto.Depth;
+import org.spectingular.spock.dto.TreeView;
 import org.spectingular.spock.dto.Error;
 import org.spectingular.spock.domain.Phase;
 import org.spectingular.spock.domain.State;
@@ -21,7 +25,10 @@ import java.util.Optional;
 
 import static java.util.Optional.*;
 import static javax.ws.rs.core.Response.Status.CONFLICT;
+import static javax.ws.rs.core.Response.Status.OK;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -89,26 +96,47 @@ public class PhaseResourceTest {
     @Test
     public void shouldGetPhaseForBuild() throws Exception {
         optional = of(phaseDto);
-        when(reportService.findPhaseByBuildNumberAndName(eq(1), eq("phase"))).thenReturn(optional);
-        assertEquals(phaseDto, resource.get(1, "phase").getEntity());
+        when(reportService.findPhaseByBuildNumberAndName(eq(1), eq("phase"), eq(TreeView.FULL))).thenReturn(optional);
+        assertEquals(phaseDto, resource.get(1, "phase", null, null).getEntity());
+    }
+
+    @Test
+    public void shouldGetPhaseForBuildWithoutTasks() throws Exception {
+        when(reportService.findPhaseByBuildNumberAndName(eq(1), eq("phase"), any(TreeView.class))).thenReturn(of(new PhaseDto("phase", new State())));
+        final JsonNode entity = (JsonNode) resource.get(1, "phase", "phase", null).getEntity();
+        assertEquals("phase", entity.get("name").asText());
+        assertFalse(entity.has("tasks"));
+        final ArgumentCaptor<TreeView> captor = ArgumentCaptor.forClass(TreeView.class);
+        verify(reportService).findPhaseByBuildNumberAndName(eq(1), eq("phase"), captor.capture());
+        assertFalse(captor.getValue().includes(Depth.TASK));
     }
 
     @Test
     public void shouldNotGetPhaseForBuildWhenBuildDoesNotExist() throws Exception {
-        doThrow(new IllegalArgumentException("error")).when(reportService).findPhaseByBuildNumberAndName(eq(1), eq("phase"));
-        assertEquals("error", ((Error) resource.get(1, "phase").getEntity()).getMessage());
+        doThrow(new IllegalArgumentException("error")).when(reportService).findPhaseByBuildNumberAndName(eq(1), eq("phase"), eq(TreeView.FULL));
+        assertEquals("error", ((Error) resource.get(1, "phase", null, null).getEntity()).getMessage());
     }
 
     @Test
     public void shouldNotGetPhaseForBuildWhenPhaseDoesNotExist() throws Exception {
         optional = empty();
-        when(reportService.findPhaseByBuildNumberAndName(eq(1), eq("phase"))).thenReturn(optional);
-        assertEquals("Phase with name [phase] for build with number [1] cannot be found", ((Error) resource.get(1, "phase").getEntity()).getMessage());
+        when(reportService.findPhaseByBuildNumberAndName(eq(1), eq("phase"), eq(TreeView.FULL))).thenReturn(optional);
+        assertEquals("Phase with name [phase] for build with number [1] cannot be found", ((Error) resource.get(1, "phase", null, null).getEntity()).getMessage());
     }
 
     @Test
     public void shouldFinishPhaseForBuild() throws Exception {
-        resource.finish(1, "phase", state);
+        when(phaseService.update(eq(1), eq("phase"), isA(State.class))).thenReturn(true);
+        assertEquals(OK.getStatusCode(), resource.finish(1, "phase", state).getStatus());
+        verify(phaseService).update(eq(1), eq("phase"), isA(State.class));
+    }
+
+    @Test
+    public void shouldFailFinishPhaseForBuildWhenItHasAlreadyBeenFinished() throws Exception {
+        when(phaseService.update(eq(1), eq("phase"), isA(State.class))).thenReturn(false);
+        final Response response = resource.finish(1, "phase", state);
+        assertEquals(CONFLICT.getStatusCode(), response.getStatus());
+        assertEquals("Phase with name [phase] for build with number [1] has already been finished", ((Error) response.getEntity()).getMessage());
         verify(phaseService).update(eq(1), eq("phase"), isA(State.class));
     }
 
@@ -161,26 +189,36 @@ public class PhaseResourceTest {
     @Test
     public void shouldGetPhaseForModule() throws Exception {
         optional = of(phaseDto);
-        when(reportService.findPhaseByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(optional);
-        assertEquals(phaseDto, resource.get(1, "module", "phase").getEntity());
+        when(reportService.findPhaseByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"), eq(TreeView.FULL))).thenReturn(optional);
+        assertEquals(phaseDto, resource.get(1, "module", "phase", null, null).getEntity());
     }
 
     @Test
     public void shouldNotGetPhaseForModuleWhenTheBuildAndOrModuleDoNotExist() throws Exception {
-        doThrow(new IllegalArgumentException("error")).when(reportService).findPhaseByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"));
-        assertEquals("error", ((Error) resource.get(1, "module", "phase").getEntity()).getMessage());
+        doThrow(new IllegalArgumentException("error")).when(reportService).findPhaseByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"), eq(TreeView.FULL));
+        assertEquals("error", ((Error) resource.get(1, "module", "phase", null, null).getEntity()).getMessage());
     }
 
     @Test
     public void shouldNotGetPhaseForModuleWhenThePhaseDoesNotExist() throws Exception {
         optional = empty();
-        when(reportService.findPhaseByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(optional);
-        assertEquals("Phase with name [phase] for module with name [module] and build with number [1] cannot be found", ((Error) resource.get(1, "module", "phase").getEntity()).getMessage());
+        when(reportService.findPhaseByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"), eq(TreeView.FULL))).thenReturn(optional);
+        assertEquals("Phase with name [phase] for module with name [module] and build with number [1] cannot be found", ((Error) resource.get(1, "module", "phase", null, null).getEntity()).getMessage());
     }
 
     @Test
     public void shouldFinishPhaseForModule() throws Exception {
-        resource.finish(1, "module", "phase", state);
+        when(phaseService.update(eq(1), eq("module"), eq("phase"), isA(State.class))).thenReturn(true);
+        assertEquals(OK.getStatusCode(), resource.finish(1, "module", "phase", state).getStatus());
+        verify(phaseService).update(eq(1), eq("module"), eq("phase"), isA(State.class));
+    }
+
+    @Test
+    public void shouldFailFinishPhaseForModuleWhenItHasAlreadyBeenFinished() throws Exception {
+        when(phaseService.update(eq(1), eq("module"), eq("phase"), isA(State.class))).thenReturn(false);
+        final Response response = resource.finish(1, "module", "phase", state);
+        assertEquals(CONFLICT.getStatusCode(), response.getStatus());
+        assertEquals("Phase with name [phase] for module with name [module] and build with number [1] has already been finished", ((Error) response.getEntity()).getMessage());
         verify(phaseService).update(eq(1), eq("module"), eq("phase"), isA(State.class));
     }
 
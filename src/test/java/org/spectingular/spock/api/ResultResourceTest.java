@@ -1,5 +1,7 @@
 package org.spectingular.spock.api;
 
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParseException;
 import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Test;
@@ -9,20 +11,44 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.spectingular.spock.domain.Result;
 import org.spectingular.spock.dto.Error;
+import org.spectingular.spock.services.PayloadTooLargeException;
 import org.spectingular.spock.services.ReportService;
+import org.spectingular.spock.services.ResponseCache;
+import org.spectingular.spock.services.ResultFiles;
+import org.spectingular.spock.services.ResultProjector;
+import org.spectingular.spock.services.ResultReader;
 import org.spectingular.spock.services.ResultService;
 
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashSet;
 import java.util.Optional;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static java.util.Optional.empty;
 import static java.util.Optional.of;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 import static javax.ws.rs.core.Response.Status.CONFLICT;
+import static javax.ws.rs.core.Response.Status.NOT_MODIFIED;
+import static javax.ws.rs.core.Response.Status.REQUEST_ENTITY_TOO_LARGE;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.initMocks;
+import static org.spectingular.spock.domain.Codec.DEFLATE;
+import static org.spectingular.spock.domain.Codec.LZ4;
 
 /** Test class for {@link org.spectingular.spock.api.ResultResource}. */
 @RunWith(MockitoJUnitRunner.class)
@@ -34,31 +60,178 @@ public class ResultResourceTest {
     private ResultService resultService;
     @Mock
     private ReportService reportService;
-    private Optional<String> optional;
+    @Mock
+    private ResultReader resultReader;
+    @Mock
+    private ResultFiles resultFiles;
+    @Mock
+    private ResultProjector resultProjector;
+    @Mock
+    private ResponseCache responseCache;
+    private Optional<Result> optional;
     @Mock
     private Result result;
-    private String data = "";
     private InputStream stream = IOUtils.toInputStream("{\"some\":\"value\"}");
 
     @Before
-    public void setUp() {
+    public void setUp() throws Exception {
         initMocks(this);
+        when(resultReader.read(stream)).thenReturn(result);
+        when(responseCache.get(anyInt(), anyString())).thenReturn(Optional.<ResponseCache.Entry>empty());
+        when(reportService.findBuildVersion(anyInt())).thenReturn(Optional.<Long>empty());
     }
 
 
     @Test
     public void shouldGetResultForBuildTask() throws Exception {
-        optional = of(data);
+        optional = of(result);
+        when(reportService.findResultByBuildNumberAndPhaseNameAndTaskName(eq(1), eq("phase"), eq("task"))).thenReturn(optional);
+        final OutputStream output = new ByteArrayOutputStream();
+
+        ((StreamingOutput) resource.get(1, "phase", "task", null, null, null).getEntity()).write(output);
+
+        verify(resultFiles).write(eq(result), eq(output), eq(false));
+    }
+
+    @Test
+    public void shouldCacheResultOfFinishedBuild() throws Exception {
+        optional = of(result);
+        when(reportService.findResultByBuildNumberAndPhaseNameAndTaskName(eq(1), eq("phase"), eq("task"))).thenReturn(optional);
+        when(reportService.findBuildVersion(1)).thenReturn(of(3L));
+        when(reportService.isBuildFinished(1)).thenReturn(true);
+        when(responseCache.generation(1)).thenReturn(2L);
+        when(responseCache.getMaxEntrySize()).thenReturn(100L);
+        when(resultFiles.read(result, 100L)).thenReturn(of("{}".getBytes()));
+        when(responseCache.put(1, "phases/phase/tasks/task/results", 2L, "3", "{}".getBytes())).thenReturn(new ResponseCache.Entry("3", "{}".getBytes(), null));
+
+        final Response response = resource.get(1, "phase", "task", null, null, null);
+
+        assertArrayEquals("{}".getBytes(), (byte[]) response.getEntity());
+        assertEquals("no-cache", response.getHeaderString("Cache-Control"));
+        assertEquals(new EntityTag("3"), response.getEntityTag());
+        verify(responseCache).put(1, "phases/phase/tasks/task/results", 2L, "3", "{}".getBytes());
+    }
+
+    @Test
+    public void shouldStreamResultOfFinishedBuildThatIsTooLargeToCache() throws Exception {
+        optional = of(result);
+        when(reportService.findResultByBuildNumberAndPhaseNameAndTaskName(eq(1), eq("phase"), eq("task"))).thenReturn(optional);
+        when(reportService.findBuildVersion(1)).thenReturn(of(3L));
+        when(reportService.isBuildFinished(1)).thenReturn(true);
+        when(responseCache.getMaxEntrySize()).thenReturn(100L);
+        when(resultFiles.read(result, 100L)).thenReturn(Optional.<byte[]>empty());
+        final OutputStream output = new ByteArrayOutputStream();
+
+        final Response response = resource.get(1, "phase", "task", null, null, null);
+        ((StreamingOutput) response.getEntity()).write(output);
+
+        assertEquals(new EntityTag("3"), response.getEntityTag());
+        verify(resultFiles).write(eq(result), eq(output), eq(false));
+        verify(responseCache, never()).put(anyInt(), anyString(), anyLong(), anyString(), any(byte[].class));
+    }
+
+    @Test
+    public void shouldNotGetResultWhenTheVersionOfTheBuildMatches() throws Exception {
+        when(reportService.findBuildVersion(1)).thenReturn(of(3L));
+
+        final Response response = resource.get(1, "module", "phase", "task", null, "\"3\"", null);
+
+        assertEquals(NOT_MODIFIED.getStatusCode(), response.getStatus());
+        assertEquals(new EntityTag("3"), response.getEntityTag());
+        verify(reportService, never()).findResultByBuildNumberAndModuleNameAndPhaseNameAndTaskName(anyInt(), anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void shouldGetCachedResult() throws Exception {
+        when(responseCache.get(1, "modules/module/phases/phase/tasks/task/results")).thenReturn(of(new ResponseCache.Entry("3", "{}".getBytes(), null)));
+
+        final Response response = resource.get(1, "module", "phase", "task", null, null, null);
+
+        assertArrayEquals("{}".getBytes(), (byte[]) response.getEntity());
+        assertEquals(new EntityTag("3"), response.getEntityTag());
+        verify(reportService, never()).findResultByBuildNumberAndModuleNameAndPhaseNameAndTaskName(anyInt(), anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void shouldRevalidateCachedResult() throws Exception {
+        when(responseCache.get(1, "modules/module/phases/phase/tasks/task/results")).thenReturn(of(new ResponseCache.Entry("3", "{}".getBytes(), null)));
+
+        final Response response = resource.get(1, "module", "phase", "task", null, "W/\"3\"", null);
+
+        assertEquals(NOT_MODIFIED.getStatusCode(), response.getStatus());
+        verify(reportService, never()).findBuildVersion(anyInt());
+    }
+
+    @Test
+    public void shouldGetCompressedResultAsIsWhenTheClientAcceptsTheCodec() throws Exception {
+        optional = of(result);
+        when(result.getCodec()).thenReturn(DEFLATE);
+        when(reportService.findResultByBuildNumberAndPhaseNameAndTaskName(eq(1), eq("phase"), eq("task"))).thenReturn(optional);
+        final OutputStream output = new ByteArrayOutputStream();
+
+        final Response response = resource.get(1, "phase", "task", null, null, "gzip, deflate");
+        ((StreamingOutput) response.getEntity()).write(output);
+
+        assertEquals("deflate", response.getHeaderString("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeaderString("Vary"));
+        verify(resultFiles).write(eq(result), eq(output), eq(false));
+    }
+
+    @Test
+    public void shouldGetDecompressedResultWhenTheClientDoesNotAcceptTheCodec() throws Exception {
+        optional = of(result);
+        when(result.getCodec()).thenReturn(LZ4);
+        when(reportService.findResultByBuildNumberAndPhaseNameAndTaskName(eq(1), eq("phase"), eq("task"))).thenReturn(optional);
+        final OutputStream output = new ByteArrayOutputStream();
+
+        final Response response = resource.get(1, "phase", "task", null, null, "gzip, deflate");
+        ((StreamingOutput) response.getEntity()).write(output);
+
+        assertNull(response.getHeaderString("Content-Encoding"));
+        verify(resultFiles).write(eq(result), eq(output), eq(true));
+    }
+
+    @Test
+    public void shouldGetSelectedPartsOfResultForBuildTask() throws Exception {
+        optional = of(result);
+        when(result.getCodec()).thenReturn(DEFLATE);
         when(reportService.findResultByBuildNumberAndPhaseNameAndTaskName(eq(1), eq("phase"), eq("task"))).thenReturn(optional);
+        final OutputStream output = new ByteArrayOutputStream();
 
-        assertEquals("", resource.get(1, "phase", "task").getEntity());
+        final Response response = resource.get(1, "phase", "task", asList("/summary/failed", "/suites/0"), null, "deflate");
+        ((StreamingOutput) response.getEntity()).write(output);
+
+        assertNull(response.getHeaderString("Content-Encoding"));
+        verify(resultProjector).write(eq(result), eq(new LinkedHashSet<>(asList("/summary/failed", "/suites/0"))), eq(output));
+        verify(resultFiles, never()).write(eq(result), eq(output), anyBoolean());
+    }
+
+    @Test
+    public void shouldNotGetResultForBuildTaskWhenAFieldIsNotAJsonPointer() throws Exception {
+        optional = of(result);
+        when(reportService.findResultByBuildNumberAndPhaseNameAndTaskName(eq(1), eq("phase"), eq("task"))).thenReturn(optional);
+
+        final Response response = resource.get(1, "phase", "task", singletonList("summary"), null, null);
+
+        assertEquals(BAD_REQUEST.getStatusCode(), response.getStatus());
+        assertEquals("Field [summary] is not a JSON pointer", ((Error) response.getEntity()).getMessage());
+        verify(reportService, never()).findResultByBuildNumberAndPhaseNameAndTaskName(anyInt(), anyString(), anyString());
+    }
+
+    @Test
+    public void shouldNotGetResultForModuleTaskWhenAFieldIsNotAJsonPointer() throws Exception {
+        final Response response = resource.get(1, "module", "phase", "task", asList("/summary", "summary"), null, null);
+
+        assertEquals(BAD_REQUEST.getStatusCode(), response.getStatus());
+        assertEquals("Field [summary] is not a JSON pointer", ((Error) response.getEntity()).getMessage());
+        verify(reportService, never()).findResultByBuildNumberAndModuleNameAndPhaseNameAndTaskName(anyInt(), anyString(), anyString(), anyString());
     }
 
     @Test
     public void shouldNotGetResultForBuildTaskWhenBuildAndOrPhaseAndOrTaskDoNotExist() throws Exception {
         doThrow(new IllegalArgumentException("error")).when(reportService).findResultByBuildNumberAndPhaseNameAndTaskName(eq(1), eq("phase"), eq("task"));
 
-        assertEquals("error", ((Error) resource.get(1, "phase", "task").getEntity()).getMessage());
+        assertEquals("error", ((Error) resource.get(1, "phase", "task", null, null, null).getEntity()).getMessage());
     }
 
     @Test
@@ -66,22 +239,25 @@ public class ResultResourceTest {
         optional = empty();
         when(reportService.findResultByBuildNumberAndPhaseNameAndTaskName(eq(1), eq("phase"), eq("task"))).thenReturn(optional);
 
-        assertEquals("Result information for task with name [task] for phase with name [phase] and build with number [1] cannot be found", ((Error) resource.get(1, "phase", "task").getEntity()).getMessage());
+        assertEquals("Result information for task with name [task] for phase with name [phase] and build with number [1] cannot be found", ((Error) resource.get(1, "phase", "task", null, null, null).getEntity()).getMessage());
     }
 
     @Test
     public void shouldGetResultForModuleTask() throws Exception {
-        optional = of(data);
+        optional = of(result);
         when(reportService.findResultByBuildNumberAndModuleNameAndPhaseNameAndTaskName(eq(1), eq("module"), eq("phase"), eq("task"))).thenReturn(optional);
+        final OutputStream output = new ByteArrayOutputStream();
 
-        assertEquals("", resource.get(1, "module", "phase", "task").getEntity());
+        ((StreamingOutput) resource.get(1, "module", "phase", "task", null, null, null).getEntity()).write(output);
+
+        verify(resultFiles).write(eq(result), eq(output), eq(false));
     }
 
     @Test
     public void shouldNotResultForModuleTaskWhenBuildAndOrPhaseAndOrTaskDoNotExist() throws Exception {
         doThrow(new IllegalArgumentException("error")).when(reportService).findResultByBuildNumberAndModuleNameAndPhaseNameAndTaskName(eq(1), eq("module"), eq("phase"), eq("task"));
 
-        assertEquals("error", ((Error) resource.get(1, "module", "phase", "task").getEntity()).getMessage());
+        assertEquals("error", ((Error) resource.get(1, "module", "phase", "task", null, null, null).getEntity()).getMessage());
     }
 
     @Test
@@ -89,7 +265,7 @@ public class ResultResourceTest {
         optional = empty();
         when(reportService.findResultByBuildNumberAndModuleNameAndPhaseNameAndTaskName(eq(1), eq("module"), eq("phase"), eq("task"))).thenReturn(optional);
 
-        assertEquals("Result information for task with name [task] for phase with name [phase] and build with number [1] and  module with name [module] cannot be found", ((Error) resource.get(1, "module", "phase", "task").getEntity()).getMessage());
+        assertEquals("Result information for task with name [task] for phase with name [phase] and build with number [1] and  module with name [module] cannot be found", ((Error) resource.get(1, "module", "phase", "task", null, null, null).getEntity()).getMessage());
     }
 
     @Test
@@ -122,4 +298,21 @@ public class ResultResourceTest {
         verify(resultService).store(eq(1), eq("module"), eq("phase"), eq("task"), isA(Result.class));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldFailStoringResultWhenItExceedsTheMaximumPayloadSize() throws Exception {
+        doThrow(new PayloadTooLargeException("error")).when(resultReader).read(stream);
+        final Response response = resource.store(1, "phase", "task", stream);
+        assertEquals(REQUEST_ENTITY_TOO_LARGE.getStatusCode(), response.getStatus());
+        assertEquals("error", ((Error) response.getEntity()).getMessage());
+        verify(resultService, never()).store(anyInt(), anyString(), anyString(), any(Result.class));
+    }
+
+    @Test
+    public void shouldFailStoringResultWhenItIsNotValidJson() throws Exception {
+        doThrow(new JsonParseException("error", (JsonLocation) null)).when(resultReader).read(stream);
+        final Response response = resource.store(1, "module", "phase", "task", stream);
+        assertEquals(BAD_REQUEST.getStatusCode(), response.getStatus());
+        assertEquals("error", ((Error) response.getEntity()).getMessage());
+        verify(resultService, never()).store(anyInt(), anyString(), anyString(), anyString(), any(Result.class));
+    }
+}
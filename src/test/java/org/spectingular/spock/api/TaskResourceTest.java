@@ -16,14 +16,17 @@ import org.spectingular.spock.services.TaskService;
 import org.springframework.dao.DuplicateKeyException;
 
 import javax.ws.rs.core.Response;
-import java.util.ArrayList;
-import java.util.List;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static java.util.Optional.empty;
 import static java.util.Optional.of;
 import static javax.ws.rs.core.Response.Status.CONFLICT;
+import static javax.ws.rs.core.Response.Status.OK;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -55,17 +58,21 @@ public class TaskResourceTest {
 
     @Test
     public void shouldGetTasksForBuild() throws Exception {
-        when(reportService.findTasksByBuildNumberAndPhaseName(eq(1), eq("phase"))).thenReturn(new ArrayList<TaskDto>());
-        assertEquals(0, ((List<TaskDto>) resource.all(1, "phase").getEntity()).size());
+        when(reportService.streamTasksByBuildNumberAndPhaseName(eq(1), eq("phase"))).thenReturn(Stream.of(new TaskDto("task", new State())));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) resource.all(1, "phase").getEntity()).write(out);
+        final String json = out.toString("UTF-8");
+        assertTrue(json.startsWith("[{\"name\":\"task\""));
+        assertTrue(json.endsWith("}]"));
     }
 
     @Test
     public void shouldNotGetTasksForBuildWhenTheBuildAndOrPhaseDoNotExist() throws Exception {
-        doThrow(new IllegalArgumentException("error")).when(reportService).findTasksByBuildNumberAndPhaseName(eq(1), eq("phase"));
+        doThrow(new IllegalArgumentException("error")).when(reportService).streamTasksByBuildNumberAndPhaseName(eq(1), eq("phase"));
         final Response response = resource.all(1, "phase");
         assertEquals(CONFLICT.getStatusCode(), response.getStatus());
         assertEquals("error", ((Error) response.getEntity()).getMessage());
-        verify(reportService).findTasksByBuildNumberAndPhaseName(eq(1), eq("phase"));
+        verify(reportService).streamTasksByBuildNumberAndPhaseName(eq(1), eq("phase"));
     }
 
     @Test
@@ -112,7 +119,17 @@ public class TaskResourceTest {
 
     @Test
     public void shouldFinishTaskForBuild() throws Exception {
-        resource.finish(1, "phase", "task", state);
+        when(taskService.update(eq(1), eq("phase"), eq("task"), isA(State.class))).thenReturn(true);
+        assertEquals(OK.getStatusCode(), resource.finish(1, "phase", "task", state).getStatus());
+        verify(taskService).update(eq(1), eq("phase"), eq("task"), isA(State.class));
+    }
+
+    @Test
+    public void shouldFailFinishTaskForBuildWhenItHasAlreadyBeenFinished() throws Exception {
+        when(taskService.update(eq(1), eq("phase"), eq("task"), isA(State.class))).thenReturn(false);
+        final Response response = resource.finish(1, "phase", "task", state);
+        assertEquals(CONFLICT.getStatusCode(), response.getStatus());
+        assertEquals("Task with name [task] for phase with name [phase] and build with number [1] has already been finished", ((Error) response.getEntity()).getMessage());
         verify(taskService).update(eq(1), eq("phase"), eq("task"), isA(State.class));
     }
 
@@ -127,17 +144,19 @@ public class TaskResourceTest {
 
     @Test
     public void shouldGetTasksForModule() throws Exception {
-        when(reportService.findTasksByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"))).thenReturn(new ArrayList<TaskDto>());
-        assertEquals(0, ((List<TaskDto>) resource.all(1, "module", "phase").getEntity()).size());
+        when(reportService.streamTasksByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"))).thenReturn(Stream.<TaskDto>empty());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) resource.all(1, "module", "phase").getEntity()).write(out);
+        assertEquals("[]", out.toString("UTF-8"));
     }
 
     @Test
     public void shouldNotGetTasksForModuleWhenTheBuildAndOrModuleAndOrPhaseDoNotExist() throws Exception {
-        doThrow(new IllegalArgumentException("error")).when(reportService).findTasksByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"));
+        doThrow(new IllegalArgumentException("error")).when(reportService).streamTasksByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"));
         final Response response = resource.all(1, "module", "phase");
         assertEquals(CONFLICT.getStatusCode(), response.getStatus());
         assertEquals("error", ((Error) response.getEntity()).getMessage());
-        verify(reportService).findTasksByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"));
+        verify(reportService).streamTasksByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"));
     }
 
     @Test
@@ -184,7 +203,17 @@ public class TaskResourceTest {
 
     @Test
     public void shouldFinishTaskForModule() throws Exception {
-        resource.finish(1, "module", "phase", "task", state);
+        when(taskService.update(eq(1), eq("module"), eq("phase"), eq("task"), isA(State.class))).thenReturn(true);
+        assertEquals(OK.getStatusCode(), resource.finish(1, "module", "phase", "task", state).getStatus());
+        verify(taskService).update(eq(1), eq("module"), eq("phase"), eq("task"), isA(State.class));
+    }
+
+    @Test
+    public void shouldFailFinishTaskForModuleWhenItHasAlreadyBeenFinished() throws Exception {
+        when(taskService.update(eq(1), eq("module"), eq("phase"), eq("task"), isA(State.class))).thenReturn(false);
+        final Response response = resource.finish(1, "module", "phase", "task", state);
+        assertEquals(CONFLICT.getStatusCode(), response.getStatus());
+        assertEquals("Task with name [task] for phase with name [phase] and module with name [module] and build with number [1] has already been finished", ((Error) response.getEntity()).getMessage());
         verify(taskService).update(eq(1), eq("module"), eq("phase"), eq("task"), isA(State.class));
     }
 
@@ -0,0 +1,81 @@
+package org.spectingular.spock.api;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.spectingular.spock.services.WriteBehindQueue;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+
+import static java.util.Collections.singletonList;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+/** Test class for {@link org.spectingular.spock.api.WriteBehindBarrier}. */
+@RunWith(MockitoJUnitRunner.class)
+public class WriteBehindBarrierTest {
+    @InjectMocks
+    private WriteBehindBarrier barrier; // class under test
+
+    @Mock
+    private WriteBehindQueue writeBehindQueue;
+    @Mock
+    private ContainerRequestContext request;
+    @Mock
+    private UriInfo uriInfo;
+
+    private MultivaluedMap<String, String> parameters;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        parameters = new MultivaluedHashMap<>();
+        when(request.getUriInfo()).thenReturn(uriInfo);
+        when(uriInfo.getPathParameters()).thenReturn(parameters);
+    }
+
+    @Test
+    public void shouldFlushTheBuildBeforeAReadOfIt() throws Exception {
+        parameters.putSingle("buildNumber", "1");
+        when(request.getMethod()).thenReturn("GET");
+        barrier.filter(request);
+        verify(writeBehindQueue).flush(1);
+    }
+
+    @Test
+    public void shouldFlushTheBuildBeforeAResultIsStored() throws Exception {
+        parameters.putSingle("buildNumber", "1");
+        when(request.getMethod()).thenReturn("POST");
+        when(uriInfo.getMatchedResources()).thenReturn(singletonList((Object) mock(ResultResource.class)));
+        barrier.filter(request);
+        verify(writeBehindQueue).flush(1);
+    }
+
+    @Test
+    public void shouldNotFlushTheBuildBeforeATaskIsRegistered() throws Exception {
+        parameters.putSingle("buildNumber", "1");
+        when(request.getMethod()).thenReturn("POST");
+        when(uriInfo.getMatchedResources()).thenReturn(singletonList((Object) mock(TaskResource.class)));
+        barrier.filter(request);
+        verify(writeBehindQueue, never()).flush(anyInt());
+    }
+
+    @Test
+    public void shouldNotFlushWhenTheRequestIsNotForABuild() throws Exception {
+        when(request.getMethod()).thenReturn("GET");
+        barrier.filter(request);
+        parameters.putSingle("buildNumber", "latest");
+        barrier.filter(request);
+        verify(writeBehindQueue, never()).flush(anyInt());
+    }
+}
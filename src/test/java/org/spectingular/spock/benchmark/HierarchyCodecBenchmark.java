@@ -0,0 +1,80 @@
+package org.spectingular.spock.benchmark;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.spectingular.spock.domain.Task;
+import org.spectingular.spock.services.HierarchyCodec;
+import org.springframework.data.mongodb.core.convert.DbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.Date;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Benchmark comparing the reading of a stored {@link org.spectingular.spock.domain.Task} by the {@link org.springframework.data.mongodb.core.convert.MappingMongoConverter},
+ * as done for the derived queries of the Spring Data repositories, with the {@link org.spectingular.spock.services.HierarchyCodec}
+ * used by the {@link org.spectingular.spock.services.DriverRepository}.
+ * The document has no reference to its phase, so only the mapping is compared; the queries that resolving the references adds are not part of it.
+ * Run {@link #main(String...)} from the test classpath; the GC profiler reports the allocation per operation (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HierarchyCodecBenchmark {
+    private DBObject document;
+    private MappingMongoConverter converter;
+
+    @Setup
+    public void setUp() {
+        document = new BasicDBObject("_id", new ObjectId())
+                .append("_class", Task.class.getName())
+                .append("name", "test")
+                .append("state", new BasicDBObject("startDate", new Date()).append("stopDate", new Date()).append("success", true))
+                .append("buildNumber", 1234)
+                .append("moduleName", "spock-core")
+                .append("phaseName", "integration-test");
+
+        final MongoMappingContext context = new MongoMappingContext();
+        context.afterPropertiesSet();
+        converter = new MappingMongoConverter(mock(DbRefResolver.class), context);
+        converter.afterPropertiesSet();
+    }
+
+    @Benchmark
+    public Task mapping() {
+        return converter.read(Task.class, document);
+    }
+
+    @Benchmark
+    public Task codec() {
+        return HierarchyCodec.task(document);
+    }
+
+    public static void main(String... args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(HierarchyCodecBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
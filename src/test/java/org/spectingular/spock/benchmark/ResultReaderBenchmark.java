@@ -0,0 +1,92 @@
+package org.spectingular.spock.benchmark;
+
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.spectingular.spock.services.ResultReader;
+import org.springframework.boot.actuate.metrics.GaugeService;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * Benchmark comparing the legacy result ingestion, which buffers the request body as a String before parsing it with
+ * {@link com.mongodb.util.JSON}, with the streaming {@link org.spectingular.spock.services.ResultReader}, which only validates the data and keeps its bytes.
+ * Run {@link #main(String...)} from the test classpath; the GC profiler reports the allocation per operation (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResultReaderBenchmark {
+    @Param({"1", "20"})
+    public int megabytes;
+
+    private byte[] payload;
+    private ResultReader reader;
+
+    @Setup
+    public void setUp() {
+        final StringBuilder json = new StringBuilder("{\"suite\":\"benchmark\",\n\"tests\":[\n");
+        for (int i = 0; json.length() < megabytes * 1024 * 1024; i++) {
+            json.append(i == 0 ? "" : ",\n")
+                    .append("{\"name\":\"org.spectingular.spock.SomeTest.shouldDoSomething").append(i)
+                    .append("\",\"time\":").append(i % 1000 / 100.0)
+                    .append(",\"passed\":").append(i % 17 != 0)
+                    .append(",\"output\":\"some output of the test that is a bit longer than the rest\"}");
+        }
+        payload = json.append("\n]}").toString().getBytes(StandardCharsets.UTF_8);
+
+        reader = new ResultReader();
+        setField(reader, "gaugeService", (GaugeService) (name, value) -> {
+        });
+        setField(reader, "maxPayloadSize", Long.MAX_VALUE);
+        // keep everything in memory, the benchmark compares reading rather than GridFS throughput
+        setField(reader, "gridFsThreshold", Integer.MAX_VALUE - 1);
+    }
+
+    @Benchmark
+    public DBObject legacy() throws IOException {
+        final StringBuilder builder = new StringBuilder();
+        final BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(payload)));
+        String line;
+        while ((line = in.readLine()) != null) {
+            builder.append(line);
+        }
+        return (DBObject) JSON.parse(builder.toString());
+    }
+
+    @Benchmark
+    public byte[] streaming() throws IOException {
+        return reader.read(new ByteArrayInputStream(payload)).getContent();
+    }
+
+    public static void main(String... args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ResultReaderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,36 @@
+package org.spectingular.spock.domain;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Test class for {@link org.spectingular.spock.domain.BuildSnapshot}. */
+public class BuildSnapshotTest {
+    private BuildSnapshot snapshot; // class under test
+
+    @Before
+    public void setUp() {
+        snapshot = new BuildSnapshot();
+    }
+
+    @Test
+    public void shouldSetValues() throws Exception {
+        assertEquals(0, snapshot.getNumber());
+        assertEquals(0, snapshot.getVersion());
+        assertFalse(snapshot.isFinished());
+        assertNull(snapshot.getContent());
+        snapshot.setNumber(1);
+        snapshot.setVersion(3);
+        snapshot.setFinished(true);
+        snapshot.setContent(new byte[]{'{', '}'});
+        assertEquals(1, snapshot.getNumber());
+        assertEquals(3, snapshot.getVersion());
+        assertTrue(snapshot.isFinished());
+        assertArrayEquals(new byte[]{'{', '}'}, snapshot.getContent());
+    }
+}
@@ -0,0 +1,33 @@
+package org.spectingular.spock.domain;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/** Test class for {@link org.spectingular.spock.domain.Change}. */
+public class ChangeTest {
+    private Change change; // class under test
+
+    @Test
+    public void shouldSetValues() throws Exception {
+        change = new Change(1, 4, ChangeType.FINISH, "module", "phase", "task", true);
+        assertEquals(1, change.getBuildNumber());
+        assertEquals(4, change.getVersion());
+        assertEquals(ChangeType.FINISH, change.getType());
+        assertEquals("module", change.getModule());
+        assertEquals("phase", change.getPhase());
+        assertEquals("task", change.getTask());
+        assertEquals(true, change.getSuccess());
+        assertNotNull(change.getDate());
+    }
+
+    @Test
+    public void shouldBeEmptyByDefault() throws Exception {
+        change = new Change();
+        assertNull(change.getType());
+        assertNull(change.getSuccess());
+        assertNull(change.getDate());
+    }
+}
@@ -0,0 +1,66 @@
+package org.spectingular.spock.domain;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.spectingular.spock.domain.Codec.DEFLATE;
+import static org.spectingular.spock.domain.Codec.GZIP;
+import static org.spectingular.spock.domain.Codec.LZ4;
+
+/** Test class for {@link org.spectingular.spock.domain.Codec}. */
+public class CodecTest {
+
+    @Test
+    public void shouldCompressAndDecompress() throws Exception {
+        final StringBuilder data = new StringBuilder("[");
+        for (int i = 0; i < 100; i++) {
+            data.append("{\"name\":\"test").append(i).append("\",\"passed\":true},");
+        }
+        final byte[] bytes = data.append("{}]").toString().getBytes(UTF_8);
+        for (final Codec codec : Codec.values()) {
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream out = codec.encode(compressed)) {
+                out.write(bytes);
+            }
+            assertTrue(compressed.size() < bytes.length);
+            assertEquals(data.toString(), new String(IOUtils.toByteArray(codec.decode(new ByteArrayInputStream(compressed.toByteArray()))), UTF_8));
+        }
+    }
+
+    @Test
+    public void shouldBeAcceptedByMatchingContentEncoding() throws Exception {
+        assertTrue(DEFLATE.isAcceptedBy("deflate"));
+        assertTrue(DEFLATE.isAcceptedBy("gzip, Deflate;q=0.5"));
+        assertFalse(DEFLATE.isAcceptedBy("gzip, deflate;q=0"));
+        assertFalse(DEFLATE.isAcceptedBy("gzip"));
+        assertFalse(DEFLATE.isAcceptedBy(null));
+        assertFalse(LZ4.isAcceptedBy("deflate, lz4"));
+        assertTrue(GZIP.isAcceptedBy("gzip, deflate"));
+        assertFalse(GZIP.isAcceptedBy("deflate"));
+    }
+
+    @Test
+    public void shouldGetCodecForName() throws Exception {
+        assertNull(Codec.forName("none"));
+        assertNull(Codec.forName(null));
+        assertEquals(DEFLATE, Codec.forName("deflate"));
+        assertEquals(LZ4, Codec.forName("LZ4"));
+        assertEquals(GZIP, Codec.forName("gzip"));
+        try {
+            Codec.forName("zip");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Codec with name [zip] cannot be found", e.getMessage());
+        }
+    }
+}
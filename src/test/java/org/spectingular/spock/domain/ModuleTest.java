@@ -34,5 +34,7 @@ public class ModuleTest {
         assertEquals(build, module.getBuild());
         module.setState(state);
         assertEquals(state, module.getState());
+        module.setBuildNumber(1);
+        assertEquals(1, module.getBuildNumber());
     }
 }
\ No newline at end of file
@@ -39,5 +39,10 @@ public class PhaseTest {
         assertEquals(module, phase.getModule());
         phase.setState(state);
         assertEquals(state, phase.getState());
+        assertNull(phase.getModuleName());
+        phase.setBuildNumber(1);
+        assertEquals(1, phase.getBuildNumber());
+        phase.setModuleName("module");
+        assertEquals("module", phase.getModuleName());
     }
 }
\ No newline at end of file
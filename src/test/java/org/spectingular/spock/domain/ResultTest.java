@@ -1,6 +1,7 @@
 package org.spectingular.spock.domain;
 
 import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -32,5 +33,23 @@ public class ResultTest {
         assertEquals(task, result.getTask());
         result.setData(data);
         assertEquals(data, result.getData());
+        assertNull(result.getModuleName());
+        assertNull(result.getPhaseName());
+        assertNull(result.getTaskName());
+        result.setBuildNumber(1);
+        assertEquals(1, result.getBuildNumber());
+        result.setModuleName("module");
+        assertEquals("module", result.getModuleName());
+        result.setPhaseName("prepare");
+        assertEquals("prepare", result.getPhaseName());
+        result.setTaskName("copy");
+        assertEquals("copy", result.getTaskName());
+        assertNull(result.getFileId());
+        assertEquals(0, result.getLength());
+        final ObjectId fileId = new ObjectId();
+        result.setFileId(fileId);
+        assertEquals(fileId, result.getFileId());
+        result.setLength(2048);
+        assertEquals(2048, result.getLength());
     }
 }
\ No newline at end of file
@@ -28,5 +28,7 @@ public class StateTest {
         assertTrue(state.isSuccess());
         state.setStopDate(new Date());
         assertNotNull(state.getStopDate());
+        state.setStartDate(new Date(1));
+        assertEquals(new Date(1), state.getStartDate());
     }
 }
\ No newline at end of file
@@ -34,5 +34,13 @@ public class TaskTest {
         assertEquals(phase, task.getPhase());
         task.setState(state);
         assertEquals(state, task.getState());
+        assertNull(task.getModuleName());
+        assertNull(task.getPhaseName());
+        task.setBuildNumber(1);
+        assertEquals(1, task.getBuildNumber());
+        task.setModuleName("module");
+        assertEquals("module", task.getModuleName());
+        task.setPhaseName("prepare");
+        assertEquals("prepare", task.getPhaseName());
     }
 }
\ No newline at end of file
@@ -0,0 +1,135 @@
+package org.spectingular.spock.dto;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.spectingular.spock.domain.State;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.spectingular.spock.dto.Depth.BUILD;
+import static org.spectingular.spock.dto.Depth.MODULE;
+import static org.spectingular.spock.dto.Depth.PHASE;
+import static org.spectingular.spock.dto.Depth.TASK;
+
+/** Test class for {@link org.spectingular.spock.dto.TreeView}. */
+public class TreeViewTest {
+
+    @Test
+    public void shouldIncludeAllLevelsByDefault() throws Exception {
+        final TreeView view = TreeView.of(null, null);
+        assertSame(TreeView.FULL, view);
+        assertTrue(view.includes(MODULE));
+        assertTrue(view.includes(TASK));
+    }
+
+    @Test
+    public void shouldIncludeLevelsUpToTheDepth() throws Exception {
+        final TreeView view = TreeView.of(MODULE, null);
+        assertTrue(view.includes(BUILD));
+        assertTrue(view.includes(MODULE));
+        assertFalse(view.includes(PHASE));
+        assertFalse(view.includes(TASK));
+    }
+
+    @Test
+    public void shouldOnlyIncludeSelectedLevels() throws Exception {
+        final TreeView view = TreeView.of(null, asList("name,state", "phases"));
+        assertFalse(view.includes(MODULE));
+        assertTrue(view.includes(PHASE));
+        assertFalse(view.includes(TASK));
+    }
+
+    @Test
+    public void shouldRenderSelectedFields() throws Exception {
+        final BuildDto build = new BuildDto(1, new State());
+        final PhaseDto phase = new PhaseDto("p", new State());
+        build.setPhases(singletonList(phase));
+
+        final JsonNode node = (JsonNode) TreeView.of(PHASE, asList("number", "name", "phases")).render(build);
+
+        assertEquals(1, node.get("number").asInt());
+        assertFalse(node.has("state"));
+        assertEquals(1, node.get("phases").size());
+        assertEquals("p", node.get("phases").get(0).get("name").asText());
+        assertFalse(node.get("phases").get(0).has("startDate"));
+    }
+
+    @Test
+    public void shouldRenderTheDtoItselfForTheCompleteTree() throws Exception {
+        final BuildDto build = new BuildDto(1, new State());
+        assertSame(build, TreeView.FULL.render(build));
+    }
+
+    @Test
+    public void shouldSendTheLevelsThatAreNotSetAsNullInTheCompleteTree() throws Exception {
+        final JsonNode node = new ObjectMapper().valueToTree(TreeView.FULL.render(new BuildDto(1, new State())));
+
+        assertTrue(node.has("modules"));
+        assertTrue(node.get("modules").isNull());
+        assertTrue(node.has("phases"));
+        assertTrue(node.get("phases").isNull());
+        assertTrue(new ObjectMapper().valueToTree(new ModuleDto("m", new State())).get("phases").isNull());
+        assertTrue(new ObjectMapper().valueToTree(new PhaseDto("p", new State())).get("tasks").isNull());
+    }
+
+    @Test
+    public void shouldLeaveOutTheLevelsBelowTheDepth() throws Exception {
+        final BuildDto build = new BuildDto(1, new State());
+        final ModuleDto module = new ModuleDto("m", new State());
+        build.setModules(singletonList(module));
+
+        final JsonNode node = (JsonNode) TreeView.of(MODULE, null).render(build);
+
+        assertEquals(1, node.get("number").asInt());
+        assertTrue(node.has("state"));
+        assertEquals("m", node.get("modules").get(0).get("name").asText());
+        assertFalse(node.get("modules").get(0).has("phases"));
+        assertFalse(node.has("phases"));
+    }
+
+    @Test
+    public void shouldEqualTheSameView() throws Exception {
+        assertEquals(TreeView.of(PHASE, asList("name", "phases")), TreeView.of(PHASE, singletonList("phases,name")));
+        assertEquals(TreeView.of(PHASE, asList("name", "phases")).hashCode(), TreeView.of(PHASE, singletonList("phases,name")).hashCode());
+        assertFalse(TreeView.of(MODULE, asList("name", "phases")).equals(TreeView.of(PHASE, asList("name", "phases"))));
+    }
+
+    @Test
+    public void shouldParseTheRequestParameters() throws Exception {
+        assertSame(TreeView.FULL, TreeView.parse(null, null));
+        assertEquals(TreeView.of(MODULE, singletonList("name")), TreeView.parse("Module", singletonList("name")));
+        try {
+            TreeView.parse("suite", null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Depth with name [suite] cannot be found", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldNotSelectUnknownFields() throws Exception {
+        try {
+            TreeView.of(null, singletonList("name,size"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Field [size] cannot be selected", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldGetDepthIgnoringCase() throws Exception {
+        assertEquals(MODULE, Depth.fromString("module"));
+        try {
+            Depth.fromString("suite");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Depth with name [suite] cannot be found", e.getMessage());
+        }
+    }
+}
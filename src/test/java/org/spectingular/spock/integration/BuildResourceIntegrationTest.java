@@ -5,8 +5,14 @@ import org.spectingular.spock.dto.BuildDto;
 import org.springframework.http.ResponseEntity;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /** Integration tests for {@link org.spectingular.spock.api.BuildResource}. */
@@ -20,6 +26,24 @@ public class BuildResourceIntegrationTest extends IntegrationTestBase {
         assertEquals(4, entity.getBody().size());
     }
 
+    @Test
+    public void shouldGetPagesOfBuilds() {
+        final ResponseEntity<ArrayList> first = getBuilds("limit=3");
+
+        assertTrue(first.getStatusCode().is2xxSuccessful());
+        assertEquals(3, first.getBody().size());
+        assertEquals(4, ((Map) first.getBody().get(0)).get("number"));
+        final String next = first.getHeaders().getFirst("Link");
+        assertTrue(next.contains("before=2"));
+
+        final ResponseEntity<ArrayList> second = getBuilds("limit=3&before=2");
+        assertEquals(1, second.getBody().size());
+        assertNull(second.getHeaders().getFirst("Link"));
+
+        assertEquals(4, getBuilds("state=IN_PROGRESS").getBody().size());
+        assertEquals(0, getBuilds("state=FINISHED_SUCCESSFULLY").getBody().size());
+    }
+
     @Test
     public void shouldGetBuild() {
         final ResponseEntity<BuildDto> entity = getBuild("1");
@@ -28,6 +52,60 @@ public class BuildResourceIntegrationTest extends IntegrationTestBase {
         assertEquals(Integer.valueOf(1).intValue(), entity.getBody().getNumber());
     }
 
+    @Test
+    public void shouldGetPartOfABuild() {
+        final ResponseEntity<Map> modules = getBuild("1", "depth=module");
+        assertTrue(modules.getStatusCode().is2xxSuccessful());
+        assertTrue(modules.getBody().containsKey("modules"));
+        assertFalse(modules.getBody().containsKey("phases"));
+
+        final ResponseEntity<Map> fields = getBuild("1", "fields=number,state");
+        assertEquals(2, fields.getBody().size());
+        assertEquals(1, fields.getBody().get("number"));
+
+        assertEquals(400, getBuild("1", "fields=size").getStatusCode().value());
+    }
+
+    @Test
+    public void shouldOnlyGetABuildWhenItHasChanged() {
+        final String tag = getBuild("1").getHeaders().getETag();
+        assertNotNull(tag);
+        assertEquals(304, getBuildIfNoneMatch("1", tag).getStatusCode().value());
+
+        registerModule("1", "changed", Map.class);
+        final ResponseEntity<BuildDto> changed = getBuildIfNoneMatch("1", tag);
+        assertTrue(changed.getStatusCode().is2xxSuccessful());
+        assertNotEquals(tag, changed.getHeaders().getETag());
+    }
+
+    @Test
+    public void shouldGetTheSnapshotOfTheCurrentVersion() {
+        final ResponseEntity<BuildDto> before = getBuild("1");
+        assertEquals(before.getBody().getModules().size(), ((ResponseEntity<BuildDto>) getBuild("1")).getBody().getModules().size());
+
+        registerModule("1", "changed", Map.class);
+        final ResponseEntity<BuildDto> after = getBuild("1");
+        assertEquals(before.getBody().getModules().size() + 1, after.getBody().getModules().size());
+        assertTrue(after.getBody().getModules().stream().anyMatch(module -> "changed".equals(module.getName())));
+    }
+
+    @Test
+    public void shouldOnlyGetTheChangesSinceAVersion() {
+        final ResponseEntity<Map> before = getChanges("1", 0);
+        assertTrue(before.getStatusCode().is2xxSuccessful());
+        final long version = ((Number) before.getBody().get("version")).longValue();
+
+        registerModule("1", "changed", Map.class);
+        final ResponseEntity<Map> after = getChanges("1", version);
+        final List<Map> changes = (List<Map>) after.getBody().get("changes");
+        assertEquals(1, changes.size());
+        assertEquals("REGISTER", changes.get(0).get("type"));
+        assertEquals("changed", changes.get(0).get("module"));
+        assertEquals(version + 1, ((Number) after.getBody().get("version")).longValue());
+
+        assertEquals(409, getChanges("100", 0).getStatusCode().value());
+    }
+
     @Test
     public void shouldNotGetABuild() {
         // if the build does not exist
@@ -56,6 +134,19 @@ public class BuildResourceIntegrationTest extends IntegrationTestBase {
         assertEquals("FINISHED_SUCCESSFULLY", entity.getBody().getState().toString());
     }
 
+    @Test
+    public void shouldCacheAFinishedBuild() {
+        assertNull(getBuild("1").getHeaders().getCacheControl());
+        finishBuild("1", true);
+
+        final ResponseEntity<BuildDto> first = getBuild("1");
+        final ResponseEntity<BuildDto> cached = getBuild("1");
+        assertEquals("no-cache", cached.getHeaders().getCacheControl());
+        assertEquals(first.getHeaders().getETag(), cached.getHeaders().getETag());
+        assertEquals("FINISHED_SUCCESSFULLY", cached.getBody().getState().toString());
+        assertEquals(first.getBody().getModules().size(), cached.getBody().getModules().size());
+    }
+
     @Test
     public void shouldNotBeAbleToFinishABuild() {
         // if the build does not exist
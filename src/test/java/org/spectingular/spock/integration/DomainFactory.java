@@ -1,11 +1,13 @@
 package org.spectingular.spock.integration;
 
-import com.mongodb.DBObject;
-import com.mongodb.util.JSON;
 import org.spectingular.spock.domain.*;
+import org.spectingular.spock.dto.Event;
+import org.spectingular.spock.dto.EventType;
 
 import java.util.Date;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 /** Factory for creating domain objects. */
 public final class DomainFactory {
     public static Build build(final String number) {
@@ -41,7 +43,17 @@ public final class DomainFactory {
 
     public static Result result(final String data) {
         final Result result = new Result();
-        result.setData((DBObject) JSON.parse(data));
+        result.setContent(data.getBytes(UTF_8));
         return result;
     }
+
+    public static Event event(final EventType type, final String module, final String phase, final String task, final boolean success) {
+        final Event event = new Event();
+        event.setType(type);
+        event.setModule(module);
+        event.setPhase(phase);
+        event.setTask(task);
+        event.setSuccess(success);
+        return event;
+    }
 }
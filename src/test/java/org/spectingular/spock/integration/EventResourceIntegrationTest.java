@@ -0,0 +1,78 @@
+package org.spectingular.spock.integration;
+
+import org.junit.Test;
+import org.spectingular.spock.dto.Error;
+import org.spectingular.spock.dto.ModuleDto;
+import org.spectingular.spock.dto.TaskDto;
+import org.springframework.http.ResponseEntity;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.spectingular.spock.dto.EventType.FINISH;
+import static org.spectingular.spock.dto.EventType.REGISTER;
+import static org.spectingular.spock.dto.RunState.FINISHED_SUCCESSFULLY;
+import static org.spectingular.spock.dto.RunState.FINISHED_WITH_FAILURES;
+import static org.spectingular.spock.integration.DomainFactory.event;
+
+/** Integration tests for {@link org.spectingular.spock.api.EventResource}. */
+public class EventResourceIntegrationTest extends IntegrationTestBase {
+
+    @Test
+    public void shouldApplyEvents() {
+        final ResponseEntity<ArrayList> entity = applyEvents("4", asList(
+                event(REGISTER, "a", null, null, false),
+                event(REGISTER, "a", "p", null, false),
+                event(REGISTER, "a", "p", "g", false),
+                event(FINISH, "a", "p", "g", true),
+                event(FINISH, "a", "p", null, true),
+                event(FINISH, "a", null, null, false)), ArrayList.class);
+
+        assertTrue(entity.getStatusCode().is2xxSuccessful());
+        assertEquals(6, entity.getBody().size());
+        for (Object outcome : entity.getBody()) {
+            assertEquals(true, ((LinkedHashMap) outcome).get("applied"));
+        }
+
+        final ResponseEntity<ModuleDto> module = getModule("4", "a", ModuleDto.class);
+        assertEquals(FINISHED_WITH_FAILURES, module.getBody().getState());
+        final ResponseEntity<TaskDto> task = getTask("4", "a", "p", "g", TaskDto.class);
+        assertEquals(FINISHED_SUCCESSFULLY, task.getBody().getState());
+    }
+
+    @Test
+    public void shouldFinishExistingTask() {
+        final ResponseEntity<ArrayList> entity = applyEvents("1", singletonList(event(FINISH, "x", "p", "g", true)), ArrayList.class);
+
+        assertTrue(entity.getStatusCode().is2xxSuccessful());
+        assertEquals(true, ((LinkedHashMap) entity.getBody().get(0)).get("applied"));
+        final ResponseEntity<TaskDto> task = getTask("1", "x", "p", "g", TaskDto.class);
+        assertEquals(FINISHED_SUCCESSFULLY, task.getBody().getState());
+    }
+
+    @Test
+    public void shouldRejectEventsThatCannotBeApplied() {
+        final ResponseEntity<ArrayList> entity = applyEvents("1", asList(
+                event(REGISTER, "x", null, null, false),
+                event(FINISH, "w", null, null, true)), ArrayList.class);
+
+        assertTrue(entity.getStatusCode().is2xxSuccessful());
+        assertEquals(false, ((LinkedHashMap) entity.getBody().get(0)).get("applied"));
+        assertEquals("Module with name [x] for build with number [1] has already been registered", ((LinkedHashMap) entity.getBody().get(0)).get("message"));
+        assertEquals(false, ((LinkedHashMap) entity.getBody().get(1)).get("applied"));
+        assertEquals("Module with name [w] for build with number [1] cannot be found", ((LinkedHashMap) entity.getBody().get(1)).get("message"));
+    }
+
+    @Test
+    public void shouldNotApplyEvents() {
+        // if the build does not exist
+        final ResponseEntity<Error> entity = applyEvents("100", singletonList(event(REGISTER, "x", null, null, false)), Error.class);
+
+        assertTrue(entity.getStatusCode().is4xxClientError());
+        assertEquals("Build with number [100] cannot be found", entity.getBody().getMessage());
+    }
+}
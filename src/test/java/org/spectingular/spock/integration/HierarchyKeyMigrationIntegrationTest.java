@@ -0,0 +1,85 @@
+package org.spectingular.spock.integration;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.DBRef;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.spectingular.spock.migration.HierarchyKeyMigration;
+import org.springframework.data.mongodb.core.MongoOperations;
+
+import javax.annotation.Resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/** Integration tests for the {@link org.spectingular.spock.migration.HierarchyKeyMigration}. */
+public class HierarchyKeyMigrationIntegrationTest extends IntegrationTestBase {
+    @Resource
+    private MongoOperations operations;
+
+    private HierarchyKeyMigration migration;
+
+    @Before
+    public void setUpMigration() {
+        migration = new HierarchyKeyMigration();
+        setField(migration, "operations", operations);
+        setField(migration, "batchSize", 2);
+    }
+
+    @Test
+    public void shouldBackFillTheKeysFromTheParents() throws Exception {
+        final Object build = insert("builds", new BasicDBObject("number", 9));
+        final Object module = insert("modules", new BasicDBObject("name", "legacy-module").append("build", ref("builds", build)));
+        final Object phase = insert("phases", new BasicDBObject("name", "legacy-phase").append("module", ref("modules", module)));
+        final Object task = insert("tasks", new BasicDBObject("name", "legacy-task").append("phase", ref("phases", phase)));
+
+        migration.run();
+
+        assertEquals(9, find("modules", module).get("buildNumber"));
+        assertEquals(9, find("phases", phase).get("buildNumber"));
+        assertEquals("legacy-module", find("phases", phase).get("moduleName"));
+        assertEquals(9, find("tasks", task).get("buildNumber"));
+        assertEquals("legacy-module", find("tasks", task).get("moduleName"));
+        assertEquals("legacy-phase", find("tasks", task).get("phaseName"));
+    }
+
+    @Test
+    public void shouldLeaveMigratedDocumentsAlone() throws Exception {
+        final Object build = insert("builds", new BasicDBObject("number", 9));
+        final Object module = insert("modules", new BasicDBObject("name", "migrated-module").append("buildNumber", 7).append("build", ref("builds", build)));
+
+        migration.run();
+        migration.run();
+
+        assertEquals(7, find("modules", module).get("buildNumber"));
+    }
+
+    @Test
+    public void shouldSkipOrphans() throws Exception {
+        final Object module = insert("modules", new BasicDBObject("name", "orphan-module").append("build", ref("builds", new ObjectId())));
+        final Object phase = insert("phases", new BasicDBObject("name", "orphan-phase").append("module", ref("modules", module)));
+        final Object task = insert("tasks", new BasicDBObject("name", "orphan-task").append("phase", ref("phases", phase)));
+
+        migration.run();
+
+        assertFalse(find("modules", module).containsField("buildNumber"));
+        assertFalse(find("phases", phase).containsField("buildNumber"));
+        assertFalse(find("tasks", task).containsField("buildNumber"));
+    }
+
+    private Object insert(final String collection, final DBObject document) {
+        operations.getCollection(collection).insert(document);
+        return document.get("_id");
+    }
+
+    private DBObject find(final String collection, final Object id) {
+        return operations.getCollection(collection).findOne(new BasicDBObject("_id", id));
+    }
+
+    private DBRef ref(final String collection, final Object id) {
+        return new DBRef(operations.getCollection(collection).getDB(), collection, id);
+    }
+}
@@ -6,6 +6,7 @@ import org.junit.runner.RunWith;
 import org.spectingular.spock.Spock;
 import org.spectingular.spock.domain.*;
 import org.spectingular.spock.dto.BuildDto;
+import org.spectingular.spock.dto.Event;
 import org.spectingular.spock.services.*;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.IntegrationTest;
@@ -27,6 +28,8 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import static org.spectingular.spock.integration.DomainFactory.*;
 
@@ -56,6 +59,8 @@ public abstract class IntegrationTestBase {
     public int port;
     @Resource
     private MongoOperations operations;
+    @Resource
+    private ResponseCache responseCache;
 
     protected RestTemplate restTemplate = new TestRestTemplate();
 
@@ -69,6 +74,10 @@ public abstract class IntegrationTestBase {
         operations.getCollection("modules").remove(new BasicDBObject());
         operations.getCollection("phases").remove(new BasicDBObject());
         operations.getCollection("tasks").remove(new BasicDBObject());
+        operations.getCollection("results").remove(new BasicDBObject());
+        operations.getCollection("changes").remove(new BasicDBObject());
+        operations.getCollection("build_snapshots").remove(new BasicDBObject());
+        responseCache.clear();
 
         storeBuilds(build("1"), build("2"), build("3"), build("4"));
         storeModules(1, module("x"), module("y"), module("z"));
@@ -151,6 +160,15 @@ public abstract class IntegrationTestBase {
         return restTemplate.getForEntity(baseApiUrl(), ArrayList.class);
     }
 
+    /**
+     * Gets the builds matching the given query.
+     * @param query The query string.
+     * @return response The response.
+     */
+    public ResponseEntity getBuilds(final String query) {
+        return restTemplate.getForEntity(baseApiUrl() + "?" + query, ArrayList.class);
+    }
+
     /**
      * Gets the build.
      * @param buildNumber The build number.
@@ -160,6 +178,38 @@ public abstract class IntegrationTestBase {
         return restTemplate.getForEntity(baseApiUrl() + "/" + buildNumber, BuildDto.class);
     }
 
+    /**
+     * Gets the build as a map, using the given query.
+     * @param buildNumber The build number.
+     * @param query       The query string.
+     * @return response The response.
+     */
+    public ResponseEntity getBuild(final String buildNumber, final String query) {
+        return restTemplate.getForEntity(baseApiUrl() + "/" + buildNumber + "?" + query, Map.class);
+    }
+
+    /**
+     * Gets the build when it has changed since the given entity tag.
+     * @param buildNumber The build number.
+     * @param entityTag   The entity tag.
+     * @return response The response.
+     */
+    public ResponseEntity getBuildIfNoneMatch(final String buildNumber, final String entityTag) {
+        final HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch(entityTag);
+        return restTemplate.exchange(baseApiUrl() + "/" + buildNumber, HttpMethod.GET, new HttpEntity<>(headers), BuildDto.class);
+    }
+
+    /**
+     * Gets the changes of the build since the given version.
+     * @param buildNumber The build number.
+     * @param since       The version.
+     * @return response The response.
+     */
+    public ResponseEntity getChanges(final String buildNumber, final long since) {
+        return restTemplate.getForEntity(baseApiUrl() + "/" + buildNumber + "/changes?since=" + since, Map.class);
+    }
+
     /**
      * Register the build.
      * @param buildNumber The build number.
@@ -400,6 +450,18 @@ public abstract class IntegrationTestBase {
         return putForEntity(baseApiUrl() + "/" + buildNumber + "/modules/" + moduleName + "/phases/" + phaseName + "/tasks/" + taskName, state(success), returnType);
     }
 
+    /** ......... EVENTS ......... */
+
+    /**
+     * Applies the events.
+     * @param buildNumber The build number.
+     * @param events      The events.
+     * @return response The response.
+     */
+    public ResponseEntity applyEvents(final String buildNumber, final List<Event> events, final Class returnType) {
+        return restTemplate.postForEntity(baseApiUrl() + "/" + buildNumber + "/events", events, returnType);
+    }
+
     /** ......... Results ......... */
 
     /**
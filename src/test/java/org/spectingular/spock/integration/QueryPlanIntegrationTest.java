@@ -0,0 +1,126 @@
+package org.spectingular.spock.integration;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoOperations;
+
+import javax.annotation.Resource;
+import java.util.Date;
+
+import static java.lang.String.format;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Integration tests for the query plans of the queries of the repositories and services, as defined by {@link org.spectingular.spock.services.IndexService}.
+ * Every query has to be served by an index; queries with a sort have to get their order from the index as well.
+ * Both the explain output of Mongo 2.6 (cursor and scanAndOrder) and of later versions (winning plan stages) are understood.
+ */
+public class QueryPlanIntegrationTest extends IntegrationTestBase {
+    @Resource
+    private MongoOperations operations;
+
+    @Test
+    public void shouldServeTheBuildQueriesFromAnIndex() {
+        assertIndexed("builds", query("number", 1), null);
+        assertIndexed("builds", query("number", new BasicDBObject("$lt", 4)), query("number", -1));
+        assertIndexed("builds", query("number", new BasicDBObject("$in", asList(1, 2))), query("number", 1));
+        assertIndexed("builds", query("state.stopDate", null), query("number", -1));
+        assertIndexed("builds", query("state.stopDate", new BasicDBObject("$ne", null)).append("state.success", true), query("number", -1));
+        assertIndexed("builds", query("state.startDate", new BasicDBObject("$gte", new Date(0)).append("$lt", new Date())), query("number", -1));
+        assertIndexed("builds", query("number", new BasicDBObject("$lt", 4)).append("state.startDate", new BasicDBObject("$gte", new Date(0))), query("number", -1));
+        assertIndexed("build_snapshots", query("_id", 1), null);
+    }
+
+    @Test
+    public void shouldServeTheChangeQueriesFromAnIndex() {
+        assertIndexed("changes", query("buildNumber", 1).append("version", new BasicDBObject("$gt", 0)), query("version", 1));
+    }
+
+    @Test
+    public void shouldServeTheModuleQueriesFromAnIndex() {
+        assertIndexed("modules", query("buildNumber", 1).append("name", "x"), null);
+        assertIndexed("modules", query("buildNumber", 1), null);
+        assertIndexed("modules", query("name", "x"), null);
+        assertIndexed("modules", query("buildNumber", 1).append("name", new BasicDBObject("$in", asList("x", "y"))), null);
+    }
+
+    @Test
+    public void shouldServeThePhaseQueriesFromAnIndex() {
+        assertIndexed("phases", query("buildNumber", 1).append("moduleName", null).append("name", "p"), null);
+        assertIndexed("phases", query("buildNumber", 1).append("moduleName", null), null);
+        assertIndexed("phases", query("buildNumber", 1).append("moduleName", "x").append("name", "p"), null);
+        assertIndexed("phases", query("buildNumber", 1).append("moduleName", "x"), null);
+        assertIndexed("phases", query("buildNumber", 1), null);
+        assertIndexed("phases", query("buildNumber", 1).append("moduleName", new BasicDBObject("$in", asList("x", "y"))), null);
+        assertIndexed("phases", query("buildNumber", 1).append("name", new BasicDBObject("$in", asList("p", "q"))), null);
+    }
+
+    @Test
+    public void shouldServeTheTaskQueriesFromAnIndex() {
+        assertIndexed("tasks", query("buildNumber", 1).append("moduleName", null).append("phaseName", "p").append("name", "g"), null);
+        assertIndexed("tasks", query("buildNumber", 1).append("moduleName", null).append("phaseName", "p"), null);
+        assertIndexed("tasks", query("buildNumber", 1).append("moduleName", "x").append("phaseName", "p").append("name", "g"), null);
+        assertIndexed("tasks", query("buildNumber", 1).append("moduleName", "x").append("phaseName", "p"), null);
+        assertIndexed("tasks", query("buildNumber", 1).append("moduleName", null), null);
+        assertIndexed("tasks", query("buildNumber", 1), null);
+        assertIndexed("tasks", query("buildNumber", 1).append("moduleName", null).append("phaseName", new BasicDBObject("$in", asList("p", "q"))), null);
+        assertIndexed("tasks", query("buildNumber", 1).append("moduleName", "x").append("phaseName", new BasicDBObject("$in", asList("p", "q"))), null);
+        assertIndexed("tasks", query("buildNumber", 1).append("moduleName", new BasicDBObject("$in", asList("x", "y"))), null);
+        assertIndexed("tasks", query("buildNumber", 1).append("phaseName", new BasicDBObject("$in", asList("p", "q")))
+                .append("name", new BasicDBObject("$in", asList("g", "h"))), null);
+    }
+
+    @Test
+    public void shouldServeTheResultQueriesFromAnIndex() {
+        assertIndexed("results", query("buildNumber", 1).append("moduleName", null).append("phaseName", "p").append("taskName", "g"), null);
+        assertIndexed("results", query("buildNumber", 1).append("moduleName", "x").append("phaseName", "p").append("taskName", "g"), null);
+    }
+
+    /**
+     * Asserts the given query is served by an index, including the given sort.
+     * @param collection The collection name.
+     * @param query      The query.
+     * @param sort       The sort, null for none.
+     */
+    private void assertIndexed(final String collection, final DBObject query, final DBObject sort) {
+        final DBCursor cursor = operations.getCollection(collection).find(query);
+        if (sort != null) {
+            cursor.sort(sort);
+        }
+        final DBObject plan = cursor.explain();
+        final Object winning = plan.containsField("queryPlanner") ? ((DBObject) plan.get("queryPlanner")).get("winningPlan") : plan;
+        assertFalse(format("Query %s on [%s] scans the collection: %s", query, collection, plan), contains(winning, "COLLSCAN"));
+        assertFalse(format("Query %s on [%s] sorts in memory: %s", query, collection, plan), contains(winning, "SORT"));
+    }
+
+    /**
+     * Indicates if the given plan, or any of its stages, has the given stage.
+     * @param plan  The plan.
+     * @param stage The stage, COLLSCAN or SORT.
+     * @return true if the stage is found, else false
+     */
+    private static boolean contains(final Object plan, final String stage) {
+        if (!(plan instanceof DBObject)) {
+            return false;
+        }
+        final DBObject node = (DBObject) plan;
+        if (stage.equals(node.get("stage"))
+                || "COLLSCAN".equals(stage) && node.get("cursor") instanceof String && ((String) node.get("cursor")).startsWith("BasicCursor")
+                || "SORT".equals(stage) && Boolean.TRUE.equals(node.get("scanAndOrder"))) {
+            return true;
+        }
+        for (String key : node.keySet()) {
+            if (!asList("allPlans", "oldPlan", "rejectedPlans").contains(key) && contains(node.get(key), stage)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static BasicDBObject query(final String field, final Object value) {
+        return new BasicDBObject(field, value);
+    }
+}
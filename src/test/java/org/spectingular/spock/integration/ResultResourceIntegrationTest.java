@@ -17,13 +17,13 @@ public class ResultResourceIntegrationTest extends IntegrationTestBase {
         final ResponseEntity<String> entity1 = getResults("1", "p", "g", String.class);
 
         assertTrue(entity1.getStatusCode().is2xxSuccessful());
-        assertEquals("{ \"some\" : \"value\"}", entity1.getBody());
+        assertEquals("{\"some\":\"value\"}", entity1.getBody());
 
         // for module
         final ResponseEntity<String> entity2 = getResults("1", "x", "p", "g", String.class);
 
         assertTrue(entity2.getStatusCode().is2xxSuccessful());
-        assertEquals("{ \"some\" : \"value\"}", entity2.getBody());
+        assertEquals("{\"some\":\"value\"}", entity2.getBody());
     }
 
     @Test
@@ -1,28 +1,53 @@
 package org.spectingular.spock.services;
 
+import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.spectingular.spock.domain.Build;
+import org.spectingular.spock.domain.Change;
+import org.spectingular.spock.domain.ChangeType;
 import org.spectingular.spock.domain.Module;
 import org.spectingular.spock.domain.Phase;
+import org.spectingular.spock.domain.State;
 import org.spectingular.spock.domain.Task;
+import org.spectingular.spock.dto.BuildChange;
+import org.spectingular.spock.dto.Event;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
+import java.util.Date;
 import java.util.Optional;
 import java.util.function.Function;
 
 import static java.util.Optional.empty;
 import static java.util.Optional.of;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
+import static org.spectingular.spock.dto.EventType.FINISH;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
 
 /** Test class for {@link org.spectingular.spock.services.BaseService}. */
 @RunWith(MockitoJUnitRunner.class)
@@ -47,6 +72,20 @@ public class BaseServiceTest {
     @Mock
     private Function<Task, Object> taskFn;
     @Mock
+    private MongoOperations operations;
+    @Mock
+    private ChangeBus changeBus;
+    @Mock
+    private ResponseCache responseCache;
+    @Spy
+    private HierarchyCache hierarchyCache = new HierarchyCache();
+    @Mock
+    private DriverRepository driverRepository;
+    @Mock
+    private WriteResult writeResult;
+    @Mock
+    private WriteBehindQueue writeBehindQueue;
+    @Mock
     private Object result;
     private Optional<Build> buildOptional;
     private Optional<Phase> phaseOptional;
@@ -91,20 +130,20 @@ public class BaseServiceTest {
 
     @Test
     public void shouldFindPhaseForBuild() throws Exception {
-        buildOptional = of(build);
         phaseOptional = of(phase);
-        when(buildRepository.findByNumber(1)).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(build, "phase")).thenReturn(phaseOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(1, "phase")).thenReturn(phaseOptional);
         when(phaseFn.apply(Mockito.isA(Phase.class))).thenReturn(result);
         service.findPhase(1, "phase", phaseFn);
-        verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuildAndName(eq(build), eq("phase"));
+        verify(phaseRepository).findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"));
+        verify(buildRepository, never()).findByNumber(anyInt());
         verify(phaseFn).apply(eq(phase));
     }
 
     @Test
     public void shouldNotFindPhaseForBuildWhenTheBuildDoesNotExist() throws Exception {
         buildOptional = empty();
+        phaseOptional = empty();
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(1, "phase")).thenReturn(phaseOptional);
         when(buildRepository.findByNumber(1)).thenReturn(buildOptional);
         try {
             service.findPhase(1, "phase", phaseFn);
@@ -112,6 +151,7 @@ public class BaseServiceTest {
         }catch (IllegalArgumentException e) {
             assertEquals("Build with number [1] cannot be found", e.getMessage());
         }
+        verify(phaseRepository).findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"));
         verify(buildRepository).findByNumber(eq(1));
     }
 
@@ -120,45 +160,41 @@ public class BaseServiceTest {
         buildOptional = of(build);
         phaseOptional = empty();
         when(buildRepository.findByNumber(1)).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(build, "phase")).thenReturn(phaseOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(1, "phase")).thenReturn(phaseOptional);
         try {
             service.findPhase(1, "phase", phaseFn);
             fail();
         }catch (IllegalArgumentException e) {
             assertEquals("Phase with name [phase] for build with number [1] cannot be found", e.getMessage());
         }
+        verify(phaseRepository).findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"));
         verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuildAndName(eq(build), eq("phase"));
     }
 
     @Test
     public void shouldFindModule() throws Exception {
-        buildOptional = of(build);
         moduleOptional = of(module);
-        
-        when(buildRepository.findByNumber(1)).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(build, "module")).thenReturn(moduleOptional);
-        
+        when(moduleRepository.findByBuildNumberAndName(1, "module")).thenReturn(moduleOptional);
         when(moduleFn.apply(Mockito.isA(Module.class))).thenReturn(result);
-        
         service.findModule(1, "module", moduleFn);
-        
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
+        verify(buildRepository, never()).findByNumber(anyInt());
         verify(moduleFn).apply(eq(module));
     }
 
     @Test
     public void shouldNotFindModuleWhenTheBuildDoesNotExist() throws Exception {
         buildOptional = empty();
+        moduleOptional = empty();
+        when(moduleRepository.findByBuildNumberAndName(1, "module")).thenReturn(moduleOptional);
         when(buildRepository.findByNumber(1)).thenReturn(buildOptional);
         try {
             service.findModule(1, "module", moduleFn);
-
             fail();
         }catch (IllegalArgumentException e) {
             assertEquals("Build with number [1] cannot be found", e.getMessage());
         }
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
         verify(buildRepository).findByNumber(eq(1));
     }
 
@@ -167,36 +203,36 @@ public class BaseServiceTest {
         buildOptional = of(build);
         moduleOptional = empty();
         when(buildRepository.findByNumber(1)).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(build, "module")).thenReturn(moduleOptional);
+        when(moduleRepository.findByBuildNumberAndName(1, "module")).thenReturn(moduleOptional);
         try {
             service.findModule(1, "module", moduleFn);
             fail();
         } catch (IllegalArgumentException e) {
             assertEquals("Module with name [module] for build with number [1] cannot be found", e.getMessage());
         }
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
         verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
     }
 
     @Test
     public void shouldFindPhaseForModule() throws Exception {
-        buildOptional = of(build);
-        moduleOptional = of(module);
         phaseOptional = of(phase);
-        when(buildRepository.findByNumber(1)).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(build, "module")).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(module, "phase")).thenReturn(phaseOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(1, "module", "phase")).thenReturn(phaseOptional);
         when(phaseFn.apply(Mockito.isA(Phase.class))).thenReturn(result);
         service.findPhase(1, "module", "phase", phaseFn);
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
+        verify(phaseRepository).findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"));
+        verify(moduleRepository, never()).findByBuildNumberAndName(anyInt(), anyString());
+        verify(buildRepository, never()).findByNumber(anyInt());
         verify(phaseFn).apply(eq(phase));
     }
 
     @Test
     public void shouldNotFindPhaseForModuleWhenTheBuildDoesNotExist() throws Exception {
         buildOptional = empty();
+        moduleOptional = empty();
+        phaseOptional = empty();
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(1, "module", "phase")).thenReturn(phaseOptional);
+        when(moduleRepository.findByBuildNumberAndName(1, "module")).thenReturn(moduleOptional);
         when(buildRepository.findByNumber(1)).thenReturn(buildOptional);
         try {
             service.findPhase(1, "module", "phase", phaseFn);
@@ -211,57 +247,56 @@ public class BaseServiceTest {
     public void shouldNotFindPhaseForModuleWhenTheModuleDoesNotExist() throws Exception {
         buildOptional = of(build);
         moduleOptional = empty();
+        phaseOptional = empty();
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(1, "module", "phase")).thenReturn(phaseOptional);
+        when(moduleRepository.findByBuildNumberAndName(1, "module")).thenReturn(moduleOptional);
         when(buildRepository.findByNumber(1)).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(build, "module")).thenReturn(moduleOptional);
         try {
             service.findPhase(1, "module", "phase", phaseFn);
             fail();
         } catch (IllegalArgumentException e) {
             assertEquals("Module with name [module] for build with number [1] cannot be found", e.getMessage());
         }
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
         verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
     }
 
     @Test
     public void shouldNotFindPhaseForModuleWhenThePhaseDoesNotExist() throws Exception {
-        buildOptional = of(build);
-        buildOptional = of(build);
         moduleOptional = of(module);
         phaseOptional = empty();
-        when(buildRepository.findByNumber(1)).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(build, "module")).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(module, "phase")).thenReturn(phaseOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(1, "module", "phase")).thenReturn(phaseOptional);
+        when(moduleRepository.findByBuildNumberAndName(1, "module")).thenReturn(moduleOptional);
         try {
             service.findPhase(1, "module", "phase", phaseFn);
             fail();
         } catch (IllegalArgumentException e) {
             assertEquals("Phase with name [phase] for module with name [module] and build with number [1] cannot be found", e.getMessage());
         }
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
+        verify(phaseRepository).findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"));
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
+        verify(buildRepository, never()).findByNumber(anyInt());
     }
 
     @Test
     public void shouldFindTaskForPhaseBuild() throws Exception {
-        buildOptional = of(build);
-        phaseOptional = of(phase);
         taskOptional = of(task);
-        when(buildRepository.findByNumber(1)).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(build, "phase")).thenReturn(phaseOptional);
-        when(taskRepository.findByPhaseAndName(phase, "task")).thenReturn(taskOptional);
+        when(taskRepository.findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(1, "phase", "task")).thenReturn(taskOptional);
         when(taskFn.apply(Mockito.isA(Task.class))).thenReturn(result);
         service.findTask(1, "phase", "task", taskFn);
-        verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuildAndName(eq(build), eq("phase"));
-        verify(taskRepository).findByPhaseAndName(eq(phase), eq("task"));
+        verify(taskRepository).findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(eq(1), eq("phase"), eq("task"));
+        verify(phaseRepository, never()).findByBuildNumberAndModuleNameIsNullAndName(anyInt(), anyString());
+        verify(buildRepository, never()).findByNumber(anyInt());
         verify(taskFn).apply(eq(task));
     }
 
     @Test
     public void shouldNotFindTaskForPhaseBuildWhenTheBuildDoesNotExist() throws Exception {
         buildOptional = empty();
+        phaseOptional = empty();
+        taskOptional = empty();
+        when(taskRepository.findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(1, "phase", "task")).thenReturn(taskOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(1, "phase")).thenReturn(phaseOptional);
         when(buildRepository.findByNumber(1)).thenReturn(buildOptional);
         try {
             service.findTask(1, "phase", "task", taskFn);
@@ -276,60 +311,59 @@ public class BaseServiceTest {
     public void shouldNotFindTaskForPhaseBuildWhenThePhaseDoesNotExist() throws Exception {
         buildOptional = of(build);
         phaseOptional = empty();
+        taskOptional = empty();
+        when(taskRepository.findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(1, "phase", "task")).thenReturn(taskOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(1, "phase")).thenReturn(phaseOptional);
         when(buildRepository.findByNumber(1)).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(build, "phase")).thenReturn(phaseOptional);
         try {
             service.findTask(1, "phase", "task", taskFn);
             fail();
         } catch (IllegalArgumentException e) {
             assertEquals("Phase with name [phase] for build with number [1] cannot be found", e.getMessage());
         }
+        verify(phaseRepository).findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"));
         verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuildAndName(eq(build), eq("phase"));
     }
 
     @Test
     public void shouldNotFindTaskForPhaseBuildWhenTheTaskDoesNotExist() throws Exception {
-        buildOptional = of(build);
         phaseOptional = of(phase);
-        moduleOptional = of(module);
         taskOptional = empty();
-        when(buildRepository.findByNumber(1)).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(build, "phase")).thenReturn(phaseOptional);
-        when(taskRepository.findByPhaseAndName(phase, "task")).thenReturn(taskOptional);
+        when(taskRepository.findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(1, "phase", "task")).thenReturn(taskOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(1, "phase")).thenReturn(phaseOptional);
         try {
             service.findTask(1, "phase", "task", taskFn);
             fail();
         } catch (IllegalArgumentException e) {
             assertEquals("Task with name [task] for phase with name [phase] and build with number [1] cannot be found", e.getMessage());
         }
-        verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuildAndName(eq(build), eq("phase"));
-        verify(taskRepository).findByPhaseAndName(eq(phase), eq("task"));
+        verify(taskRepository).findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(eq(1), eq("phase"), eq("task"));
+        verify(phaseRepository).findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"));
+        verify(buildRepository, never()).findByNumber(anyInt());
     }
 
     @Test
     public void shouldFindTaskForPhaseModule() throws Exception {
-        buildOptional = of(build);
-        moduleOptional = of(module);
-        phaseOptional = of(phase);
         taskOptional = of(task);
-        when(buildRepository.findByNumber(1)).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(build, "module")).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(module, "phase")).thenReturn(phaseOptional);
-        when(taskRepository.findByPhaseAndName(phase, "task")).thenReturn(taskOptional);
+        when(taskRepository.findByBuildNumberAndModuleNameAndPhaseNameAndName(1, "module", "phase", "task")).thenReturn(taskOptional);
         when(taskFn.apply(Mockito.isA(Task.class))).thenReturn(result);
         service.findTask(1, "module", "phase", "task", taskFn);
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
-        verify(taskRepository).findByPhaseAndName(eq(phase), eq("task"));
+        verify(taskRepository).findByBuildNumberAndModuleNameAndPhaseNameAndName(eq(1), eq("module"), eq("phase"), eq("task"));
+        verify(phaseRepository, never()).findByBuildNumberAndModuleNameAndName(anyInt(), anyString(), anyString());
+        verify(moduleRepository, never()).findByBuildNumberAndName(anyInt(), anyString());
+        verify(buildRepository, never()).findByNumber(anyInt());
         verify(taskFn).apply(eq(task));
     }
 
     @Test
     public void shouldNotFindTaskForPhaseModuleWhenTheBuildDoesNotExist() throws Exception {
         buildOptional = empty();
+        moduleOptional = empty();
+        phaseOptional = empty();
+        taskOptional = empty();
+        when(taskRepository.findByBuildNumberAndModuleNameAndPhaseNameAndName(1, "module", "phase", "task")).thenReturn(taskOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(1, "module", "phase")).thenReturn(phaseOptional);
+        when(moduleRepository.findByBuildNumberAndName(1, "module")).thenReturn(moduleOptional);
         when(buildRepository.findByNumber(1)).thenReturn(buildOptional);
         try {
             service.findTask(1, "module", "phase", "task", taskFn);
@@ -344,58 +378,180 @@ public class BaseServiceTest {
     public void shouldNotFindTaskForPhaseModuleWhenTheModuleDoesNotExist() throws Exception {
         buildOptional = of(build);
         moduleOptional = empty();
+        phaseOptional = empty();
+        taskOptional = empty();
+        when(taskRepository.findByBuildNumberAndModuleNameAndPhaseNameAndName(1, "module", "phase", "task")).thenReturn(taskOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(1, "module", "phase")).thenReturn(phaseOptional);
+        when(moduleRepository.findByBuildNumberAndName(1, "module")).thenReturn(moduleOptional);
         when(buildRepository.findByNumber(1)).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(build, "module")).thenReturn(moduleOptional);
         try {
             service.findTask(1, "module", "phase", "task", taskFn);
             fail();
         } catch (IllegalArgumentException e) {
             assertEquals("Module with name [module] for build with number [1] cannot be found", e.getMessage());
         }
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
         verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
     }
 
     @Test
     public void shouldNotFindTaskForPhaseModuleWhenThePhaseDoesNotExist() throws Exception {
-        buildOptional = of(build);
         moduleOptional = of(module);
         phaseOptional = empty();
-        when(buildRepository.findByNumber(1)).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(build, "module")).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(module, "phase")).thenReturn(phaseOptional);
+        taskOptional = empty();
+        when(taskRepository.findByBuildNumberAndModuleNameAndPhaseNameAndName(1, "module", "phase", "task")).thenReturn(taskOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(1, "module", "phase")).thenReturn(phaseOptional);
+        when(moduleRepository.findByBuildNumberAndName(1, "module")).thenReturn(moduleOptional);
         try {
             service.findTask(1, "module", "phase", "task", taskFn);
             fail();
         } catch (IllegalArgumentException e) {
             assertEquals("Phase with name [phase] for module with name [module] and build with number [1] cannot be found", e.getMessage());
         }
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
+        verify(phaseRepository).findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"));
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
+        verify(buildRepository, never()).findByNumber(anyInt());
     }
 
     @Test
     public void shouldNotFindTaskForPhaseModuleWhenTheTaskDoesNotExist() throws Exception {
-        buildOptional = of(build);
         phaseOptional = of(phase);
-        moduleOptional = of(module);
         taskOptional = empty();
-        when(buildRepository.findByNumber(1)).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(build, "module")).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(module, "phase")).thenReturn(phaseOptional);
-        when(taskRepository.findByPhaseAndName(phase, "task")).thenReturn(taskOptional);
+        when(taskRepository.findByBuildNumberAndModuleNameAndPhaseNameAndName(1, "module", "phase", "task")).thenReturn(taskOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(1, "module", "phase")).thenReturn(phaseOptional);
         try {
             service.findTask(1, "module", "phase", "task", taskFn);
             fail();
         } catch (IllegalArgumentException e) {
             assertEquals("Task with name [task] for phase with name [phase] and module with name [module]and build with number [1] cannot be found", e.getMessage());
         }
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
-        verify(taskRepository).findByPhaseAndName(eq(phase), eq("task"));
+        verify(taskRepository).findByBuildNumberAndModuleNameAndPhaseNameAndName(eq(1), eq("module"), eq("phase"), eq("task"));
+        verify(phaseRepository).findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"));
+        verify(moduleRepository, never()).findByBuildNumberAndName(anyInt(), anyString());
+    }
+
+    @Test
+    public void shouldFinishUnfinishedDocumentAtomically() throws Exception {
+        final ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        final ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        when(operations.updateFirst(isA(Query.class), isA(Update.class), eq(Task.class))).thenReturn(writeResult);
+        when(writeResult.getN()).thenReturn(1);
+        when(operations.findAndModify(isA(Query.class), isA(Update.class), isA(FindAndModifyOptions.class), eq(Build.class))).thenReturn(build);
+        when(build.getVersion()).thenReturn(4L);
+        final State state = new State();
+        state.setSuccess(true);
+        assertTrue(service.finish(1, new Query(), state, Task.class, new Event(FINISH, "module", "phase", "task", true)));
+        verify(operations).updateFirst(query.capture(), update.capture(), eq(Task.class));
+        assertTrue(query.getValue().getQueryObject().containsField("state.stopDate"));
+        assertNull(query.getValue().getQueryObject().get("state.stopDate"));
+        final DBObject set = (DBObject) update.getValue().getUpdateObject().get("$set");
+        assertTrue(set.get("state.stopDate") instanceof Date);
+        assertEquals(true, set.get("state.success"));
+        // the version of the build is incremented
+        verify(operations).findAndModify(query.capture(), update.capture(), isA(FindAndModifyOptions.class), eq(Build.class));
+        assertEquals(1, query.getValue().getQueryObject().get("number"));
+        assertEquals(1, ((DBObject) update.getValue().getUpdateObject().get("$inc")).get("version"));
+        // and the change is logged with the new version
+        final ArgumentCaptor<Change> change = ArgumentCaptor.forClass(Change.class);
+        verify(operations).insert(change.capture());
+        assertEquals(4L, change.getValue().getVersion());
+        assertEquals(ChangeType.FINISH, change.getValue().getType());
+        assertEquals("task", change.getValue().getTask());
+        assertEquals(true, change.getValue().getSuccess());
+        final InOrder order = inOrder(responseCache, changeBus);
+        order.verify(responseCache).evict(1);
+        order.verify(changeBus).publish(isA(BuildChange.class));
     }
 
+    @Test
+    public void shouldIncrementTheVersionWhenFinishingABuild() throws Exception {
+        final ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        when(operations.findAndModify(isA(Query.class), isA(Update.class), isA(FindAndModifyOptions.class), eq(Build.class))).thenReturn(build);
+        when(build.getVersion()).thenReturn(7L);
+        assertTrue(service.finish(1, new Query(), new State(), Build.class, new Event(FINISH, null, null, null, false)));
+        // a single update finishes the build and increments its version
+        verify(operations).findAndModify(isA(Query.class), update.capture(), isA(FindAndModifyOptions.class), eq(Build.class));
+        assertEquals(1, ((DBObject) update.getValue().getUpdateObject().get("$inc")).get("version"));
+        assertTrue(((DBObject) update.getValue().getUpdateObject().get("$set")).containsField("state.stopDate"));
+        final ArgumentCaptor<Change> change = ArgumentCaptor.forClass(Change.class);
+        verify(operations).insert(change.capture());
+        assertEquals(7L, change.getValue().getVersion());
+        assertNull(change.getValue().getModule());
+    }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldNotFinishDocumentThatHasAlreadyBeenFinished() throws Exception {
+        when(operations.updateFirst(isA(Query.class), isA(Update.class), eq(Task.class))).thenReturn(writeResult);
+        when(writeResult.getN()).thenReturn(0);
+        assertFalse(service.finish(1, new Query(), new State(), Task.class, new Event(FINISH, "module", "phase", "task", true)));
+        verify(operations, never()).findAndModify(isA(Query.class), isA(Update.class), isA(FindAndModifyOptions.class), eq(Build.class));
+        verify(operations, never()).insert(isA(Change.class));
+        verify(changeBus, never()).publish(isA(BuildChange.class));
+    }
+
+    @Test
+    public void shouldNotFinishBuildThatHasAlreadyBeenFinished() throws Exception {
+        assertFalse(service.finish(1, new Query(), new State(), Build.class, new Event(FINISH, null, null, null, true)));
+        verify(operations, never()).insert(isA(Change.class));
+        verify(changeBus, never()).publish(isA(BuildChange.class));
+    }
+
+    @Test
+    public void shouldFindTaskWithTheDriverRepositoryWhenItIsSelected() throws Exception {
+        setField(service, "driver", true);
+        when(driverRepository.findTask(1, "module", "phase", "task")).thenReturn(of(task));
+        when(taskFn.apply(task)).thenReturn(result);
+        assertEquals(result, service.findTask(1, "module", "phase", "task", taskFn));
+        verify(taskRepository, never()).findByBuildNumberAndModuleNameAndPhaseNameAndName(anyInt(), anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void shouldReportTheMissingParentWithTheDriverRepositoryWhenItIsSelected() throws Exception {
+        setField(service, "driver", true);
+        when(driverRepository.findTask(1, null, "phase", "task")).thenReturn(empty());
+        when(driverRepository.findPhase(1, null, "phase")).thenReturn(empty());
+        when(driverRepository.findBuild(1)).thenReturn(of(build));
+        try {
+            service.findTask(1, "phase", "task", taskFn);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Phase with name [phase] for build with number [1] cannot be found", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldFinishWithTheDriverRepositoryWhenItIsSelected() throws Exception {
+        setField(service, "driver", true);
+        final ArgumentCaptor<DBObject> query = ArgumentCaptor.forClass(DBObject.class);
+        when(operations.getCollectionName(Task.class)).thenReturn("tasks");
+        when(driverRepository.finish(eq("tasks"), isA(DBObject.class), eq(true))).thenReturn(true);
+        when(operations.findAndModify(isA(Query.class), isA(Update.class), isA(FindAndModifyOptions.class), eq(Build.class))).thenReturn(build);
+        when(build.getVersion()).thenReturn(4L);
+        final State state = new State();
+        state.setSuccess(true);
+        assertTrue(service.finish(1, new Query(), state, Task.class, new Event(FINISH, "module", "phase", "task", true)));
+        verify(driverRepository).finish(eq("tasks"), query.capture(), eq(true));
+        assertTrue(query.getValue().containsField("state.stopDate"));
+        verify(operations, never()).updateFirst(isA(Query.class), isA(Update.class), eq(Task.class));
+        verify(operations).insert(isA(Change.class));
+    }
+
+    @Test
+    public void shouldFinishBuildWithTheDriverRepositoryWhenItIsSelected() throws Exception {
+        setField(service, "driver", true);
+        when(driverRepository.finishBuild(isA(DBObject.class), eq(false))).thenReturn(of(7L));
+        assertTrue(service.finish(1, new Query(), new State(), Build.class, new Event(FINISH, null, null, null, false)));
+        verify(operations, never()).findAndModify(isA(Query.class), isA(Update.class), isA(FindAndModifyOptions.class), eq(Build.class));
+        final ArgumentCaptor<Change> change = ArgumentCaptor.forClass(Change.class);
+        verify(operations).insert(change.capture());
+        assertEquals(7L, change.getValue().getVersion());
+    }
+
+    @Test
+    public void shouldHandEventsToTheWriteBehindQueue() throws Exception {
+        final Event event = new Event();
+        when(writeBehindQueue.offer(eq(1), eq(event))).thenReturn(true);
+        assertTrue(service.writeBehind(1, event));
+        verify(writeBehindQueue).offer(eq(1), eq(event));
+    }
+}
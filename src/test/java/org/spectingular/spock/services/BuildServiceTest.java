@@ -1,26 +1,52 @@
 package org.spectingular.spock.services;
 
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.spectingular.spock.domain.Build;
+import org.spectingular.spock.domain.Change;
+import org.spectingular.spock.domain.ChangeType;
 import org.spectingular.spock.domain.State;
+import org.spectingular.spock.dto.BuildChange;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.Optional;
+import java.util.stream.Stream;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static java.util.Optional.empty;
 import static java.util.Optional.of;
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.initMocks;
+import static org.spectingular.spock.dto.EventType.FINISH;
+import static org.spectingular.spock.dto.EventType.REGISTER;
+import static org.spectingular.spock.dto.RunState.FINISHED_WITH_FAILURES;
+import static org.spectingular.spock.dto.RunState.IDLE;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
 
 /** Test class for {@link org.spectingular.spock.services.BuildService}. */
 @RunWith(MockitoJUnitRunner.class)
@@ -31,6 +57,22 @@ public class BuildServiceTest {
     @Mock
     private BuildRepository buildRepository;
     @Mock
+    private MongoOperations operations;
+    @Mock
+    private ChangeBus changeBus;
+    @Mock
+    private ResponseCache responseCache;
+    @Spy
+    private HierarchyCache hierarchyCache = new HierarchyCache();
+    @Mock
+    private SnapshotService snapshotService;
+    @Mock
+    private DBCollection collection;
+    @Mock
+    private DBCursor cursor;
+    @Mock
+    private MongoConverter converter;
+    @Mock
     private Object result;
     private Optional<Build> buildOptional;
     @Mock
@@ -41,6 +83,7 @@ public class BuildServiceTest {
     @Before
     public void setUp() {
         initMocks(this);
+        setField(service, "grace", 10000L);
     }
 
     @Test
@@ -50,6 +93,128 @@ public class BuildServiceTest {
         verify(buildRepository).findAll();
     }
 
+    @Test
+    public void shouldStreamPageOfBuilds() throws Exception {
+        final DBObject document = new BasicDBObject("number", 7);
+        when(operations.getCollectionName(Build.class)).thenReturn("builds");
+        when(operations.getCollection(eq("builds"))).thenReturn(collection);
+        when(collection.find(any(DBObject.class), any(DBObject.class))).thenReturn(cursor);
+        when(cursor.hasNext()).thenReturn(true, true, false);
+        when(cursor.next()).thenReturn(document);
+        when(operations.getConverter()).thenReturn(converter);
+        when(converter.read(eq(Build.class), eq(document))).thenReturn(build);
+        final Date from = new Date(1000);
+
+        try (Stream<Build> builds = service.stream(10, 2, FINISHED_WITH_FAILURES, from, null)) {
+            final Iterator<Build> iterator = builds.iterator();
+            assertEquals(build, iterator.next());
+            assertFalse(iterator.hasNext());
+        }
+
+        final ArgumentCaptor<DBObject> query = ArgumentCaptor.forClass(DBObject.class);
+        final ArgumentCaptor<DBObject> fields = ArgumentCaptor.forClass(DBObject.class);
+        verify(collection).find(query.capture(), fields.capture());
+        assertEquals(new BasicDBObject("$lt", 10), query.getValue().get("number"));
+        assertEquals(new BasicDBObject("$gte", from), query.getValue().get("state.startDate"));
+        assertEquals(new BasicDBObject("$ne", null), query.getValue().get("state.stopDate"));
+        assertEquals(false, query.getValue().get("state.success"));
+        assertEquals(new BasicDBObject("number", 1).append("state", 1), fields.getValue());
+        verify(cursor).sort(eq(new BasicDBObject("number", -1)));
+        verify(cursor).limit(eq(2));
+        verify(cursor).close();
+    }
+
+    @Test
+    public void shouldFindLastBuildOfPage() throws Exception {
+        when(build.getNumber()).thenReturn(9);
+        when(operations.find(any(Query.class), eq(Build.class))).thenReturn(singletonList(build));
+
+        assertEquals(of(9), service.findLast(10, 2, null, null, null));
+
+        final ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+        verify(operations).find(captor.capture(), eq(Build.class));
+        final Query query = captor.getValue();
+        assertEquals(new BasicDBObject("$lt", 10), query.getQueryObject().get("number"));
+        assertEquals(new BasicDBObject("number", -1), query.getSortObject());
+        assertEquals(1, query.getSkip());
+        assertEquals(1, query.getLimit());
+        assertEquals(new BasicDBObject("number", 1), query.getFieldsObject());
+    }
+
+    @Test
+    public void shouldFindVersion() throws Exception {
+        when(build.getVersion()).thenReturn(5L);
+        when(operations.find(any(Query.class), eq(Build.class))).thenReturn(singletonList(build));
+
+        assertEquals(of(5L), service.findVersion(1));
+
+        final ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+        verify(operations).find(captor.capture(), eq(Build.class));
+        assertEquals(1, captor.getValue().getQueryObject().get("number"));
+        assertEquals(new BasicDBObject("number", 1).append("version", 1), captor.getValue().getFieldsObject());
+    }
+
+    @Test
+    public void shouldNotFindVersionWhenTheBuildDoesNotExist() throws Exception {
+        when(operations.find(any(Query.class), eq(Build.class))).thenReturn(new ArrayList<>());
+        assertFalse(service.findVersion(1).isPresent());
+    }
+
+    @Test
+    public void shouldFindChanges() throws Exception {
+        final Change change = new Change(1, 4, ChangeType.REGISTER, "x", null, null, null);
+        when(operations.find(any(Query.class), eq(Change.class))).thenReturn(singletonList(change));
+
+        assertEquals(singletonList(change), service.findChanges(1, 3, 100));
+
+        final ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+        verify(operations).find(captor.capture(), eq(Change.class));
+        assertEquals(1, captor.getValue().getQueryObject().get("buildNumber"));
+        assertEquals(new BasicDBObject("$gt", 3L).append("$lte", 103L), captor.getValue().getQueryObject().get("version"));
+        assertEquals(new BasicDBObject("version", 1), captor.getValue().getSortObject());
+        verify(buildRepository, never()).findByNumber(anyInt());
+    }
+
+    @Test
+    public void shouldNotFindChangesBeyondAVersionThatHasNotBeenLoggedYet() throws Exception {
+        final Change register = new Change(1, 4, ChangeType.REGISTER, "x", null, null, null);
+        final Change registerPhase = new Change(1, 4, ChangeType.REGISTER, "x", "p", null, null);
+        final Change finish = new Change(1, 6, ChangeType.FINISH, "x", null, null, true);
+        when(operations.find(any(Query.class), eq(Change.class))).thenReturn(asList(register, registerPhase, finish));
+
+        assertEquals(asList(register, registerPhase), service.findChanges(1, 3, 100));
+    }
+
+    @Test
+    public void shouldSkipAVersionThatHasNotBeenLoggedWithinTheGracePeriod() throws Exception {
+        final Change register = new Change(1, 4, ChangeType.REGISTER, "x", null, null, null);
+        final Change finish = new Change(1, 6, ChangeType.FINISH, "x", null, null, true);
+        setField(finish, "date", new Date(System.currentTimeMillis() - 60000));
+        when(operations.find(any(Query.class), eq(Change.class))).thenReturn(asList(register, finish));
+
+        assertEquals(asList(register, finish), service.findChanges(1, 3, 100));
+    }
+
+    @Test
+    public void shouldNotFindChangesWhenTheBuildDoesNotExist() throws Exception {
+        when(operations.find(any(Query.class), eq(Change.class))).thenReturn(new ArrayList<>());
+        when(buildRepository.findByNumber(eq(1))).thenReturn(Optional.<Build>empty());
+        try {
+            service.findChanges(1, 0, 100);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Build with number [1] cannot be found", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldNotFindIdleBuilds() throws Exception {
+        assertEquals(0, service.stream(null, 2, IDLE, null, null).count());
+        assertFalse(service.findLast(null, 2, IDLE, null, null).isPresent());
+        verify(operations, never()).getCollection(anyString());
+        verify(operations, never()).find(any(Query.class), eq(Build.class));
+    }
+
     @Test
     public void shouldFindBuild() throws Exception {
         buildOptional = of(build);
@@ -68,8 +233,14 @@ public class BuildServiceTest {
 
     @Test
     public void shouldRegisterBuild() throws Exception {
+        when(build.getNumber()).thenReturn(1);
         service.register(build);
         verify(buildRepository).save(isA(Build.class));
+        final ArgumentCaptor<BuildChange> captor = ArgumentCaptor.forClass(BuildChange.class);
+        verify(changeBus).publish(captor.capture());
+        assertEquals(1, captor.getValue().getBuildNumber());
+        assertEquals(REGISTER, captor.getValue().getType());
+        assertNull(captor.getValue().getModule());
     }
 
     @Test
@@ -86,18 +257,37 @@ public class BuildServiceTest {
 
     @Test
     public void shouldUpdateBuild() throws Exception {
-        buildOptional = of(build);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(build.getState()).thenReturn(state);
-        assertNull(state.getStopDate());
-        assertFalse(state.isSuccess());
+        when(operations.findAndModify(isA(Query.class), isA(Update.class), isA(FindAndModifyOptions.class), eq(Build.class))).thenReturn(build);
         final State updatedState = new State();
         updatedState.setSuccess(true);
-        service.update(1, updatedState);
-        verify(state).setStopDate(isA(Date.class));
-        verify(state).setSuccess(isA(Boolean.class));
+        assertTrue(service.update(1, updatedState));
+        verify(operations).findAndModify(isA(Query.class), isA(Update.class), isA(FindAndModifyOptions.class), eq(Build.class));
+        verify(operations).insert(isA(Change.class));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(buildRepository, never()).save(any(Build.class));
+        final ArgumentCaptor<BuildChange> captor = ArgumentCaptor.forClass(BuildChange.class);
+        verify(changeBus).publish(captor.capture());
+        assertEquals(FINISH, captor.getValue().getType());
+        assertTrue(captor.getValue().isSuccess());
+    }
+
+    @Test
+    public void shouldSnapshotBuildWhenFinishingIt() throws Exception {
+        when(operations.findAndModify(isA(Query.class), isA(Update.class), isA(FindAndModifyOptions.class), eq(Build.class))).thenReturn(build);
+        when(operations.find(isA(Query.class), eq(Build.class))).thenReturn(singletonList(build));
+        when(build.getVersion()).thenReturn(5L);
+        assertTrue(service.update(1, new State()));
+        verify(snapshotService).refresh(1, 5L);
+    }
+
+    @Test
+    public void shouldNotUpdateBuildWhenTheBuildHasAlreadyBeenFinished() throws Exception {
+        buildOptional = of(build);
+        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
+        assertFalse(service.update(1, new State()));
         verify(buildRepository).findByNumber(eq(1));
-        verify(buildRepository).save(build);
+        verify(buildRepository, never()).save(any(Build.class));
+        verify(snapshotService, never()).refresh(anyInt(), anyLong());
     }
 
     @Test
@@ -113,4 +303,4 @@ public class BuildServiceTest {
         verify(buildRepository).findByNumber(eq(1));
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,165 @@
+package org.spectingular.spock.services;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.spectingular.spock.dto.BuildDto;
+import org.spectingular.spock.dto.Depth;
+import org.spectingular.spock.dto.ModuleDto;
+import org.spectingular.spock.dto.PhaseDto;
+import org.spectingular.spock.dto.RunState;
+import org.spectingular.spock.dto.TreeView;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+/** Test class for {@link org.spectingular.spock.services.BuildTreeService}. */
+@RunWith(MockitoJUnitRunner.class)
+public class BuildTreeServiceTest {
+    @InjectMocks
+    private BuildTreeService service; // class under test
+
+    @Mock
+    private MongoOperations operations;
+    @Mock
+    private ReportExecutor reportExecutor;
+
+    private DBObject build;
+    private List<DBObject> modules;
+    private List<DBObject> phases;
+    private List<DBObject> tasks;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        when(reportExecutor.fanout()).thenReturn(new ReportExecutor.Fanout(null));
+        when(reportExecutor.time(anyString(), any(Supplier.class))).thenAnswer(invocation -> ((Supplier) invocation.getArguments()[1]).get());
+        build = new BasicDBObject("number", 1).append("state", new BasicDBObject());
+        modules = new ArrayList<>();
+        phases = new ArrayList<>();
+        tasks = new ArrayList<>();
+        when(operations.findOne(any(Query.class), eq(DBObject.class), eq("builds"))).thenReturn(build);
+        when(operations.find(any(Query.class), eq(DBObject.class), eq("modules"))).thenReturn(modules);
+        when(operations.find(any(Query.class), eq(DBObject.class), eq("phases"))).thenReturn(phases);
+        when(operations.find(any(Query.class), eq(DBObject.class), eq("tasks"))).thenReturn(tasks);
+    }
+
+    @Test
+    public void shouldAssembleBuildTree() throws Exception {
+        modules.add(document("x"));
+        phases.add(document("p"));
+        phases.add(document("q").append("moduleName", "x"));
+        tasks.add(document("g").append("phaseName", "p").append("state", new BasicDBObject("stopDate", new Date()).append("success", true)));
+        tasks.add(document("h").append("moduleName", "x").append("phaseName", "q"));
+        tasks.add(document("i").append("moduleName", "x").append("phaseName", "q"));
+
+        final Optional<BuildDto> ob = service.assemble(1);
+
+        assertTrue(ob.isPresent());
+        final BuildDto dto = ob.get();
+        assertEquals(1, dto.getNumber());
+        assertEquals(1, dto.getModules().size());
+        final ModuleDto module = dto.getModules().get(0);
+        assertEquals("x", module.getName());
+        assertEquals(1, module.getPhases().size());
+        assertEquals("q", module.getPhases().get(0).getName());
+        assertEquals(2, module.getPhases().get(0).getTasks().size());
+        assertEquals(1, dto.getPhases().size());
+        final PhaseDto phase = dto.getPhases().get(0);
+        assertEquals("p", phase.getName());
+        assertEquals(1, phase.getTasks().size());
+        assertEquals("g", phase.getTasks().get(0).getName());
+        assertEquals(RunState.FINISHED_SUCCESSFULLY, phase.getTasks().get(0).getState());
+    }
+
+    @Test
+    public void shouldAssembleBuildTreeInAConstantNumberOfQueries() throws Exception {
+        for (int m = 0; m < 40; m++) {
+            modules.add(document("module" + m));
+            for (int p = 0; p < 8; p++) {
+                phases.add(document("phase" + p).append("moduleName", "module" + m));
+                for (int t = 0; t < 20; t++) {
+                    tasks.add(document("task" + t).append("moduleName", "module" + m).append("phaseName", "phase" + p));
+                }
+            }
+        }
+
+        final BuildDto dto = service.assemble(1).get();
+
+        assertEquals(40, dto.getModules().size());
+        assertEquals(8, dto.getModules().get(39).getPhases().size());
+        assertEquals(20, dto.getModules().get(39).getPhases().get(7).getTasks().size());
+        verify(operations, times(1)).findOne(any(Query.class), eq(DBObject.class), anyString());
+        verify(operations, times(3)).find(any(Query.class), eq(DBObject.class), anyString());
+    }
+
+    @Test
+    public void shouldOnlyQueryTheRequestedLevels() throws Exception {
+        modules.add(document("x"));
+        phases.add(document("p"));
+
+        final BuildDto dto = service.assemble(1, TreeView.of(Depth.MODULE, null)).get();
+
+        assertEquals(1, dto.getModules().size());
+        assertNull(dto.getModules().get(0).getPhases());
+        assertNull(dto.getPhases());
+        verify(operations, times(1)).find(any(Query.class), eq(DBObject.class), eq("modules"));
+        verify(operations, never()).find(any(Query.class), eq(DBObject.class), eq("phases"));
+        verify(operations, never()).find(any(Query.class), eq(DBObject.class), eq("tasks"));
+    }
+
+    @Test
+    public void shouldOnlyQueryTheBuildPhasesWhenModulesAreNotSelected() throws Exception {
+        phases.add(document("p"));
+
+        final BuildDto dto = service.assemble(1, TreeView.of(null, asList("name", "phases"))).get();
+
+        assertNull(dto.getModules());
+        assertEquals(1, dto.getPhases().size());
+        assertNull(dto.getPhases().get(0).getTasks());
+        final ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+        verify(operations).find(captor.capture(), eq(DBObject.class), eq("phases"));
+        assertTrue(captor.getValue().getQueryObject().containsField("moduleName"));
+        assertNull(captor.getValue().getQueryObject().get("moduleName"));
+        verify(operations, never()).find(any(Query.class), eq(DBObject.class), eq("modules"));
+        verify(operations, never()).find(any(Query.class), eq(DBObject.class), eq("tasks"));
+    }
+
+    @Test
+    public void shouldNotAssembleBuildTreeWhenTheBuildDoesNotExist() throws Exception {
+        when(operations.findOne(any(Query.class), eq(DBObject.class), eq("builds"))).thenReturn(null);
+
+        assertFalse(service.assemble(1).isPresent());
+        verify(operations, times(1)).findOne(any(Query.class), eq(DBObject.class), eq("builds"));
+        verify(operations, never()).find(any(Query.class), eq(DBObject.class), anyString());
+    }
+
+    private static BasicDBObject document(final String name) {
+        return new BasicDBObject("name", name).append("buildNumber", 1).append("state", new BasicDBObject());
+    }
+}
@@ -0,0 +1,101 @@
+package org.spectingular.spock.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.spectingular.spock.dto.BuildChange;
+import org.spectingular.spock.dto.Event;
+import org.spectingular.spock.dto.EventType;
+import org.springframework.boot.actuate.metrics.CounterService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.spectingular.spock.dto.EventType.FINISH;
+import static org.spectingular.spock.dto.EventType.REGISTER;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/** Test class for {@link org.spectingular.spock.services.ChangeBus}. */
+@RunWith(MockitoJUnitRunner.class)
+public class ChangeBusTest {
+    @InjectMocks
+    private ChangeBus bus; // class under test
+
+    @Mock
+    private CounterService counterService;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        setField(bus, "capacity", 10);
+        bus.start();
+    }
+
+    @After
+    public void tearDown() {
+        bus.stop();
+    }
+
+    @Test
+    public void shouldDeliverChangesOnTheDispatcherThread() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<String> threads = new ArrayList<>();
+        bus.subscribe(null, change -> {
+            threads.add(Thread.currentThread().getName());
+            latch.countDown();
+        });
+        bus.publish(change(1, REGISTER));
+        assertTrue(latch.await(5, SECONDS));
+        assertEquals("change-dispatcher", threads.get(0));
+    }
+
+    @Test
+    public void shouldOnlyDeliverTheChangesOfTheSubscribedBuild() throws Exception {
+        final List<BuildChange> all = new ArrayList<>();
+        final List<BuildChange> first = new ArrayList<>();
+        bus.subscribe(null, all::add);
+        bus.subscribe(1, first::add);
+
+        bus.deliver(change(1, REGISTER));
+        bus.deliver(change(2, REGISTER));
+
+        assertEquals(2, all.size());
+        assertEquals(1, first.size());
+        assertEquals(1, first.get(0).getBuildNumber());
+    }
+
+    @Test
+    public void shouldNotDeliverAfterUnsubscribing() throws Exception {
+        final List<BuildChange> changes = new ArrayList<>();
+        final Runnable unsubscribe = bus.subscribe(1, changes::add);
+        bus.deliver(change(1, REGISTER));
+        unsubscribe.run();
+        bus.deliver(change(1, FINISH));
+        assertEquals(1, changes.size());
+    }
+
+    @Test
+    public void shouldRemoveSubscribersThatFail() throws Exception {
+        final List<BuildChange> changes = new ArrayList<>();
+        bus.subscribe(1, change -> {
+            changes.add(change);
+            throw new IllegalStateException("gone");
+        });
+        bus.deliver(change(1, REGISTER));
+        bus.deliver(change(1, FINISH));
+        assertEquals(1, changes.size());
+    }
+
+    private static BuildChange change(final int buildNumber, final EventType type) {
+        return new BuildChange(buildNumber, new Event(type, "x", null, null, true));
+    }
+}
@@ -0,0 +1,136 @@
+package org.spectingular.spock.services;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.spectingular.spock.domain.Build;
+import org.spectingular.spock.domain.Phase;
+import org.spectingular.spock.domain.Task;
+import org.springframework.data.mongodb.core.MongoOperations;
+
+import java.util.Date;
+import java.util.Optional;
+
+import static java.util.Optional.of;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+/** Test class for {@link org.spectingular.spock.services.DriverRepository}. */
+@RunWith(MockitoJUnitRunner.class)
+public class DriverRepositoryTest {
+    @InjectMocks
+    private DriverRepository repository; // class under test
+
+    @Mock
+    private MongoOperations operations;
+    @Mock
+    private DBCollection collection;
+    @Mock
+    private WriteResult writeResult;
+
+    private final ObjectId id = new ObjectId();
+    private final Date startDate = new Date(1);
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        when(operations.getCollection(any(String.class))).thenReturn(collection);
+    }
+
+    @Test
+    public void shouldFindBuild() throws Exception {
+        when(collection.findOne(eq(new BasicDBObject("number", 1)), isA(DBObject.class)))
+                .thenReturn(new BasicDBObject("_id", id).append("number", 1).append("version", 3L).append("state", new BasicDBObject("startDate", startDate)));
+        final Build build = repository.findBuild(1).get();
+        assertEquals(id, build.getId());
+        assertEquals(1, build.getNumber());
+        assertEquals(3L, build.getVersion());
+        assertEquals(startDate, build.getState().getStartDate());
+        assertNull(build.getState().getStopDate());
+        verify(operations).getCollection("builds");
+    }
+
+    @Test
+    public void shouldNotFindBuildThatDoesNotExist() throws Exception {
+        assertFalse(repository.findBuild(1).isPresent());
+    }
+
+    @Test
+    public void shouldFindPhaseOfTheBuildOnItsHierarchyKeys() throws Exception {
+        final ArgumentCaptor<DBObject> query = ArgumentCaptor.forClass(DBObject.class);
+        when(collection.findOne(query.capture(), isA(DBObject.class))).thenReturn(new BasicDBObject("_id", id).append("name", "phase").append("buildNumber", 1));
+        final Optional<Phase> phase = repository.findPhase(1, null, "phase");
+        assertEquals("phase", phase.get().getName());
+        assertEquals(1, phase.get().getBuildNumber());
+        assertNull(phase.get().getModuleName());
+        assertNull(phase.get().getState());
+        assertTrue(query.getValue().containsField("moduleName"));
+        assertNull(query.getValue().get("moduleName"));
+        verify(operations).getCollection("phases");
+    }
+
+    @Test
+    public void shouldFindTaskWithoutResolvingItsPhase() throws Exception {
+        when(collection.findOne(eq(new BasicDBObject("buildNumber", 1).append("moduleName", "module").append("phaseName", "phase").append("name", "task")), isA(DBObject.class)))
+                .thenReturn(new BasicDBObject("_id", id).append("name", "task").append("buildNumber", 1).append("moduleName", "module").append("phaseName", "phase")
+                        .append("state", new BasicDBObject("startDate", startDate).append("stopDate", startDate).append("success", true)));
+        final Task task = repository.findTask(1, "module", "phase", "task").get();
+        assertEquals(id, task.getId());
+        assertEquals("module", task.getModuleName());
+        assertEquals("phase", task.getPhaseName());
+        assertNull(task.getPhase());
+        assertTrue(task.getState().isSuccess());
+        assertEquals(startDate, task.getState().getStopDate());
+    }
+
+    @Test
+    public void shouldFinishUnfinishedDocument() throws Exception {
+        final ArgumentCaptor<DBObject> query = ArgumentCaptor.forClass(DBObject.class);
+        final ArgumentCaptor<DBObject> update = ArgumentCaptor.forClass(DBObject.class);
+        when(collection.update(query.capture(), update.capture())).thenReturn(writeResult);
+        when(writeResult.getN()).thenReturn(1);
+        assertTrue(repository.finish("tasks", new BasicDBObject("buildNumber", 1).append("name", "task"), true));
+        assertEquals(1, query.getValue().get("buildNumber"));
+        assertTrue(query.getValue().containsField("state.stopDate"));
+        final DBObject set = (DBObject) update.getValue().get("$set");
+        assertTrue(set.get("state.stopDate") instanceof Date);
+        assertEquals(true, set.get("state.success"));
+        verify(operations).getCollection("tasks");
+    }
+
+    @Test
+    public void shouldFinishBuildAndIncrementItsVersion() throws Exception {
+        final ArgumentCaptor<DBObject> update = ArgumentCaptor.forClass(DBObject.class);
+        when(collection.findAndModify(isA(DBObject.class), isA(DBObject.class), (DBObject) isNull(), eq(false), update.capture(), eq(true), eq(false)))
+                .thenReturn(new BasicDBObject("_id", id).append("version", 5L));
+        assertEquals(of(5L), repository.finishBuild(new BasicDBObject("number", 1), false));
+        assertEquals(1, ((DBObject) update.getValue().get("$inc")).get("version"));
+        assertEquals(false, ((DBObject) update.getValue().get("$set")).get("state.success"));
+    }
+
+    @Test
+    public void shouldNotFinishBuildThatHasAlreadyBeenFinished() throws Exception {
+        when(collection.findAndModify(isA(DBObject.class), isA(DBObject.class), (DBObject) isNull(), anyBoolean(), isA(DBObject.class), anyBoolean(), anyBoolean()))
+                .thenReturn(null);
+        assertFalse(repository.finishBuild(new BasicDBObject("number", 1), true).isPresent());
+    }
+}
@@ -0,0 +1,264 @@
+package org.spectingular.spock.services;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteRequestBuilder;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.spectingular.spock.domain.Change;
+import org.spectingular.spock.dto.BuildChange;
+import org.spectingular.spock.dto.Event;
+import org.spectingular.spock.dto.EventOutcome;
+import org.spectingular.spock.dto.EventType;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.spectingular.spock.dto.EventType.FINISH;
+import static org.spectingular.spock.dto.EventType.REGISTER;
+import static org.spectingular.spock.dto.EventType.RESULT;
+
+/** Test class for {@link org.spectingular.spock.services.EventService}. */
+@RunWith(MockitoJUnitRunner.class)
+public class EventServiceTest {
+    @InjectMocks
+    private EventService service; // class under test
+
+    @Mock
+    private MongoOperations operations;
+    @Mock
+    private ChangeBus changeBus;
+    @Mock
+    private ResponseCache responseCache;
+    @Mock
+    private HierarchyCache hierarchyCache;
+    @Mock
+    private DBCollection collection;
+    @Mock
+    private BulkWriteOperation bulk;
+    @Mock
+    private BulkWriteRequestBuilder builder;
+    @Mock
+    private BulkWriteResult result;
+    @Mock
+    private BulkWriteException exception;
+
+    private List<DBObject> modules;
+    private List<DBObject> phases;
+    private List<DBObject> tasks;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        modules = new ArrayList<>();
+        phases = new ArrayList<>();
+        tasks = new ArrayList<>();
+        when(operations.findOne(any(Query.class), eq(DBObject.class), eq("builds"))).thenReturn(new BasicDBObject("_id", new ObjectId()).append("number", 1));
+        when(operations.find(any(Query.class), eq(DBObject.class), eq("modules"))).thenReturn(modules);
+        when(operations.find(any(Query.class), eq(DBObject.class), eq("phases"))).thenReturn(phases);
+        when(operations.find(any(Query.class), eq(DBObject.class), eq("tasks"))).thenReturn(tasks);
+        when(operations.getCollection(anyString())).thenReturn(collection);
+        when(operations.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(DBObject.class), eq("builds"))).thenReturn(new BasicDBObject("version", 3L));
+        when(collection.initializeUnorderedBulkOperation()).thenReturn(bulk);
+        when(bulk.find(any(DBObject.class))).thenReturn(builder);
+        when(bulk.execute()).thenReturn(result);
+    }
+
+    @Test
+    public void shouldApplyEventsWithOneBulkWritePerCollection() throws Exception {
+        final List<EventOutcome> outcomes = service.apply(1, asList(
+                event(REGISTER, "x", null, null),
+                event(REGISTER, "x", "p", null),
+                event(REGISTER, "x", "p", "g"),
+                event(FINISH, "x", "p", "g"),
+                event(FINISH, "x", "p", null),
+                event(FINISH, "x", null, null)));
+
+        assertEquals(6, outcomes.size());
+        for (int index = 0; index < outcomes.size(); index++) {
+            assertEquals(index, outcomes.get(index).getIndex());
+            assertTrue(outcomes.get(index).isApplied());
+            assertNull(outcomes.get(index).getMessage());
+        }
+        final ArgumentCaptor<DBObject> captor = ArgumentCaptor.forClass(DBObject.class);
+        verify(bulk, times(3)).insert(captor.capture());
+        verify(bulk, times(3)).execute();
+        verify(builder, never()).updateOne(any(DBObject.class));
+        verify(operations, times(3)).find(any(Query.class), eq(DBObject.class), anyString());
+        // the build version is incremented once for the whole batch
+        verify(operations, times(1)).findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(DBObject.class), eq("builds"));
+        final ArgumentCaptor<List> changes = ArgumentCaptor.forClass(List.class);
+        verify(operations).insert(changes.capture(), eq(Change.class));
+        assertEquals(6, changes.getValue().size());
+        assertEquals(3L, ((Change) changes.getValue().get(5)).getVersion());
+        // every applied event is published, after the cached responses of the build have been evicted once
+        verify(responseCache).evict(1);
+        verify(changeBus, times(6)).publish(any(BuildChange.class));
+
+        final DBObject module = captor.getAllValues().get(0);
+        final DBObject phase = captor.getAllValues().get(1);
+        final DBObject task = captor.getAllValues().get(2);
+        assertEquals("x", module.get("name"));
+        assertEquals(1, module.get("buildNumber"));
+        assertEquals("p", phase.get("name"));
+        assertEquals("x", phase.get("moduleName"));
+        assertEquals("g", task.get("name"));
+        assertEquals("x", task.get("moduleName"));
+        assertEquals("p", task.get("phaseName"));
+        // the finishes are coalesced into the inserts
+        assertNotNull(((DBObject) task.get("state")).get("stopDate"));
+        assertEquals(true, ((DBObject) task.get("state")).get("success"));
+        // the ids of the inserted documents are cached for the writes that follow
+        verify(hierarchyCache).put(1, "x", null, null, (ObjectId) module.get("_id"));
+        verify(hierarchyCache).put(1, "x", "p", null, (ObjectId) phase.get("_id"));
+        verify(hierarchyCache).put(1, "x", "p", "g", (ObjectId) task.get("_id"));
+    }
+
+    @Test
+    public void shouldFinishExistingModuleWithABulkUpdate() throws Exception {
+        modules.add(new BasicDBObject("_id", new ObjectId()).append("name", "x").append("state", new BasicDBObject()));
+        when(result.getMatchedCount()).thenReturn(1);
+
+        final List<EventOutcome> outcomes = service.apply(1, singletonList(event(FINISH, "x", null, null)));
+
+        assertTrue(outcomes.get(0).isApplied());
+        verify(bulk, never()).insert(any(DBObject.class));
+        verify(builder).updateOne(any(DBObject.class));
+        verify(bulk).execute();
+        verify(hierarchyCache, never()).put(anyInt(), anyString(), anyString(), anyString(), any(ObjectId.class));
+    }
+
+    @Test
+    public void shouldRejectFinishesThatLostTheRaceAgainstAConcurrentBatch() throws Exception {
+        final ObjectId x = new ObjectId();
+        final ObjectId y = new ObjectId();
+        modules.add(new BasicDBObject("_id", x).append("name", "x").append("state", new BasicDBObject()));
+        modules.add(new BasicDBObject("_id", y).append("name", "y").append("state", new BasicDBObject()));
+        when(result.getMatchedCount()).thenReturn(1);
+        // only the module that was stopped by this batch carries its stop date
+        when(operations.find(any(Query.class), eq(DBObject.class), eq("modules"))).thenReturn(modules, singletonList((DBObject) new BasicDBObject("_id", y)));
+
+        final List<EventOutcome> outcomes = service.apply(1, asList(event(FINISH, "x", null, null), event(FINISH, "y", null, null)));
+
+        assertFalse(outcomes.get(0).isApplied());
+        assertEquals("Module with name [x] for build with number [1] has already been finished", outcomes.get(0).getMessage());
+        assertTrue(outcomes.get(1).isApplied());
+        final ArgumentCaptor<List> changes = ArgumentCaptor.forClass(List.class);
+        verify(operations).insert(changes.capture(), eq(Change.class));
+        assertEquals(1, changes.getValue().size());
+        verify(changeBus, times(1)).publish(any(BuildChange.class));
+    }
+
+    @Test
+    public void shouldNotReadBackTheFinishesWhenAllOfThemMatched() throws Exception {
+        modules.add(new BasicDBObject("_id", new ObjectId()).append("name", "x").append("state", new BasicDBObject()));
+        when(result.getMatchedCount()).thenReturn(1);
+
+        service.apply(1, singletonList(event(FINISH, "x", null, null)));
+
+        verify(operations, times(1)).find(any(Query.class), eq(DBObject.class), eq("modules"));
+    }
+
+    @Test
+    public void shouldRejectEventsThatCannotBeApplied() throws Exception {
+        modules.add(new BasicDBObject("_id", new ObjectId()).append("name", "x").append("state", new BasicDBObject()));
+        modules.add(new BasicDBObject("_id", new ObjectId()).append("name", "z").append("state", new BasicDBObject("stopDate", new Date())));
+
+        final List<EventOutcome> outcomes = service.apply(1, asList(
+                event(REGISTER, "x", null, null),
+                event(FINISH, "y", null, null),
+                event(REGISTER, "y", "p", null),
+                event(FINISH, "z", null, null),
+                event(null, "x", null, null),
+                event(REGISTER, null, null, "g"),
+                event(RESULT, null, "p", "t")));
+
+        assertFalse(outcomes.stream().anyMatch(EventOutcome::isApplied));
+        assertEquals("Module with name [x] for build with number [1] has already been registered", outcomes.get(0).getMessage());
+        assertEquals("Module with name [y] for build with number [1] cannot be found", outcomes.get(1).getMessage());
+        assertEquals("Module with name [y] for build with number [1] cannot be found", outcomes.get(2).getMessage());
+        assertEquals("Module with name [z] for build with number [1] has already been finished", outcomes.get(3).getMessage());
+        assertEquals("Event has no type", outcomes.get(4).getMessage());
+        assertEquals("Event does not name a module, phase or task", outcomes.get(5).getMessage());
+        assertEquals("Event of type [RESULT] cannot be applied, results are stored with the result resource", outcomes.get(6).getMessage());
+        verify(bulk, never()).execute();
+        verify(operations, never()).findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(DBObject.class), eq("builds"));
+        verify(changeBus, never()).publish(any(BuildChange.class));
+        verify(responseCache, never()).evict(anyInt());
+    }
+
+    @Test
+    public void shouldRejectEventsWhenTheBulkWriteFails() throws Exception {
+        when(exception.getWriteErrors()).thenReturn(singletonList(new BulkWriteError(11000, "duplicate key", new BasicDBObject(), 0)));
+        when(exception.getWriteResult()).thenReturn(result);
+        when(bulk.execute()).thenThrow(exception);
+
+        final List<EventOutcome> outcomes = service.apply(1, asList(
+                event(REGISTER, "x", null, null),
+                event(REGISTER, "x", "p", null),
+                event(FINISH, "x", null, null)));
+
+        assertFalse(outcomes.get(0).isApplied());
+        assertEquals("Module with name [x] for build with number [1] has already been registered", outcomes.get(0).getMessage());
+        assertFalse(outcomes.get(1).isApplied());
+        assertEquals("Module with name [x] for build with number [1] could not be registered", outcomes.get(1).getMessage());
+        assertFalse(outcomes.get(2).isApplied());
+        verify(bulk, times(1)).execute();
+        verify(hierarchyCache, never()).put(anyInt(), anyString(), anyString(), anyString(), any(ObjectId.class));
+    }
+
+    @Test
+    public void shouldNotApplyEventsWhenTheBuildDoesNotExist() throws Exception {
+        when(operations.findOne(any(Query.class), eq(DBObject.class), eq("builds"))).thenReturn(null);
+        try {
+            service.apply(1, singletonList(event(REGISTER, "x", null, null)));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Build with number [1] cannot be found", e.getMessage());
+        }
+        verify(operations, never()).getCollection(anyString());
+    }
+
+    private static Event event(final EventType type, final String module, final String phase, final String task) {
+        final Event event = new Event();
+        event.setType(type);
+        event.setModule(module);
+        event.setPhase(phase);
+        event.setTask(task);
+        event.setSuccess(true);
+        return event;
+    }
+}
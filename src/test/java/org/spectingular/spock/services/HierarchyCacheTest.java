@@ -0,0 +1,81 @@
+package org.spectingular.spock.services;
+
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/** Test class for {@link org.spectingular.spock.services.HierarchyCache}. */
+public class HierarchyCacheTest {
+    private HierarchyCache cache; // class under test
+    private final ObjectId id = new ObjectId();
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        cache = new HierarchyCache();
+        setField(cache, "builds", 2);
+    }
+
+    @Test
+    public void shouldLookUpAnIdOnlyOnce() throws Exception {
+        assertEquals(id, cache.resolve(1, "module", "phase", null, this::lookup));
+        assertEquals(id, cache.resolve(1, "module", "phase", null, this::lookup));
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void shouldKeepTheIdsOfDifferentKeysApart() throws Exception {
+        final ObjectId other = new ObjectId();
+        cache.put(1, null, "phase", null, other);
+        assertEquals(other, cache.resolve(1, null, "phase", null, this::lookup));
+        assertEquals(id, cache.resolve(1, "phase", null, null, this::lookup));
+        assertEquals(id, cache.resolve(2, null, "phase", null, this::lookup));
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void shouldNotCacheAFailedLookup() throws Exception {
+        try {
+            cache.resolve(1, null, null, null, () -> {
+                throw new IllegalArgumentException("Build with number [1] cannot be found");
+            });
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Build with number [1] cannot be found", e.getMessage());
+        }
+        assertEquals(id, cache.resolve(1, null, null, null, this::lookup));
+    }
+
+    @Test
+    public void shouldOnlyKeepTheHighestBuildNumbers() throws Exception {
+        cache.put(3, null, null, null, id);
+        cache.put(1, null, null, null, id);
+        cache.put(2, null, null, null, id);
+        cache.resolve(3, null, null, null, this::lookup);
+        cache.resolve(2, null, null, null, this::lookup);
+        assertEquals(0, lookups.get());
+        cache.resolve(1, null, null, null, this::lookup);
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void shouldEvictTheIdsOfABuild() throws Exception {
+        cache.put(1, null, null, null, id);
+        cache.put(1, "module", null, null, id);
+        cache.evict(1);
+        cache.resolve(1, null, null, null, this::lookup);
+        cache.resolve(1, "module", null, null, this::lookup);
+        assertEquals(2, lookups.get());
+    }
+
+    private ObjectId lookup() {
+        lookups.incrementAndGet();
+        return id;
+    }
+}
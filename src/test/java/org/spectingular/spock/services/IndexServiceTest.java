@@ -0,0 +1,174 @@
+package org.spectingular.spock.services;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.spectingular.spock.services.IndexService.Definition;
+import org.springframework.data.mongodb.core.MongoOperations;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+/** Test class for {@link org.spectingular.spock.services.IndexService}. */
+@RunWith(MockitoJUnitRunner.class)
+public class IndexServiceTest {
+    @InjectMocks
+    private IndexService service; // class under test
+
+    @Mock
+    private MongoOperations operations;
+    @Mock
+    private DBCollection collection;
+
+    private final Definition keys = new Definition("phase_keys", true, "buildNumber", 1, "moduleName", 1, "name", 1);
+    private final List<Definition> definitions = singletonList(keys);
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        when(operations.getCollection(anyString())).thenReturn(collection);
+        when(collection.getName()).thenReturn("phases");
+    }
+
+    @Test
+    public void shouldCreateMissingIndexes() throws Exception {
+        when(collection.getIndexInfo()).thenReturn(singletonList(index("_id_", false, "_id", 1)), asList(index("_id_", false, "_id", 1), created()));
+        service.ensure(collection, definitions);
+        verify(collection).createIndex(eq(keys.getKeys()), eq(new BasicDBObject("name", "phase_keys").append("unique", true).append("background", true)));
+        verify(collection, never()).dropIndex(anyString());
+    }
+
+    @Test
+    public void shouldKeepIndexesMatchingTheirDefinition() throws Exception {
+        when(collection.getIndexInfo()).thenReturn(asList(index("_id_", false, "_id", 1), index("phase_keys", true, "buildNumber", 1.0, "moduleName", 1, "name", 1)));
+        service.ensure(collection, definitions);
+        verify(collection, never()).createIndex(any(DBObject.class), any(DBObject.class));
+        verify(collection, never()).dropIndex(anyString());
+    }
+
+    @Test
+    public void shouldRecreateIndexesThatDiffer() throws Exception {
+        when(collection.getIndexInfo()).thenReturn(singletonList(index("phase_keys", false, "buildNumber", 1, "moduleName", 1, "name", 1)), singletonList(created()));
+        service.ensure(collection, definitions);
+        verify(collection).dropIndex("phase_keys");
+        verify(collection).createIndex(eq(keys.getKeys()), any(DBObject.class));
+    }
+
+    @Test
+    public void shouldNotCreateUniqueIndexesOnDocumentsThatHaveNotBeenMigrated() throws Exception {
+        when(collection.getIndexInfo()).thenReturn(singletonList(index("_id_", false, "_id", 1)));
+        when(collection.findOne(eq(new BasicDBObject("buildNumber", new BasicDBObject("$exists", false))), any(DBObject.class))).thenReturn(new BasicDBObject("_id", 1));
+        try {
+            service.ensure(collection, definitions);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Collection [phases] holds documents without hierarchy keys, on which unique index [phase_keys] cannot be created; "
+                    + "run the application once with spock.migration.hierarchy-keys=true to migrate them", e.getMessage());
+        }
+        verify(collection, never()).createIndex(any(DBObject.class), any(DBObject.class));
+        verify(collection, never()).dropIndex(anyString());
+    }
+
+    @Test
+    public void shouldDropIndexesThatAreNotDefined() throws Exception {
+        when(collection.getIndexInfo()).thenReturn(asList(index("phase_build_module", true, "name", 1, "build", 1, "module", 1),
+                index("phase_keys", true, "buildNumber", 1, "moduleName", 1, "name", 1)));
+        service.ensure(collection, definitions);
+        verify(collection).dropIndex("phase_build_module");
+        verify(collection, never()).createIndex(any(DBObject.class), any(DBObject.class));
+    }
+
+    @Test
+    public void shouldDropIndexesThatAreNotDefinedOnlyAfterCreatingTheDefinedOnes() throws Exception {
+        when(collection.getIndexInfo()).thenReturn(singletonList(index("phase_build_module", true, "name", 1, "build", 1, "module", 1)),
+                asList(index("phase_build_module", true, "name", 1, "build", 1, "module", 1), created()));
+        service.ensure(collection, definitions);
+        final InOrder order = inOrder(collection);
+        order.verify(collection).createIndex(eq(keys.getKeys()), any(DBObject.class));
+        order.verify(collection).dropIndex("phase_build_module");
+    }
+
+    @Test
+    public void shouldSkipIndexesThatCannotBeCreated() throws Exception {
+        final Definition other = new Definition("phase_name", false, "name", 1);
+        when(collection.getIndexInfo()).thenReturn(singletonList(index("_id_", false, "_id", 1)), singletonList(created()));
+        doThrow(new MongoException("E11000 duplicate key error")).when(collection).createIndex(eq(other.getKeys()), any(DBObject.class));
+        service.ensure(collection, asList(keys, other));
+        verify(collection).createIndex(eq(keys.getKeys()), any(DBObject.class));
+    }
+
+    @Test
+    public void shouldFailWhenAUniqueIndexCannotBeCreated() throws Exception {
+        when(collection.getIndexInfo()).thenReturn(singletonList(index("phase_build_module", true, "name", 1, "build", 1, "module", 1)));
+        doThrow(new MongoException("E11000 duplicate key error")).when(collection).createIndex(eq(keys.getKeys()), any(DBObject.class));
+        try {
+            service.ensure(collection, definitions);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Unique index [phase_keys] of collection [phases] cannot be created", e.getMessage());
+        }
+        verify(collection, never()).dropIndex(anyString());
+    }
+
+    @Test
+    public void shouldFailWhenAUniqueIndexIsNotInPlaceAfterItHasBeenCreated() throws Exception {
+        when(collection.getIndexInfo()).thenReturn(singletonList(index("phase_build_module", true, "name", 1, "build", 1, "module", 1)));
+        try {
+            service.ensure(collection, definitions);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Unique index [phase_keys] of collection [phases] is not in place", e.getMessage());
+        }
+        verify(collection, never()).dropIndex(anyString());
+    }
+
+    @Test
+    public void shouldEnsureTheIndexesOfAllCollections() throws Exception {
+        when(collection.getIndexInfo()).thenReturn(IndexService.DEFINITIONS.values().stream().flatMap(List::stream)
+                .map(definition -> (DBObject) new BasicDBObject("name", definition.getName()).append("key", definition.getKeys()).append("unique", definition.isUnique()))
+                .collect(toList()));
+        service.run();
+        IndexService.DEFINITIONS.keySet().forEach(name -> verify(operations).getCollection(name));
+    }
+
+    @Test
+    public void shouldMatchOnlyTheSameFieldsInTheSameOrder() throws Exception {
+        assertTrue(keys.matches(index("phase_keys", true, "buildNumber", 1, "moduleName", 1, "name", 1)));
+        assertFalse(keys.matches(index("phase_keys", true, "buildNumber", 1, "name", 1, "moduleName", 1)));
+        assertFalse(keys.matches(index("phase_keys", true, "buildNumber", 1, "moduleName", 1, "name", -1)));
+        assertFalse(keys.matches(index("phase_keys", true, "buildNumber", 1, "moduleName", 1)));
+    }
+
+    private DBObject created() {
+        return index("phase_keys", true, "buildNumber", 1, "moduleName", 1, "name", 1);
+    }
+
+    private static DBObject index(final String name, final boolean unique, final Object... keys) {
+        final BasicDBObject key = new BasicDBObject();
+        for (int i = 0; i < keys.length; i += 2) {
+            key.append((String) keys[i], keys[i + 1]);
+        }
+        final BasicDBObject index = new BasicDBObject("name", name).append("key", key);
+        return unique ? index.append("unique", true) : index;
+    }
+}
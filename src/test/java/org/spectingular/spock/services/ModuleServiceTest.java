@@ -1,23 +1,43 @@
 package org.spectingular.spock.services;
 
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
+import org.bson.types.ObjectId;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.spectingular.spock.domain.Build;
 import org.spectingular.spock.domain.Module;
 import org.spectingular.spock.domain.State;
+import org.spectingular.spock.dto.BuildChange;
+import org.spectingular.spock.dto.Event;
+import org.spectingular.spock.dto.ModuleDto;
+import org.spectingular.spock.dto.RunState;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Optional;
 
+import static java.util.Collections.singletonList;
 import static java.util.Optional.empty;
 import static java.util.Optional.of;
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.*;
@@ -34,6 +54,22 @@ public class ModuleServiceTest {
     @Mock
     private ModuleRepository moduleRepository;
     @Mock
+    private MongoOperations operations;
+    @Mock
+    private ChangeBus changeBus;
+    @Mock
+    private ResponseCache responseCache;
+    @Spy
+    private HierarchyCache hierarchyCache = new HierarchyCache();
+    @Mock
+    private WriteResult writeResult;
+    @Mock
+    private DBCollection collection;
+    @Mock
+    private DBCursor cursor;
+    @Mock
+    private WriteBehindQueue writeBehindQueue;
+    @Mock
     private Object result;
     private Optional<Build> buildOptional;
     private Optional<Module> moduleOptional;
@@ -47,16 +83,18 @@ public class ModuleServiceTest {
     @Before
     public void setUp() {
         initMocks(this);
+        when(build.getId()).thenReturn(new ObjectId());
+        when(operations.updateFirst(any(Query.class), any(Update.class), any(Class.class))).thenReturn(writeResult);
     }
 
     @Test
     public void shouldFindModules() throws Exception {
         buildOptional = of(build);
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuild(eq(build))).thenReturn(new ArrayList<Module>());
+        when(moduleRepository.findByBuildNumber(eq(1))).thenReturn(new ArrayList<Module>());
         assertEquals(0, service.findByBuildNumber(1).size());
+        verify(moduleRepository).findByBuildNumber(eq(1));
         verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuild(eq(build));
     }
 
     @Test
@@ -72,21 +110,37 @@ public class ModuleServiceTest {
         verify(buildRepository).findByNumber(eq(1));
     }
 
+    @Test
+    public void shouldProjectModulesIntoDtos() throws Exception {
+        when(operations.getCollectionName(Module.class)).thenReturn("modules");
+        when(operations.getCollection(eq("modules"))).thenReturn(collection);
+        when(collection.find(any(DBObject.class), any(DBObject.class))).thenReturn(cursor);
+        when(cursor.hasNext()).thenReturn(true, false);
+        when(cursor.next()).thenReturn(new BasicDBObject("name", "module").append("state", new BasicDBObject("startDate", new Date())));
+        final List<ModuleDto> modules = service.projectByBuildNumber(1);
+        assertEquals(1, modules.size());
+        assertEquals("module", modules.get(0).getName());
+        assertEquals(RunState.IN_PROGRESS, modules.get(0).getState());
+        verify(collection).find(eq(new BasicDBObject("buildNumber", 1)), eq(new BasicDBObject("name", 1).append("state", 1)));
+        verify(cursor).close();
+        verify(buildRepository, never()).findByNumber(anyInt());
+    }
+
     @Test
     public void shouldFindModule() throws Exception {
-        buildOptional = of(build);
         moduleOptional = of(module);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
         assertEquals(moduleOptional, service.findByBuildNumberAndName(1, "module"));
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
+        verify(buildRepository, never()).findByNumber(anyInt());
     }
 
     @Test
     public void shouldNotFindModuleWhenTheBuildDoesNotExist() throws Exception {
         buildOptional = empty();
+        moduleOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
         try {
             service.findByBuildNumberAndName(1, "module");
             fail();
@@ -103,9 +157,13 @@ public class ModuleServiceTest {
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
         service.register(1, module);
         verify(module).setState(isA(State.class));
-        verify(module).setBuild(eq(build));
+        final ArgumentCaptor<Build> reference = ArgumentCaptor.forClass(Build.class);
+        verify(module).setBuild(reference.capture());
+        assertEquals(build.getId(), reference.getValue().getId());
+        verify(module).setBuildNumber(eq(1));
         verify(buildRepository).findByNumber(eq(1));
         verify(moduleRepository).save(module);
+        verify(changeBus).publish(isA(BuildChange.class));
     }
 
     @Test
@@ -137,27 +195,30 @@ public class ModuleServiceTest {
 
     @Test
     public void shouldUpdateModule() throws Exception {
-        buildOptional = of(build);
-        moduleOptional = of(module);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(build, "module")).thenReturn(moduleOptional);
-        when(module.getState()).thenReturn(state);
-        assertNull(state.getStopDate());
-        assertFalse(state.isSuccess());
+        when(writeResult.getN()).thenReturn(1);
         final State updatedState = new State();
         updatedState.setSuccess(true);
-        service.update(1, "module", updatedState);
-        verify(state).setStopDate(isA(Date.class));
-        verify(state).setSuccess(isA(Boolean.class));
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
-        verify(moduleRepository).save(module);
+        assertTrue(service.update(1, "module", updatedState));
+        verify(operations).updateFirst(isA(Query.class), isA(Update.class), eq(Module.class));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(moduleRepository, never()).save(any(Module.class));
+        verify(changeBus).publish(isA(BuildChange.class));
+    }
+
+    @Test
+    public void shouldNotUpdateModuleWhenItHasAlreadyBeenFinished() throws Exception {
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(of(module));
+        assertFalse(service.update(1, "module", new State()));
+        verify(operations).updateFirst(isA(Query.class), isA(Update.class), eq(Module.class));
+        verify(moduleRepository, never()).save(any(Module.class));
     }
 
     @Test
     public void shouldNotUpdateModuleWhenTheBuildDoesNotExist() throws Exception {
         buildOptional = empty();
+        moduleOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
         try {
             service.update(1, "module", new State());
             fail();
@@ -172,7 +233,7 @@ public class ModuleServiceTest {
         buildOptional = of(build);
         moduleOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
         try {
             service.update(1, "module", new State());
             fail();
@@ -184,9 +245,36 @@ public class ModuleServiceTest {
 
     @Test
     public void shouldFindBuilds() throws Exception {
-        when(moduleRepository.findByName(eq("module"))).thenReturn(new ArrayList<Module>());
-        assertEquals(0, service.findBuildsByModuleName("module").size());
-        verify(moduleRepository).findByName(eq("module"));
+        when(operations.getCollectionName(Module.class)).thenReturn("modules");
+        when(operations.getCollectionName(Build.class)).thenReturn("builds");
+        when(operations.getCollection(anyString())).thenReturn(collection);
+        when(collection.distinct(eq("buildNumber"), any(DBObject.class))).thenReturn(singletonList(1));
+        when(collection.find(any(DBObject.class), any(DBObject.class))).thenReturn(cursor);
+
+        assertEquals(0, service.findBuildsByModuleName("module").count());
+
+        final ArgumentCaptor<DBObject> captor = ArgumentCaptor.forClass(DBObject.class);
+        verify(collection).find(captor.capture(), any(DBObject.class));
+        assertEquals(new BasicDBObject("$in", singletonList(1)), captor.getValue().get("number"));
+        verify(cursor).sort(eq(new BasicDBObject("number", 1)));
+        verify(cursor).close();
+        verify(moduleRepository, never()).findByName(anyString());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldQueueModuleRegistrationWhenWriteBehindIsEnabled() throws Exception {
+        when(writeBehindQueue.offer(eq(1), isA(Event.class))).thenReturn(true);
+        service.register(1, module);
+        verify(writeBehindQueue).offer(eq(1), isA(Event.class));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(moduleRepository, never()).save(any(Module.class));
+    }
+
+    @Test
+    public void shouldQueueModuleUpdateWhenWriteBehindIsEnabled() throws Exception {
+        when(writeBehindQueue.offer(eq(1), isA(Event.class))).thenReturn(true);
+        assertTrue(service.update(1, "module", state));
+        verify(writeBehindQueue).offer(eq(1), isA(Event.class));
+        verify(operations, never()).updateFirst(any(Query.class), any(Update.class), any(Class.class));
+    }
+}
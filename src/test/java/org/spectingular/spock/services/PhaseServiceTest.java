@@ -1,28 +1,51 @@
 package org.spectingular.spock.services;
 
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
+import org.bson.types.ObjectId;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.spectingular.spock.domain.Build;
 import org.spectingular.spock.domain.Module;
 import org.spectingular.spock.domain.Phase;
 import org.spectingular.spock.domain.State;
+import org.spectingular.spock.dto.Event;
+import org.spectingular.spock.dto.PhaseDto;
+import org.spectingular.spock.dto.RunState;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static java.util.Optional.empty;
 import static java.util.Optional.of;
+import static java.util.stream.Collectors.toList;
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
 
 /** Test class for {@link org.spectingular.spock.services.PhaseService}. */
 @RunWith(MockitoJUnitRunner.class)
@@ -37,6 +60,22 @@ public class PhaseServiceTest {
     @Mock
     private ModuleRepository moduleRepository;
     @Mock
+    private MongoOperations operations;
+    @Mock
+    private ChangeBus changeBus;
+    @Mock
+    private ResponseCache responseCache;
+    @Spy
+    private HierarchyCache hierarchyCache = new HierarchyCache();
+    @Mock
+    private WriteResult writeResult;
+    @Mock
+    private DBCollection collection;
+    @Mock
+    private DBCursor cursor;
+    @Mock
+    private WriteBehindQueue writeBehindQueue;
+    @Mock
     private Object result;
     private Optional<Build> buildOptional;
     private Optional<Phase> phaseOptional;
@@ -53,16 +92,22 @@ public class PhaseServiceTest {
     @Before
     public void setUp() {
         initMocks(this);
+        when(build.getId()).thenReturn(new ObjectId());
+        when(module.getId()).thenReturn(new ObjectId());
+        when(operations.updateFirst(any(Query.class), any(Update.class), any(Class.class))).thenReturn(writeResult);
+        when(operations.getCollectionName(Phase.class)).thenReturn("phases");
+        when(operations.getCollection(eq("phases"))).thenReturn(collection);
+        when(collection.find(any(DBObject.class), any(DBObject.class))).thenReturn(cursor);
     }
 
     @Test
     public void shouldFindPhasesForBuild() throws Exception {
         buildOptional = of(build);
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(phaseRepository.findByBuild(eq(build))).thenReturn(new ArrayList<Phase>());
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNull(eq(1))).thenReturn(new ArrayList<Phase>());
         assertEquals(0, service.findByBuildNumber(1).size());
+        verify(phaseRepository).findByBuildNumberAndModuleNameIsNull(eq(1));
         verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuild(eq(build));
     }
 
     @Test
@@ -80,19 +125,19 @@ public class PhaseServiceTest {
 
     @Test
     public void shouldFindPhaseForBuild() throws Exception {
-        buildOptional = of(build);
         phaseOptional = of(phase);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(eq(build), eq("phase"))).thenReturn(phaseOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"))).thenReturn(phaseOptional);
         assertEquals(phaseOptional, service.findByBuildNumberAndName(1, "phase"));
-        verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuildAndName(eq(build), eq("phase"));
+        verify(phaseRepository).findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"));
+        verify(buildRepository, never()).findByNumber(anyInt());
     }
 
     @Test
     public void shouldNotFindPhaseForBuildWhenTheBuildDoesNotExist() throws Exception {
         buildOptional = empty();
+        phaseOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"))).thenReturn(phaseOptional);
         try {
             service.findByBuildNumberAndName(1, "phase");
             fail();
@@ -109,7 +154,10 @@ public class PhaseServiceTest {
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
         service.register(1, phase);
         verify(phase).setState(isA(State.class));
-        verify(phase).setBuild(eq(build));
+        final ArgumentCaptor<Build> reference = ArgumentCaptor.forClass(Build.class);
+        verify(phase).setBuild(reference.capture());
+        assertEquals(build.getId(), reference.getValue().getId());
+        verify(phase).setBuildNumber(eq(1));
         verify(buildRepository).findByNumber(eq(1));
         verify(phaseRepository).save(phase);
     }
@@ -143,27 +191,29 @@ public class PhaseServiceTest {
 
     @Test
     public void shouldUpdatePhaseForBuild() throws Exception {
-        buildOptional = of(build);
-        phaseOptional = of(phase);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(build, "phase")).thenReturn(phaseOptional);
-        when(phase.getState()).thenReturn(state);
-        assertNull(state.getStopDate());
-        assertFalse(state.isSuccess());
+        when(writeResult.getN()).thenReturn(1);
         final State updatedState = new State();
         updatedState.setSuccess(true);
-        service.update(1, "phase", updatedState);
-        verify(state).setStopDate(isA(Date.class));
-        verify(state).setSuccess(isA(Boolean.class));
-        verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuildAndName(eq(build), eq("phase"));
-        verify(phaseRepository).save(phase);
+        assertTrue(service.update(1, "phase", updatedState));
+        verify(operations).updateFirst(isA(Query.class), isA(Update.class), eq(Phase.class));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(phaseRepository, never()).save(any(Phase.class));
+    }
+
+    @Test
+    public void shouldNotUpdatePhaseForBuildWhenItHasAlreadyBeenFinished() throws Exception {
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"))).thenReturn(of(phase));
+        assertFalse(service.update(1, "phase", new State()));
+        verify(operations).updateFirst(isA(Query.class), isA(Update.class), eq(Phase.class));
+        verify(phaseRepository, never()).save(any(Phase.class));
     }
 
     @Test
     public void shouldNotUpdatePhaseForBuildWhenTheBuildDoesNotExist() throws Exception {
         buildOptional = empty();
+        phaseOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"))).thenReturn(phaseOptional);
         try {
             service.update(1, "phase", new State());
             fail();
@@ -178,7 +228,7 @@ public class PhaseServiceTest {
         buildOptional = of(build);
         phaseOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(eq(build), eq("phase"))).thenReturn(phaseOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"))).thenReturn(phaseOptional);
         try {
             service.update(1, "phase", new State());
             fail();
@@ -190,21 +240,21 @@ public class PhaseServiceTest {
 
     @Test
     public void shouldFindPhasesForModule() throws Exception {
-        buildOptional = of(build);
         moduleOptional = of(module);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
-        when(phaseRepository.findByModule(eq(module))).thenReturn(new ArrayList<Phase>());
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
+        when(phaseRepository.findByBuildNumberAndModuleName(eq(1), eq("module"))).thenReturn(new ArrayList<Phase>());
         assertEquals(0, service.findByBuildNumberAndModuleName(1, "module").size());
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
-        verify(phaseRepository).findByModule(eq(module));
+        verify(phaseRepository).findByBuildNumberAndModuleName(eq(1), eq("module"));
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
+        verify(buildRepository, never()).findByNumber(anyInt());
     }
 
     @Test
     public void shouldNotFindPhasesForModuleWhenTheBuildDoesNotExist() throws Exception {
         buildOptional = empty();
+        moduleOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
         try {
             service.findByBuildNumberAndModuleName(1, "module");
             fail();
@@ -216,22 +266,21 @@ public class PhaseServiceTest {
 
     @Test
     public void shouldFindPhaseForModule() throws Exception {
-        buildOptional = of(build);
-        moduleOptional = of(module);
         phaseOptional = of(phase);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(eq(module), eq("phase"))).thenReturn(phaseOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(phaseOptional);
         assertEquals(phaseOptional, service.findByBuildNumberAndModuleNameAndName(1, "module", "phase"));
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
+        verify(phaseRepository).findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"));
+        verify(moduleRepository, never()).findByBuildNumberAndName(anyInt(), anyString());
+        verify(buildRepository, never()).findByNumber(anyInt());
     }
 
     @Test
     public void shouldNotFindPhaseForModuleWhenTheBuildDoesNotExist() throws Exception {
         buildOptional = empty();
+        moduleOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(empty());
         try {
             service.findByBuildNumberAndModuleNameAndName(1, "module", "phase");
             fail();
@@ -246,7 +295,8 @@ public class PhaseServiceTest {
         buildOptional = of(build);
         moduleOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(empty());
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
         try {
             service.findByBuildNumberAndModuleNameAndName(1, "module", "phase");
             fail();
@@ -254,7 +304,7 @@ public class PhaseServiceTest {
             assertEquals("Module with name [module] for build with number [1] cannot be found", e.getMessage());
         }
         verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
     }
 
     @Test
@@ -262,19 +312,37 @@ public class PhaseServiceTest {
         buildOptional = of(build);
         moduleOptional = of(module);
         phaseOptional = of(phase);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
         service.register(1, "module", phase);
         verify(phase).setState(isA(State.class));
-        verify(phase).setModule(eq(module));
-        verify(buildRepository).findByNumber(eq(1));
+        final ArgumentCaptor<Module> reference = ArgumentCaptor.forClass(Module.class);
+        verify(phase).setModule(reference.capture());
+        assertEquals(module.getId(), reference.getValue().getId());
+        verify(phase).setBuildNumber(eq(1));
+        verify(phase).setModuleName(eq("module"));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(phaseRepository).save(phase);
+    }
+
+    @Test
+    public void shouldRegisterPhaseForModuleWithoutLookingUpTheModuleWhenItsIdIsCached() throws Exception {
+        final ObjectId id = new ObjectId();
+        setField(hierarchyCache, "builds", 8);
+        hierarchyCache.put(1, "module", null, null, id);
+        service.register(1, "module", phase);
+        final ArgumentCaptor<Module> reference = ArgumentCaptor.forClass(Module.class);
+        verify(phase).setModule(reference.capture());
+        assertEquals(id, reference.getValue().getId());
+        verify(moduleRepository, never()).findByBuildNumberAndName(anyInt(), anyString());
         verify(phaseRepository).save(phase);
     }
 
     @Test
     public void shouldNotRegisterPhaseForModuleWhenTheBuildDoesNotExist() throws Exception {
         buildOptional = empty();
+        moduleOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
         try {
             service.register(1, "module", phase);
             fail();
@@ -289,7 +357,7 @@ public class PhaseServiceTest {
         buildOptional = of(build);
         moduleOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
         try {
             service.register(1, "module", phase);
             fail();
@@ -297,7 +365,7 @@ public class PhaseServiceTest {
             assertEquals("Module with name [module] for build with number [1] cannot be found", e.getMessage());
         }
         verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
     }
 
     @Test
@@ -305,45 +373,43 @@ public class PhaseServiceTest {
         buildOptional = of(build);
         moduleOptional = of(module);
         phaseOptional = of(phase);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
         doThrow(DuplicateKeyException.class).when(phaseRepository).save(eq(phase));
         try {
             service.register(1, "module", phase);
             fail();
         } catch (DuplicateKeyException e) {
         }
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
         verify(phaseRepository).save(eq(phase));
     }
 
     @Test
     public void shouldUpdatePhaseForModule() throws Exception {
-        buildOptional = of(build);
-        moduleOptional = of(module);
-        phaseOptional = of(phase);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(module, "phase")).thenReturn(phaseOptional);
-        when(phase.getState()).thenReturn(state);
-        assertNull(state.getStopDate());
-        assertFalse(state.isSuccess());
+        when(writeResult.getN()).thenReturn(1);
         final State updatedState = new State();
         updatedState.setSuccess(true);
-        service.update(1, "module", "phase", updatedState);
-        verify(state).setStopDate(isA(Date.class));
-        verify(state).setSuccess(isA(Boolean.class));
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
-        verify(phaseRepository).save(phase);
+        assertTrue(service.update(1, "module", "phase", updatedState));
+        verify(operations).updateFirst(isA(Query.class), isA(Update.class), eq(Phase.class));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(phaseRepository, never()).save(any(Phase.class));
+    }
+
+    @Test
+    public void shouldNotUpdatePhaseForModuleWhenItHasAlreadyBeenFinished() throws Exception {
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(of(phase));
+        assertFalse(service.update(1, "module", "phase", new State()));
+        verify(operations).updateFirst(isA(Query.class), isA(Update.class), eq(Phase.class));
+        verify(phaseRepository, never()).save(any(Phase.class));
     }
 
     @Test
     public void shouldNotUpdatePhaseForModuleWhenTheBuildDoesNotExist() throws Exception {
         buildOptional = empty();
+        moduleOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(empty());
         try {
             service.update(1, "module", "phase", new State());
             fail();
@@ -358,7 +424,8 @@ public class PhaseServiceTest {
         buildOptional = of(build);
         moduleOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(empty());
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
         try {
             service.update(1, "module", "phase", new State());
             fail();
@@ -366,24 +433,99 @@ public class PhaseServiceTest {
             assertEquals("Module with name [module] for build with number [1] cannot be found", e.getMessage());
         }
         verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
     }
 
     @Test
     public void shouldNotUpdatePhaseForModuleWhenThePhaseDoesNotExists() throws Exception {
-        buildOptional = of(build);
         moduleOptional = of(module);
         phaseOptional = empty();
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(module, "phase")).thenReturn(phaseOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(1, "module", "phase")).thenReturn(phaseOptional);
         try {
             service.update(1, "module", "phase", new State());
             fail();
         } catch (IllegalArgumentException e) {
             assertEquals("Phase with name [phase] for module with name [module] and build with number [1] cannot be found", e.getMessage());
         }
-        verify(buildRepository).findByNumber(eq(1));
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
+    }
+
+    @Test
+    public void shouldQueuePhaseRegistrationWhenWriteBehindIsEnabled() throws Exception {
+        when(writeBehindQueue.offer(eq(1), isA(Event.class))).thenReturn(true);
+        service.register(1, "module", phase);
+        verify(writeBehindQueue).offer(eq(1), isA(Event.class));
+        verify(moduleRepository, never()).findByBuildNumberAndName(anyInt(), anyString());
+        verify(phaseRepository, never()).save(any(Phase.class));
+    }
+
+    @Test
+    public void shouldQueuePhaseUpdateWhenWriteBehindIsEnabled() throws Exception {
+        when(writeBehindQueue.offer(eq(1), isA(Event.class))).thenReturn(true);
+        assertTrue(service.update(1, "module", "phase", state));
+        verify(writeBehindQueue).offer(eq(1), isA(Event.class));
+        verify(operations, never()).updateFirst(any(Query.class), any(Update.class), any(Class.class));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldProjectPhasesOfTheBuildIntoDtos() throws Exception {
+        when(cursor.hasNext()).thenReturn(true, false);
+        when(cursor.next()).thenReturn(new BasicDBObject("name", "phase").append("state", new BasicDBObject("startDate", new Date())));
+        final List<PhaseDto> phases = service.projectByBuildNumber(1);
+        assertEquals(1, phases.size());
+        assertEquals("phase", phases.get(0).getName());
+        assertEquals(RunState.IN_PROGRESS, phases.get(0).getState());
+        verify(collection).find(eq(new BasicDBObject("buildNumber", 1).append("moduleName", null)), eq(new BasicDBObject("name", 1).append("state", 1)));
+        verify(cursor).close();
+        verify(buildRepository, never()).findByNumber(anyInt());
+    }
+
+    @Test
+    public void shouldProjectPhasesOfAModuleIntoDtos() throws Exception {
+        when(cursor.hasNext()).thenReturn(true, false);
+        when(cursor.next()).thenReturn(new BasicDBObject("name", "phase").append("state", new BasicDBObject("startDate", new Date()).append("stopDate", new Date())));
+        final List<PhaseDto> phases = service.projectByBuildNumberAndModuleName(1, "module");
+        assertEquals(1, phases.size());
+        assertEquals("phase", phases.get(0).getName());
+        assertEquals(RunState.FINISHED_WITH_FAILURES, phases.get(0).getState());
+        verify(collection).find(eq(new BasicDBObject("buildNumber", 1).append("moduleName", "module")), eq(new BasicDBObject("name", 1).append("state", 1)));
+        verify(cursor).close();
+        verify(moduleRepository, never()).findByBuildNumberAndName(anyInt(), anyString());
+    }
+
+    @Test
+    public void shouldNotProjectPhasesOfAModuleWhenTheModuleDoesNotExist() throws Exception {
+        when(cursor.hasNext()).thenReturn(false);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(Optional.<Module>empty());
+        when(buildRepository.findByNumber(eq(1))).thenReturn(of(build));
+        try {
+            service.projectByBuildNumberAndModuleName(1, "module");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Module with name [module] for build with number [1] cannot be found", e.getMessage());
+        }
+        verify(cursor).close();
+    }
+
+    @Test
+    public void shouldProjectPhasesOfModulesIntoDtosByModuleName() throws Exception {
+        when(cursor.hasNext()).thenReturn(true, true, true, false);
+        when(cursor.next()).thenReturn(new BasicDBObject("name", "compile").append("moduleName", "x").append("state", new BasicDBObject()),
+                new BasicDBObject("name", "test").append("moduleName", "x").append("state", new BasicDBObject()),
+                new BasicDBObject("name", "compile").append("moduleName", "y").append("state", new BasicDBObject()));
+        final Map<List<Object>, List<PhaseDto>> phases = service.projectByBuildNumberAndModuleNames(1, asList("x", "y"));
+        assertEquals(2, phases.size());
+        assertEquals(asList("compile", "test"), phases.get(singletonList("x")).stream().map(PhaseDto::getName).collect(toList()));
+        assertEquals(singletonList("compile"), phases.get(singletonList("y")).stream().map(PhaseDto::getName).collect(toList()));
+        verify(collection).find(any(DBObject.class), eq(new BasicDBObject("name", 1).append("state", 1).append("moduleName", 1)));
+        verify(cursor).close();
+        verify(moduleRepository, never()).findByBuildNumberAndName(anyInt(), anyString());
+    }
+
+    @Test
+    public void shouldNotQueryPhasesWithoutModuleNames() throws Exception {
+        assertTrue(service.projectByBuildNumberAndModuleNames(1, new ArrayList<>()).isEmpty());
+        verify(collection, never()).find(any(DBObject.class), any(DBObject.class));
+    }
+}
@@ -0,0 +1,182 @@
+package org.spectingular.spock.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.spectingular.spock.services.ReportExecutor.Fanout;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/** Test class for {@link org.spectingular.spock.services.ReportExecutor}. */
+@RunWith(MockitoJUnitRunner.class)
+public class ReportExecutorTest {
+    @InjectMocks
+    private ReportExecutor executor; // class under test
+
+    @Mock
+    private CounterService counterService;
+    @Mock
+    private GaugeService gaugeService;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        setField(executor, "threads", 4);
+        setField(executor, "capacity", 10);
+    }
+
+    @After
+    public void tearDown() {
+        executor.stop();
+    }
+
+    @Test
+    public void shouldRunTheQueriesWhenTheirResultIsTakenInSequentialMode() throws Exception {
+        executor.start();
+        final AtomicInteger runs = new AtomicInteger();
+        assertEquals(1, (int) executor.time("tree", () -> {
+            final Supplier<Integer> result = executor.fanout().fork(runs::incrementAndGet);
+            assertEquals(0, runs.get());
+            return result.get();
+        }));
+    }
+
+    @Test
+    public void shouldRunTheQueriesOfAReportConcurrently() throws Exception {
+        setField(executor, "parallel", true);
+        executor.start();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger max = new AtomicInteger();
+        final List<Supplier<String>> results = new ArrayList<>();
+        new Thread(() -> {
+            try {
+                while (running.get() < 3) {
+                    Thread.sleep(10);
+                }
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            release.countDown();
+        }).start();
+        executor.time("tree", () -> {
+            final Fanout fanout = executor.fanout();
+            for (int i = 0; i < 3; i++) {
+                results.add(fanout.fork(() -> {
+                    max.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        assertTrue(release.await(5, SECONDS));
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    running.decrementAndGet();
+                    return Thread.currentThread().getName();
+                }));
+            }
+            results.forEach(result -> assertTrue(result.get().startsWith("report-")));
+            return null;
+        });
+        assertEquals(3, max.get());
+    }
+
+    @Test
+    public void shouldRunTheQueriesOfAReportOnAWorkerInSequence() throws Exception {
+        setField(executor, "parallel", true);
+        executor.start();
+        assertTrue(executor.time("tree", () -> executor.fanout().fork(() -> {
+            final String worker = Thread.currentThread().getName();
+            return executor.time("modules", () -> executor.fanout().fork(() -> Thread.currentThread().getName()).get()).equals(worker);
+        }).get()));
+    }
+
+    @Test
+    public void shouldPassTheFailureOfAQueryOn() throws Exception {
+        setField(executor, "parallel", true);
+        executor.start();
+        try {
+            executor.time("tree", () -> executor.fanout().fork(() -> {
+                throw new IllegalArgumentException("Build with number [1] cannot be found");
+            }).get());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Build with number [1] cannot be found", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldRecordTheLatencyPerMode() throws Exception {
+        executor.start();
+        assertEquals("tree", executor.time("tree", () -> executor.fanout().fork(() -> "tree").get()));
+        verify(gaugeService).submit(eq("spock.report.tree.sequential.latency"), anyDouble());
+        verify(counterService).increment("spock.report.tree.sequential.latency.le-5");
+        verify(counterService).increment("spock.report.tree.sequential.latency.le-inf");
+    }
+
+    @Test
+    public void shouldRecordTheLatencyOfAReportWhoseQueriesRanConcurrentlyAsParallel() throws Exception {
+        setField(executor, "parallel", true);
+        executor.start();
+        assertEquals("tree", executor.time("tree", () -> executor.fanout().fork(() -> "tree").get()));
+        verify(gaugeService).submit(eq("spock.report.tree.parallel.latency"), anyDouble());
+    }
+
+    @Test
+    public void shouldRecordTheLatencyOfAReportAssembledOnAWorkerAsSequential() throws Exception {
+        setField(executor, "parallel", true);
+        executor.start();
+        assertEquals("modules", executor.time("tree", () -> executor.fanout().fork(() -> executor.time("modules", () -> executor.fanout().fork(() -> "modules").get())).get()));
+        verify(gaugeService).submit(eq("spock.report.modules.sequential.latency"), anyDouble());
+        verify(gaugeService, never()).submit(eq("spock.report.modules.parallel.latency"), anyDouble());
+    }
+
+    @Test
+    public void shouldOnlyStartAFanoutWhileAReportIsTimed() throws Exception {
+        executor.start();
+        try {
+            executor.fanout();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Fanout can only be started while a report is timed", e.getMessage());
+        }
+        executor.time("tree", () -> executor.fanout().fork(() -> "tree").get());
+        try {
+            executor.fanout();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Fanout can only be started while a report is timed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldRecordTheLatencyInEveryBucketUpToIt() throws Exception {
+        assertEquals(asList("le-5", "le-10", "le-25", "le-50", "le-100", "le-250", "le-500", "le-1000", "le-2500", "le-inf"), ReportExecutor.buckets(0));
+        assertEquals("le-5", ReportExecutor.buckets(5).get(0));
+        assertEquals("le-10", ReportExecutor.buckets(6).get(0));
+        assertEquals(asList("le-2500", "le-inf"), ReportExecutor.buckets(2500));
+        assertEquals(singletonList("le-inf"), ReportExecutor.buckets(2501));
+    }
+}
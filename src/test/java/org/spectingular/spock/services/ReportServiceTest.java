@@ -1,7 +1,7 @@
 package org.spectingular.spock.services;
 
-import com.mongodb.DBObject;
 import junit.framework.TestCase;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -10,17 +10,37 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.spectingular.spock.domain.*;
 import org.spectingular.spock.dto.BuildDto;
+import org.spectingular.spock.dto.ChangesDto;
+import org.spectingular.spock.dto.Depth;
 import org.spectingular.spock.dto.ModuleDto;
 import org.spectingular.spock.dto.PhaseDto;
 import org.spectingular.spock.dto.TaskDto;
+import org.spectingular.spock.dto.TreeView;
+import org.springframework.boot.actuate.metrics.CounterService;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import static java.util.Arrays.asList;
 import static java.util.Optional.of;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.stream.Collectors.toList;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -40,6 +60,16 @@ public class ReportServiceTest extends TestCase {
     private TaskService taskService;
     @Mock
     private ResultService resultService;
+    @Mock
+    private BuildTreeService buildTreeService;
+    @Mock
+    private SnapshotService snapshotService;
+    @Mock
+    private CounterService counterService;
+    @Mock
+    private ReportExecutor reportExecutor;
+
+    private final ExecutorService executor = newFixedThreadPool(2);
 
     @Mock
     private Build build;
@@ -56,13 +86,13 @@ public class ReportServiceTest extends TestCase {
     @Mock
     private ModuleDto moduleDto;
     private Optional<Module> moduleOptional;
-    private List<Module> modules;
+    private List<ModuleDto> moduleDtos;
 
     @Mock
     private Phase phase;
     @Mock
     private PhaseDto phaseDto;
-    private List<Phase> phases;
+    private List<PhaseDto> phaseDtos;
     private Optional<Phase> phaseOptional;
 
     @Mock
@@ -70,16 +100,17 @@ public class ReportServiceTest extends TestCase {
     @Mock
     private TaskDto taskDto;
     private List<Task> tasks;
+    private List<TaskDto> taskDtos;
     private Optional<Task> taskOptional;
 
     @Mock
     private Result result;
-    @Mock
-    private DBObject resultData;
     private Optional<Result> resultOptional;
 
     @Before
     public void setUp() throws Exception {
+        when(reportExecutor.fanout()).thenReturn(new ReportExecutor.Fanout(null));
+        when(reportExecutor.time(anyString(), any(Supplier.class))).thenAnswer(invocation -> ((Supplier) invocation.getArguments()[1]).get());
         when(build.getState()).thenReturn(state);
         when(module.getState()).thenReturn(state);
         when(phase.getState()).thenReturn(state);
@@ -91,117 +122,298 @@ public class ReportServiceTest extends TestCase {
         when(module.getName()).thenReturn("module");
         when(phase.getName()).thenReturn("phase");
         builds = asList(build);
-        modules = asList(module);
-        phases = asList(phase);
         tasks = asList(task);
+        moduleDtos = asList(new ModuleDto("module", state));
+        phaseDtos = asList(new PhaseDto("phase", state));
+        taskDtos = asList(new TaskDto("task", state));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
     }
 
     @Test
-    public void shouldFindAllBuilds() throws Exception {
-        when(buildService.findAll()).thenReturn(builds);
+    public void shouldStreamBuilds() throws Exception {
+        when(buildService.stream(10, 2, null, null, null)).thenReturn(builds.stream());
 
-        final List<BuildDto> b = service.findBuilds();
+        final List<BuildDto> b = service.streamBuilds(10, 2, null, null, null).collect(toList());
 
         assertEquals(1, b.size());
-        verify(buildService).findAll();
+        verify(buildService).stream(10, 2, null, null, null);
+    }
+
+    @Test
+    public void shouldFindLastBuildNumber() throws Exception {
+        when(buildService.findLast(10, 2, null, null, null)).thenReturn(of(8));
+        assertEquals(of(8), service.findLastBuildNumber(10, 2, null, null, null));
+    }
+
+    @Test
+    public void shouldFindBuildVersion() throws Exception {
+        when(buildService.findVersion(1)).thenReturn(of(3L));
+        assertEquals(of(3L), service.findBuildVersion(1));
+    }
+
+    @Test
+    public void shouldFindChanges() throws Exception {
+        final List<Change> changes = asList(new Change(1, 4, ChangeType.REGISTER, "x", null, null, null), new Change(1, 6, ChangeType.FINISH, "x", null, null, true));
+        when(buildService.findChanges(1, 3, 100)).thenReturn(changes);
+        final ChangesDto dto = service.findChanges(1, 3, 100);
+        assertEquals(6, dto.getVersion());
+        assertEquals(changes, dto.getChanges());
+    }
+
+    @Test
+    public void shouldKeepTheVersionWhenNothingHasChanged() throws Exception {
+        when(buildService.findChanges(1, 3, 100)).thenReturn(new ArrayList<>());
+        assertEquals(3, service.findChanges(1, 3, 100).getVersion());
     }
 
     @Test
     public void shouldFindBuild() throws Exception {
-        buildOptional = of(build);
-        when(buildService.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleService.findByBuildNumber(eq(1))).thenReturn(modules);
-        when(phaseService.findByBuildNumberAndModuleName(eq(1), eq("module"))).thenReturn(phases);
-        when(taskService.findByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"))).thenReturn(tasks);
-        when(phaseService.findByBuildNumber(eq(1))).thenReturn(phases);
-        when(taskService.findByBuildNumberAndPhaseName(eq(1), eq("phase"))).thenReturn(tasks);
+        when(buildTreeService.assemble(eq(1), eq(TreeView.FULL))).thenReturn(of(buildDto));
 
         final Optional<BuildDto> op = service.findBuild(1);
 
         assertTrue(op.isPresent());
-        verify(buildService).findByNumber(eq(1));
-        verify(moduleService).findByBuildNumber(eq(1));
-        verify(phaseService).findByBuildNumberAndModuleName(eq(1), eq("module"));
-        verify(taskService).findByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"));
-        verify(phaseService).findByBuildNumber(eq(1));
-        verify(taskService).findByBuildNumberAndPhaseName(eq(1), eq("phase"));
+        assertEquals(buildDto, op.get());
+        verify(buildTreeService).assemble(eq(1), eq(TreeView.FULL));
+    }
+
+    @Test
+    public void shouldAssembleTheBuildOfEachVersion() throws Exception {
+        when(buildTreeService.assemble(eq(1), eq(TreeView.FULL))).thenReturn(of(buildDto));
+
+        assertEquals(of(buildDto), service.findBuild(1, 3L, TreeView.FULL));
+        assertEquals(of(buildDto), service.findBuild(1, 4L, TreeView.FULL));
+
+        verify(buildTreeService, times(2)).assemble(eq(1), eq(TreeView.FULL));
+    }
+
+    @Test
+    public void shouldFindBuildSnapshot() throws Exception {
+        final BuildSnapshot snapshot = new BuildSnapshot();
+        when(snapshotService.find(1, 3L)).thenReturn(of(snapshot));
+        assertEquals(of(snapshot), service.findBuildSnapshot(1, 3L));
+    }
+
+    @Test
+    public void shouldShareTheComputationOfConcurrentCallsForTheSameKey() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger computations = new AtomicInteger();
+        final CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> service.coalesce(asList("build", 1), () -> {
+            computations.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return "tree";
+        }), executor);
+        started.await();
+        final CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> service.coalesce(asList("build", 1), () -> {
+            computations.incrementAndGet();
+            return "other";
+        }, executor);
+        verify(counterService, timeout(1000)).increment("spock.report.coalesced");
+        release.countDown();
+
+        assertEquals("tree", first.get());
+        assertEquals("tree", second.get());
+        assertEquals(1, computations.get());
+    }
+
+    @Test
+    public void shouldPassTheFailureOfASharedComputationOn() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> service.coalesce(asList("build", 1), () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            throw new IllegalArgumentException("Build with number [1] cannot be found");
+        }), executor);
+        started.await();
+        final CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return service.coalesce(asList("build", 1), () -> "other");
+            } catch (IllegalArgumentException e) {
+                return e.getMessage();
+            }
+        }, executor);
+        verify(counterService, timeout(1000)).increment("spock.report.coalesced");
+        release.countDown();
+
+        assertEquals("Build with number [1] cannot be found", second.get());
+        assertTrue(first.handle((r, e) -> e != null).get());
+    }
+
+    @Test
+    public void shouldComputeAgainOnceTheComputationIsDone() throws Exception {
+        final AtomicInteger computations = new AtomicInteger();
+        assertEquals(1, (int) service.coalesce(asList("build", 1), computations::incrementAndGet));
+        assertEquals(2, (int) service.coalesce(asList("build", 1), computations::incrementAndGet));
+        verify(counterService, never()).increment(anyString());
+    }
+
+    @Test
+    public void shouldIndicateWhetherBuildIsFinished() throws Exception {
+        final State state = new State();
+        final Build build = new Build();
+        build.setState(state);
+        when(buildService.findByNumber(1)).thenReturn(of(build));
+        when(buildService.findByNumber(2)).thenReturn(Optional.<Build>empty());
+        assertFalse(service.isBuildFinished(1));
+        state.setStopDate(new Date());
+        assertTrue(service.isBuildFinished(1));
+        assertFalse(service.isBuildFinished(2));
     }
 
     @Test
     public void shouldFindModulesByBuildNumber() throws Exception {
-        when(moduleService.findByBuildNumber(eq(1))).thenReturn(modules);
-        when(phaseService.findByBuildNumberAndModuleName(eq(1), eq("module"))).thenReturn(phases);
-        when(taskService.findByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"))).thenReturn(tasks);
+        when(moduleService.projectByBuildNumber(eq(1))).thenReturn(moduleDtos);
+        when(phaseService.projectByBuildNumberAndModuleNames(eq(1), eq(asList("module")))).thenReturn(grouped(phaseDtos, "module"));
+        when(taskService.projectByBuildNumberAndModuleNames(eq(1), eq(asList("module")))).thenReturn(grouped(taskDtos, "module", "phase"));
 
         final List<ModuleDto> m = service.findModulesByBuildNumber(1);
 
         assertEquals(1, m.size());
-        verify(moduleService).findByBuildNumber(eq(1));
-        verify(phaseService).findByBuildNumberAndModuleName(eq(1), eq("module"));
-        verify(taskService).findByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"));
+        assertEquals(taskDtos, m.get(0).getPhases().get(0).getTasks());
+        verify(moduleService).projectByBuildNumber(eq(1));
+        verify(phaseService).projectByBuildNumberAndModuleNames(eq(1), eq(asList("module")));
+        verify(taskService).projectByBuildNumberAndModuleNames(eq(1), eq(asList("module")));
+        verify(phaseService, never()).projectByBuildNumberAndModuleName(anyInt(), anyString());
+        verify(reportExecutor).time(eq("modules"), any(Supplier.class));
     }
 
     @Test
     public void shouldFindModuleByBuildNumberAndName() throws Exception {
         moduleOptional = of(module);
         when(moduleService.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
-        when(phaseService.findByBuildNumberAndModuleName(eq(1), eq("module"))).thenReturn(phases);
-        when(taskService.findByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"))).thenReturn(tasks);
+        when(phaseService.projectByBuildNumberAndModuleName(eq(1), eq("module"))).thenReturn(phaseDtos);
+        when(taskService.projectByBuildNumberAndModuleNames(eq(1), eq(asList("module")))).thenReturn(grouped(taskDtos, "module", "phase"));
 
         final Optional<ModuleDto> op = service.findModuleByBuildNumberAndName(1, "module");
 
         assertTrue(op.isPresent());
+        assertEquals(taskDtos, op.get().getPhases().get(0).getTasks());
         verify(moduleService).findByBuildNumberAndName(eq(1), eq("module"));
-        verify(phaseService).findByBuildNumberAndModuleName(eq(1), eq("module"));
-        verify(taskService).findByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"));
+        verify(phaseService).projectByBuildNumberAndModuleName(eq(1), eq("module"));
+        verify(taskService).projectByBuildNumberAndModuleNames(eq(1), eq(asList("module")));
+        verify(reportExecutor).time(eq("module"), any(Supplier.class));
+    }
+
+    @Test
+    public void shouldFindModuleByBuildNumberAndNameWithoutPhases() throws Exception {
+        moduleOptional = of(module);
+        when(moduleService.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
+
+        final Optional<ModuleDto> op = service.findModuleByBuildNumberAndName(1, "module", TreeView.of(Depth.MODULE, null));
+
+        assertTrue(op.isPresent());
+        assertNull(op.get().getPhases());
+        verify(phaseService, never()).projectByBuildNumberAndModuleName(anyInt(), anyString());
+    }
+
+    @Test
+    public void shouldFindPhaseByBuildNumberAndNameWithoutTasks() throws Exception {
+        phaseOptional = of(phase);
+        when(phaseService.findByBuildNumberAndName(eq(1), eq("phase"))).thenReturn(phaseOptional);
+
+        final Optional<PhaseDto> op = service.findPhaseByBuildNumberAndName(1, "phase", TreeView.of(Depth.PHASE, null));
+
+        assertTrue(op.isPresent());
+        assertNull(op.get().getTasks());
+        verify(taskService, never()).projectByBuildNumberAndPhaseName(anyInt(), anyString());
     }
 
     @Test
     public void shouldFindPhasesByBuildNumber() throws Exception {
-        when(phaseService.findByBuildNumber(eq(1))).thenReturn(phases);
-        when(taskService.findByBuildNumberAndPhaseName(eq(1), eq("phase"))).thenReturn(tasks);
+        when(phaseService.projectByBuildNumber(eq(1))).thenReturn(phaseDtos);
+        when(taskService.projectByBuildNumberAndModuleNameAndPhaseNames(eq(1), eq((String) null), eq(asList("phase")))).thenReturn(grouped(taskDtos, null, "phase"));
 
         final List<PhaseDto> p = service.findPhasesByBuildNumber(1);
 
         assertEquals(1, p.size());
-        verify(phaseService).findByBuildNumber(eq(1));
-        verify(taskService).findByBuildNumberAndPhaseName(eq(1), eq("phase"));
+        assertEquals(taskDtos, p.get(0).getTasks());
+        verify(phaseService).projectByBuildNumber(eq(1));
+        verify(taskService).projectByBuildNumberAndModuleNameAndPhaseNames(eq(1), eq((String) null), eq(asList("phase")));
+        verify(taskService, never()).projectByBuildNumberAndPhaseName(anyInt(), anyString());
+    }
+
+    @Test
+    public void shouldHandOutTheTasksReadForAllPhasesToTheirPhase() throws Exception {
+        final List<PhaseDto> phases = asList(new PhaseDto("phase", state), new PhaseDto("other", state));
+        when(phaseService.projectByBuildNumberAndModuleName(eq(1), eq("module"))).thenReturn(phases);
+        when(taskService.projectByBuildNumberAndModuleNameAndPhaseNames(eq(1), eq("module"), eq(asList("phase", "other")))).thenReturn(grouped(taskDtos, "module", "phase"));
+
+        final List<PhaseDto> p = service.findPhasesByBuildNumberAndModuleName(1, "module");
+
+        assertEquals(taskDtos, p.get(0).getTasks());
+        assertTrue(p.get(1).getTasks().isEmpty());
+        verify(taskService).projectByBuildNumberAndModuleNameAndPhaseNames(eq(1), eq("module"), eq(asList("phase", "other")));
     }
 
     @Test
     public void shouldFindPhaseByBuildNumberAndName() throws Exception {
         phaseOptional = of(phase);
         when(phaseService.findByBuildNumberAndName(eq(1), eq("phase"))).thenReturn(phaseOptional);
-        when(taskService.findByBuildNumberAndPhaseName(eq(1), eq("phase"))).thenReturn(tasks);
+        when(taskService.projectByBuildNumberAndPhaseName(eq(1), eq("phase"))).thenReturn(taskDtos);
 
         final Optional<PhaseDto> op = service.findPhaseByBuildNumberAndName(1, "phase");
 
         assertTrue(op.isPresent());
         verify(phaseService).findByBuildNumberAndName(eq(1), eq("phase"));
-        verify(taskService).findByBuildNumberAndPhaseName(eq(1), eq("phase"));
+        verify(taskService).projectByBuildNumberAndPhaseName(eq(1), eq("phase"));
     }
 
     @Test
     public void shoudFindPhaseByBuildNumberAndModuleNameAndName() throws Exception {
         phaseOptional = of(phase);
         when(phaseService.findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(phaseOptional);
-        when(taskService.findByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"))).thenReturn(tasks);
+        when(taskService.projectByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"))).thenReturn(taskDtos);
 
         final Optional<PhaseDto> op = service.findPhaseByBuildNumberAndModuleNameAndName(1, "module", "phase");
 
         assertTrue(op.isPresent());
         verify(phaseService).findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"));
-        verify(taskService).findByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"));
+        verify(taskService).projectByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"));
     }
 
     @Test
     public void shouldFindTasksByBuildNumberAndPhaseName() throws Exception {
-        when(taskService.findByBuildNumberAndPhaseName(eq(1), eq("phase"))).thenReturn(tasks);
+        when(taskService.projectByBuildNumberAndPhaseName(eq(1), eq("phase"))).thenReturn(taskDtos);
 
         final List<TaskDto> t = service.findTasksByBuildNumberAndPhaseName(1, "phase");
 
         assertEquals(1, t.size());
-        verify(taskService).findByBuildNumberAndPhaseName(eq(1), eq("phase"));
+        verify(taskService).projectByBuildNumberAndPhaseName(eq(1), eq("phase"));
+    }
+
+    @Test
+    public void shouldStreamTasksByBuildNumberAndPhaseName() throws Exception {
+        when(taskService.streamByBuildNumberAndPhaseName(eq(1), eq("phase"))).thenReturn(tasks.stream());
+
+        final List<TaskDto> t = service.streamTasksByBuildNumberAndPhaseName(1, "phase").collect(toList());
+
+        assertEquals(1, t.size());
+        verify(taskService).streamByBuildNumberAndPhaseName(eq(1), eq("phase"));
+    }
+
+    @Test
+    public void shouldStreamTasksByBuildNumberAndModuleNameAndPhaseName() throws Exception {
+        when(taskService.streamByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"))).thenReturn(tasks.stream());
+
+        final List<TaskDto> t = service.streamTasksByBuildNumberAndModuleNameAndPhaseName(1, "module", "phase").collect(toList());
+
+        assertEquals(1, t.size());
+        verify(taskService).streamByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"));
     }
 
     @Test
@@ -217,12 +429,12 @@ public class ReportServiceTest extends TestCase {
 
     @Test
     public void shouldFindTasksByBuildNumberAndModuleNameAndPhaseName() throws Exception {
-        when(taskService.findByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("phase"), eq("task"))).thenReturn(tasks);
+        when(taskService.projectByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("phase"), eq("task"))).thenReturn(taskDtos);
 
         final List<TaskDto> t = service.findTasksByBuildNumberAndModuleNameAndPhaseName(1, "phase", "task");
 
         assertEquals(1, t.size());
-        verify(taskService).findByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("phase"), eq("task"));
+        verify(taskService).projectByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("phase"), eq("task"));
     }
 
     @Test
@@ -240,9 +452,8 @@ public class ReportServiceTest extends TestCase {
     public void shouldFindResultsByBuildNumberAndPhaseNameAndTaskName() throws Exception {
         resultOptional = of(result);
         when(resultService.findByBuildNumberAndPhaseNameAndTaskName(eq(1), eq("phase"), eq("task"))).thenReturn(resultOptional);
-        when(result.getData()).thenReturn(resultData);
 
-        final Optional<String> op = service.findResultByBuildNumberAndPhaseNameAndTaskName(1, "phase", "task");
+        final Optional<Result> op = service.findResultByBuildNumberAndPhaseNameAndTaskName(1, "phase", "task");
 
         assertTrue(op.isPresent());
         verify(resultService).findByBuildNumberAndPhaseNameAndTaskName(eq(1), eq("phase"), eq("task"));
@@ -252,12 +463,16 @@ public class ReportServiceTest extends TestCase {
     public void shouldFindResultsByBuildNumberAndModuleNameAndPhaseNameAndTaskName() throws Exception {
         resultOptional = of(result);
         when(resultService.findByBuildNumberAndModuleNameAndPhaseNameAndTaskName(eq(1), eq("module"), eq("phase"), eq("task"))).thenReturn(resultOptional);
-        when(result.getData()).thenReturn(resultData);
 
-        final Optional<String> op = service.findResultByBuildNumberAndModuleNameAndPhaseNameAndTaskName(1, "module", "phase", "task");
+        final Optional<Result> op = service.findResultByBuildNumberAndModuleNameAndPhaseNameAndTaskName(1, "module", "phase", "task");
 
         assertTrue(op.isPresent());
         verify(resultService).findByBuildNumberAndModuleNameAndPhaseNameAndTaskName(eq(1), eq("module"), eq("phase"), eq("task"));
     }
 
-}
\ No newline at end of file
+    private static <D> Map<List<Object>, List<D>> grouped(final List<D> dtos, final Object... key) {
+        final Map<List<Object>, List<D>> groups = new HashMap<>();
+        groups.put(asList(key), dtos);
+        return groups;
+    }
+}
@@ -0,0 +1,121 @@
+package org.spectingular.spock.services;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.MongoClient;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodProcess;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.IMongodConfig;
+import de.flapdoodle.embed.mongo.config.MongodConfigBuilder;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.spectingular.spock.domain.Task;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+
+import java.util.Date;
+import java.util.Optional;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * Benchmark comparing the lookup of a {@link org.spectingular.spock.domain.Task} on its hierarchy keys by the derived query of the
+ * {@link org.spectingular.spock.services.TaskRepository} with the one of the {@link org.spectingular.spock.services.DriverRepository},
+ * both against an embedded Mongo holding the indexes of the {@link org.spectingular.spock.services.IndexService}.
+ * It lives next to the services, as the Spring Data repositories are package-private.
+ * Run {@link #main(String...)} from the test classpath; the GC profiler reports the allocation per operation (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RepositoryBenchmark {
+    private static final int BUILD_NUMBER = 1234;
+    private static final int MODULES = 10;
+    private static final int PHASES = 10;
+    private static final int TASKS = 10;
+
+    private MongodExecutable executable;
+    private MongodProcess process;
+    private MongoClient client;
+    private TaskRepository taskRepository;
+    private DriverRepository driverRepository;
+    private int lookup;
+
+    @Setup
+    public void setUp() throws Exception {
+        final IMongodConfig config = new MongodConfigBuilder().version(Version.Main.PRODUCTION).build();
+        executable = MongodStarter.getDefaultInstance().prepare(config);
+        process = executable.start();
+        client = new MongoClient(config.net().getServerAddress().getHostName(), config.net().getPort());
+        final MongoTemplate operations = new MongoTemplate(client, "benchmark");
+
+        final IndexService indexService = new IndexService();
+        setField(indexService, "operations", operations);
+        indexService.ensure();
+
+        final DBCollection tasks = operations.getCollection("tasks");
+        for (int module = 0; module < MODULES; module++) {
+            for (int phase = 0; phase < PHASES; phase++) {
+                for (int task = 0; task < TASKS; task++) {
+                    tasks.insert(new BasicDBObject("_id", new ObjectId())
+                            .append("_class", Task.class.getName())
+                            .append("name", "task-" + task)
+                            .append("state", new BasicDBObject("startDate", new Date()).append("stopDate", new Date()).append("success", true))
+                            .append("buildNumber", BUILD_NUMBER)
+                            .append("moduleName", "module-" + module)
+                            .append("phaseName", "phase-" + phase));
+                }
+            }
+        }
+
+        taskRepository = new MongoRepositoryFactory(operations).getRepository(TaskRepository.class);
+        driverRepository = new DriverRepository();
+        setField(driverRepository, "operations", operations);
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        process.stop();
+        executable.stop();
+    }
+
+    @Benchmark
+    public Optional<Task> repository() {
+        final int next = lookup++;
+        return taskRepository.findByBuildNumberAndModuleNameAndPhaseNameAndName(BUILD_NUMBER, "module-" + next % MODULES, "phase-" + next / MODULES % PHASES, "task-" + next / (MODULES * PHASES) % TASKS);
+    }
+
+    @Benchmark
+    public Optional<Task> driver() {
+        final int next = lookup++;
+        return driverRepository.findTask(BUILD_NUMBER, "module-" + next % MODULES, "phase-" + next / MODULES % PHASES, "task-" + next / (MODULES * PHASES) % TASKS);
+    }
+
+    public static void main(String... args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RepositoryBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,132 @@
+package org.spectingular.spock.services;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+
+import java.io.ByteArrayInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.spectingular.spock.domain.Codec.GZIP;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/** Test class for {@link org.spectingular.spock.services.ResponseCache}. */
+@RunWith(MockitoJUnitRunner.class)
+public class ResponseCacheTest {
+    @InjectMocks
+    private ResponseCache cache; // class under test
+
+    @Mock
+    private CounterService counterService;
+    @Mock
+    private GaugeService gaugeService;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        setField(cache, "maxSize", 10L);
+        setField(cache, "maxEntrySize", 4L);
+        setField(cache, "gzip", false);
+    }
+
+    @Test
+    public void shouldGetCachedResponse() throws Exception {
+        assertFalse(cache.get(1, "tree").isPresent());
+        cache.put(1, "tree", 0, "3", new byte[]{1, 2});
+        assertEquals("3", cache.get(1, "tree").get().getTag());
+        assertArrayEquals(new byte[]{1, 2}, cache.get(1, "tree").get().getContent(false));
+        assertFalse(cache.get(2, "tree").isPresent());
+        verify(counterService, times(2)).increment("spock.cache.miss");
+        verify(counterService, times(2)).increment("spock.cache.hit");
+    }
+
+    @Test
+    public void shouldEvictTheLeastRecentlyUsedResponsesWhenTheCacheIsFull() throws Exception {
+        cache.put(1, "tree", 0, null, new byte[4]);
+        cache.put(2, "tree", 0, null, new byte[4]);
+        cache.get(1, "tree");
+        cache.put(3, "tree", 0, null, new byte[4]);
+        assertEquals(8, cache.size());
+        assertTrue(cache.get(1, "tree").isPresent());
+        assertFalse(cache.get(2, "tree").isPresent());
+        assertTrue(cache.get(3, "tree").isPresent());
+        verify(counterService).increment("spock.cache.evicted");
+        verify(gaugeService, atLeastOnce()).submit("spock.cache.size", 8.0);
+    }
+
+    @Test
+    public void shouldNotCacheResponsesThatAreTooLarge() throws Exception {
+        assertFalse(cache.fits(5));
+        assertArrayEquals(new byte[5], cache.put(1, "tree", 0, null, new byte[5]).getContent(false));
+        assertFalse(cache.get(1, "tree").isPresent());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void shouldReplaceResponse() throws Exception {
+        cache.put(1, "tree", 0, "3", new byte[2]);
+        cache.put(1, "tree", 0, "4", new byte[3]);
+        assertEquals("4", cache.get(1, "tree").get().getTag());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void shouldEvictTheResponsesOfABuild() throws Exception {
+        cache.put(1, "tree", 0, null, new byte[2]);
+        cache.put(1, "phases/p/tasks/t/results", 0, null, new byte[2]);
+        cache.put(2, "tree", 0, null, new byte[2]);
+
+        cache.evict(1);
+
+        assertFalse(cache.get(1, "tree").isPresent());
+        assertFalse(cache.get(1, "phases/p/tasks/t/results").isPresent());
+        assertTrue(cache.get(2, "tree").isPresent());
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.generation(1));
+        assertEquals(0, cache.generation(2));
+    }
+
+    @Test
+    public void shouldNotCacheResponsesReadBeforeTheBuildWasEvicted() throws Exception {
+        final long generation = cache.generation(1);
+        cache.evict(1);
+        assertArrayEquals(new byte[]{1, 2}, cache.put(1, "tree", generation, "3", new byte[]{1, 2}).getContent(false));
+        assertFalse(cache.get(1, "tree").isPresent());
+        assertEquals(0, cache.size());
+        verify(counterService).increment("spock.cache.stale");
+
+        cache.put(1, "tree", cache.generation(1), "4", new byte[]{1, 2});
+        assertEquals("4", cache.get(1, "tree").get().getTag());
+    }
+
+    @Test
+    public void shouldKeepGzippedCopy() throws Exception {
+        setField(cache, "maxSize", 1000L);
+        setField(cache, "maxEntrySize", 1000L);
+        setField(cache, "gzip", true);
+        final ResponseCache.Entry entry = cache.put(1, "tree", 0, null, "{\"number\":1}".getBytes());
+        assertTrue(entry.isGzippedFor("gzip, deflate"));
+        assertFalse(entry.isGzippedFor("deflate"));
+        assertEquals("{\"number\":1}", IOUtils.toString(GZIP.decode(new ByteArrayInputStream(entry.getContent(true)))));
+        assertArrayEquals("{\"number\":1}".getBytes(), entry.getContent(false));
+    }
+
+    @Test
+    public void shouldClear() throws Exception {
+        cache.put(1, "tree", 0, null, new byte[2]);
+        cache.clear();
+        assertFalse(cache.get(1, "tree").isPresent());
+        assertEquals(0, cache.size());
+    }
+}
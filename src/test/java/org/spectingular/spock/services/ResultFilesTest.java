@@ -0,0 +1,109 @@
+package org.spectingular.spock.services;
+
+import com.mongodb.BasicDBObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.spectingular.spock.domain.Result;
+import org.springframework.data.mongodb.MongoDbFactory;
+
+import java.io.ByteArrayOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.spectingular.spock.domain.Codec.DEFLATE;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/** Test class for {@link org.spectingular.spock.services.ResultFiles}. */
+@RunWith(MockitoJUnitRunner.class)
+public class ResultFilesTest {
+    @InjectMocks
+    private ResultFiles files; // class under test
+
+    @Mock
+    private MongoDbFactory mongoDbFactory;
+    private Result result;
+    private ByteArrayOutputStream out;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        setField(files, "codecName", "none");
+        files.resolve();
+        result = new Result();
+        result.setContent("{\"some\":\"value\"}".getBytes(UTF_8));
+        out = new ByteArrayOutputStream();
+    }
+
+    @Test
+    public void shouldNotCompressWhenNoCodecIsConfigured() throws Exception {
+        files.compress(result);
+
+        assertNull(result.getCodec());
+        files.write(result, out);
+        assertEquals("{\"some\":\"value\"}", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void shouldCompressWithTheConfiguredCodec() throws Exception {
+        setField(files, "codecName", "deflate");
+        files.resolve();
+
+        files.compress(result);
+
+        assertEquals(DEFLATE, result.getCodec());
+        assertEquals(result.getContent().length, result.getLength());
+        files.write(result, out);
+        assertEquals("{\"some\":\"value\"}", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void shouldFailToResolveAnUnknownCodec() throws Exception {
+        setField(files, "codecName", "zstd");
+        try {
+            files.resolve();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Codec with name [zstd] cannot be found", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldWriteDataStoredBeforeTheJsonBytesWereKept() throws Exception {
+        final Result legacy = new Result();
+        legacy.setData(new BasicDBObject("some", "value"));
+
+        files.write(legacy, out);
+
+        assertEquals("{ \"some\" : \"value\"}", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void shouldWriteCompressedContentAsIs() throws Exception {
+        setField(files, "codecName", "deflate");
+        files.resolve();
+        files.compress(result);
+
+        files.write(result, out, false);
+
+        assertArrayEquals(result.getContent(), out.toByteArray());
+    }
+
+    @Test
+    public void shouldReadDecompressedDataUpToTheLimit() throws Exception {
+        setField(files, "codecName", "deflate");
+        files.resolve();
+        files.compress(result);
+
+        assertArrayEquals("{\"some\":\"value\"}".getBytes(UTF_8), files.read(result, 16).get());
+        assertFalse(files.read(result, 15).isPresent());
+    }
+}
@@ -0,0 +1,78 @@
+package org.spectingular.spock.services;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.spectingular.spock.domain.Result;
+
+import java.io.ByteArrayOutputStream;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+/** Test class for {@link org.spectingular.spock.services.ResultProjector}. */
+@RunWith(MockitoJUnitRunner.class)
+public class ResultProjectorTest {
+    @InjectMocks
+    private ResultProjector projector; // class under test
+
+    @Mock
+    private ResultFiles resultFiles;
+    @Mock
+    private Result result;
+    private ByteArrayOutputStream out;
+
+    @Before
+    public void setUp() throws Exception {
+        initMocks(this);
+        out = new ByteArrayOutputStream();
+        when(resultFiles.read(result)).thenReturn(IOUtils.toInputStream("{\"summary\":{\"passed\":10,\"failed\":2}," +
+                "\"suites\":[{\"name\":\"a\",\"tests\":[1,2]},{\"name\":\"b\",\"tests\":[3]}],\"a/b\":{\"c~d\":true}}"));
+    }
+
+    @Test
+    public void shouldWriteTheSelectedParts() throws Exception {
+        projector.write(result, ResultProjector.pointers(asList("/suites/1", "/summary/failed", "/a~1b/c~0d")), out);
+
+        assertEquals("{\"/summary/failed\":2,\"/suites/1\":{\"name\":\"b\",\"tests\":[3]},\"/a~1b/c~0d\":true}", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void shouldWriteNestedPartsOfArrays() throws Exception {
+        projector.write(result, ResultProjector.pointers(singletonList("/suites/0/tests")), out);
+
+        assertEquals("{\"/suites/0/tests\":[1,2]}", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void shouldWriteTheWholeDataForTheRootPointer() throws Exception {
+        projector.write(result, ResultProjector.pointers(singletonList("")), out);
+
+        assertEquals("{\"\":{\"summary\":{\"passed\":10,\"failed\":2},\"suites\":[{\"name\":\"a\",\"tests\":[1,2]},{\"name\":\"b\",\"tests\":[3]}],\"a/b\":{\"c~d\":true}}}", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void shouldSkipPointersThatDoNotExist() throws Exception {
+        projector.write(result, ResultProjector.pointers(asList("/summary/skipped", "/suites/5", "/summary/passed/x")), out);
+
+        assertEquals("{}", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void shouldNotAcceptFieldsThatAreNotJsonPointers() throws Exception {
+        try {
+            ResultProjector.pointers(singletonList("summary"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Field [summary] is not a JSON pointer", e.getMessage());
+        }
+    }
+}
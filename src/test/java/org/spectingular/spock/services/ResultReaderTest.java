@@ -0,0 +1,138 @@
+package org.spectingular.spock.services;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.mongodb.gridfs.GridFSInputFile;
+import org.bson.types.ObjectId;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.spectingular.spock.domain.Result;
+import org.springframework.boot.actuate.metrics.GaugeService;
+
+import java.io.ByteArrayOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/** Test class for {@link org.spectingular.spock.services.ResultReader}. */
+@RunWith(MockitoJUnitRunner.class)
+public class ResultReaderTest {
+    @InjectMocks
+    private ResultReader reader; // class under test
+
+    @Mock
+    private GaugeService gaugeService;
+    @Mock
+    private ResultFiles resultFiles;
+    @Mock
+    private GridFSInputFile file;
+    private ByteArrayOutputStream out;
+    private ObjectId fileId;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        setField(reader, "maxPayloadSize", 4096L);
+        setField(reader, "gridFsThreshold", 512);
+        out = new ByteArrayOutputStream();
+        fileId = new ObjectId();
+        when(resultFiles.create()).thenReturn(file);
+        when(file.getOutputStream()).thenReturn(out);
+        when(file.getId()).thenReturn(fileId);
+        when(resultFiles.encode(eq(out), any(Result.class))).thenReturn(out);
+    }
+
+    @Test
+    public void shouldKeepTheOriginalJsonBytes() throws Exception {
+        final String json = "{\"suite\":\"a\",\n\"tests\":[{\"name\":\"b\",\"time\":1.5,\"passed\":true,\"total\":12345678901,\"skipped\":null},[1,2]]}";
+
+        final Result result = reader.read(IOUtils.toInputStream(json));
+
+        assertEquals(json, new String(result.getContent(), UTF_8));
+        assertEquals(json.length(), result.getLength());
+        assertNull(result.getData());
+        assertNull(result.getFileId());
+        verify(gaugeService).submit(eq("spock.results.payload-size"), anyDouble());
+        verify(gaugeService).submit(eq("spock.results.bytes-per-second"), anyDouble());
+    }
+
+    @Test
+    public void shouldReadArray() throws Exception {
+        final String json = "[{\"name\":\"a\"},{\"name\":\"b\"}]";
+
+        assertEquals(json, new String(reader.read(IOUtils.toInputStream(json)).getContent(), UTF_8));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void shouldNotReadDataWithUnbalancedNesting() throws Exception {
+        reader.read(IOUtils.toInputStream("{\"tests\":[{\"name\":\"a\"]}"));
+    }
+
+    @Test(expected = PayloadTooLargeException.class)
+    public void shouldNotReadDataThatExceedsTheMaximumPayloadSize() throws Exception {
+        final StringBuilder json = new StringBuilder("{\"value\":\"");
+        for (int i = 0; i < 8192; i++) {
+            json.append('x');
+        }
+        reader.read(IOUtils.toInputStream(json.append("\"}").toString()));
+    }
+
+    @Test
+    public void shouldStreamLargeDataIntoGridFs() throws Exception {
+        final String json = large();
+
+        final Result result = reader.read(IOUtils.toInputStream(json));
+
+        assertNull(result.getData());
+        assertEquals(fileId, result.getFileId());
+        assertEquals(json, out.toString("UTF-8"));
+        verify(resultFiles, never()).remove(any(ObjectId.class));
+    }
+
+    @Test
+    public void shouldRemoveTheGridFsFileWhenLargeDataIsInvalid() throws Exception {
+        try {
+            reader.read(IOUtils.toInputStream(large() + "}"));
+            fail();
+        } catch (JsonParseException e) {
+            verify(resultFiles).remove(eq(fileId));
+        }
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void shouldNotReadInvalidData() throws Exception {
+        reader.read(IOUtils.toInputStream("{\"value\":"));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void shouldNotReadScalarData() throws Exception {
+        reader.read(IOUtils.toInputStream("\"value\""));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void shouldNotReadTrailingContent() throws Exception {
+        reader.read(IOUtils.toInputStream("{\"value\":1} {}"));
+    }
+
+    private static String large() {
+        final StringBuilder json = new StringBuilder("{\"tests\":[");
+        for (int i = 0; i < 100; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"name\":\"test").append(i).append("\"}");
+        }
+        return json.append("]}").toString();
+    }
+}
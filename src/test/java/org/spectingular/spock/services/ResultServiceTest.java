@@ -1,20 +1,30 @@
 package org.spectingular.spock.services;
 
+import org.bson.types.ObjectId;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.spectingular.spock.domain.*;
+import org.spectingular.spock.dto.BuildChange;
+import org.spectingular.spock.dto.EventType;
+import org.springframework.data.mongodb.core.MongoOperations;
 
 import java.util.Optional;
 
 import static java.util.Optional.empty;
 import static java.util.Optional.of;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -28,6 +38,14 @@ public class ResultServiceTest {
     @Mock
     private BuildRepository buildRepository;
     @Mock
+    private ChangeBus changeBus;
+    @Mock
+    private ResponseCache responseCache;
+    @Spy
+    private HierarchyCache hierarchyCache = new HierarchyCache();
+    @Mock
+    private MongoOperations operations;
+    @Mock
     private ModuleRepository moduleRepository;
     @Mock
     private PhaseRepository phaseRepository;
@@ -36,6 +54,8 @@ public class ResultServiceTest {
     @Mock
     private ResultRepository resultRepository;
     @Mock
+    private ResultFiles resultFiles;
+    @Mock
     private Object result;
     private Optional<Build> buildOptional;
     private Optional<Module> moduleOptional;
@@ -56,23 +76,24 @@ public class ResultServiceTest {
     @Before
     public void setUp() {
         initMocks(this);
+        when(task.getId()).thenReturn(new ObjectId());
+        when(buildRepository.findByNumber(anyInt())).thenReturn(empty());
+        when(moduleRepository.findByBuildNumberAndName(anyInt(), anyString())).thenReturn(empty());
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(anyInt(), anyString())).thenReturn(empty());
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(anyInt(), anyString(), anyString())).thenReturn(empty());
+        when(taskRepository.findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(anyInt(), anyString(), anyString())).thenReturn(empty());
+        when(taskRepository.findByBuildNumberAndModuleNameAndPhaseNameAndName(anyInt(), anyString(), anyString(), anyString())).thenReturn(empty());
+        when(resultRepository.findByBuildNumberAndModuleNameIsNullAndPhaseNameAndTaskName(anyInt(), anyString(), anyString())).thenReturn(empty());
+        when(resultRepository.findByBuildNumberAndModuleNameAndPhaseNameAndTaskName(anyInt(), anyString(), anyString(), anyString())).thenReturn(empty());
     }
 
     @Test
     public void shouldFindResultForBuildTask() throws Exception {
-        buildOptional = of(build);
-        phaseOptional = of(phase);
-        taskOptional = of(task);
         resultOptional = of(r);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(eq(build), eq("phase"))).thenReturn(phaseOptional);
-        when(taskRepository.findByPhaseAndName(eq(phase), eq("task"))).thenReturn(taskOptional);
-        when(resultRepository.findByTask(eq(task))).thenReturn(resultOptional);
+        when(resultRepository.findByBuildNumberAndModuleNameIsNullAndPhaseNameAndTaskName(eq(1), eq("phase"), eq("task"))).thenReturn(resultOptional);
         assertEquals(resultOptional, service.findByBuildNumberAndPhaseNameAndTaskName(1, "phase", "task"));
-        verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuildAndName(eq(build), eq("phase"));
-        verify(taskRepository).findByPhaseAndName(eq(phase), eq("task"));
-        verify(resultRepository).findByTask(eq(task));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(resultRepository).findByBuildNumberAndModuleNameIsNullAndPhaseNameAndTaskName(eq(1), eq("phase"), eq("task"));
     }
 
     @Test
@@ -93,7 +114,7 @@ public class ResultServiceTest {
         buildOptional = of(build);
         phaseOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(eq(build), eq("phase"))).thenReturn(phaseOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"))).thenReturn(phaseOptional);
         try {
             service.findByBuildNumberAndPhaseNameAndTaskName(1, "phase", "task");
             fail();
@@ -101,46 +122,33 @@ public class ResultServiceTest {
             assertEquals("Phase with name [phase] for build with number [1] cannot be found", e.getMessage());
         }
         verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuildAndName(eq(build), eq("phase"));
+        verify(phaseRepository).findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"));
     }
 
     @Test
     public void shouldNotFindResultForBuildTaskWhenTheTaskDoesNotExist() throws Exception {
-        buildOptional = of(build);
         phaseOptional = of(phase);
         taskOptional = empty();
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(eq(build), eq("phase"))).thenReturn(phaseOptional);
-        when(taskRepository.findByPhaseAndName(eq(phase), eq("task"))).thenReturn(taskOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"))).thenReturn(phaseOptional);
+        when(taskRepository.findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(eq(1), eq("phase"), eq("task"))).thenReturn(taskOptional);
         try {
             service.findByBuildNumberAndPhaseNameAndTaskName(1, "phase", "task");
             fail();
         } catch (IllegalArgumentException e) {
             assertEquals("Task with name [task] for phase with name [phase] and build with number [1] cannot be found", e.getMessage());
         }
-        verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuildAndName(eq(build), eq("phase"));
-        verify(taskRepository).findByPhaseAndName(eq(phase), eq("task"));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(phaseRepository).findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"));
+        verify(taskRepository).findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(eq(1), eq("phase"), eq("task"));
     }
 
     @Test
     public void shouldFindResultForModuleTask() throws Exception {
-        buildOptional = of(build);
-        moduleOptional = of(module);
-        phaseOptional = of(phase);
-        taskOptional = of(task);
         resultOptional = of(r);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(eq(module), eq("phase"))).thenReturn(phaseOptional);
-        when(taskRepository.findByPhaseAndName(eq(phase), eq("task"))).thenReturn(taskOptional);
-        when(resultRepository.findByTask(eq(task))).thenReturn(resultOptional);
+        when(resultRepository.findByBuildNumberAndModuleNameAndPhaseNameAndTaskName(eq(1), eq("module"), eq("phase"), eq("task"))).thenReturn(resultOptional);
         assertEquals(resultOptional, service.findByBuildNumberAndModuleNameAndPhaseNameAndTaskName(1, "module", "phase", "task"));
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
-        verify(taskRepository).findByPhaseAndName(eq(phase), eq("task"));
-        verify(resultRepository).findByTask(eq(task));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(resultRepository).findByBuildNumberAndModuleNameAndPhaseNameAndTaskName(eq(1), eq("module"), eq("phase"), eq("task"));
     }
 
     @Test
@@ -161,7 +169,7 @@ public class ResultServiceTest {
         buildOptional = of(build);
         moduleOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
         try {
             service.findByBuildNumberAndModuleNameAndPhaseNameAndTaskName(1, "module", "phase", "task");
             fail();
@@ -169,66 +177,74 @@ public class ResultServiceTest {
             assertEquals("Module with name [module] for build with number [1] cannot be found", e.getMessage());
         }
         verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
     }
 
     @Test
     public void shouldNotFindResultForModuleTaskWhenThePhaseDoesNotExist() throws Exception {
-        buildOptional = of(build);
         moduleOptional = of(module);
         phaseOptional = empty();
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(eq(module), eq("phase"))).thenReturn(phaseOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(phaseOptional);
         try {
             service.findByBuildNumberAndModuleNameAndPhaseNameAndTaskName(1, "module", "phase", "task");
             fail();
         } catch (IllegalArgumentException e) {
             assertEquals("Phase with name [phase] for module with name [module] and build with number [1] cannot be found", e.getMessage());
         }
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
+        verify(phaseRepository).findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"));
     }
 
     @Test
     public void shouldNotFindResultForModuleTaskWhenTheTaskDoesNotExist() throws Exception {
-        buildOptional = of(build);
-        moduleOptional = of(module);
         phaseOptional = of(phase);
-        taskOptional = of(task);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(eq(module), eq("phase"))).thenReturn(phaseOptional);
-        when(taskRepository.findByPhaseAndName(eq(phase), eq("task"))).thenReturn(taskOptional);
+        taskOptional = empty();
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(phaseOptional);
+        when(taskRepository.findByBuildNumberAndModuleNameAndPhaseNameAndName(eq(1), eq("module"), eq("phase"), eq("task"))).thenReturn(taskOptional);
         try {
             service.findByBuildNumberAndModuleNameAndPhaseNameAndTaskName(1, "module", "phase", "task");
             fail();
         } catch (IllegalArgumentException e) {
             assertEquals("Task with name [task] for phase with name [phase] and module with name [module]and build with number [1] cannot be found", e.getMessage());
         }
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
-        verify(taskRepository).findByPhaseAndName(eq(phase), eq("task"));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(phaseRepository).findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"));
+        verify(taskRepository).findByBuildNumberAndModuleNameAndPhaseNameAndName(eq(1), eq("module"), eq("phase"), eq("task"));
     }
 
     @Test
     public void shouldStoreResultForBuildTask() throws Exception {
-        buildOptional = of(build);
-        phaseOptional = of(phase);
         taskOptional = of(task);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(eq(build), eq("phase"))).thenReturn(phaseOptional);
-        when(taskRepository.findByPhaseAndName(eq(phase), eq("task"))).thenReturn(taskOptional);
+        when(taskRepository.findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(eq(1), eq("phase"), eq("task"))).thenReturn(taskOptional);
         service.store(1, "phase", "task", r);
-        verify(r).setTask(eq(task));
-        verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuildAndName(eq(build), eq("phase"));
-        verify(taskRepository).findByPhaseAndName(eq(phase), eq("task"));
+        final ArgumentCaptor<Task> reference = ArgumentCaptor.forClass(Task.class);
+        verify(r).setTask(reference.capture());
+        assertEquals(task.getId(), reference.getValue().getId());
+        verify(r).setBuildNumber(eq(1));
+        verify(r).setPhaseName(eq("phase"));
+        verify(r).setTaskName(eq("task"));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(taskRepository).findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(eq(1), eq("phase"), eq("task"));
+        verify(resultFiles).compress(r);
         verify(resultRepository).save(r);
     }
 
+    @Test
+    public void shouldRemoveTheResultFileWhenStoringFails() throws Exception {
+        final ObjectId fileId = new ObjectId();
+        when(r.getFileId()).thenReturn(fileId);
+        try {
+            service.store(1, "phase", "task", r);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Build with number [1] cannot be found", e.getMessage());
+        }
+        verify(resultFiles).remove(eq(fileId));
+        verify(resultRepository, never()).save(r);
+    }
+
     @Test
     public void shouldNotStoreResultForBuildTaskWhenTheBuildDoesNotExist() throws Exception {
         buildOptional = empty();
@@ -247,7 +263,7 @@ public class ResultServiceTest {
         buildOptional = of(build);
         phaseOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(eq(build), eq("phase"))).thenReturn(phaseOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"))).thenReturn(phaseOptional);
         try {
             service.store(1, "phase", "task", r);
             fail();
@@ -255,45 +271,52 @@ public class ResultServiceTest {
             assertEquals("Phase with name [phase] for build with number [1] cannot be found", e.getMessage());
         }
         verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuildAndName(eq(build), eq("phase"));
+        verify(phaseRepository).findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"));
     }
 
     @Test
     public void shouldNotStoreResultForBuildTaskWhenTheTaskDoesNotExist() throws Exception {
-        buildOptional = of(build);
         phaseOptional = of(phase);
         taskOptional = empty();
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(eq(build), eq("phase"))).thenReturn(phaseOptional);
-        when(taskRepository.findByPhaseAndName(eq(phase), eq("task"))).thenReturn(taskOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"))).thenReturn(phaseOptional);
+        when(taskRepository.findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(eq(1), eq("phase"), eq("task"))).thenReturn(taskOptional);
         try {
             service.store(1, "phase", "task", r);
             fail();
         } catch (IllegalArgumentException e) {
             assertEquals("Task with name [task] for phase with name [phase] and build with number [1] cannot be found", e.getMessage());
         }
-        verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuildAndName(eq(build), eq("phase"));
-        verify(taskRepository).findByPhaseAndName(eq(phase), eq("task"));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(phaseRepository).findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"));
+        verify(taskRepository).findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(eq(1), eq("phase"), eq("task"));
     }
 
     @Test
     public void shouldStoreResultForModuleTask() throws Exception {
-        buildOptional = of(build);
-        moduleOptional = of(module);
-        phaseOptional = of(phase);
         taskOptional = of(task);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(eq(module), eq("phase"))).thenReturn(phaseOptional);
-        when(taskRepository.findByPhaseAndName(eq(phase), eq("task"))).thenReturn(taskOptional);
+        when(taskRepository.findByBuildNumberAndModuleNameAndPhaseNameAndName(eq(1), eq("module"), eq("phase"), eq("task"))).thenReturn(taskOptional);
         service.store(1, "module", "phase", "task", r);
-        verify(r).setTask(eq(task));
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
-        verify(taskRepository).findByPhaseAndName(eq(phase), eq("task"));
+        final ArgumentCaptor<Task> reference = ArgumentCaptor.forClass(Task.class);
+        verify(r).setTask(reference.capture());
+        assertEquals(task.getId(), reference.getValue().getId());
+        verify(r).setBuildNumber(eq(1));
+        verify(r).setModuleName(eq("module"));
+        verify(r).setPhaseName(eq("phase"));
+        verify(r).setTaskName(eq("task"));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(taskRepository).findByBuildNumberAndModuleNameAndPhaseNameAndName(eq(1), eq("module"), eq("phase"), eq("task"));
         verify(resultRepository).save(r);
+        final ArgumentCaptor<Change> change = ArgumentCaptor.forClass(Change.class);
+        verify(operations).insert(change.capture());
+        assertEquals(ChangeType.RESULT, change.getValue().getType());
+        assertEquals("module", change.getValue().getModule());
+        assertEquals("task", change.getValue().getTask());
+        assertNull(change.getValue().getSuccess());
+        final ArgumentCaptor<BuildChange> published = ArgumentCaptor.forClass(BuildChange.class);
+        verify(responseCache).evict(1);
+        verify(changeBus).publish(published.capture());
+        assertEquals(1, published.getValue().getBuildNumber());
+        assertEquals(EventType.RESULT, published.getValue().getType());
     }
 
     @Test
@@ -314,7 +337,7 @@ public class ResultServiceTest {
         buildOptional = of(build);
         moduleOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
         try {
             service.store(1, "module", "phase", "task", r);
             fail();
@@ -322,47 +345,40 @@ public class ResultServiceTest {
             assertEquals("Module with name [module] for build with number [1] cannot be found", e.getMessage());
         }
         verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
     }
 
     @Test
     public void shouldNotStoreResultForModuleTaskWhenThePhaseDoesNotExist() throws Exception {
-        buildOptional = of(build);
         moduleOptional = of(module);
         phaseOptional = empty();
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(eq(module), eq("phase"))).thenReturn(phaseOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(phaseOptional);
         try {
             service.store(1, "module", "phase", "task", r);
             fail();
         } catch (IllegalArgumentException e) {
             assertEquals("Phase with name [phase] for module with name [module] and build with number [1] cannot be found", e.getMessage());
         }
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
+        verify(phaseRepository).findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"));
     }
 
     @Test
     public void shouldNotStoreResultForModuleTaskWhenTheTaskDoesNotExist() throws Exception {
-        buildOptional = of(build);
-        moduleOptional = of(module);
         phaseOptional = of(phase);
         taskOptional = empty();
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(eq(module), eq("phase"))).thenReturn(phaseOptional);
-        when(taskRepository.findByPhaseAndName(eq(phase), eq("task"))).thenReturn(taskOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(phaseOptional);
+        when(taskRepository.findByBuildNumberAndModuleNameAndPhaseNameAndName(eq(1), eq("module"), eq("phase"), eq("task"))).thenReturn(taskOptional);
         try {
             service.store(1, "module", "phase", "task", r);
             fail();
         } catch (IllegalArgumentException e) {
             assertEquals("Task with name [task] for phase with name [phase] and module with name [module]and build with number [1] cannot be found", e.getMessage());
         }
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
-        verify(taskRepository).findByPhaseAndName(eq(phase), eq("task"));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(phaseRepository).findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"));
+        verify(taskRepository).findByBuildNumberAndModuleNameAndPhaseNameAndName(eq(1), eq("module"), eq("phase"), eq("task"));
     }
 }
\ No newline at end of file
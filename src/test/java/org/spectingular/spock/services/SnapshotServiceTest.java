@@ -0,0 +1,148 @@
+package org.spectingular.spock.services;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.BasicDBObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.spectingular.spock.domain.BuildSnapshot;
+import org.spectingular.spock.domain.State;
+import org.spectingular.spock.dto.BuildDto;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Optional;
+
+import static java.util.Arrays.asList;
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+/** Test class for {@link org.spectingular.spock.services.SnapshotService}. */
+@RunWith(MockitoJUnitRunner.class)
+public class SnapshotServiceTest {
+    @InjectMocks
+    private SnapshotService service; // class under test
+
+    @Mock
+    private MongoOperations operations;
+    @Mock
+    private BuildTreeService buildTreeService;
+    @Mock
+    private DBCollection collection;
+    @Mock
+    private DBCursor cursor;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+    }
+
+    @Test
+    public void shouldFindTheSnapshotOfTheVersion() throws Exception {
+        final BuildSnapshot snapshot = new BuildSnapshot();
+        snapshot.setVersion(3);
+        snapshot.setContent(new byte[]{'{', '}'});
+        when(operations.findById(1, BuildSnapshot.class)).thenReturn(snapshot);
+        final Optional<BuildSnapshot> found = service.find(1, 3);
+        assertTrue(found.isPresent());
+        assertArrayEquals(new byte[]{'{', '}'}, found.get().getContent());
+        verify(buildTreeService, never()).assemble(anyInt());
+        verify(operations, never()).upsert(any(Query.class), any(Update.class), eq(BuildSnapshot.class));
+    }
+
+    @Test
+    public void shouldAssembleAndStoreTheSnapshotWhenTheVersionHasChanged() throws Exception {
+        final BuildSnapshot snapshot = new BuildSnapshot();
+        snapshot.setVersion(2);
+        when(operations.findById(1, BuildSnapshot.class)).thenReturn(snapshot);
+        when(buildTreeService.assemble(1)).thenReturn(of(new BuildDto(1, finished())));
+        final Optional<BuildSnapshot> found = service.find(1, 3);
+        assertTrue(new String(found.get().getContent()).contains("\"number\":1"));
+        assertEquals(3, found.get().getVersion());
+        assertTrue(found.get().isFinished());
+        final ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        final ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(operations).upsert(query.capture(), update.capture(), eq(BuildSnapshot.class));
+        assertEquals(1, query.getValue().getQueryObject().get("_id"));
+        assertEquals(new BasicDBObject("$lt", 3L), query.getValue().getQueryObject().get("version"));
+        final DBObject set = (DBObject) update.getValue().getUpdateObject().get("$set");
+        assertEquals(3L, set.get("version"));
+        assertEquals(true, set.get("finished"));
+        assertArrayEquals(found.get().getContent(), (byte[]) set.get("content"));
+    }
+
+    @Test
+    public void shouldAssembleAndStoreTheSnapshotWhenThereIsNone() throws Exception {
+        when(buildTreeService.assemble(1)).thenReturn(of(new BuildDto(1, finished())));
+        assertTrue(service.find(1, 3).isPresent());
+        verify(operations).upsert(isA(Query.class), isA(Update.class), eq(BuildSnapshot.class));
+    }
+
+    @Test
+    public void shouldAssembleTheTreeOfAnActiveBuildWithoutStoringIt() throws Exception {
+        final BuildSnapshot snapshot = new BuildSnapshot();
+        snapshot.setVersion(2);
+        when(operations.findById(1, BuildSnapshot.class)).thenReturn(snapshot);
+        when(buildTreeService.assemble(1)).thenReturn(of(new BuildDto(1, new State())));
+        final Optional<BuildSnapshot> found = service.find(1, 3);
+        assertTrue(new String(found.get().getContent()).contains("\"number\":1"));
+        assertEquals(3, found.get().getVersion());
+        assertFalse(found.get().isFinished());
+        verify(operations, never()).upsert(any(Query.class), any(Update.class), eq(BuildSnapshot.class));
+    }
+
+    @Test
+    public void shouldNotFindTheSnapshotWhenTheBuildDoesNotExist() throws Exception {
+        when(buildTreeService.assemble(1)).thenReturn(empty());
+        assertFalse(service.find(1, 3).isPresent());
+        verify(operations, never()).upsert(any(Query.class), any(Update.class), eq(BuildSnapshot.class));
+    }
+
+    @Test
+    public void shouldKeepANewerSnapshot() throws Exception {
+        when(buildTreeService.assemble(1)).thenReturn(of(new BuildDto(1, finished())));
+        doThrow(new DuplicateKeyException("newer")).when(operations).upsert(isA(Query.class), isA(Update.class), eq(BuildSnapshot.class));
+        assertTrue(service.refresh(1, 3).isPresent());
+    }
+
+    @Test
+    public void shouldRebuildAllSnapshots() throws Exception {
+        final Iterator<DBObject> builds = asList((DBObject) new BasicDBObject("number", 1).append("version", 4L), new BasicDBObject("number", 2)).iterator();
+        when(operations.getCollection("builds")).thenReturn(collection);
+        when(collection.find(isA(DBObject.class), isA(DBObject.class))).thenReturn(cursor);
+        when(cursor.iterator()).thenReturn(builds);
+        when(buildTreeService.assemble(anyInt())).thenReturn(of(new BuildDto(1, finished())));
+        assertEquals(2, service.rebuild());
+        verify(operations, times(2)).remove(isA(Query.class), eq(BuildSnapshot.class));
+        verify(buildTreeService).assemble(1);
+        verify(buildTreeService).assemble(2);
+        verify(operations, times(2)).upsert(isA(Query.class), isA(Update.class), eq(BuildSnapshot.class));
+        verify(cursor).close();
+    }
+
+    private static State finished() {
+        final State state = new State();
+        state.setStopDate(new Date());
+        return state;
+    }
+}
@@ -1,21 +1,41 @@
 package org.spectingular.spock.services;
 
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
+import org.bson.types.ObjectId;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.spectingular.spock.domain.*;
+import org.spectingular.spock.dto.Event;
+import org.spectingular.spock.dto.RunState;
+import org.spectingular.spock.dto.TaskDto;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
+import static java.util.Arrays.asList;
 import static java.util.Optional.empty;
 import static java.util.Optional.of;
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.*;
@@ -36,6 +56,22 @@ public class TaskServiceTest {
     @Mock
     private TaskRepository taskRepository;
     @Mock
+    private MongoOperations operations;
+    @Mock
+    private ChangeBus changeBus;
+    @Mock
+    private ResponseCache responseCache;
+    @Spy
+    private HierarchyCache hierarchyCache = new HierarchyCache();
+    @Mock
+    private WriteResult writeResult;
+    @Mock
+    private DBCollection collection;
+    @Mock
+    private DBCursor cursor;
+    @Mock
+    private WriteBehindQueue writeBehindQueue;
+    @Mock
     private Object result;
     private Optional<Build> buildOptional;
     private Optional<Module> moduleOptional;
@@ -55,19 +91,99 @@ public class TaskServiceTest {
     @Before
     public void setUp() {
         initMocks(this);
+        when(phase.getId()).thenReturn(new ObjectId());
+        when(operations.updateFirst(any(Query.class), any(Update.class), any(Class.class))).thenReturn(writeResult);
+        when(buildRepository.findByNumber(anyInt())).thenReturn(empty());
+        when(moduleRepository.findByBuildNumberAndName(anyInt(), anyString())).thenReturn(empty());
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(anyInt(), anyString())).thenReturn(empty());
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(anyInt(), anyString(), anyString())).thenReturn(empty());
+        when(taskRepository.findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(anyInt(), anyString(), anyString())).thenReturn(empty());
+        when(taskRepository.findByBuildNumberAndModuleNameAndPhaseNameAndName(anyInt(), anyString(), anyString(), anyString())).thenReturn(empty());
     }
 
     @Test
-    public void shouldFindTasksForBuild() throws Exception {
+    public void shouldNotStreamTasksWhenThePhaseDoesNotExist() throws Exception {
         buildOptional = of(build);
-        phaseOptional = of(phase);
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(eq(build), eq("phase"))).thenReturn(phaseOptional);
-        when(taskRepository.findByPhase(eq(phase))).thenReturn(new ArrayList<Task>());
+        when(operations.getCollectionName(Task.class)).thenReturn("tasks");
+        when(operations.getCollection(eq("tasks"))).thenReturn(collection);
+        when(collection.find(any(DBObject.class), any(DBObject.class))).thenReturn(cursor);
+        try {
+            service.streamByBuildNumberAndPhaseName(1, "phase");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Phase with name [phase] for build with number [1] cannot be found", e.getMessage());
+        }
+        final ArgumentCaptor<DBObject> fields = ArgumentCaptor.forClass(DBObject.class);
+        verify(collection).find(any(DBObject.class), fields.capture());
+        assertEquals(new BasicDBObject("name", 1).append("state", 1), fields.getValue());
+        verify(cursor).close();
+    }
+
+    @Test
+    public void shouldProjectTasksIntoDtos() throws Exception {
+        when(operations.getCollectionName(Task.class)).thenReturn("tasks");
+        when(operations.getCollection(eq("tasks"))).thenReturn(collection);
+        when(collection.find(any(DBObject.class), any(DBObject.class))).thenReturn(cursor);
+        when(cursor.hasNext()).thenReturn(true, false);
+        when(cursor.next()).thenReturn(new BasicDBObject("name", "task").append("state", new BasicDBObject("stopDate", new Date()).append("success", true)));
+        final List<TaskDto> tasks = service.projectByBuildNumberAndModuleNameAndPhaseName(1, "module", "phase");
+        assertEquals(1, tasks.size());
+        assertEquals("task", tasks.get(0).getName());
+        assertEquals(RunState.FINISHED_SUCCESSFULLY, tasks.get(0).getState());
+        verify(collection).find(eq(new BasicDBObject("buildNumber", 1).append("moduleName", "module").append("phaseName", "phase")),
+                eq(new BasicDBObject("name", 1).append("state", 1)));
+        verify(cursor).close();
+        verify(phaseRepository, never()).findByBuildNumberAndModuleNameAndName(anyInt(), anyString(), anyString());
+    }
+
+    @Test
+    public void shouldProjectTheTasksOfSeveralPhasesWithASingleQuery() throws Exception {
+        when(operations.getCollectionName(Task.class)).thenReturn("tasks");
+        when(operations.getCollection(eq("tasks"))).thenReturn(collection);
+        when(collection.find(any(DBObject.class), any(DBObject.class))).thenReturn(cursor);
+        when(cursor.hasNext()).thenReturn(true, true, true, false);
+        when(cursor.next()).thenReturn(task("compile", "build"), task("test", "build"), task("deploy", "release"));
+        final Map<List<Object>, List<TaskDto>> tasks = service.projectByBuildNumberAndModuleNameAndPhaseNames(1, null, asList("build", "release"));
+        assertEquals(2, tasks.get(asList(null, "build")).size());
+        assertEquals("deploy", tasks.get(asList(null, "release")).get(0).getName());
+        verify(collection).find(eq(new BasicDBObject("buildNumber", 1).append("moduleName", null).append("phaseName", new BasicDBObject("$in", asList("build", "release")))),
+                eq(new BasicDBObject("name", 1).append("state", 1).append("moduleName", 1).append("phaseName", 1)));
+        verify(cursor).close();
+        verify(phaseRepository, never()).findByBuildNumberAndModuleNameIsNullAndName(anyInt(), anyString());
+    }
+
+    @Test
+    public void shouldNotQueryTheTasksOfNoPhases() throws Exception {
+        assertTrue(service.projectByBuildNumberAndModuleNames(1, new ArrayList<>()).isEmpty());
+        verify(operations, never()).getCollection(anyString());
+    }
+
+    @Test
+    public void shouldNotProjectTasksWhenThePhaseDoesNotExist() throws Exception {
+        buildOptional = of(build);
+        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
+        when(operations.getCollectionName(Task.class)).thenReturn("tasks");
+        when(operations.getCollection(eq("tasks"))).thenReturn(collection);
+        when(collection.find(any(DBObject.class), any(DBObject.class))).thenReturn(cursor);
+        try {
+            service.projectByBuildNumberAndPhaseName(1, "phase");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Phase with name [phase] for build with number [1] cannot be found", e.getMessage());
+        }
+        verify(cursor).close();
+    }
+
+    @Test
+    public void shouldFindTasksForBuild() throws Exception {
+        phaseOptional = of(phase);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"))).thenReturn(phaseOptional);
+        when(taskRepository.findByBuildNumberAndModuleNameIsNullAndPhaseName(eq(1), eq("phase"))).thenReturn(new ArrayList<Task>());
         assertEquals(0, service.findByBuildNumberAndPhaseName(1, "phase").size());
-        verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuildAndName(eq(build), eq("phase"));
-        verify(taskRepository).findByPhase(eq(phase));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(phaseRepository).findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"));
+        verify(taskRepository).findByBuildNumberAndModuleNameIsNullAndPhaseName(eq(1), eq("phase"));
     }
 
     @Test
@@ -88,7 +204,7 @@ public class TaskServiceTest {
         buildOptional = of(build);
         phaseOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(eq(build), eq("phase"))).thenReturn(phaseOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"))).thenReturn(phaseOptional);
         try {
             service.findByBuildNumberAndPhaseName(1, "phase");
             fail();
@@ -100,16 +216,11 @@ public class TaskServiceTest {
 
     @Test
     public void shouldFindTaskForBuild() throws Exception {
-        buildOptional = of(build);
-        phaseOptional = of(phase);
         taskOptional = of(task);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(eq(build), eq("phase"))).thenReturn(phaseOptional);
-        when(taskRepository.findByPhaseAndName(eq(phase), eq("task"))).thenReturn(taskOptional);
+        when(taskRepository.findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(eq(1), eq("phase"), eq("task"))).thenReturn(taskOptional);
         assertEquals(taskOptional, service.findByBuildNumberAndPhaseNameAndName(1, "phase", "task"));
-        verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuildAndName(eq(build), eq("phase"));
-        verify(taskRepository).findByPhaseAndName(eq(phase), eq("task"));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(taskRepository).findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(eq(1), eq("phase"), eq("task"));
     }
 
     @Test
@@ -130,7 +241,7 @@ public class TaskServiceTest {
         buildOptional = of(build);
         phaseOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(eq(build), eq("phase"))).thenReturn(phaseOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"))).thenReturn(phaseOptional);
         try {
             service.findByBuildNumberAndPhaseNameAndName(1, "phase", "task");
             fail();
@@ -138,20 +249,22 @@ public class TaskServiceTest {
             assertEquals("Phase with name [phase] for build with number [1] cannot be found", e.getMessage());
         }
         verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuildAndName(eq(build), eq("phase"));
+        verify(phaseRepository).findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"));
     }
 
     @Test
     public void shouldRegisterTaskForBuild() throws Exception {
-        buildOptional = of(build);
         phaseOptional = of(phase);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(eq(build), eq("phase"))).thenReturn(phaseOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"))).thenReturn(phaseOptional);
         service.register(1, "phase", task);
         verify(task).setState(isA(State.class));
-        verify(task).setPhase(eq(phase));
-        verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuildAndName(eq(build), eq("phase"));
+        final ArgumentCaptor<Phase> reference = ArgumentCaptor.forClass(Phase.class);
+        verify(task).setPhase(reference.capture());
+        assertEquals(phase.getId(), reference.getValue().getId());
+        verify(task).setBuildNumber(eq(1));
+        verify(task).setPhaseName(eq("phase"));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(phaseRepository).findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"));
         verify(taskRepository).save(task);
     }
 
@@ -173,7 +286,7 @@ public class TaskServiceTest {
         buildOptional = of(build);
         phaseOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(eq(build), eq("phase"))).thenReturn(phaseOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"))).thenReturn(phaseOptional);
         try {
             service.register(1, "phase", task);
             fail();
@@ -185,11 +298,9 @@ public class TaskServiceTest {
 
     @Test
     public void shouldNotRegisterTaskForBuildWhenTheTaskAlreadyExists() throws Exception {
-        buildOptional = of(build);
         phaseOptional = of(phase);
         taskOptional = of(task);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(eq(build), eq("phase"))).thenReturn(phaseOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"))).thenReturn(phaseOptional);
         doThrow(DuplicateKeyException.class).when(taskRepository).save(eq(task));
         try {
             service.register(1, "phase", task);
@@ -197,32 +308,33 @@ public class TaskServiceTest {
         } catch (DuplicateKeyException e) {
         }
         verify(task).setState(isA(State.class));
-        verify(task).setPhase(eq(phase));
-        verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuildAndName(eq(build), eq("phase"));
+        final ArgumentCaptor<Phase> reference = ArgumentCaptor.forClass(Phase.class);
+        verify(task).setPhase(reference.capture());
+        assertEquals(phase.getId(), reference.getValue().getId());
+        verify(task).setBuildNumber(eq(1));
+        verify(task).setPhaseName(eq("phase"));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(phaseRepository).findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"));
         verify(taskRepository).save(task);
     }
 
     @Test
     public void shouldUpdateTaskForBuild() throws Exception {
-        buildOptional = of(build);
-        phaseOptional = of(phase);
-        taskOptional = of(task);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(eq(build), eq("phase"))).thenReturn(phaseOptional);
-        when(taskRepository.findByPhaseAndName(eq(phase), eq("task"))).thenReturn(taskOptional);
-        when(task.getState()).thenReturn(state);
-        assertNull(state.getStopDate());
-        assertFalse(state.isSuccess());
+        when(writeResult.getN()).thenReturn(1);
         final State updatedState = new State();
         updatedState.setSuccess(true);
-        service.update(1, "phase", "task", updatedState);
-        verify(state).setStopDate(isA(Date.class));
-        verify(state).setSuccess(isA(Boolean.class));
-        verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByBuildAndName(eq(build), eq("phase"));
-        verify(taskRepository).findByPhaseAndName(eq(phase), eq("task"));
-        verify(taskRepository).save(task);
+        assertTrue(service.update(1, "phase", "task", updatedState));
+        verify(operations).updateFirst(isA(Query.class), isA(Update.class), eq(Task.class));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(taskRepository, never()).save(any(Task.class));
+    }
+
+    @Test
+    public void shouldNotUpdateTaskForBuildWhenItHasAlreadyBeenFinished() throws Exception {
+        when(taskRepository.findByBuildNumberAndModuleNameIsNullAndPhaseNameAndName(eq(1), eq("phase"), eq("task"))).thenReturn(of(task));
+        assertFalse(service.update(1, "phase", "task", new State()));
+        verify(operations).updateFirst(isA(Query.class), isA(Update.class), eq(Task.class));
+        verify(taskRepository, never()).save(any(Task.class));
     }
 
     @Test
@@ -243,7 +355,7 @@ public class TaskServiceTest {
         buildOptional = of(build);
         phaseOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(phaseRepository.findByBuildAndName(eq(build), eq("phase"))).thenReturn(phaseOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameIsNullAndName(eq(1), eq("phase"))).thenReturn(phaseOptional);
         try {
             service.update(1, "phase", "task", new State());
             fail();
@@ -255,17 +367,13 @@ public class TaskServiceTest {
 
     @Test
     public void shouldFindTasksForModule() throws Exception {
-        buildOptional = of(build);
-        moduleOptional = of(module);
         phaseOptional = of(phase);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(eq(module), eq("phase"))).thenReturn(phaseOptional);
-        when(taskRepository.findByPhase(eq(phase))).thenReturn(new ArrayList<Task>());
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(phaseOptional);
+        when(taskRepository.findByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"))).thenReturn(new ArrayList<Task>());
         assertEquals(0, service.findByBuildNumberAndModuleNameAndPhaseName(1, "module", "phase").size());
-        verify(buildRepository).findByNumber(eq(1));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
-        verify(taskRepository).findByPhase(eq(phase));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(phaseRepository).findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"));
+        verify(taskRepository).findByBuildNumberAndModuleNameAndPhaseName(eq(1), eq("module"), eq("phase"));
     }
 
     @Test
@@ -286,7 +394,7 @@ public class TaskServiceTest {
         buildOptional = of(build);
         moduleOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
         try {
             service.findByBuildNumberAndModuleNameAndPhaseName(1, "module", "phase");
             fail();
@@ -294,43 +402,33 @@ public class TaskServiceTest {
             assertEquals("Module with name [module] for build with number [1] cannot be found", e.getMessage());
         }
         verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
     }
 
     @Test
     public void shouldNotFindTasksForModuleWhenTheBuildDoesNotExist() throws Exception {
-        buildOptional = of(build);
         moduleOptional = of(module);
         phaseOptional = empty();
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(eq(module), eq("phase"))).thenReturn(phaseOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(phaseOptional);
         try {
             service.findByBuildNumberAndModuleNameAndPhaseName(1, "module", "phase");
             fail();
         } catch (IllegalArgumentException e) {
             assertEquals("Phase with name [phase] for module with name [module] and build with number [1] cannot be found", e.getMessage());
         }
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
+        verify(phaseRepository).findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"));
     }
 
     @Test
     public void shouldFindTaskForModule() throws Exception {
-        buildOptional = of(build);
-        moduleOptional = of(module);
-        phaseOptional = of(phase);
         taskOptional = of(task);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(eq(module), eq("phase"))).thenReturn(phaseOptional);
-        when(taskRepository.findByPhaseAndName(eq(phase), eq("task"))).thenReturn(taskOptional);
+        when(taskRepository.findByBuildNumberAndModuleNameAndPhaseNameAndName(eq(1), eq("module"), eq("phase"), eq("task"))).thenReturn(taskOptional);
         assertEquals(taskOptional, service.findByBuildNumberAndModuleNameAndPhaseNameAndName(1, "module", "phase", "task"));
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build),eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
-        verify(taskRepository).findByPhaseAndName(eq(phase), eq("task"));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(taskRepository).findByBuildNumberAndModuleNameAndPhaseNameAndName(eq(1), eq("module"), eq("phase"), eq("task"));
     }
 
     @Test
@@ -351,7 +449,7 @@ public class TaskServiceTest {
         buildOptional = of(build);
         moduleOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
         try {
             service.findByBuildNumberAndModuleNameAndPhaseNameAndName(1, "module", "phase", "task");
             fail();
@@ -359,42 +457,40 @@ public class TaskServiceTest {
             assertEquals("Module with name [module] for build with number [1] cannot be found", e.getMessage());
         }
         verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
     }
 
     @Test
     public void shouldNotFindTaskForModuleWhenThePhaseDoesNotExist() throws Exception {
-        buildOptional = of(build);
         moduleOptional = of(module);
         phaseOptional = empty();
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(eq(module), eq("phase"))).thenReturn(phaseOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(phaseOptional);
         try {
             service.findByBuildNumberAndModuleNameAndPhaseNameAndName(1, "module", "phase", "task");
             fail();
         } catch (IllegalArgumentException e) {
             assertEquals("Phase with name [phase] for module with name [module] and build with number [1] cannot be found", e.getMessage());
         }
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
+        verify(phaseRepository).findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"));
     }
 
     @Test
     public void shouldRegisterTaskForModule() throws Exception {
-        buildOptional = of(build);
-        moduleOptional = of(module);
         phaseOptional = of(phase);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(eq(module), eq("phase"))).thenReturn(phaseOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(phaseOptional);
         service.register(1, "module", "phase", task);
         verify(task).setState(isA(State.class));
-        verify(task).setPhase(eq(phase));
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build),eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
+        final ArgumentCaptor<Phase> reference = ArgumentCaptor.forClass(Phase.class);
+        verify(task).setPhase(reference.capture());
+        assertEquals(phase.getId(), reference.getValue().getId());
+        verify(task).setBuildNumber(eq(1));
+        verify(task).setModuleName(eq("module"));
+        verify(task).setPhaseName(eq("phase"));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(phaseRepository).findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"));
         verify(taskRepository).save(task);
     }
 
@@ -416,7 +512,7 @@ public class TaskServiceTest {
         buildOptional = of(build);
         moduleOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
         try {
             service.register(1, "module", "phase", task);
             fail();
@@ -424,37 +520,31 @@ public class TaskServiceTest {
             assertEquals("Module with name [module] for build with number [1] cannot be found", e.getMessage());
         }
         verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
     }
 
     @Test
     public void shouldNotRegisterTaskForModuleWhenThePhaseDoesNotExist() throws Exception {
-        buildOptional = of(build);
         moduleOptional = of(module);
         phaseOptional = empty();
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(eq(module), eq("phase"))).thenReturn(phaseOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(phaseOptional);
         try {
             service.register(1, "module", "phase", task);
             fail();
         } catch (IllegalArgumentException e) {
             assertEquals("Phase with name [phase] for module with name [module] and build with number [1] cannot be found", e.getMessage());
         }
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build),eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
+        verify(phaseRepository).findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"));
     }
 
     @Test
     public void shouldNotRegisterTaskForModuleWhenTheTaskAlreadyExists() throws Exception {
-        buildOptional = of(build);
-        moduleOptional = of(module);
         phaseOptional = of(phase);
         taskOptional = of(task);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(eq(module), eq("phase"))).thenReturn(phaseOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(phaseOptional);
         doThrow(DuplicateKeyException.class).when(taskRepository).save(eq(task));
         try {
             service.register(1, "module", "phase", task);
@@ -462,36 +552,34 @@ public class TaskServiceTest {
         } catch (DuplicateKeyException e) {
         }
         verify(task).setState(isA(State.class));
-        verify(task).setPhase(eq(phase));
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
+        final ArgumentCaptor<Phase> reference = ArgumentCaptor.forClass(Phase.class);
+        verify(task).setPhase(reference.capture());
+        assertEquals(phase.getId(), reference.getValue().getId());
+        verify(task).setBuildNumber(eq(1));
+        verify(task).setModuleName(eq("module"));
+        verify(task).setPhaseName(eq("phase"));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(phaseRepository).findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"));
         verify(taskRepository).save(task);
     }
 
     @Test
     public void shouldUpdateTaskForModule() throws Exception {
-        buildOptional = of(build);
-        moduleOptional = of(module);
-        phaseOptional = of(phase);
-        taskOptional = of(task);
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(eq(module), eq("phase"))).thenReturn(phaseOptional);
-        when(taskRepository.findByPhaseAndName(eq(phase), eq("task"))).thenReturn(taskOptional);
-        when(task.getState()).thenReturn(state);
-        assertNull(state.getStopDate());
-        assertFalse(state.isSuccess());
+        when(writeResult.getN()).thenReturn(1);
         final State updatedState = new State();
         updatedState.setSuccess(true);
-        service.update(1, "module", "phase", "task", updatedState);
-        verify(state).setStopDate(isA(Date.class));
-        verify(state).setSuccess(isA(Boolean.class));
-        verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
-        verify(phaseRepository).findByModuleAndName(eq(module), eq("phase"));
-        verify(taskRepository).findByPhaseAndName(eq(phase), eq("task"));
-        verify(taskRepository).save(task);
+        assertTrue(service.update(1, "module", "phase", "task", updatedState));
+        verify(operations).updateFirst(isA(Query.class), isA(Update.class), eq(Task.class));
+        verify(buildRepository, never()).findByNumber(anyInt());
+        verify(taskRepository, never()).save(any(Task.class));
+    }
+
+    @Test
+    public void shouldNotUpdateTaskForModuleWhenItHasAlreadyBeenFinished() throws Exception {
+        when(taskRepository.findByBuildNumberAndModuleNameAndPhaseNameAndName(eq(1), eq("module"), eq("phase"), eq("task"))).thenReturn(of(task));
+        assertFalse(service.update(1, "module", "phase", "task", new State()));
+        verify(operations).updateFirst(isA(Query.class), isA(Update.class), eq(Task.class));
+        verify(taskRepository, never()).save(any(Task.class));
     }
 
     @Test
@@ -512,7 +600,7 @@ public class TaskServiceTest {
         buildOptional = of(build);
         moduleOptional = empty();
         when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
         try {
             service.update(1, "module", "phase", "task", new State());
             fail();
@@ -520,23 +608,42 @@ public class TaskServiceTest {
             assertEquals("Module with name [module] for build with number [1] cannot be found", e.getMessage());
         }
         verify(buildRepository).findByNumber(eq(1));
-        verify(moduleRepository).findByBuildAndName(eq(build), eq("module"));
+        verify(moduleRepository).findByBuildNumberAndName(eq(1), eq("module"));
     }
 
     @Test
     public void shouldNotUpdateTaskForModuleWhenThePhaseDoesNotExists() throws Exception {
-        buildOptional = of(build);
         moduleOptional = of(module);
         phaseOptional = empty();
-        when(buildRepository.findByNumber(eq(1))).thenReturn(buildOptional);
-        when(moduleRepository.findByBuildAndName(eq(build), eq("module"))).thenReturn(moduleOptional);
-        when(phaseRepository.findByModuleAndName(eq(module), eq("phase"))).thenReturn(phaseOptional);
+        when(moduleRepository.findByBuildNumberAndName(eq(1), eq("module"))).thenReturn(moduleOptional);
+        when(phaseRepository.findByBuildNumberAndModuleNameAndName(eq(1), eq("module"), eq("phase"))).thenReturn(phaseOptional);
         try {
             service.update(1, "module", "phase", "task", new State());
             fail();
         } catch (IllegalArgumentException e) {
             assertEquals("Phase with name [phase] for module with name [module] and build with number [1] cannot be found", e.getMessage());
         }
-        verify(buildRepository).findByNumber(eq(1));
+        verify(buildRepository, never()).findByNumber(anyInt());
+    }
+
+    @Test
+    public void shouldQueueTaskRegistrationWhenWriteBehindIsEnabled() throws Exception {
+        when(writeBehindQueue.offer(eq(1), isA(Event.class))).thenReturn(true);
+        service.register(1, "module", "phase", task);
+        verify(writeBehindQueue).offer(eq(1), isA(Event.class));
+        verify(phaseRepository, never()).findByBuildNumberAndModuleNameAndName(anyInt(), anyString(), anyString());
+        verify(taskRepository, never()).save(any(Task.class));
+    }
+
+    @Test
+    public void shouldQueueTaskUpdateWhenWriteBehindIsEnabled() throws Exception {
+        when(writeBehindQueue.offer(eq(1), isA(Event.class))).thenReturn(true);
+        assertTrue(service.update(1, "module", "phase", "task", state));
+        verify(writeBehindQueue).offer(eq(1), isA(Event.class));
+        verify(operations, never()).updateFirst(any(Query.class), any(Update.class), any(Class.class));
+    }
+
+    private static DBObject task(final String name, final String phaseName) {
+        return new BasicDBObject("name", name).append("state", new BasicDBObject("startDate", new Date())).append("phaseName", phaseName);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,146 @@
+package org.spectingular.spock.services;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.spectingular.spock.dto.Event;
+import org.spectingular.spock.dto.EventOutcome;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+
+import java.util.List;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.spectingular.spock.dto.EventType.FINISH;
+import static org.spectingular.spock.dto.EventType.REGISTER;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/** Test class for {@link org.spectingular.spock.services.WriteBehindQueue}. */
+@RunWith(MockitoJUnitRunner.class)
+public class WriteBehindQueueTest {
+    @InjectMocks
+    private WriteBehindQueue queue; // class under test
+
+    @Mock
+    private EventService eventService;
+    @Mock
+    private GaugeService gaugeService;
+    @Mock
+    private CounterService counterService;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        setField(queue, "enabled", true);
+        setField(queue, "capacity", 10);
+    }
+
+    @Test
+    public void shouldNotQueueWhenWriteBehindIsDisabled() throws Exception {
+        setField(queue, "enabled", false);
+        assertFalse(queue.offer(1, new Event(REGISTER, "x", null, null, false)));
+        queue.flush();
+        verify(eventService, never()).apply(anyInt(), anyList());
+    }
+
+    @Test
+    public void shouldFlushTheChangesOfASingleBuild() throws Exception {
+        final Event registerModule = new Event(REGISTER, "x", null, null, false);
+        assertTrue(queue.offer(1, registerModule));
+        assertTrue(queue.offer(2, new Event(REGISTER, "y", null, null, false)));
+        when(eventService.apply(eq(1), anyList())).thenReturn(singletonList(new EventOutcome(0, true, null)));
+
+        queue.flush(1);
+        queue.flush(3);
+
+        verify(eventService).apply(1, singletonList(registerModule));
+        verify(eventService, never()).apply(eq(2), anyList());
+        verify(eventService, never()).apply(eq(3), anyList());
+    }
+
+    @Test
+    public void shouldCoalesceConsecutiveChangesToTheSameEntity() throws Exception {
+        final Event registerModule = new Event(REGISTER, "x", null, null, false);
+        final Event registerPhase = new Event(REGISTER, "x", "p", null, false);
+        final Event finishPhase = new Event(FINISH, "x", "p", null, true);
+        final Event finishModule = new Event(FINISH, "x", null, null, true);
+        assertTrue(queue.offer(1, registerModule));
+        assertTrue(queue.offer(1, registerPhase));
+        assertTrue(queue.offer(1, finishPhase));
+        assertTrue(queue.offer(1, new Event(FINISH, "x", "p", null, false)));
+        assertTrue(queue.offer(1, finishModule));
+
+        queue.flush();
+
+        final ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(eventService).apply(eq(1), captor.capture());
+        final List<Event> events = captor.getValue();
+        assertEquals(4, events.size());
+        assertEquals(registerModule, events.get(0));
+        assertEquals(finishModule, events.get(1));
+        assertEquals(registerPhase, events.get(2));
+        assertEquals(finishPhase, events.get(3));
+        verify(gaugeService).submit(eq("spock.write-behind.queue-depth"), eq(2d));
+        verify(gaugeService).submit(eq("spock.write-behind.flush-size"), eq(4d));
+    }
+
+    @Test
+    public void shouldFlushEachBuildSeparately() throws Exception {
+        queue.offer(1, new Event(REGISTER, "x", null, null, false));
+        queue.offer(2, new Event(REGISTER, "y", null, null, false));
+
+        queue.flush();
+
+        verify(eventService, times(1)).apply(eq(1), anyList());
+        verify(eventService, times(1)).apply(eq(2), anyList());
+
+        // nothing is left to flush
+        queue.flush();
+        verify(eventService, times(2)).apply(anyInt(), anyList());
+    }
+
+    @Test
+    public void shouldFlushInTheCallerWhenTheBuildIsAtCapacity() throws Exception {
+        setField(queue, "capacity", 1);
+        final Event registerModule = new Event(REGISTER, "x", null, null, false);
+        queue.offer(1, registerModule);
+        queue.offer(1, new Event(REGISTER, "y", null, null, false));
+
+        verify(eventService).apply(eq(1), eq(singletonList(registerModule)));
+    }
+
+    @Test
+    public void shouldCountChangesThatHaveNotBeenApplied() throws Exception {
+        when(eventService.apply(eq(1), anyList())).thenReturn(singletonList(new EventOutcome(0, false, "error")));
+        queue.offer(1, new Event(FINISH, "x", null, null, true));
+
+        queue.flush();
+
+        verify(counterService).increment(eq("spock.write-behind.rejected"));
+    }
+
+    @Test
+    public void shouldCountFlushesThatFailed() throws Exception {
+        when(eventService.apply(eq(1), anyList())).thenThrow(new IllegalArgumentException("Build with number [1] cannot be found"));
+        queue.offer(1, new Event(REGISTER, "x", null, null, false));
+
+        queue.flush();
+
+        verify(counterService).increment(eq("spock.write-behind.failed"));
+    }
+}